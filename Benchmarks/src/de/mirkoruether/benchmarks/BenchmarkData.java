@@ -0,0 +1,107 @@
+package de.mirkoruether.benchmarks;
+
+import de.mirkoruether.ann.ActivationFunction;
+import de.mirkoruether.ann.NetworkLayer;
+import de.mirkoruether.ann.NeuralNetwork;
+import de.mirkoruether.ann.initialization.NormalizedGaussianInitialization;
+import de.mirkoruether.ann.training.TrainingData;
+import de.mirkoruether.digitrecognizer.MNISTLoader;
+import de.mirkoruether.linalg.DMatrix;
+import de.mirkoruether.linalg.DRowVector;
+import java.io.File;
+import java.util.Random;
+
+/**
+ * Reproducible inputs of the benchmarks. Everything is created from fixed
+ * seeds, so runs of different commits measure the same work.
+ */
+final class BenchmarkData
+{
+    static final long SEED = 42;
+
+    /**
+     * Folder of the MNIST files, set by the system property mnist.dir.
+     */
+    static final File MNIST_DIR = new File(System.getProperty("mnist.dir", "../DigitRecognizer/data"));
+
+    static DMatrix randomMatrix(int rows, int columns, Random r)
+    {
+        DMatrix m = new DMatrix(rows, columns);
+        for(int i = 0; i < rows; i++)
+        {
+            for(int j = 0; j < columns; j++)
+            {
+                m.put(i, j, r.nextGaussian());
+            }
+        }
+        return m;
+    }
+
+    /**
+     * @param layout Layer sizes separated by "-", e.g. "784-100-10"
+     * @return Logistic network with seeded weights
+     */
+    static NeuralNetwork network(String layout)
+    {
+        int[] sizes = parseSizes(layout, "-");
+        NetworkLayer[] layers = new NetworkLayer[sizes.length - 1];
+        for(int i = 0; i < layers.length; i++)
+        {
+            layers[i] = new NetworkLayer(sizes[i + 1], sizes[i], new NormalizedGaussianInitialization(SEED + i),
+                                         ActivationFunction.logistic());
+        }
+        return new NeuralNetwork(layers);
+    }
+
+    /**
+     * Random samples in the shape of MNIST: inputs in [0, 1) and one-hot
+     * solutions.
+     */
+    static TrainingData[] syntheticSamples(int count, int inputSize, int outputSize, Random r)
+    {
+        TrainingData[] data = new TrainingData[count];
+        for(int x = 0; x < count; x++)
+        {
+            DRowVector input = new DRowVector(inputSize);
+            for(int i = 0; i < inputSize; i++)
+            {
+                input.put(i, r.nextDouble());
+            }
+            DRowVector solution = new DRowVector(outputSize);
+            solution.put(r.nextInt(outputSize), 1.0);
+            data[x] = new TrainingData(input, solution);
+        }
+        return data;
+    }
+
+    static File mnistFile(String name)
+    {
+        File f = new File(MNIST_DIR, name);
+        if(!f.isFile())
+        {
+            throw new IllegalStateException("MNIST file not found: " + f.getAbsolutePath()
+                                            + ", set -Dmnist.dir to the folder of the MNIST files");
+        }
+        return f;
+    }
+
+    static TrainingData[] mnistTestData()
+    {
+        return MNISTLoader.loadTrainingData(mnistFile(MNISTLoader.TEST_IMAGES), mnistFile(MNISTLoader.TEST_LABELS));
+    }
+
+    static int[] parseSizes(String s, String separator)
+    {
+        String[] parts = s.split(separator);
+        int[] sizes = new int[parts.length];
+        for(int i = 0; i < parts.length; i++)
+        {
+            sizes[i] = Integer.parseInt(parts[i].trim());
+        }
+        return sizes;
+    }
+
+    private BenchmarkData()
+    {
+    }
+}
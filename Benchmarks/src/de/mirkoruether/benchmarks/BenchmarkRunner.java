@@ -0,0 +1,52 @@
+package de.mirkoruether.benchmarks;
+
+import java.io.IOException;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of the benchmark jar. Takes the JMH command line, but writes
+ * the results as JSON to jmh-result.json unless -rf or -rff are given, so
+ * the results of two commits can be diffed.
+ */
+public class BenchmarkRunner
+{
+    public static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+    public static void main(String[] args) throws CommandLineOptionException, IOException, RunnerException
+    {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        if(cmd.shouldHelp())
+        {
+            cmd.showHelp();
+            return;
+        }
+
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(cmd);
+        if(!cmd.getResultFormat().hasValue())
+        {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        if(!cmd.getResult().hasValue())
+        {
+            options.result(DEFAULT_RESULT_FILE);
+        }
+
+        Runner runner = new Runner(options.build());
+        if(cmd.shouldList())
+        {
+            runner.list();
+            return;
+        }
+        runner.run();
+    }
+
+    private BenchmarkRunner()
+    {
+    }
+}
@@ -0,0 +1,55 @@
+package de.mirkoruether.benchmarks;
+
+import de.mirkoruether.ann.NeuralNetwork;
+import de.mirkoruether.ann.training.StochasticGradientDescentTrainer;
+import de.mirkoruether.ann.training.TestDataSet;
+import de.mirkoruether.ann.training.TestResult;
+import de.mirkoruether.ann.training.costs.CrossEntropyCosts;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Testing of the 784-100-10 digit recognizer on the whole MNIST test set.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvaluationBenchmark
+{
+    @Param(
+    {
+        "100"
+    })
+    public int testBatchSize;
+
+    private StochasticGradientDescentTrainer trainer;
+    private TestDataSet testData;
+
+    @Setup
+    public void setup()
+    {
+        NeuralNetwork net = BenchmarkData.network("784-100-10");
+        trainer = new StochasticGradientDescentTrainer(net, 10, new CrossEntropyCosts());
+        trainer.setTestBatchSize(testBatchSize);
+        testData = new TestDataSet(BenchmarkData.mnistTestData(), (out, solution) -> solution.get(out.indexOfMaxium()) == 1.0);
+    }
+
+    @Benchmark
+    public TestResult test()
+    {
+        return trainer.test(testData);
+    }
+}
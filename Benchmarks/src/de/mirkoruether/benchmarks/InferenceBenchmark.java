@@ -0,0 +1,97 @@
+package de.mirkoruether.benchmarks;
+
+import de.mirkoruether.ann.BatchActivations;
+import de.mirkoruether.ann.DetailedBatchResult;
+import de.mirkoruether.ann.DetailedResult;
+import de.mirkoruether.ann.NeuralNetwork;
+import de.mirkoruether.linalg.DMatrix;
+import de.mirkoruether.linalg.DRowVector;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Forward passes of a single layer and of whole networks, for one input and
+ * for a batch of inputs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InferenceBenchmark
+{
+    @Param(
+    {
+        "784-100-10", "784-300-100-10"
+    })
+    public String layout;
+
+    @Param(
+    {
+        "64"
+    })
+    public int batchLength;
+
+    private NeuralNetwork net;
+    private DRowVector input;
+    private DRowVector layerOutput;
+    private DetailedResult detailedResult;
+    private DMatrix batch;
+    private BatchActivations batchActivations;
+    private DetailedBatchResult batchResult;
+
+    @Setup
+    public void setup()
+    {
+        net = BenchmarkData.network(layout);
+        Random r = new Random(BenchmarkData.SEED);
+        batch = BenchmarkData.randomMatrix(batchLength, net.getInputSize(), r);
+        input = batch.getRowAsVector(0);
+        layerOutput = new DRowVector(net.getLayer(0).getOutputSize());
+        detailedResult = new DetailedResult(net);
+        batchActivations = new BatchActivations(net, batchLength);
+        batchResult = new DetailedBatchResult(net, batchLength);
+    }
+
+    @Benchmark
+    public DRowVector layerFeedForward()
+    {
+        return net.getLayer(0).feedForwardInto(input, layerOutput);
+    }
+
+    @Benchmark
+    public DRowVector feedForward()
+    {
+        return net.feedForward(input);
+    }
+
+    @Benchmark
+    public DetailedResult feedForwardDetailed()
+    {
+        return net.feedForwardDetailedInto(input, detailedResult);
+    }
+
+    @Benchmark
+    public DMatrix feedForwardBatch()
+    {
+        return net.feedForwardBatch(batch, batchActivations);
+    }
+
+    @Benchmark
+    public DetailedBatchResult feedForwardDetailedBatch()
+    {
+        return net.feedForwardDetailedBatchInto(batch, batchResult);
+    }
+}
@@ -0,0 +1,116 @@
+package de.mirkoruether.benchmarks;
+
+import de.mirkoruether.ann.ActivationFunction;
+import de.mirkoruether.linalg.DMatrix;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Matrix operations at the shapes of the layers of the 784-100-10 digit
+ * recognizer, for a single input and for batches. All results are written to
+ * preallocated destinations, so only the operation itself is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LinalgBenchmark
+{
+    /**
+     * Shape of the product (rows x inner x columns), the inputs of a layer
+     * times its weights.
+     */
+    @Param(
+    {
+        "1x784x100", "10x784x100", "64x784x100", "1x100x10", "64x100x10"
+    })
+    public String shape;
+
+    private DMatrix inputs;
+    private DMatrix weights;
+    private DMatrix product;
+    private DMatrix other;
+    private DMatrix result;
+    private DMatrix transposed;
+    private DMatrix weightGradient;
+    private DMatrix inputError;
+    private ActivationFunction logistic;
+
+    @Setup
+    public void setup()
+    {
+        int[] s = BenchmarkData.parseSizes(shape, "x");
+        Random r = new Random(BenchmarkData.SEED);
+        inputs = BenchmarkData.randomMatrix(s[0], s[1], r);
+        weights = BenchmarkData.randomMatrix(s[1], s[2], r);
+        other = BenchmarkData.randomMatrix(s[0], s[2], r);
+        product = new DMatrix(s[0], s[2]);
+        result = new DMatrix(s[0], s[2]);
+        transposed = new DMatrix(s[2], s[1]);
+        weightGradient = new DMatrix(s[1], s[2]);
+        inputError = new DMatrix(s[0], s[1]);
+        logistic = ActivationFunction.logistic();
+        inputs.matrixMulInto(weights, product);
+    }
+
+    @Benchmark
+    public DMatrix matrixMul()
+    {
+        return inputs.matrixMulInto(weights, product);
+    }
+
+    @Benchmark
+    public DMatrix mulTransposedLeft()
+    {
+        return inputs.mulTransposedLeftInto(other, weightGradient);
+    }
+
+    @Benchmark
+    public DMatrix mulTransposedRight()
+    {
+        return other.mulTransposedRightInto(weights, inputError);
+    }
+
+    @Benchmark
+    public DMatrix transpose()
+    {
+        return weights.transposeInto(transposed);
+    }
+
+    @Benchmark
+    public DMatrix add()
+    {
+        return product.addInto(other, result);
+    }
+
+    @Benchmark
+    public DMatrix elementWiseMul()
+    {
+        return product.elementWiseMulInto(other, result);
+    }
+
+    @Benchmark
+    public DMatrix applyActivation()
+    {
+        return logistic.applyInto(product, result);
+    }
+
+    @Benchmark
+    public DMatrix activationDerivative()
+    {
+        return logistic.derivativeInto(product, result);
+    }
+}
@@ -0,0 +1,61 @@
+package de.mirkoruether.benchmarks;
+
+import de.mirkoruether.ann.training.TrainingData;
+import de.mirkoruether.digitrecognizer.MNISTImageData;
+import de.mirkoruether.digitrecognizer.MNISTLoader;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Import of the MNIST test files, decoded from the compressed files and
+ * from the binary cache. The cache is written next to the files during the
+ * setup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MNISTBenchmark
+{
+    private File images;
+    private File labels;
+
+    @Setup
+    public void setup()
+    {
+        images = BenchmarkData.mnistFile(MNISTLoader.TEST_IMAGES);
+        labels = BenchmarkData.mnistFile(MNISTLoader.TEST_LABELS);
+        MNISTLoader.loadImageData(images, labels, true);
+    }
+
+    @Benchmark
+    public MNISTImageData decode()
+    {
+        return MNISTLoader.loadImageData(images, labels, false);
+    }
+
+    @Benchmark
+    public MNISTImageData loadFromCache()
+    {
+        return MNISTLoader.loadImageData(images, labels, true);
+    }
+
+    @Benchmark
+    public TrainingData[] loadTrainingData()
+    {
+        return MNISTLoader.loadTrainingData(images, labels);
+    }
+}
@@ -0,0 +1,68 @@
+package de.mirkoruether.benchmarks;
+
+import de.mirkoruether.ann.NeuralNetwork;
+import de.mirkoruether.ann.training.StochasticGradientDescentTrainer;
+import de.mirkoruether.ann.training.TrainingData;
+import de.mirkoruether.ann.training.costs.CrossEntropyCosts;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Training of one batch of the 784-100-10 digit recognizer by per-sample
+ * and by matrix form backpropagation. The trainer is given exactly one batch
+ * as training data, so an epoch is a single call of trainBatch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TrainingBenchmark
+{
+    @Param(
+    {
+        "1", "10", "64", "256"
+    })
+    public int batchSize;
+
+    @Param(
+    {
+        "false", "true"
+    })
+    public boolean matrixForm;
+
+    private NeuralNetwork net;
+    private StochasticGradientDescentTrainer trainer;
+    private TrainingData[] batch;
+
+    @Setup
+    public void setup()
+    {
+        net = BenchmarkData.network("784-100-10");
+        trainer = new StochasticGradientDescentTrainer(net, batchSize, new CrossEntropyCosts());
+        trainer.setMatrixFormBackpropagation(matrixForm);
+        trainer.setRandom(new SplittableRandom(BenchmarkData.SEED));
+        batch = BenchmarkData.syntheticSamples(batchSize, net.getInputSize(), net.getOutputSize(),
+                                               new Random(BenchmarkData.SEED));
+    }
+
+    @Benchmark
+    public NeuralNetwork trainBatch()
+    {
+        trainer.train(batch, 0.1, 1);
+        return net;
+    }
+}
@@ -0,0 +1,276 @@
+package de.mirkoruether.digitrecognizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Uncompressed binary cache of decoded MNIST image and label files.
+ *
+ * The cache file consists of a header page followed by the labels and the
+ * pixels, each section starting at a page boundary. It is memory mapped read
+ * only, so the data set is served from the page cache and shared between all
+ * processes using the same file.
+ *
+ * Header layout (big endian):
+ * <pre>
+ *  0 int  magic "MNSC"
+ *  4 int  version
+ *  8 int  image count
+ * 12 int  rows per image
+ * 16 int  columns per image
+ * 20 int  reserved, 0
+ * 24 long length of the source image file
+ * 32 long last modification of the source image file
+ * 40 long length of the source label file
+ * 48 long last modification of the source label file
+ * 56 long offset of the labels
+ * 64 long offset of the pixels
+ * 72 long CRC32 of labels and pixels
+ * 80 long CRC32 of bytes 0 to 80
+ * </pre>
+ * A cache whose header, source file stamps or checksums do not match is
+ * ignored and rewritten.
+ *
+ * @author Mirko Ruether
+ */
+final class MNISTCache
+{
+    private static final int MAGIC = 0x4D4E5343;
+    private static final int VERSION = 1;
+    private static final int PAGE_SIZE = 4096;
+    private static final int HEADER_CHECKSUM_POS = 80;
+    private static final int HEADER_SIZE = 88;
+
+    /**
+     * Cache file used for the given image file.
+     * @param imageFile MNIST image file
+     * @return Cache file in the same folder
+     */
+    static File getCacheFile(File imageFile)
+    {
+        String name = imageFile.getName();
+        if(name.endsWith(".gz"))
+        {
+            name = name.substring(0, name.length() - 3);
+        }
+        return new File(imageFile.getAbsoluteFile().getParentFile(), name + ".cache");
+    }
+
+    /**
+     * Maps a cache file if it exists and is valid. Header, source file stamps
+     * and checksums are validated with plain reads, the file is only mapped
+     * if they match. An invalid cache therefore leaves no mapping behind
+     * which would keep it from being replaced on some platforms, e.g.
+     * Windows.
+     * @param cacheFile Cache file
+     * @param imageFile Source image file
+     * @param labelFile Source label file
+     * @return Mapped image data or null if the cache can not be used
+     */
+    static MNISTImageData load(File cacheFile, File imageFile, File labelFile)
+    {
+        if(!cacheFile.isFile())
+        {
+            return null;
+        }
+
+        try(FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ))
+        {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if(channel.size() < HEADER_SIZE || !readFully(channel, header, 0))
+            {
+                return null;
+            }
+            if(header.getInt(0) != MAGIC || header.getInt(4) != VERSION
+               || header.getLong(HEADER_CHECKSUM_POS) != checksum(header, 0, HEADER_CHECKSUM_POS))
+            {
+                return null;
+            }
+
+            int count = header.getInt(8);
+            int rows = header.getInt(12);
+            int cols = header.getInt(16);
+            long labelPos = header.getLong(56);
+            long pixelPos = header.getLong(64);
+            long pixelLength = (long)count * rows * cols;
+
+            if(header.getLong(24) != imageFile.length() || header.getLong(32) != imageFile.lastModified()
+               || header.getLong(40) != labelFile.length() || header.getLong(48) != labelFile.lastModified()
+               || labelPos != alignToPage(HEADER_SIZE) || pixelPos != alignToPage(labelPos + count)
+               || pixelPos + pixelLength != channel.size() || channel.size() > Integer.MAX_VALUE)
+            {
+                return null;
+            }
+            if(header.getLong(72) != checksum(channel, labelPos, count, pixelPos, pixelLength))
+            {
+                return null;
+            }
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            ByteBuffer labels = section(buffer, (int)labelPos, count);
+            ByteBuffer pixels = section(buffer, (int)pixelPos, (int)pixelLength);
+            return new MNISTImageData(pixels, labels, rows, cols);
+        }
+        catch(IOException | IllegalArgumentException ex)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Writes a cache file. The content is written to a temporary file first
+     * which is then moved to its destination, so other processes never see a
+     * partially written cache.
+     * @param cacheFile Cache file
+     * @param imageFile Source image file
+     * @param labelFile Source label file
+     * @param data      Decoded content of the source files
+     * @throws IOException Error while writing
+     */
+    static void write(File cacheFile, File imageFile, File labelFile, MNISTImageData data) throws IOException
+    {
+        ByteBuffer labels = data.getLabels();
+        ByteBuffer pixels = data.getPixels();
+        long labelPos = alignToPage(HEADER_SIZE);
+        long pixelPos = alignToPage(labelPos + labels.remaining());
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC)
+          .putInt(VERSION)
+          .putInt(data.getLength())
+          .putInt(data.getRowCount())
+          .putInt(data.getColCount())
+          .putInt(0)
+          .putLong(imageFile.length())
+          .putLong(imageFile.lastModified())
+          .putLong(labelFile.length())
+          .putLong(labelFile.lastModified())
+          .putLong(labelPos)
+          .putLong(pixelPos)
+          .putLong(checksum(labels, pixels));
+        header.putLong(checksum(header, 0, HEADER_CHECKSUM_POS));
+        header.flip();
+
+        Path target = cacheFile.toPath();
+        Path temp = Files.createTempFile(target.toAbsolutePath().getParent(), cacheFile.getName(), ".tmp");
+        try
+        {
+            try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+            {
+                writeFully(channel, header, 0);
+                writeFully(channel, labels, labelPos);
+                writeFully(channel, pixels, pixelPos);
+            }
+
+            try
+            {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch(AtomicMoveNotSupportedException ex)
+            {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer src, long position) throws IOException
+    {
+        while(src.hasRemaining())
+        {
+            position += channel.write(src, position);
+        }
+    }
+
+    /**
+     * @return false if the end of the file was reached before dest was full
+     */
+    private static boolean readFully(FileChannel channel, ByteBuffer dest, long position) throws IOException
+    {
+        while(dest.hasRemaining())
+        {
+            int read = channel.read(dest, position);
+            if(read < 0)
+            {
+                return false;
+            }
+            position += read;
+        }
+        return true;
+    }
+
+    /**
+     * CRC32 of the labels and the pixels, read in chunks without mapping the
+     * file.
+     */
+    private static long checksum(FileChannel channel, long labelPos, long labelLength, long pixelPos, long pixelLength) throws IOException
+    {
+        CRC32 crc = new CRC32();
+        ByteBuffer chunk = ByteBuffer.allocate(1 << 16);
+        long[][] sections = new long[][]
+        {
+            {labelPos, labelLength}, {pixelPos, pixelLength}
+        };
+        for(long[] section : sections)
+        {
+            long position = section[0];
+            long end = section[0] + section[1];
+            while(position < end)
+            {
+                chunk.clear();
+                chunk.limit((int)Math.min(chunk.capacity(), end - position));
+                if(!readFully(channel, chunk, position))
+                {
+                    throw new IOException("Unexpected end of file");
+                }
+                chunk.flip();
+                position += chunk.remaining();
+                crc.update(chunk);
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static ByteBuffer section(ByteBuffer buffer, int position, int length)
+    {
+        ByteBuffer view = buffer.duplicate();
+        view.limit(position + length).position(position);
+        return view.slice();
+    }
+
+    private static long checksum(ByteBuffer buffer, int position, int length)
+    {
+        return checksum(section(buffer, position, length));
+    }
+
+    private static long checksum(ByteBuffer... buffers)
+    {
+        CRC32 crc = new CRC32();
+        for(ByteBuffer b : buffers)
+        {
+            crc.update(b.duplicate());
+        }
+        return crc.getValue();
+    }
+
+    private static long alignToPage(long position)
+    {
+        return (position + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+    }
+
+    private MNISTCache()
+    {
+    }
+}
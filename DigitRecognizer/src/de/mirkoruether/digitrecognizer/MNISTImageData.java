@@ -0,0 +1,240 @@
+package de.mirkoruether.digitrecognizer;
+
+import de.mirkoruether.ann.training.TrainingData;
+import de.mirkoruether.linalg.DRowVector;
+import de.mirkoruether.linalg.SizeException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compact storage of labeled MNIST images. The pixels of all images are kept
+ * as unsigned bytes in one buffer, the labels as class indices. The buffers
+ * may be backed by an array or by a memory mapped file. Net inputs and one-hot
+ * solutions are converted to double when they are requested, either into new
+ * vectors or into buffers of the caller.
+ *
+ * @author Mirko Ruether
+ */
+public class MNISTImageData
+{
+    public static final int CLASS_COUNT = 10;
+
+    private final ByteBuffer pixels;
+    private final ByteBuffer labels;
+    private final int rowCount;
+    private final int colCount;
+
+    public MNISTImageData(byte[] pixels, byte[] labels, int rowCount, int colCount)
+    {
+        this(ByteBuffer.wrap(pixels), ByteBuffer.wrap(labels), rowCount, colCount);
+    }
+
+    /**
+     * Creates image data on the remaining bytes of the given buffers. The
+     * buffers are not copied, later changes of their content are visible.
+     * @param pixels   Unsigned pixels, image after image, row after row
+     * @param labels   Class index of every image
+     * @param rowCount Rows per image
+     * @param colCount Columns per image
+     */
+    public MNISTImageData(ByteBuffer pixels, ByteBuffer labels, int rowCount, int colCount)
+    {
+        if(pixels.remaining() != (long)labels.remaining() * rowCount * colCount)
+        {
+            throw new IllegalArgumentException("Labels and Images differ in length. Please check your files.");
+        }
+
+        this.pixels = pixels.asReadOnlyBuffer().slice();
+        this.labels = labels.asReadOnlyBuffer().slice();
+        this.rowCount = rowCount;
+        this.colCount = colCount;
+
+        for(int i = 0; i < getLength(); i++)
+        {
+            int label = this.labels.get(i);
+            if(label < 0 || label >= CLASS_COUNT)
+            {
+                throw new IllegalArgumentException("Illegal label: " + label);
+            }
+        }
+    }
+
+    public int getLength()
+    {
+        return labels.limit();
+    }
+
+    public int getRowCount()
+    {
+        return rowCount;
+    }
+
+    public int getColCount()
+    {
+        return colCount;
+    }
+
+    public int getPixelCount()
+    {
+        return rowCount * colCount;
+    }
+
+    public int getLabel(int index)
+    {
+        return labels.get(index);
+    }
+
+    /**
+     * Returns a read-only view of the unsigned pixels of an image without
+     * copying them.
+     * @param index Index of the image
+     * @return View with position 0 and limit getPixelCount()
+     */
+    public ByteBuffer getImageBytes(int index)
+    {
+        ByteBuffer view = pixels.duplicate();
+        int offset = index * getPixelCount();
+        view.limit(offset + getPixelCount()).position(offset);
+        return view.slice();
+    }
+
+    /**
+     * Returns a read-only view of all pixels.
+     * @return View with position 0
+     */
+    public ByteBuffer getPixels()
+    {
+        return pixels.duplicate();
+    }
+
+    /**
+     * Returns a read-only view of all labels.
+     * @return View with position 0
+     */
+    public ByteBuffer getLabels()
+    {
+        return labels.duplicate();
+    }
+
+    /**
+     * Converts an image to a net input with values between 0.0 and 1.0.
+     * @param index Index of the image
+     * @return New vector containing the image
+     */
+    public DRowVector getImage(int index)
+    {
+        return getImageInto(index, new DRowVector(getPixelCount()));
+    }
+
+    /**
+     * Converts an image to a net input with values between 0.0 and 1.0.
+     * @param index Index of the image
+     * @param dest  Vector of length getPixelCount()
+     * @return dest
+     */
+    public DRowVector getImageInto(int index, DRowVector dest)
+    {
+        int pixelCount = getPixelCount();
+        if(dest.getLength() != pixelCount)
+        {
+            throw new SizeException("Destination has the wrong size");
+        }
+
+        int offset = index * pixelCount;
+        for(int j = 0; j < pixelCount; j++)
+        {
+            dest.put(j, (pixels.get(offset + j) & 0xFF) / 255.0);
+        }
+        return dest;
+    }
+
+    /**
+     * Creates the desired net output of an image, which is 1.0 at the index
+     * of the label and 0.0 elsewhere.
+     * @param index Index of the image
+     * @return New one-hot vector
+     */
+    public DRowVector getSolution(int index)
+    {
+        return getSolutionInto(index, new DRowVector(CLASS_COUNT));
+    }
+
+    /**
+     * Writes the desired net output of an image, which is 1.0 at the index
+     * of the label and 0.0 elsewhere.
+     * @param index Index of the image
+     * @param dest  Vector of length CLASS_COUNT
+     * @return dest
+     */
+    public DRowVector getSolutionInto(int index, DRowVector dest)
+    {
+        if(dest.getLength() != CLASS_COUNT)
+        {
+            throw new SizeException("Destination has the wrong size");
+        }
+
+        int label = labels.get(index);
+        for(int j = 0; j < CLASS_COUNT; j++)
+        {
+            dest.put(j, j == label ? 1.0 : 0.0);
+        }
+        return dest;
+    }
+
+    /**
+     * Creates training data views of all images. The views convert their
+     * image on every call of getInput and hold no double data themselves,
+     * getInput(DRowVector) and getSolution(DRowVector) convert into the
+     * buffer without allocating.
+     * @return TrainingData array
+     */
+    public TrainingData[] toTrainingData()
+    {
+        TrainingData[] result = new TrainingData[getLength()];
+        for(int i = 0; i < result.length; i++)
+        {
+            result[i] = new Sample(this, i);
+        }
+        return result;
+    }
+
+    private static class Sample extends TrainingData
+    {
+        private final MNISTImageData data;
+        private final int index;
+
+        private Sample(MNISTImageData data, int index)
+        {
+            super(null, null);
+            this.data = data;
+            this.index = index;
+        }
+
+        @Override
+        public DRowVector getInput()
+        {
+            DRowVector input = super.getInput();
+            return input != null ? input : data.getImage(index);
+        }
+
+        @Override
+        public DRowVector getInput(DRowVector buffer)
+        {
+            DRowVector input = super.getInput();
+            return input != null ? input : data.getImageInto(index, buffer);
+        }
+
+        @Override
+        public DRowVector getSolution()
+        {
+            DRowVector solution = super.getSolution();
+            return solution != null ? solution : data.getSolution(index);
+        }
+
+        @Override
+        public DRowVector getSolution(DRowVector buffer)
+        {
+            DRowVector solution = super.getSolution();
+            return solution != null ? solution : data.getSolutionInto(index, buffer);
+        }
+    }
+}
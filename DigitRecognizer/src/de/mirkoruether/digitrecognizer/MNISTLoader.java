@@ -12,12 +12,13 @@ package de.mirkoruether.digitrecognizer;
 import de.mirkoruether.ann.training.NetOutputTest;
 import de.mirkoruether.ann.training.TestDataSet;
 import de.mirkoruether.ann.training.TrainingData;
-import de.mirkoruether.linalg.DRowVector;
 import de.mirkoruether.util.ParallelExecution;
 import de.mirkoruether.util.Randomizer;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.SplittableRandom;
 import java.util.function.Function;
 import java.util.zip.GZIPInputStream;
 
@@ -35,6 +36,8 @@ public class MNISTLoader
     public static final String TEST_IMAGES = "t10k-images-idx3-ubyte.gz";
     public static final String TEST_LABELS = "t10k-labels-idx1-ubyte.gz";
 
+    private static final int BUFFER_SIZE = 1 << 16;
+
     /**
      * Loads MNIST data from folder using the default file names.
      * @param folder           Folder path where the MNIST data files are found
@@ -53,10 +56,23 @@ public class MNISTLoader
      * @return MNIST data
      */
     public static MNISTDataSet loadMNIST(File folder, int validationLength)
+    {
+        return loadMNIST(folder, validationLength, new SplittableRandom());
+    }
+
+    /**
+     * Loads MNIST data from folder using the default file names.
+     * @param folder           Folder where the MNIST data files are found
+     * @param validationLength Desired length of validation data
+     * @param random           Random generator of the validation split, seeded
+     *                         for the same split on every run
+     * @return MNIST data
+     */
+    public static MNISTDataSet loadMNIST(File folder, int validationLength, SplittableRandom random)
     {
         return loadMNIST(new File(folder, TRAINING_IMAGES), new File(folder, TRAINING_LABELS),
                          new File(folder, TEST_IMAGES), new File(folder, TEST_LABELS),
-                         validationLength);
+                         validationLength, random);
     }
 
     /**
@@ -89,15 +105,32 @@ public class MNISTLoader
     public static MNISTDataSet loadMNIST(File trainingImageFile, File trainingLabelFile,
                                          File testImageFile, File testLabelFile,
                                          int validationLength)
+    {
+        return loadMNIST(trainingImageFile, trainingLabelFile, testImageFile, testLabelFile,
+                         validationLength, new SplittableRandom());
+    }
+
+    /**
+     * Load MNIST data.
+     * @param trainingImageFile Training image file
+     * @param trainingLabelFile Training label file
+     * @param testImageFile     Test image file
+     * @param testLabelFile     Test label file
+     * @param validationLength  Desired length of validation data
+     * @param random            Random generator of the validation split,
+     *                          seeded for the same split on every run
+     * @return MNIST data
+     */
+    public static MNISTDataSet loadMNIST(File trainingImageFile, File trainingLabelFile,
+                                         File testImageFile, File testLabelFile,
+                                         int validationLength, SplittableRandom random)
     {
         try
         {
-            DRowVector[][] data = parallelImport(trainingImageFile, trainingLabelFile, testImageFile, testLabelFile);
-
-            TrainingData[] trainData = buildTrainingData(data[0], data[1]);
-            TrainingData[] testData = buildTrainingData(data[2], data[3]);
+            TrainingData[] trainData = loadImageData(trainingImageFile, trainingLabelFile).toTrainingData();
+            TrainingData[] testData = loadImageData(testImageFile, testLabelFile).toTrainingData();
 
-            return buildMNIST(trainData, testData, validationLength);
+            return buildMNIST(trainData, testData, validationLength, random);
         }
         catch(Exception ex)
         {
@@ -110,13 +143,16 @@ public class MNISTLoader
      * @param trainData        TrainData
      * @param testData         TestData
      * @param validationLength Desired length of validation data
+     * @param random           Random generator of the validation split, seeded
+     *                         for the same split on every run
      * @return MNIST data
      */
-    private static MNISTDataSet buildMNIST(TrainingData[] trainData, TrainingData[] testData, int validationLength)
+    static MNISTDataSet buildMNIST(TrainingData[] trainData, TrainingData[] testData, int validationLength,
+                                   SplittableRandom random)
     {
         final NetOutputTest testFunc = (o, s) -> s.get(o.indexOfMaxium()) == 1.0;
 
-        Randomizer.shuffleArrInPlace(trainData);
+        Randomizer.shuffleArrInPlace(trainData, random);
 
         TrainingData[] training = new TrainingData[trainData.length - validationLength];
         TrainingData[] validationData = new TrainingData[validationLength];
@@ -149,75 +185,141 @@ public class MNISTLoader
      */
     public static TrainingData[] loadTrainingData(File imageFile, File labelFile)
     {
+        return loadImageData(imageFile, labelFile).toTrainingData();
+    }
+
+    /**
+     * Loads MNIST images and labels into compact byte storage using the
+     * binary cache next to the image file.
+     * @param imageFile The MNIST image file containing the input
+     * @param labelFile The MNIST label file containing the solutions
+     * @return Image data
+     */
+    public static MNISTImageData loadImageData(File imageFile, File labelFile)
+    {
+        return loadImageData(imageFile, labelFile, true);
+    }
+
+    /**
+     * Loads MNIST images and labels into compact byte storage.
+     *
+     * With useCache, a valid binary cache next to the image file is memory
+     * mapped instead of decoding the files. If there is none, the files are
+     * decoded and the cache is written for later runs. Failing to write the
+     * cache, e.g. in a read-only folder, is not an error.
+     * @param imageFile The MNIST image file containing the input
+     * @param labelFile The MNIST label file containing the solutions
+     * @param useCache  Read and write the binary cache
+     * @return Image data
+     */
+    public static MNISTImageData loadImageData(File imageFile, File labelFile, boolean useCache)
+    {
+        File cacheFile = MNISTCache.getCacheFile(imageFile);
+        if(useCache)
+        {
+            MNISTImageData cached = MNISTCache.load(cacheFile, imageFile, labelFile);
+            if(cached != null)
+            {
+                return cached;
+            }
+        }
+
+        MNISTImageData data;
         try
         {
-            DRowVector[][] data = parallelImport(imageFile, labelFile);
-            return buildTrainingData(data[0], data[1]);
+            IdxFile[] files = parallelImport(imageFile, labelFile);
+            data = buildImageData(files[0], files[1]);
         }
         catch(Exception ex)
         {
             throw new RuntimeException("Error while loading training data", ex);
         }
+
+        if(useCache)
+        {
+            try
+            {
+                MNISTCache.write(cacheFile, imageFile, labelFile, data);
+            }
+            catch(IOException ex)
+            {
+                // The decoded data is valid without a cache
+            }
+        }
+
+        return data;
     }
 
     /**
-     * Builds TrainingData from labels and images.
-     * @param images Images
-     * @param labels Labels
-     * @return TrainingData array
+     * Builds image data from an image and a label file.
+     * @param images Image file content
+     * @param labels Label file content
+     * @return Image data
      */
-    private static TrainingData[] buildTrainingData(DRowVector[] images, DRowVector[] labels)
+    private static MNISTImageData buildImageData(IdxFile images, IdxFile labels)
     {
-        if(images.length != labels.length)
-        {
-            throw new RuntimeException("Labels and Images differ in length. Please check your files.");
-        }
-
-        TrainingData[] result = new TrainingData[images.length];
-        for(int i = 0; i < result.length; i++)
+        if(images.dimensions.length != 3 || labels.dimensions.length != 1)
         {
-            result[i] = new TrainingData(images[i], labels[i]);
+            throw new RuntimeException("Expected an image and a label file. Please check your files.");
         }
 
-        return result;
+        return new MNISTImageData(images.data, labels.data, images.dimensions[1], images.dimensions[2]);
     }
 
-    private static DRowVector[][] parallelImport(File... files)
+    private static IdxFile[] parallelImport(File... files)
     {
-        final Function<File, DRowVector[]> func = (f) -> importData(f);
+        final Function<File, IdxFile> func = (f) -> importData(f);
 
         return ParallelExecution.inExecutorF((exec) ->
         {
-            ParallelExecution<File, DRowVector[]> pexec = new ParallelExecution<>(func, exec);
+            ParallelExecution<File, IdxFile> pexec = new ParallelExecution<>(func, exec);
 
-            return pexec.getArr(files, DRowVector[].class);
+            return pexec.getArr(files, IdxFile.class);
         }, 0);
     }
 
     /**
-     * Tries to read MNIST data from some file.
+     * Tries to read MNIST data from some file. The header is parsed according
+     * to its magic number, the payload of unsigned bytes is inflated in one
+     * bulk read.
      *
      * @param file filename e.g. "train-images-idx3-ubyte.gz"
      * @return imported data
      */
-    private static DRowVector[] importData(File file)
+    private static IdxFile importData(File file)
     {
-        try
+        try(DataInputStream in = new DataInputStream(new GZIPInputStream(new FileInputStream(file), BUFFER_SIZE)))
         {
-            GZIPInputStream gzip = new GZIPInputStream(new FileInputStream(file));
-            byte[] magic = new byte[4];
-            gzip.read(magic);
-            int magicNum = bytesToInt(magic);
+            int magicNum = in.readInt();
+            int dimensionCount;
 
             switch(magicNum)
             {
                 case 2049:
-                    return importLabelFile(gzip);
+                    dimensionCount = 1;
+                    break;
                 case 2051:
-                    return importImageFile(gzip);
+                    dimensionCount = 3;
+                    break;
                 default:
                     throw new RuntimeException("Illegal magic-number: " + magicNum);
             }
+
+            int[] dimensions = new int[dimensionCount];
+            long length = 1;
+            for(int i = 0; i < dimensionCount; i++)
+            {
+                dimensions[i] = in.readInt();
+                length *= dimensions[i];
+            }
+            if(length < 0 || length > Integer.MAX_VALUE)
+            {
+                throw new RuntimeException("Illegal data length: " + length);
+            }
+
+            byte[] data = new byte[(int)length];
+            in.readFully(data);
+            return new IdxFile(dimensions, data);
         }
         catch(IOException ex)
         {
@@ -226,68 +328,18 @@ public class MNISTLoader
     }
 
     /**
-     * Converts 4 bytes to 32 bit integer.
-     *
-     * @param bytes byte array
-     * @return integer value representation
+     * Content of an IDX file with unsigned byte data.
      */
-    private static int bytesToInt(byte[] bytes)
+    private static class IdxFile
     {
-        return ((bytes[0] & 0xFF) << 24 | (bytes[1] & 0xFF) << 16 | (bytes[2] & 0xFF) << 8 | (bytes[3] & 0xFF));
-    }
+        private final int[] dimensions;
+        private final byte[] data;
 
-    /**
-     * Imports a label file form MNIST database
-     *
-     * @param gzip file stream
-     * @return imported labels
-     * @throws IOException error while reading file
-     */
-    private static DRowVector[] importLabelFile(GZIPInputStream gzip) throws IOException
-    {
-        byte[] itemCountBytes = new byte[4];
-        gzip.read(itemCountBytes);
-        int itemCount = bytesToInt(itemCountBytes);
-        DRowVector[] data = new DRowVector[itemCount];
-        for(int i = 0; i < itemCount; i++)
+        private IdxFile(int[] dimensions, byte[] data)
         {
-            double[] vec = new double[10];
-            vec[gzip.read()] = 1.0;
-            data[i] = new DRowVector(vec);
+            this.dimensions = dimensions;
+            this.data = data;
         }
-        return data;
-    }
-
-    /**
-     * Imports an image file form MNIST database
-     *
-     * @param gzip file stream
-     * @return imported images
-     * @throws IOException error while reading file
-     */
-    private static DRowVector[] importImageFile(GZIPInputStream gzip) throws IOException
-    {
-        byte[] infoBytes = new byte[4];
-        gzip.read(infoBytes);
-        int itemCount = bytesToInt(infoBytes);
-        gzip.read(infoBytes);
-        int rowCount = bytesToInt(infoBytes);
-        gzip.read(infoBytes);
-        int colCount = bytesToInt(infoBytes);
-
-        DRowVector[] data = new DRowVector[itemCount];
-        int pixelCount = rowCount * colCount;
-        for(int i = 0; i < itemCount; i++)
-        {
-            double[] vec = new double[pixelCount];
-            for(int j = 0; j < pixelCount; j++)
-            {
-                vec[j] = gzip.read() / 255.0;
-            }
-            data[i] = new DRowVector(vec);
-        }
-
-        return data;
     }
 
     /**
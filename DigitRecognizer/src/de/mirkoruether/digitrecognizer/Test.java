@@ -15,7 +15,6 @@ import de.mirkoruether.ann.training.costs.CrossEntropyCosts;
 import de.mirkoruether.ann.training.costs.TestingCostFunction;
 import de.mirkoruether.ann.training.regularization.L2Regularization;
 import de.mirkoruether.linalg.DMatrix;
-import de.mirkoruether.util.ParallelExecution;
 import de.mirkoruether.util.Stopwatch;
 import java.io.File;
 import java.util.function.Function;
@@ -154,18 +153,15 @@ public class Test
 
     private static double trainAndTest(int epochs, Function<Integer, Double> learningRateFunc, StochasticGradientDescentTrainer sgdt)
     {
-        return ParallelExecution.inExecutorF((ex) ->
+        for(int i = 0; i < epochs; i++)
         {
-            for(int i = 0; i < epochs; i++)
-            {
-                double learningRate = learningRateFunc.apply(i);
-                System.out.println(timeFunc("Epoch " + i + ": Testing", () -> sgdt.test(MNIST.getTestData())).toString());
-                timeFunc("Epoch " + (i + 1) + ": Training with learning rate " + learningRate, () -> sgdt.train(MNIST.getTrainingData(), learningRate, 1, ex));
-            }
-            TestResult r = timeFunc("Final Testing for this iteration", () -> sgdt.test(MNIST.getTestData()));
-            System.out.println(r.toString());
-            return r.getAccuracy();
-        }, 20);
+            double learningRate = learningRateFunc.apply(i);
+            System.out.println(timeFunc("Epoch " + i + ": Testing", () -> sgdt.test(MNIST.getTestData())).toString());
+            timeFunc("Epoch " + (i + 1) + ": Training with learning rate " + learningRate, () -> sgdt.train(MNIST.getTrainingData(), learningRate, 1));
+        }
+        TestResult r = timeFunc("Final Testing for this iteration", () -> sgdt.test(MNIST.getTestData()));
+        System.out.println(r.toString());
+        return r.getAccuracy();
     }
 
     private static void timeFunc(String name, Runnable func)
@@ -57,9 +57,15 @@ public class Window extends JFrame
     {
         try
         {
-            if(NET_FILE.exists())
+            if(NET_FILE.exists() && NetworkIO.isLegacyFormat(NET_FILE))
             {
-                net = NetworkIO.loadNetwork(NET_FILE, ActivationFunction.logistic());
+                // Nets of older versions of this program, converted once
+                net = NetworkIO.loadLegacyNetwork(NET_FILE, ActivationFunction.logistic());
+                NetworkIO.saveNetworkData(net, NET_FILE);
+            }
+            else if(NET_FILE.exists())
+            {
+                net = NetworkIO.loadNetwork(NET_FILE);
             }
             else
             {
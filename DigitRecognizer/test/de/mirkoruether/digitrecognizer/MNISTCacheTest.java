@@ -0,0 +1,119 @@
+package de.mirkoruether.digitrecognizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class MNISTCacheTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void validCacheIsLoaded() throws IOException
+    {
+        File[] sources = createSources();
+        File cache = MNISTCache.getCacheFile(sources[0]);
+        MNISTImageData data = createData();
+        MNISTCache.write(cache, sources[0], sources[1], data);
+
+        MNISTImageData loaded = MNISTCache.load(cache, sources[0], sources[1]);
+
+        assertNotNull(loaded);
+        assertEquals(data.getLength(), loaded.getLength());
+        for(int i = 0; i < data.getLength(); i++)
+        {
+            assertEquals(data.getLabel(i), loaded.getLabel(i));
+            assertArrayEquals(data.getImage(i).toArray(), loaded.getImage(i).toArray(), 0.0);
+        }
+    }
+
+    @Test
+    public void staleCacheIsRejectedAndReplaced() throws IOException
+    {
+        File[] sources = createSources();
+        File cache = MNISTCache.getCacheFile(sources[0]);
+        MNISTCache.write(cache, sources[0], sources[1], createData());
+
+        Files.write(sources[0].toPath(), new byte[]
+            {
+                1, 2, 3, 4
+            });
+        assertNull(MNISTCache.load(cache, sources[0], sources[1]));
+
+        // Rejecting the cache must not keep it from being replaced
+        MNISTCache.write(cache, sources[0], sources[1], createData());
+        assertNotNull(MNISTCache.load(cache, sources[0], sources[1]));
+    }
+
+    @Test
+    public void corruptedPixelsAreRejected() throws IOException
+    {
+        File[] sources = createSources();
+        File cache = MNISTCache.getCacheFile(sources[0]);
+        MNISTCache.write(cache, sources[0], sources[1], createData());
+
+        try(RandomAccessFile raf = new RandomAccessFile(cache, "rw"))
+        {
+            raf.seek(raf.length() - 1);
+            int last = raf.read();
+            raf.seek(raf.length() - 1);
+            raf.write(last ^ 0x01);
+        }
+
+        assertNull(MNISTCache.load(cache, sources[0], sources[1]));
+    }
+
+    @Test
+    public void truncatedCacheIsRejected() throws IOException
+    {
+        File[] sources = createSources();
+        File cache = MNISTCache.getCacheFile(sources[0]);
+        MNISTCache.write(cache, sources[0], sources[1], createData());
+
+        try(RandomAccessFile raf = new RandomAccessFile(cache, "rw"))
+        {
+            raf.setLength(raf.length() - 5);
+        }
+
+        assertNull(MNISTCache.load(cache, sources[0], sources[1]));
+    }
+
+    private File[] createSources() throws IOException
+    {
+        File images = folder.newFile("images.gz");
+        File labels = folder.newFile("labels.gz");
+        Files.write(images.toPath(), new byte[]
+            {
+                9, 9
+            });
+        return new File[]
+        {
+            images, labels
+        };
+    }
+
+    private static MNISTImageData createData()
+    {
+        byte[] pixels = new byte[5 * 6];
+        byte[] labels = new byte[5];
+        for(int i = 0; i < pixels.length; i++)
+        {
+            pixels[i] = (byte)(i * 37);
+        }
+        for(int i = 0; i < labels.length; i++)
+        {
+            labels[i] = (byte)(i * 3 % MNISTImageData.CLASS_COUNT);
+        }
+        return new MNISTImageData(pixels, labels, 2, 3);
+    }
+}
@@ -0,0 +1,82 @@
+package de.mirkoruether.digitrecognizer;
+
+import de.mirkoruether.ann.training.TrainingData;
+import de.mirkoruether.linalg.DRowVector;
+import java.util.SplittableRandom;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class MNISTImageDataTest
+{
+    @Test
+    public void bufferedAccessorsMatchAllocatingOnes()
+    {
+        MNISTImageData data = createData(20);
+        TrainingData[] samples = data.toTrainingData();
+        DRowVector input = new DRowVector(data.getPixelCount());
+        DRowVector solution = new DRowVector(MNISTImageData.CLASS_COUNT);
+
+        for(int i = 0; i < data.getLength(); i++)
+        {
+            assertSame(input, samples[i].getInput(input));
+            assertSame(solution, samples[i].getSolution(solution));
+            assertArrayEquals(data.getImage(i).toArray(), input.toArray(), 0.0);
+            assertArrayEquals(data.getSolution(i).toArray(), solution.toArray(), 0.0);
+            assertEquals(1.0, solution.get(data.getLabel(i)), 0.0);
+        }
+    }
+
+    @Test
+    public void storedVectorsTakePrecedenceOverTheBuffer()
+    {
+        TrainingData sample = createData(1).toTrainingData()[0];
+        DRowVector stored = new DRowVector(MNISTImageData.CLASS_COUNT);
+        sample.setSolution(stored);
+
+        assertSame(stored, sample.getSolution(new DRowVector(MNISTImageData.CLASS_COUNT)));
+    }
+
+    @Test
+    public void seededSplitIsReproducible()
+    {
+        MNISTDataSet a = split(createData(50), 7L);
+        MNISTDataSet b = split(createData(50), 7L);
+
+        assertEquals(10, a.getValidationData().getLength());
+        for(int i = 0; i < a.getTrainingData().length; i++)
+        {
+            assertArrayEquals(a.getTrainingData()[i].getInput().toArray(), b.getTrainingData()[i].getInput().toArray(), 0.0);
+        }
+        for(int i = 0; i < a.getValidationData().getLength(); i++)
+        {
+            assertArrayEquals(a.getValidationData().getData()[i].getInput().toArray(),
+                              b.getValidationData().getData()[i].getInput().toArray(), 0.0);
+        }
+    }
+
+    private static MNISTDataSet split(MNISTImageData data, long seed)
+    {
+        return MNISTLoader.buildMNIST(data.toTrainingData(), data.toTrainingData(), 10, new SplittableRandom(seed));
+    }
+
+    /**
+     * Creates 3x4 images whose pixels encode their index.
+     */
+    private static MNISTImageData createData(int length)
+    {
+        byte[] pixels = new byte[length * 12];
+        byte[] labels = new byte[length];
+        for(int i = 0; i < length; i++)
+        {
+            labels[i] = (byte)(i % MNISTImageData.CLASS_COUNT);
+            for(int j = 0; j < 12; j++)
+            {
+                pixels[i * 12 + j] = (byte)(i * 12 + j);
+            }
+        }
+        return new MNISTImageData(pixels, labels, 3, 4);
+    }
+}
@@ -1,27 +1,309 @@
 package de.mirkoruether.ann;
 
+import de.mirkoruether.ann.activation.LeakyReLUActivation;
+import de.mirkoruether.ann.activation.LogisticActivation;
+import de.mirkoruether.ann.activation.ReLUActivation;
+import de.mirkoruether.ann.activation.SoftmaxActivation;
+import de.mirkoruether.ann.activation.TanhActivation;
+import de.mirkoruether.linalg.DArrayFunction;
 import de.mirkoruether.linalg.DFunction;
+import de.mirkoruether.linalg.DMatrix;
+import de.mirkoruether.linalg.DRowVector;
+import de.mirkoruether.linalg.FMatrix;
 
-public class ActivationFunction
+/**
+ * Activation function of a network layer.
+ *
+ * The functions created by the static factory methods are classes of their
+ * own in {@link de.mirkoruether.ann.activation} whose f and f_derivative
+ * evaluate whole arrays in a loop of their own. Functions made of lambdas via
+ * the public constructor are evaluated through a call per element.
+ *
+ * As a {@link DArrayFunction} it evaluates one row of weighted inputs.
+ */
+public class ActivationFunction implements DArrayFunction
 {
+    /**
+     * Id of functions which can not be recreated from their id, e.g. lambdas
+     * passed to the public constructor.
+     */
+    public static final int ID_CUSTOM = 0;
+    public static final int ID_LOGISTIC = 1;
+    public static final int ID_TANH = 2;
+    public static final int ID_RELU = 3;
+    public static final int ID_LEAKY_RELU = 4;
+    public static final int ID_SOFTMAX = 5;
+
     public final DFunction f;
 
     public final DFunction f_derivative;
 
+    /**
+     * Derivative as a function of the activation a = f(z) instead of the
+     * weighted input z, null if it can not be expressed that way.
+     */
+    private final DFunction outputDerivative;
+
+    private final int id;
+    private final double parameter;
+
     public ActivationFunction(DFunction f, DFunction f_derivative)
+    {
+        this(f, f_derivative, null);
+    }
+
+    /**
+     * @param f                Function
+     * @param f_derivative     Derivative of the function
+     * @param outputDerivative Derivative of the function expressed through
+     *                         its value, e.g. a(1 - a) for the logistic
+     *                         function. May be null.
+     */
+    public ActivationFunction(DFunction f, DFunction f_derivative, DFunction outputDerivative)
+    {
+        this(f, f_derivative, outputDerivative, ID_CUSTOM, 0.0);
+    }
+
+    /**
+     * @param f                Function
+     * @param f_derivative     Derivative of the function
+     * @param outputDerivative Derivative of the function expressed through
+     *                         its value, may be null
+     * @param id               Id which recreates this function together with
+     *                         the parameter via {@link #fromId(int, double)}
+     * @param parameter        Parameter of the function, e.g. the temperature
+     *                         of the logistic function
+     */
+    protected ActivationFunction(DFunction f, DFunction f_derivative, DFunction outputDerivative, int id, double parameter)
     {
         this.f = f;
         this.f_derivative = f_derivative;
+        this.outputDerivative = outputDerivative;
+        this.id = id;
+        this.parameter = parameter;
+    }
+
+    public int getId()
+    {
+        return id;
+    }
+
+    public double getParameter()
+    {
+        return parameter;
+    }
+
+    /**
+     * @return true if the activation of a neuron only depends on its own
+     *         weighted input, so f can be applied element by element. False
+     *         for functions of the whole layer like softmax, whose f and
+     *         f_derivative must not be used and whose derivative is only
+     *         available through
+     *         {@link #backpropagateInPlace(DMatrix, DMatrix, DMatrix, DMatrix)}.
+     */
+    public boolean isElementWise()
+    {
+        return true;
+    }
+
+    /**
+     * Calculates the activations of one row of weighted inputs.
+     */
+    @Override
+    public void applyArray(double[] src, int srcOffset, double[] dest, int destOffset, int length)
+    {
+        f.applyArray(src, srcOffset, dest, destOffset, length);
+    }
+
+    /**
+     * Calculates the activations of weighted inputs with one input per row.
+     * @param <M>  type of the destination
+     * @param z    Weighted inputs
+     * @param dest Destination, may be z
+     * @return dest
+     */
+    public <M extends DMatrix> M applyInto(DMatrix z, M dest)
+    {
+        return isElementWise()
+               ? z.applyFunctionElementWiseInto(f, dest)
+               : z.applyFunctionRowWiseInto(this, dest);
+    }
+
+    /**
+     * Calculates the derivatives of the activations with respect to the
+     * weighted inputs.
+     * @param <M>  type of the destination
+     * @param z    Weighted inputs, one input per row
+     * @param dest Destination, may be z
+     * @return dest
+     */
+    public <M extends DMatrix> M derivativeInto(DMatrix z, M dest)
+    {
+        return z.applyFunctionElementWiseInto(f_derivative, dest);
+    }
+
+    /**
+     * @return true if the derivative can be calculated from the activations
+     *         by {@link #derivativeFromOutputInto(DMatrix, DMatrix)}
+     */
+    public boolean isDerivativeFromOutputSupported()
+    {
+        return outputDerivative != null;
+    }
+
+    /**
+     * Calculates the derivatives of the activations with respect to the
+     * weighted inputs from the activations. This saves evaluating the
+     * function again, e.g. the exponential of the logistic function.
+     * @param <M>  type of the destination
+     * @param a    Activations, one input per row
+     * @param dest Destination, may be a
+     * @return dest
+     * @throws UnsupportedOperationException if not supported
+     */
+    public <M extends DMatrix> M derivativeFromOutputInto(DMatrix a, M dest)
+    {
+        if(outputDerivative == null)
+        {
+            throw new UnsupportedOperationException("Derivative can not be calculated from the activation");
+        }
+        return a.applyFunctionElementWiseInto(outputDerivative, dest);
+    }
+
+    /**
+     * Calculates the derivatives from the activations if supported, otherwise
+     * from the weighted inputs.
+     * @param <M>  type of the destination
+     * @param z    Weighted inputs, one input per row
+     * @param a    Activations of z
+     * @param dest Destination
+     * @return dest
+     */
+    public <M extends DMatrix> M derivativeInto(DMatrix z, DMatrix a, M dest)
+    {
+        return isDerivativeFromOutputSupported() ? derivativeFromOutputInto(a, dest) : derivativeInto(z, dest);
+    }
+
+    /**
+     * Multiplies gradients with respect to the activations by the Jacobian of
+     * the function, which gives the gradients with respect to the weighted
+     * inputs. The Jacobian of an element-wise function is diagonal, so this
+     * is the element-wise product with the derivative.
+     * @param <M>        type of the gradients
+     * @param z          Weighted inputs, one input per row
+     * @param a          Activations of z
+     * @param gradient   Gradients with respect to a, overwritten by the
+     *                   gradients with respect to z
+     * @param derivative Buffer of the size of z, may be overwritten
+     * @return gradient
+     */
+    public <M extends DMatrix> M backpropagateInPlace(DMatrix z, DMatrix a, M gradient, DMatrix derivative)
+    {
+        gradient.elementWiseMulInPlace(derivativeInto(z, a, derivative));
+        return gradient;
+    }
+
+    /**
+     * Single-precision version of
+     * {@link #derivativeInto(DMatrix, DMatrix, DMatrix)}, the derivative is
+     * evaluated in double precision.
+     * @param z    Weighted inputs, one input per row
+     * @param a    Activations of z
+     * @param dest Destination
+     * @return dest
+     */
+    public FMatrix derivativeInto(FMatrix z, FMatrix a, FMatrix dest)
+    {
+        return isDerivativeFromOutputSupported()
+               ? a.applyFunctionElementWiseInto(outputDerivative, dest)
+               : z.applyFunctionElementWiseInto(f_derivative, dest);
+    }
+
+    /**
+     * Single-precision version of
+     * {@link #backpropagateInPlace(DMatrix, DMatrix, DMatrix, DMatrix)}.
+     * Functions which are not element-wise are backpropagated row by row in
+     * double precision.
+     * @param z          Weighted inputs, one input per row
+     * @param a          Activations of z
+     * @param gradient   Gradients with respect to a, overwritten by the
+     *                   gradients with respect to z
+     * @param derivative Buffer of the size of z, may be overwritten
+     * @return gradient
+     */
+    public FMatrix backpropagateInPlace(FMatrix z, FMatrix a, FMatrix gradient, FMatrix derivative)
+    {
+        if(isElementWise())
+        {
+            return gradient.elementWiseMulInPlace(derivativeInto(z, a, derivative));
+        }
+
+        int n = gradient.getColumnCount();
+        DRowVector zRow = new DRowVector(n);
+        DRowVector aRow = new DRowVector(n);
+        DRowVector gradientRow = new DRowVector(n);
+        DRowVector derivativeRow = new DRowVector(n);
+        for(int x = 0; x < gradient.getRowCount(); x++)
+        {
+            backpropagateInPlace(z.getRowInto(x, zRow), a.getRowInto(x, aRow), gradient.getRowInto(x, gradientRow), derivativeRow);
+            gradient.setRow(x, gradientRow);
+        }
+        return gradient;
     }
 
     public static ActivationFunction logistic(double T)
     {
-        return new ActivationFunction((x) -> 1 / (1 + Math.exp(-x / T)),
-                                      (x) -> Math.exp(x / T) / (T * Math.pow(Math.exp(x / T) + 1.0, 2.0)));
+        return new LogisticActivation(T);
     }
 
     public static ActivationFunction logistic()
     {
         return logistic(1.0);
     }
+
+    public static ActivationFunction tanh()
+    {
+        return new TanhActivation();
+    }
+
+    public static ActivationFunction relu()
+    {
+        return new ReLUActivation();
+    }
+
+    public static ActivationFunction leakyRelu(double alpha)
+    {
+        return new LeakyReLUActivation(alpha);
+    }
+
+    public static ActivationFunction softmax()
+    {
+        return new SoftmaxActivation();
+    }
+
+    /**
+     * Recreates a function from its id and parameter.
+     * @param id        Id as returned by {@link #getId()}
+     * @param parameter Parameter as returned by {@link #getParameter()}
+     * @return Activation function
+     * @throws IllegalArgumentException if the id is unknown or ID_CUSTOM
+     */
+    public static ActivationFunction fromId(int id, double parameter)
+    {
+        switch(id)
+        {
+            case ID_LOGISTIC:
+                return logistic(parameter);
+            case ID_TANH:
+                return tanh();
+            case ID_RELU:
+                return relu();
+            case ID_LEAKY_RELU:
+                return leakyRelu(parameter);
+            case ID_SOFTMAX:
+                return softmax();
+            default:
+                throw new IllegalArgumentException("Unknown activation function id: " + id);
+        }
+    }
 }
@@ -0,0 +1,71 @@
+package de.mirkoruether.ann;
+
+import de.mirkoruether.linalg.DMatrix;
+
+/**
+ * Buffer for the forward pass of a batch during inference. Unlike
+ * {@link DetailedBatchResult} it only holds the activations of the layers,
+ * the weighted inputs are not needed without a backward pass. Row x of every
+ * matrix belongs to the x-th input of the batch.
+ */
+public class BatchActivations
+{
+    private final DMatrix[] activations;
+
+    /**
+     * Creates a buffer whose matrices are allocated to match the layers of
+     * the given net and the batch length.
+     * @param net         Net the buffers are sized for
+     * @param batchLength Number of inputs per batch
+     */
+    public BatchActivations(NeuralNetwork net, int batchLength)
+    {
+        activations = new DMatrix[net.getLayerCount()];
+        for(int i = 0; i < activations.length; i++)
+        {
+            activations[i] = new DMatrix(batchLength, net.getLayer(i).getOutputSize());
+        }
+    }
+
+    private BatchActivations(DMatrix[] activations)
+    {
+        this.activations = activations;
+    }
+
+    /**
+     * Returns a buffer whose matrices are views of the first rows of the
+     * matrices of this one, so a buffer allocated for the longest batch can
+     * be used for shorter ones.
+     * @param batchLength Number of rows of the view
+     * @return View of the first batchLength rows
+     */
+    public BatchActivations viewFirstRows(int batchLength)
+    {
+        DMatrix[] a = new DMatrix[activations.length];
+        for(int i = 0; i < a.length; i++)
+        {
+            a[i] = activations[i].viewRows(0, batchLength);
+        }
+        return new BatchActivations(a);
+    }
+
+    public DMatrix[] getActivations()
+    {
+        return activations;
+    }
+
+    public DMatrix getActivation(int layer)
+    {
+        return activations[layer];
+    }
+
+    public DMatrix getNetOutput()
+    {
+        return activations[activations.length - 1];
+    }
+
+    public int getBatchLength()
+    {
+        return activations[0].getRowCount();
+    }
+}
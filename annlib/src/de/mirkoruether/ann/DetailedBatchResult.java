@@ -0,0 +1,88 @@
+package de.mirkoruether.ann;
+
+import de.mirkoruether.linalg.DMatrix;
+
+/**
+ * Matrix form of {@link DetailedResult} for a whole batch. Row x of every
+ * matrix belongs to the x-th input of the batch.
+ */
+public class DetailedBatchResult
+{
+    private final DMatrix[] weightedInputs;
+    private final DMatrix[] activationsInclInput;
+
+    /**
+     * Creates a result whose matrices are allocated to match the layers of
+     * the given net and the batch length, so it can be reused as buffer. The
+     * input slot stays empty, forward passes store a reference to their input
+     * there.
+     * @param net         Net the buffers are sized for
+     * @param batchLength Number of inputs per batch
+     */
+    public DetailedBatchResult(NeuralNetwork net, int batchLength)
+    {
+        weightedInputs = new DMatrix[net.getLayerCount()];
+        activationsInclInput = new DMatrix[net.getLayerCount() + 1];
+
+        for(int i = 0; i < net.getLayerCount(); i++)
+        {
+            weightedInputs[i] = new DMatrix(batchLength, net.getLayer(i).getOutputSize());
+            activationsInclInput[i + 1] = new DMatrix(batchLength, net.getLayer(i).getOutputSize());
+        }
+    }
+
+    private DetailedBatchResult(DMatrix[] weightedInputs, DMatrix[] activationsInclInput)
+    {
+        this.weightedInputs = weightedInputs;
+        this.activationsInclInput = activationsInclInput;
+    }
+
+    /**
+     * Returns a result whose matrices are views of the first rows of the
+     * matrices of this one, so a buffer allocated for the longest batch can
+     * be used for shorter ones. The input slot of the view is empty.
+     * @param batchLength Number of rows of the view
+     * @return View of the first batchLength rows
+     */
+    public DetailedBatchResult viewFirstRows(int batchLength)
+    {
+        DMatrix[] z = new DMatrix[weightedInputs.length];
+        DMatrix[] a = new DMatrix[activationsInclInput.length];
+        for(int i = 0; i < weightedInputs.length; i++)
+        {
+            z[i] = weightedInputs[i].viewRows(0, batchLength);
+            a[i + 1] = activationsInclInput[i + 1].viewRows(0, batchLength);
+        }
+        return new DetailedBatchResult(z, a);
+    }
+
+    public DMatrix[] getWeightedInputs()
+    {
+        return weightedInputs;
+    }
+
+    public DMatrix getWeightedInput(int layer)
+    {
+        return weightedInputs[layer];
+    }
+
+    public DMatrix[] getActivationsInclInput()
+    {
+        return activationsInclInput;
+    }
+
+    public DMatrix getActivation(int layerPlusOne)
+    {
+        return activationsInclInput[layerPlusOne];
+    }
+
+    public DMatrix getNetOutput()
+    {
+        return activationsInclInput[activationsInclInput.length - 1];
+    }
+
+    public int getBatchLength()
+    {
+        return weightedInputs[0].getRowCount();
+    }
+}
@@ -7,6 +7,24 @@ public class DetailedResult
     private DRowVector[] weightedInputs;
     private DRowVector[] activationsInclInput;
 
+    /**
+     * Creates a result whose vectors are allocated to match the layers of the
+     * given net, so it can be reused as buffer for repeated forward passes.
+     * The input slot stays empty, forward passes store a reference to their
+     * input there.
+     * @param net Net the buffers are sized for
+     */
+    public DetailedResult(NeuralNetwork net)
+    {
+        this(new DRowVector[net.getLayerCount()], new DRowVector[net.getLayerCount() + 1]);
+
+        for(int i = 0; i < net.getLayerCount(); i++)
+        {
+            weightedInputs[i] = new DRowVector(net.getLayer(i).getOutputSize());
+            activationsInclInput[i + 1] = new DRowVector(net.getLayer(i).getOutputSize());
+        }
+    }
+
     public DetailedResult(DRowVector[] weightedInputs, DRowVector[] activationsInclInput)
     {
         this.weightedInputs = weightedInputs;
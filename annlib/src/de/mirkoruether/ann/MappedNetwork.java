@@ -0,0 +1,207 @@
+package de.mirkoruether.ann;
+
+import de.mirkoruether.linalg.DMatrix;
+import de.mirkoruether.linalg.DRowVector;
+import de.mirkoruether.linalg.SizeException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only network for inference whose weights and biases stay in a memory
+ * mapped file of the {@link NetworkIO} binary format. Nothing is copied to
+ * the heap when mapping, so all processes mapping the same file share one
+ * physical copy through the page cache.
+ *
+ * Only the header and the layer table are checked for consistency when
+ * mapping. The checksum is not validated, as it covers the whole file and
+ * would read it; {@link #verifyChecksum()} does so on demand. The
+ * results are bit-identical to {@link NeuralNetwork#feedForward(DRowVector)}
+ * of the loaded net, as the same matrix kernel is used. Instances are safe
+ * for concurrent use.
+ *
+ * The mapping lives until the instance is garbage collected. Some platforms,
+ * e.g. Windows, do not allow replacing a file while it is mapped.
+ */
+public class MappedNetwork
+{
+    private final ByteBuffer buffer;
+    private final int[] sizes;
+    private final DoubleBuffer[] weights;
+    private final DoubleBuffer[] biases;
+    private final ActivationFunction[] activationFunctions;
+    private final ThreadLocal<DMatrix[]> buffers = new ThreadLocal<>();
+
+    private MappedNetwork(ByteBuffer buffer, ActivationFunction func)
+    {
+        int layerCount = NetworkIO.readHeader(buffer);
+        this.buffer = buffer;
+        this.sizes = new int[layerCount + 1];
+        this.weights = new DoubleBuffer[layerCount];
+        this.biases = new DoubleBuffer[layerCount];
+        this.activationFunctions = new ActivationFunction[layerCount];
+
+        sizes[0] = buffer.getInt(16);
+        for(int i = 0; i < layerCount; i++)
+        {
+            int entry = NetworkIO.HEADER_SIZE + i * NetworkIO.LAYER_ENTRY_SIZE;
+            int in = sizes[i];
+            int out = buffer.getInt(entry);
+            long offset = buffer.getLong(entry + 16);
+
+            sizes[i + 1] = out;
+            weights[i] = NetworkIO.blockView(buffer, offset, (long)in * out);
+            biases[i] = NetworkIO.blockView(buffer, offset + 8L * in * out, out);
+            activationFunctions[i] = NetworkIO.activationAt(buffer, i, func);
+        }
+    }
+
+    /**
+     * Maps a network file whose activation functions are recorded.
+     * @param f File in the binary format
+     * @return Mapped network
+     */
+    public static MappedNetwork map(File f)
+    {
+        return map(f, null);
+    }
+
+    /**
+     * Maps a network file.
+     * @param f    File in the binary format
+     * @param func Activation function of all layers whose function is not
+     *             recorded in the file, may be null
+     * @return Mapped network
+     */
+    public static MappedNetwork map(File f, ActivationFunction func)
+    {
+        try(FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ))
+        {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            return new MappedNetwork(buffer, func);
+        }
+        catch(IOException ex)
+        {
+            throw new RuntimeException("Failed to map network file " + f.getPath(), ex);
+        }
+    }
+
+    public DRowVector feedForward(DRowVector in)
+    {
+        return feedForwardInto(in, new DRowVector(getOutputSize()));
+    }
+
+    /**
+     * Feeds a batch forward. Every weight panel is read from the mapping once
+     * per batch instead of once per input.
+     * @param in Inputs, one per row
+     * @return Outputs, one per row
+     */
+    public DMatrix feedForwardBatch(DMatrix in)
+    {
+        return feedForwardInto(in, new DMatrix(in.getRowCount(), getOutputSize()));
+    }
+
+    /**
+     * Feeds the inputs through all layers, each one matrix product which
+     * reads the weights and biases from the mapping, like the layers of
+     * {@link NeuralNetwork}. The hidden activations are kept in buffers of
+     * the calling thread which are reused as long as the number of inputs
+     * does not change.
+     */
+    private <M extends DMatrix> M feedForwardInto(DMatrix in, M dest)
+    {
+        if(in.getColumnCount() != getInputSize())
+        {
+            throw new SizeException("Wrong input size!");
+        }
+
+        DMatrix[] hidden = getBuffers(in.getRowCount());
+        DMatrix result = in;
+        for(int i = 0; i < getLayerCount(); i++)
+        {
+            DMatrix next = i < hidden.length ? hidden[i] : dest;
+            ActivationFunction func = activationFunctions[i];
+            result.matrixMulAddRowApplyInto(weights[i], biases[i], func.isElementWise() ? func.f : null, next);
+            if(!func.isElementWise())
+            {
+                next.applyFunctionRowWiseInPlace(func);
+            }
+            result = next;
+        }
+        return dest;
+    }
+
+    /**
+     * @return Activation buffers of the hidden layers of the calling thread
+     *         for the given number of inputs
+     */
+    private DMatrix[] getBuffers(int rowCount)
+    {
+        DMatrix[] hidden = buffers.get();
+        if(hidden == null || hidden.length > 0 && hidden[0].getRowCount() != rowCount)
+        {
+            hidden = new DMatrix[getLayerCount() - 1];
+            for(int i = 0; i < hidden.length; i++)
+            {
+                hidden[i] = new DMatrix(rowCount, sizes[i + 1]);
+            }
+            buffers.set(hidden);
+        }
+        return hidden;
+    }
+
+    /**
+     * Copies the network to the heap, e.g. to train it further.
+     * @return Independent network
+     */
+    public NeuralNetwork toNeuralNetwork()
+    {
+        NetworkLayer[] layers = new NetworkLayer[getLayerCount()];
+        for(int i = 0; i < layers.length; i++)
+        {
+            DMatrix w = new DMatrix(sizes[i], sizes[i + 1]).readFrom(weights[i].duplicate());
+            DRowVector b = new DRowVector(sizes[i + 1]);
+            b.readFrom(biases[i].duplicate());
+            layers[i] = new NetworkLayer(w, b, activationFunctions[i]);
+        }
+        return new NeuralNetwork(layers);
+    }
+
+    public int getInputSize()
+    {
+        return sizes[0];
+    }
+
+    public int getOutputSize()
+    {
+        return sizes[sizes.length - 1];
+    }
+
+    public int getLayerCount()
+    {
+        return weights.length;
+    }
+
+    /**
+     * Validates the checksum of the mapped file, which reads all of it.
+     * @return true if the file is intact
+     */
+    public boolean verifyChecksum()
+    {
+        return buffer.getInt(NetworkIO.CHECKSUM_POS) == NetworkIO.checksum(buffer);
+    }
+
+    /**
+     * @return Size of the mapped file in bytes
+     */
+    public long getMappedSize()
+    {
+        return buffer.capacity();
+    }
+}
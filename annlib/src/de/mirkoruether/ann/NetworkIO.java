@@ -4,34 +4,165 @@ import de.mirkoruether.linalg.DMatrix;
 import de.mirkoruether.linalg.DRowVector;
 import de.mirkoruether.util.Serializer;
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
 
+/**
+ * Saves and loads networks.
+ *
+ * Networks are stored in a little endian binary format:
+ * <pre>
+ *  0 int    magic "ANNB"
+ *  4 int    version
+ *  8 int    data type of the blocks, 1 = float64
+ * 12 int    layer count L
+ * 16 int    input size of the first layer
+ * 20 int    CRC32 of the whole file, computed with this field set to 0
+ * 24 L x 24 per layer: int output size, int activation id,
+ *           double activation parameter, long offset of the block
+ * </pre>
+ * The block of a layer holds its weights row by row followed by its biases.
+ * Blocks start at multiples of {@link #BLOCK_ALIGNMENT} bytes, so they can be
+ * read with one bulk copy or viewed in place through a mapped buffer. The
+ * file ends with the last block.
+ *
+ * Files are read into the heap and written to a temporary file which replaces
+ * the target afterwards, so a file can be saved right after it was loaded.
+ *
+ * Files of the legacy format (Java serialization of the weight and bias
+ * objects) are rejected by {@link #loadNetwork(File, ActivationFunction)}.
+ * They can only be loaded explicitly by
+ * {@link #loadLegacyNetwork(File, ActivationFunction)}, because deserializing
+ * them may run code of any class on the classpath, so only trusted files
+ * should be loaded that way.
+ */
 public class NetworkIO
 {
     public static final String BIASES_PREFIX = "biases/layer";
     public static final String WEIGHTS_PREFIX = "weights/layer";
 
+    public static final int MAGIC = 0x424E4E41;
+    public static final int VERSION = 2;
+    public static final int DTYPE_FLOAT64 = 1;
+    public static final int BLOCK_ALIGNMENT = 64;
+
+    static final int HEADER_SIZE = 24;
+    static final int CHECKSUM_POS = 20;
+    static final int LAYER_ENTRY_SIZE = 24;
+    private static final int MAX_LAYER_COUNT = 1 << 16;
+    private static final short LEGACY_MAGIC = (short)0xACED;
+
     public static void saveNetworkData(NeuralNetwork net, File f)
     {
-        saveNetworkData(net.getWeights(), net.getBiases(), f);
+        ActivationFunction[] funcs = new ActivationFunction[net.getLayerCount()];
+        for(int i = 0; i < funcs.length; i++)
+        {
+            funcs[i] = net.getLayer(i).getActivationFunction();
+        }
+        write(net.getWeights(), net.getBiases(), funcs, f);
     }
 
+    /**
+     * Saves weights and biases without activation functions. They have to be
+     * passed to {@link #loadNetwork(File, ActivationFunction)} when loading.
+     * @param weights Weights of the layers
+     * @param biases  Biases of the layers
+     * @param f       File
+     */
     public static void saveNetworkData(DMatrix[] weights, DRowVector[] biases, File f)
     {
-        if(biases.length != weights.length)
+        write(weights, biases, new ActivationFunction[weights.length], f);
+    }
+
+    /**
+     * Loads a network whose activation functions are recorded in the file.
+     * @param f File
+     * @return Network
+     */
+    public static NeuralNetwork loadNetwork(File f)
+    {
+        return loadNetwork(f, null);
+    }
+
+    /**
+     * Loads a network.
+     * @param f    File
+     * @param func Activation function of all layers whose function is not
+     *             recorded in the file. May be null if all functions are
+     *             recorded.
+     * @return Network
+     * @throws IllegalArgumentException if the file is not in the binary
+     *                                  format, e.g. in the legacy format
+     */
+    public static NeuralNetwork loadNetwork(File f, ActivationFunction func)
+    {
+        try(FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ))
         {
-            throw new IllegalArgumentException("Weights and biases differ in length");
-        }
+            long size = channel.size();
+            if(size > Integer.MAX_VALUE)
+            {
+                throw new IllegalArgumentException("Network file is too large");
+            }
 
-        Serializable[] objs = new Serializable[biases.length + weights.length];
-        System.arraycopy(weights, 0, objs, 0, weights.length);
-        System.arraycopy(biases, 0, objs, weights.length, biases.length);
+            ByteBuffer buffer = ByteBuffer.allocate((int)size).order(ByteOrder.LITTLE_ENDIAN);
+            while(buffer.hasRemaining())
+            {
+                if(channel.read(buffer, buffer.position()) < 0)
+                {
+                    throw new IOException("Unexpected end of file");
+                }
+            }
+            return read(buffer, func);
+        }
+        catch(IOException ex)
+        {
+            throw new RuntimeException("Failed to load network from file " + f.getPath(), ex);
+        }
+    }
 
-        Serializer.serializeToFile(f, objs);
+    /**
+     * @param f File
+     * @return true if the file is in the legacy format, so it has to be
+     *         loaded by {@link #loadLegacyNetwork(File, ActivationFunction)}
+     */
+    public static boolean isLegacyFormat(File f)
+    {
+        try(FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ))
+        {
+            ByteBuffer magic = ByteBuffer.allocate(2);
+            channel.read(magic, 0);
+            return magic.position() == 2 && magic.getShort(0) == LEGACY_MAGIC;
+        }
+        catch(IOException ex)
+        {
+            throw new RuntimeException("Failed to read file " + f.getPath(), ex);
+        }
     }
 
-    public static NeuralNetwork loadNetwork(File f, ActivationFunction func)
+    /**
+     * Loads a network of the legacy format, i.e. Java serialization of the
+     * weight and bias objects. Only load trusted files this way.
+     * @param f    File
+     * @param func Activation function of all layers
+     * @return Network
+     */
+    public static NeuralNetwork loadLegacyNetwork(File f, ActivationFunction func)
     {
+        if(func == null)
+        {
+            throw new IllegalArgumentException("Files in the legacy format need an activation function");
+        }
+
         Serializable[] arr = Serializer.deserializeFile(f, Serializable[].class);
         int lCount = arr.length / 2;
         NetworkLayer[] layers = new NetworkLayer[lCount];
@@ -43,6 +174,221 @@ public class NetworkIO
         return new NeuralNetwork(layers);
     }
 
+    private static void write(DMatrix[] weights, DRowVector[] biases, ActivationFunction[] funcs, File f)
+    {
+        if(biases.length != weights.length)
+        {
+            throw new IllegalArgumentException("Weights and biases differ in length");
+        }
+        if(weights.length == 0)
+        {
+            throw new IllegalArgumentException("Network has no layers");
+        }
+
+        long[] offsets = new long[weights.length];
+        long end = HEADER_SIZE + (long)LAYER_ENTRY_SIZE * weights.length;
+        for(int i = 0; i < weights.length; i++)
+        {
+            if(weights[i].getColumnCount() != biases[i].getLength()
+               || (i > 0 && weights[i].getRowCount() != weights[i - 1].getColumnCount()))
+            {
+                throw new IllegalArgumentException("Sizes of weights and biases do not match at layer " + i);
+            }
+            offsets[i] = alignBlock(end);
+            end = offsets[i] + 8L * blockLength(weights[i]);
+        }
+        if(end > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("Network is too large");
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int)end).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC)
+          .putInt(VERSION)
+          .putInt(DTYPE_FLOAT64)
+          .putInt(weights.length)
+          .putInt(weights[0].getRowCount())
+          .putInt(0);
+        for(int i = 0; i < weights.length; i++)
+        {
+            ActivationFunction func = funcs[i];
+            buffer.putInt(weights[i].getColumnCount())
+              .putInt(func == null ? ActivationFunction.ID_CUSTOM : func.getId())
+              .putDouble(func == null ? 0.0 : func.getParameter())
+              .putLong(offsets[i]);
+
+            DoubleBuffer block = blockView(buffer, offsets[i], blockLength(weights[i]));
+            weights[i].writeTo(block);
+            biases[i].writeTo(block);
+        }
+
+        buffer.putInt(CHECKSUM_POS, checksum(buffer));
+        buffer.clear();
+
+        try
+        {
+            Path target = f.toPath();
+            Path temp = Files.createTempFile(target.toAbsolutePath().getParent(), f.getName(), ".tmp");
+            try
+            {
+                try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+                {
+                    while(buffer.hasRemaining())
+                    {
+                        channel.write(buffer);
+                    }
+                }
+
+                try
+                {
+                    Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                }
+                catch(AtomicMoveNotSupportedException ex)
+                {
+                    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            finally
+            {
+                Files.deleteIfExists(temp);
+            }
+        }
+        catch(IOException ex)
+        {
+            throw new RuntimeException("Failed to save network to file " + f.getPath(), ex);
+        }
+    }
+
+    private static NeuralNetwork read(ByteBuffer buffer, ActivationFunction func)
+    {
+        int layerCount = readHeader(buffer);
+        if(buffer.getInt(CHECKSUM_POS) != checksum(buffer))
+        {
+            throw new IllegalArgumentException("Checksum of network file does not match");
+        }
+
+        NetworkLayer[] layers = new NetworkLayer[layerCount];
+        int inputSize = buffer.getInt(16);
+        for(int i = 0; i < layerCount; i++)
+        {
+            int entry = HEADER_SIZE + i * LAYER_ENTRY_SIZE;
+            int outputSize = buffer.getInt(entry);
+            DoubleBuffer block = blockView(buffer, buffer.getLong(entry + 16), (long)(inputSize + 1) * outputSize);
+
+            DMatrix weights = new DMatrix(inputSize, outputSize).readFrom(block);
+            DRowVector biases = new DRowVector(outputSize);
+            biases.readFrom(block);
+            layers[i] = new NetworkLayer(weights, biases, activationAt(buffer, i, func));
+
+            inputSize = outputSize;
+        }
+        return new NeuralNetwork(layers);
+    }
+
+    /**
+     * Checks magic, version, data type and the layer table of a buffer in
+     * the binary format, including that the blocks fill the buffer up to its
+     * end. The checksum is not validated.
+     * @param buffer Little endian buffer starting at the file start
+     * @return Layer count
+     */
+    static int readHeader(ByteBuffer buffer)
+    {
+        if(buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+        {
+            throw new IllegalArgumentException("Not a network file");
+        }
+        if(buffer.getInt(4) != VERSION)
+        {
+            throw new IllegalArgumentException("Unsupported network file version: " + buffer.getInt(4));
+        }
+        if(buffer.getInt(8) != DTYPE_FLOAT64)
+        {
+            throw new IllegalArgumentException("Unsupported data type: " + buffer.getInt(8));
+        }
+
+        int layerCount = buffer.getInt(12);
+        if(layerCount <= 0 || layerCount > MAX_LAYER_COUNT
+           || HEADER_SIZE + (long)LAYER_ENTRY_SIZE * layerCount > buffer.capacity())
+        {
+            throw new IllegalArgumentException("Illegal layer count: " + layerCount);
+        }
+
+        long inputSize = buffer.getInt(16);
+        long end = HEADER_SIZE + (long)LAYER_ENTRY_SIZE * layerCount;
+        for(int i = 0; i < layerCount; i++)
+        {
+            int entry = HEADER_SIZE + i * LAYER_ENTRY_SIZE;
+            long outputSize = buffer.getInt(entry);
+            long offset = buffer.getLong(entry + 16);
+            long blockLength = (inputSize + 1) * outputSize;
+            if(inputSize <= 0 || outputSize <= 0 || blockLength > Integer.MAX_VALUE
+               || offset < end || offset % BLOCK_ALIGNMENT != 0
+               || offset + 8 * blockLength > buffer.capacity())
+            {
+                throw new IllegalArgumentException("Illegal layer table entry at layer " + i);
+            }
+            end = offset + 8 * blockLength;
+            inputSize = outputSize;
+        }
+        if(end != buffer.capacity())
+        {
+            throw new IllegalArgumentException("Network file has trailing bytes");
+        }
+        return layerCount;
+    }
+
+    static ActivationFunction activationAt(ByteBuffer buffer, int layer, ActivationFunction func)
+    {
+        int entry = HEADER_SIZE + layer * LAYER_ENTRY_SIZE;
+        int id = buffer.getInt(entry + 4);
+        if(id != ActivationFunction.ID_CUSTOM)
+        {
+            return ActivationFunction.fromId(id, buffer.getDouble(entry + 8));
+        }
+        if(func == null)
+        {
+            throw new IllegalArgumentException("Activation function of layer " + layer + " is not recorded");
+        }
+        return func;
+    }
+
+    /**
+     * View of a block of doubles within a buffer in the binary format.
+     */
+    static DoubleBuffer blockView(ByteBuffer buffer, long offset, long length)
+    {
+        ByteBuffer view = buffer.duplicate();
+        view.limit((int)(offset + 8 * length)).position((int)offset);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+    }
+
+    private static int blockLength(DMatrix weights)
+    {
+        return (weights.getRowCount() + 1) * weights.getColumnCount();
+    }
+
+    private static long alignBlock(long position)
+    {
+        return (position + BLOCK_ALIGNMENT - 1) / BLOCK_ALIGNMENT * BLOCK_ALIGNMENT;
+    }
+
+    /**
+     * CRC32 of a whole buffer in the binary format with the checksum field
+     * counted as zero, so the header and the layer table are covered as well.
+     */
+    static int checksum(ByteBuffer buffer)
+    {
+        CRC32 crc = new CRC32();
+        ByteBuffer view = buffer.duplicate();
+        view.limit(CHECKSUM_POS).position(0);
+        crc.update(view);
+        crc.update(new byte[4]);
+        view.limit(view.capacity()).position(CHECKSUM_POS + 4);
+        crc.update(view);
+        return (int)crc.getValue();
+    }
+
     private NetworkIO()
     {
     }
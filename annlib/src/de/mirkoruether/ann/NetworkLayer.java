@@ -30,14 +30,61 @@ public class NetworkLayer
 
     public DRowVector feedForward(DRowVector in)
     {
-        return calculateWeightedInput(in).applyFunctionElementWiseInPlace(activationFunction.f);
+        return feedForwardInto(in, new DRowVector(getOutputSize()));
+    }
+
+    public DRowVector feedForwardInto(DRowVector in, DRowVector dest)
+    {
+        return feedForwardDetailedInto(in, null, dest);
+    }
+
+    /**
+     * Calculates weighted input and activation of this layer, for element-wise
+     * activation functions in one fused pass. Works for a single input as well
+     * as for a batch with one input per row.
+     * @param <M>               type of the destination
+     * @param in                Input, one per row
+     * @param weightedInputDest Destination of the weighted input
+     * @param dest              Destination of the activation
+     * @return dest
+     */
+    public <M extends DMatrix> M feedForwardDetailedInto(DMatrix in, DMatrix weightedInputDest, M dest)
+    {
+        if(activationFunction.isElementWise())
+        {
+            return in.matrixMulAddRowApplyInto(weights, biases, activationFunction.f, weightedInputDest, dest);
+        }
+
+        DMatrix z = weightedInputDest == null ? dest : weightedInputDest;
+        in.matrixMulAddRowInto(weights, biases, z);
+        return weightedInputDest == dest ? dest : activationFunction.applyInto(z, dest);
     }
 
     public DRowVector calculateWeightedInput(DRowVector in)
     {
-        return in.matrixMul(weights)
-                .asRowVector()
-                .addInPlace(biases);
+        return calculateWeightedInputInto(in, new DRowVector(getOutputSize()));
+    }
+
+    public DRowVector calculateWeightedInputInto(DRowVector in, DRowVector dest)
+    {
+        return in.matrixMulAddRowInto(weights, biases, dest);
+    }
+
+    /**
+     * Feeds a whole batch forward, one input per row.
+     * @param in   Inputs, one per row
+     * @param dest Destination with one row per input and one column per
+     *             neuron
+     * @return dest
+     */
+    public DMatrix feedForwardBatchInto(DMatrix in, DMatrix dest)
+    {
+        return feedForwardDetailedInto(in, null, dest);
+    }
+
+    public DMatrix calculateWeightedInputBatchInto(DMatrix in, DMatrix dest)
+    {
+        return in.matrixMulAddRowInto(weights, biases, dest);
     }
 
     public int getInputSize()
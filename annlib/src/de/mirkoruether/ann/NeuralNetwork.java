@@ -4,10 +4,13 @@ import de.mirkoruether.ann.initialization.NetLayerInitialization;
 import de.mirkoruether.linalg.DMatrix;
 import de.mirkoruether.linalg.DRowVector;
 import de.mirkoruether.linalg.SizeException;
+import java.util.function.BiConsumer;
+import java.util.function.IntFunction;
 
 public class NeuralNetwork
 {
     private final NetworkLayer[] layers;
+    private boolean singlePrecision = false;
 
     public NeuralNetwork(NetworkLayer[] layers)
     {
@@ -39,24 +42,190 @@ public class NeuralNetwork
         return result;
     }
 
+    /**
+     * Feeds the input forward using the activation vectors of a buffer instead
+     * of allocating new ones.
+     * @param in     Net input
+     * @param buffer Buffer created for this net, see
+     *               {@link DetailedResult#DetailedResult(NeuralNetwork)}
+     * @return Net output, backed by the buffer and overwritten by the next call
+     */
+    public DRowVector feedForward(DRowVector in, DetailedResult buffer)
+    {
+        if(in.getLength() != getInputSize())
+        {
+            throw new SizeException("Wrong input size!");
+        }
+
+        DRowVector[] act = buffer.getActivationsInclInput();
+
+        DRowVector result = in;
+        for(int i = 0; i < layers.length; i++)
+        {
+            result = layers[i].feedForwardInto(result, act[i + 1]);
+        }
+        return result;
+    }
+
     public DetailedResult feedForwardDetailed(DRowVector in)
+    {
+        return feedForwardDetailedInto(in, new DetailedResult(this));
+    }
+
+    /**
+     * Like {@link #feedForwardDetailed(DRowVector)}, but writes all weighted
+     * inputs and activations to the vectors of the given buffer. The input is
+     * referenced, not copied.
+     * @param in   Net input
+     * @param dest Buffer created for this net, see
+     *             {@link DetailedResult#DetailedResult(NeuralNetwork)}
+     * @return dest
+     */
+    public DetailedResult feedForwardDetailedInto(DRowVector in, DetailedResult dest)
     {
         if(in.getLength() != getInputSize())
         {
             throw new SizeException("Wrong input size!");
         }
 
-        DRowVector[] act = new DRowVector[layers.length + 1];
-        DRowVector[] wIs = new DRowVector[layers.length];
+        DRowVector[] act = dest.getActivationsInclInput();
+        DRowVector[] wIs = dest.getWeightedInputs();
+
+        act[0] = in;
+        for(int i = 0; i < layers.length; i++)
+        {
+            layers[i].feedForwardDetailedInto(act[i], wIs[i], act[i + 1]);
+        }
+
+        return dest;
+    }
+
+    /**
+     * Feeds a whole batch forward with one matrix product per layer.
+     * @param in Inputs, one per row
+     * @return Net outputs, one per row
+     */
+    public DMatrix feedForwardBatch(DMatrix in)
+    {
+        return feedForwardBatch(in, new BatchActivations(this, in.getRowCount()));
+    }
+
+    /**
+     * Feeds a whole batch forward using the activation matrices of a buffer
+     * instead of allocating new ones.
+     * @param in     Inputs, one per row
+     * @param buffer Buffer created for this net and the row count of in
+     * @return Net outputs, one per row, backed by the buffer
+     */
+    public DMatrix feedForwardBatch(DMatrix in, BatchActivations buffer)
+    {
+        return feedForwardBatch(in, buffer.getActivations(), 0);
+    }
+
+    /**
+     * Like {@link #feedForwardBatch(DMatrix, BatchActivations)}, but writes the
+     * activations to a buffer of the detailed form, e.g. one kept for
+     * training. Its weighted inputs are left untouched.
+     * @param in     Inputs, one per row
+     * @param buffer Buffer created for this net and the row count of in
+     * @return Net outputs, one per row, backed by the buffer
+     */
+    public DMatrix feedForwardBatch(DMatrix in, DetailedBatchResult buffer)
+    {
+        return feedForwardBatch(in, buffer.getActivationsInclInput(), 1);
+    }
+
+    /**
+     * @param act   Activation matrices, the one of layer i at index
+     *              i + first
+     * @param first Index of the activation of the first layer
+     */
+    private DMatrix feedForwardBatch(DMatrix in, DMatrix[] act, int first)
+    {
+        if(in.getColumnCount() != getInputSize())
+        {
+            throw new SizeException("Wrong input size!");
+        }
+
+        DMatrix result = in;
+        for(int i = 0; i < layers.length; i++)
+        {
+            result = layers[i].feedForwardBatchInto(result, act[i + first]);
+        }
+        return result;
+    }
+
+    /**
+     * Feeds a sequence of inputs forward in batches. Inputs and outputs of
+     * each batch are kept in buffers which are reused for the next batch.
+     * @param count     Number of inputs
+     * @param inputs    Supplies the input for an index
+     * @param batchSize Maximum number of inputs per matrix product
+     * @param consumer  Receives the index of the first input of a batch and
+     *                  the outputs of the batch, one per row. The matrix is
+     *                  overwritten by the next batch.
+     */
+    public void feedForwardBatches(int count, IntFunction<DRowVector> inputs, int batchSize, BiConsumer<Integer, DMatrix> consumer)
+    {
+        if(batchSize <= 0)
+        {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+
+        // Allocated for the first batch, the last one may use the first rows
+        int maxLength = Math.min(batchSize, count);
+        DMatrix in = new DMatrix(maxLength, getInputSize());
+        BatchActivations buffer = new BatchActivations(this, maxLength);
+        for(int first = 0; first < count; first += batchSize)
+        {
+            int length = Math.min(batchSize, count - first);
+            if(length != in.getRowCount())
+            {
+                in = in.viewRows(0, length);
+                buffer = buffer.viewFirstRows(length);
+            }
+
+            for(int x = 0; x < length; x++)
+            {
+                in.setRow(x, inputs.apply(first + x));
+            }
+            consumer.accept(first, feedForwardBatch(in, buffer));
+        }
+    }
+
+    /**
+     * Matrix form of {@link #feedForwardDetailedInto(DRowVector, DetailedResult)}
+     * for a whole batch. Every layer is calculated with one matrix product.
+     * @param in   Inputs, one per row
+     * @param dest Buffer created for this net and the batch length
+     * @return dest
+     */
+    public DetailedBatchResult feedForwardDetailedBatchInto(DMatrix in, DetailedBatchResult dest)
+    {
+        if(in.getColumnCount() != getInputSize())
+        {
+            throw new SizeException("Wrong input size!");
+        }
+
+        DMatrix[] act = dest.getActivationsInclInput();
+        DMatrix[] wIs = dest.getWeightedInputs();
 
         act[0] = in;
         for(int i = 0; i < layers.length; i++)
         {
-            wIs[i] = layers[i].calculateWeightedInput(act[i]);
-            act[i + 1] = wIs[i].applyFunctionElementWise(layers[i].getActivationFunction().f);
+            layers[i].feedForwardDetailedInto(act[i], wIs[i], act[i + 1]);
         }
 
-        return new DetailedResult(wIs, act);
+        return dest;
+    }
+
+    /**
+     * Creates a single-precision copy of this net for inference.
+     * @return Copy with float weights and biases
+     */
+    public SinglePrecisionNetwork toSinglePrecision()
+    {
+        return new SinglePrecisionNetwork(this);
     }
 
     public int getInputSize()
@@ -84,6 +253,27 @@ public class NeuralNetwork
         return layers[index];
     }
 
+    public boolean isSinglePrecision()
+    {
+        return singlePrecision;
+    }
+
+    /**
+     * Selects the precision of training. A single-precision net is trained in
+     * matrix form with the forward pass, the backward pass and the summation
+     * of the gradients in float, which halves the memory traffic of the
+     * matrix products. Weights and biases stay double and are updated in
+     * double. Trainers updating per sample, like the Hogwild trainer, train
+     * in double. Feeding forward outside of training is not affected, see
+     * {@link SinglePrecisionNetwork} for float inference. The flag is not
+     * saved by {@link NetworkIO}.
+     * @param singlePrecision true to train in single precision
+     */
+    public void setSinglePrecision(boolean singlePrecision)
+    {
+        this.singlePrecision = singlePrecision;
+    }
+
     public NetworkLayer getOutputLayer()
     {
         return layers[layers.length - 1];
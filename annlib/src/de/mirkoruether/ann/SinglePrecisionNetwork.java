@@ -0,0 +1,116 @@
+package de.mirkoruether.ann;
+
+import de.mirkoruether.linalg.DMatrix;
+import de.mirkoruether.linalg.DRowVector;
+import de.mirkoruether.linalg.FMatrix;
+import de.mirkoruether.linalg.SizeException;
+
+/**
+ * Single-precision copy of a {@link NeuralNetwork} for inference. Weights and
+ * biases are stored as floats, which halves the memory traffic of the
+ * matrix products. Changes to the source net after the copy are not
+ * reflected.
+ *
+ * Each layer is one float product with the bias and the activation function
+ * fused into its epilogue, like the double-precision layers. The activations
+ * are kept in float buffers of the calling thread which are reused as long
+ * as the number of inputs does not change, so only the inputs and outputs
+ * are converted. Instances are safe for concurrent use.
+ */
+public class SinglePrecisionNetwork
+{
+    private final FMatrix[] weights;
+    private final FMatrix[] biases;
+    private final ActivationFunction[] activationFunctions;
+    private final ThreadLocal<FMatrix[]> buffers = new ThreadLocal<>();
+
+    public SinglePrecisionNetwork(NeuralNetwork net)
+    {
+        int count = net.getLayerCount();
+        weights = new FMatrix[count];
+        biases = new FMatrix[count];
+        activationFunctions = new ActivationFunction[count];
+
+        for(int i = 0; i < count; i++)
+        {
+            NetworkLayer layer = net.getLayer(i);
+            weights[i] = FMatrix.fromDoubleMatrix(layer.getWeights());
+            biases[i] = FMatrix.fromDoubleMatrix(layer.getBiases());
+            activationFunctions[i] = layer.getActivationFunction();
+        }
+    }
+
+    public DRowVector feedForward(DRowVector in)
+    {
+        return feedForwardBatchInto(in, new DRowVector(getOutputSize()));
+    }
+
+    public DMatrix feedForwardBatch(DMatrix in)
+    {
+        return feedForwardBatchInto(in, new DMatrix(in.getRowCount(), getOutputSize()));
+    }
+
+    /**
+     * Feeds inputs forward.
+     * @param <M>  type of the destination
+     * @param in   Inputs, one per row
+     * @param dest Destination with one row per input and one column per
+     *             output neuron
+     * @return dest
+     */
+    public <M extends DMatrix> M feedForwardBatchInto(DMatrix in, M dest)
+    {
+        if(in.getColumnCount() != getInputSize())
+        {
+            throw new SizeException("Wrong input size!");
+        }
+
+        FMatrix[] act = getBuffers(in.getRowCount());
+        act[0].copyFrom(in);
+        for(int i = 0; i < weights.length; i++)
+        {
+            ActivationFunction func = activationFunctions[i];
+            act[i].matrixMulAddRowApplyInto(weights[i], biases[i], func.isElementWise() ? func.f : null, act[i + 1]);
+            if(!func.isElementWise())
+            {
+                act[i + 1].applyFunctionRowWiseInPlace(func);
+            }
+        }
+        return act[weights.length].toDoubleMatrixInto(dest);
+    }
+
+    /**
+     * @return Activation buffers of the calling thread for the given number
+     *         of inputs, the inputs first
+     */
+    private FMatrix[] getBuffers(int rowCount)
+    {
+        FMatrix[] act = buffers.get();
+        if(act == null || act[0].getRowCount() != rowCount)
+        {
+            act = new FMatrix[weights.length + 1];
+            act[0] = new FMatrix(rowCount, getInputSize());
+            for(int i = 0; i < weights.length; i++)
+            {
+                act[i + 1] = new FMatrix(rowCount, weights[i].getColumnCount());
+            }
+            buffers.set(act);
+        }
+        return act;
+    }
+
+    public int getInputSize()
+    {
+        return weights[0].getRowCount();
+    }
+
+    public int getOutputSize()
+    {
+        return weights[weights.length - 1].getColumnCount();
+    }
+
+    public int getLayerCount()
+    {
+        return weights.length;
+    }
+}
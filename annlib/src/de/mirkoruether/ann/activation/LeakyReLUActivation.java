@@ -0,0 +1,80 @@
+package de.mirkoruether.ann.activation;
+
+import de.mirkoruether.ann.ActivationFunction;
+import de.mirkoruether.linalg.DFunction;
+
+/**
+ * Leaky rectified linear unit: z for positive z, alpha * z otherwise. Unlike
+ * the plain ReLU, neurons with negative weighted inputs keep a gradient.
+ *
+ * For alpha &gt;= 0 the activation is positive exactly if the weighted input
+ * is, so the derivative is the same function of either.
+ */
+public class LeakyReLUActivation extends ActivationFunction
+{
+    public LeakyReLUActivation(double alpha)
+    {
+        this(alpha, new Derivative(alpha));
+    }
+
+    private LeakyReLUActivation(double alpha, Derivative derivative)
+    {
+        super(new Function(alpha), derivative, alpha >= 0.0 ? derivative : null, ID_LEAKY_RELU, alpha);
+    }
+
+    public double getAlpha()
+    {
+        return getParameter();
+    }
+
+    private static final class Function implements DFunction
+    {
+        private final double alpha;
+
+        private Function(double alpha)
+        {
+            this.alpha = alpha;
+        }
+
+        @Override
+        public double apply(double z)
+        {
+            return z > 0.0 ? z : alpha * z;
+        }
+
+        @Override
+        public void applyArray(double[] src, int srcOffset, double[] dest, int destOffset, int length)
+        {
+            for(int i = 0; i < length; i++)
+            {
+                double z = src[srcOffset + i];
+                dest[destOffset + i] = z > 0.0 ? z : alpha * z;
+            }
+        }
+    }
+
+    private static final class Derivative implements DFunction
+    {
+        private final double alpha;
+
+        private Derivative(double alpha)
+        {
+            this.alpha = alpha;
+        }
+
+        @Override
+        public double apply(double z)
+        {
+            return z > 0.0 ? 1.0 : alpha;
+        }
+
+        @Override
+        public void applyArray(double[] src, int srcOffset, double[] dest, int destOffset, int length)
+        {
+            for(int i = 0; i < length; i++)
+            {
+                dest[destOffset + i] = src[srcOffset + i] > 0.0 ? 1.0 : alpha;
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package de.mirkoruether.ann.activation;
+
+import de.mirkoruether.ann.ActivationFunction;
+import de.mirkoruether.linalg.DFunction;
+
+/**
+ * Logistic function 1 / (1 + e^(-z/T)) with temperature T. The derivative is
+ * calculated from the function value as s(1 - s) / T, which takes a single
+ * exponential per element, or none if the activation s is known.
+ */
+public class LogisticActivation extends ActivationFunction
+{
+    public LogisticActivation(double T)
+    {
+        super(new Function(T), new Derivative(T), new OutputDerivative(T), ID_LOGISTIC, T);
+    }
+
+    public double getTemperature()
+    {
+        return getParameter();
+    }
+
+    private static final class Function implements DFunction
+    {
+        private final double T;
+
+        private Function(double T)
+        {
+            this.T = T;
+        }
+
+        @Override
+        public double apply(double z)
+        {
+            return 1 / (1 + Math.exp(-z / T));
+        }
+
+        @Override
+        public void applyArray(double[] src, int srcOffset, double[] dest, int destOffset, int length)
+        {
+            for(int i = 0; i < length; i++)
+            {
+                dest[destOffset + i] = 1 / (1 + Math.exp(-src[srcOffset + i] / T));
+            }
+        }
+    }
+
+    private static final class Derivative implements DFunction
+    {
+        private final double T;
+
+        private Derivative(double T)
+        {
+            this.T = T;
+        }
+
+        @Override
+        public double apply(double z)
+        {
+            double s = 1 / (1 + Math.exp(-z / T));
+            return s * (1 - s) / T;
+        }
+
+        @Override
+        public void applyArray(double[] src, int srcOffset, double[] dest, int destOffset, int length)
+        {
+            for(int i = 0; i < length; i++)
+            {
+                double s = 1 / (1 + Math.exp(-src[srcOffset + i] / T));
+                dest[destOffset + i] = s * (1 - s) / T;
+            }
+        }
+    }
+
+    private static final class OutputDerivative implements DFunction
+    {
+        private final double T;
+
+        private OutputDerivative(double T)
+        {
+            this.T = T;
+        }
+
+        @Override
+        public double apply(double s)
+        {
+            return s * (1 - s) / T;
+        }
+
+        @Override
+        public void applyArray(double[] src, int srcOffset, double[] dest, int destOffset, int length)
+        {
+            for(int i = 0; i < length; i++)
+            {
+                double s = src[srcOffset + i];
+                dest[destOffset + i] = s * (1 - s) / T;
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package de.mirkoruether.ann.activation;
+
+import de.mirkoruether.ann.ActivationFunction;
+import de.mirkoruether.linalg.DFunction;
+
+/**
+ * Rectified linear unit max(0, z). The derivative at 0 is taken as 0. As the
+ * activation is positive exactly if the weighted input is, the derivative is
+ * the same function of either.
+ */
+public class ReLUActivation extends ActivationFunction
+{
+    public ReLUActivation()
+    {
+        this(new Derivative());
+    }
+
+    private ReLUActivation(Derivative derivative)
+    {
+        super(new Function(), derivative, derivative, ID_RELU, 0.0);
+    }
+
+    private static final class Function implements DFunction
+    {
+        @Override
+        public double apply(double z)
+        {
+            return z > 0.0 ? z : 0.0;
+        }
+
+        @Override
+        public void applyArray(double[] src, int srcOffset, double[] dest, int destOffset, int length)
+        {
+            for(int i = 0; i < length; i++)
+            {
+                double z = src[srcOffset + i];
+                dest[destOffset + i] = z > 0.0 ? z : 0.0;
+            }
+        }
+    }
+
+    private static final class Derivative implements DFunction
+    {
+        @Override
+        public double apply(double z)
+        {
+            return z > 0.0 ? 1.0 : 0.0;
+        }
+
+        @Override
+        public void applyArray(double[] src, int srcOffset, double[] dest, int destOffset, int length)
+        {
+            for(int i = 0; i < length; i++)
+            {
+                dest[destOffset + i] = src[srcOffset + i] > 0.0 ? 1.0 : 0.0;
+            }
+        }
+    }
+}
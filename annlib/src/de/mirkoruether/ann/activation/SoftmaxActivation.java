@@ -0,0 +1,96 @@
+package de.mirkoruether.ann.activation;
+
+import de.mirkoruether.ann.ActivationFunction;
+import de.mirkoruether.linalg.DFunction;
+import de.mirkoruether.linalg.DMatrix;
+
+/**
+ * Softmax over the neurons of a layer: a_j = e^(z_j) / sum_k e^(z_k). The
+ * weighted inputs are shifted by their maximum first (log-sum-exp trick), so
+ * large inputs do not overflow.
+ *
+ * The Jacobian of softmax is not diagonal, da_j/dz_k = a_j(delta_jk - a_k),
+ * so the error is backpropagated by
+ * {@link #backpropagateInPlace(DMatrix, DMatrix, DMatrix, DMatrix)} with the
+ * product g_j -&gt; a_j(g_j - sum_k g_k a_k) instead of a derivative. Together
+ * with {@link de.mirkoruether.ann.training.costs.CrossEntropyCosts} in the
+ * output layer the error of the last layer is a - y and does not need the
+ * Jacobian at all.
+ *
+ * Softmax is not element-wise, f, f_derivative and the derivative methods
+ * throw an UnsupportedOperationException.
+ */
+public class SoftmaxActivation extends ActivationFunction
+{
+    private static final DFunction NOT_ELEMENT_WISE = (z) ->
+    {
+        throw new UnsupportedOperationException("Softmax can not be applied element-wise");
+    };
+    private static final DMatrix[] NO_STATE = new DMatrix[0];
+
+    public SoftmaxActivation()
+    {
+        super(NOT_ELEMENT_WISE, NOT_ELEMENT_WISE, null, ID_SOFTMAX, 0.0);
+    }
+
+    @Override
+    public boolean isElementWise()
+    {
+        return false;
+    }
+
+    @Override
+    public void applyArray(double[] src, int srcOffset, double[] dest, int destOffset, int length)
+    {
+        double max = Double.NEGATIVE_INFINITY;
+        for(int i = 0; i < length; i++)
+        {
+            max = Math.max(max, src[srcOffset + i]);
+        }
+
+        double sum = 0.0;
+        for(int i = 0; i < length; i++)
+        {
+            double e = Math.exp(src[srcOffset + i] - max);
+            dest[destOffset + i] = e;
+            sum += e;
+        }
+
+        for(int i = 0; i < length; i++)
+        {
+            dest[destOffset + i] /= sum;
+        }
+    }
+
+    /**
+     * @throws UnsupportedOperationException always, the Jacobian of softmax
+     *                                       is not diagonal
+     */
+    @Override
+    public <M extends DMatrix> M derivativeInto(DMatrix z, M dest)
+    {
+        throw new UnsupportedOperationException("Softmax has no element-wise derivative, use backpropagateInPlace");
+    }
+
+    @Override
+    public <M extends DMatrix> M backpropagateInPlace(DMatrix z, DMatrix a, M gradient, DMatrix derivative)
+    {
+        int n = gradient.getColumnCount();
+        gradient.updateInPlace(a, NO_STATE, (g, act, state, length) ->
+        {
+            for(int row = 0; row < length; row += n)
+            {
+                double dot = 0.0;
+                for(int j = row; j < row + n; j++)
+                {
+                    dot += g[j] * act[j];
+                }
+                for(int j = row; j < row + n; j++)
+                {
+                    g[j] = act[j] * (g[j] - dot);
+                }
+            }
+        });
+        return gradient;
+    }
+}
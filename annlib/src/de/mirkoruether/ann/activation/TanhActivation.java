@@ -0,0 +1,73 @@
+package de.mirkoruether.ann.activation;
+
+import de.mirkoruether.ann.ActivationFunction;
+import de.mirkoruether.linalg.DFunction;
+
+/**
+ * Hyperbolic tangent. Its derivative is 1 - tanh(z)^2, or 1 - a^2 of the
+ * activation a.
+ */
+public class TanhActivation extends ActivationFunction
+{
+    public TanhActivation()
+    {
+        super(new Function(), new Derivative(), new OutputDerivative(), ID_TANH, 0.0);
+    }
+
+    private static final class Function implements DFunction
+    {
+        @Override
+        public double apply(double z)
+        {
+            return Math.tanh(z);
+        }
+
+        @Override
+        public void applyArray(double[] src, int srcOffset, double[] dest, int destOffset, int length)
+        {
+            for(int i = 0; i < length; i++)
+            {
+                dest[destOffset + i] = Math.tanh(src[srcOffset + i]);
+            }
+        }
+    }
+
+    private static final class Derivative implements DFunction
+    {
+        @Override
+        public double apply(double z)
+        {
+            double t = Math.tanh(z);
+            return 1 - t * t;
+        }
+
+        @Override
+        public void applyArray(double[] src, int srcOffset, double[] dest, int destOffset, int length)
+        {
+            for(int i = 0; i < length; i++)
+            {
+                double t = Math.tanh(src[srcOffset + i]);
+                dest[destOffset + i] = 1 - t * t;
+            }
+        }
+    }
+
+    private static final class OutputDerivative implements DFunction
+    {
+        @Override
+        public double apply(double a)
+        {
+            return 1 - a * a;
+        }
+
+        @Override
+        public void applyArray(double[] src, int srcOffset, double[] dest, int destOffset, int length)
+        {
+            for(int i = 0; i < length; i++)
+            {
+                double a = src[srcOffset + i];
+                dest[destOffset + i] = 1 - a * a;
+            }
+        }
+    }
+}
@@ -6,10 +6,30 @@ import java.util.Random;
 
 public class GaussianInitialization implements NetLayerInitialization
 {
+    private final Random rand;
+
+    public GaussianInitialization()
+    {
+        this(new Random());
+    }
+
+    /**
+     * @param seed Seed of the random number generator, for reproducible
+     *             initialization
+     */
+    public GaussianInitialization(long seed)
+    {
+        this(new Random(seed));
+    }
+
+    private GaussianInitialization(Random rand)
+    {
+        this.rand = rand;
+    }
+
     @Override
     public DRowVector initBiases(int size)
     {
-        Random rand = new Random();
         double[] values = new double[size];
         for(int i = 0; i < values.length; i++)
         {
@@ -21,7 +41,6 @@ public class GaussianInitialization implements NetLayerInitialization
     @Override
     public DMatrix initWeights(int outputSize, int inputSize)
     {
-        Random rand = new Random();
         double[][] values = new double[inputSize][outputSize];
         for(double[] row : values)
         {
@@ -4,6 +4,15 @@ import de.mirkoruether.linalg.DMatrix;
 
 public class NormalizedGaussianInitialization extends GaussianInitialization
 {
+    public NormalizedGaussianInitialization()
+    {
+    }
+
+    public NormalizedGaussianInitialization(long seed)
+    {
+        super(seed);
+    }
+
     @Override
     public DMatrix initWeights(int size, int inputSize)
     {
@@ -0,0 +1,337 @@
+package de.mirkoruether.ann.training;
+
+import de.mirkoruether.linalg.DMatrix;
+import de.mirkoruether.linalg.DRowVector;
+import java.io.Closeable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Assembles the batches of an epoch on background threads ahead of the
+ * trainer.
+ *
+ * The batches are stacked into matrices with one sample per row, held in a
+ * ring buffer of a fixed number of slots which are allocated once and reused.
+ * Producer threads claim the batches in order, wait for the slot of a claimed
+ * batch to be released, copy the inputs and solutions into it and apply the
+ * optional {@link BatchTransform}, e.g. a normalization or an augmentation of
+ * the inputs. The consumer gets the batches in the order of the epoch on the
+ * calling thread. While it trains a batch, up to capacity - 1 further batches
+ * are prepared, so the trainer only waits for data if the producers are
+ * slower than the training.
+ *
+ * An instance runs one epoch at a time. The producer threads are started
+ * with the first epoch and kept until the pipeline is closed.
+ */
+public class BatchPipeline implements Closeable
+{
+    private final int producerCount;
+    private final Slot[] slots;
+    private final BatchTransform transform;
+    private final ExecutorService executor;
+
+    private int releasedCount;
+    private boolean aborted;
+    private Throwable error;
+
+    /**
+     * @param producerCount Number of producer threads
+     * @param capacity      Number of batches held in the ring buffer, at
+     *                      least 2 to overlap the preparation with the
+     *                      training
+     * @param transform     Transformation applied to every assembled batch on
+     *                      the producer threads, may be null
+     */
+    public BatchPipeline(int producerCount, int capacity, BatchTransform transform)
+    {
+        if(producerCount <= 0)
+        {
+            throw new IllegalArgumentException("Producer count has to be positive");
+        }
+        if(capacity <= 0)
+        {
+            throw new IllegalArgumentException("Capacity has to be positive");
+        }
+
+        this.producerCount = producerCount;
+        this.transform = transform;
+        slots = new Slot[capacity];
+        for(int i = 0; i < capacity; i++)
+        {
+            slots[i] = new Slot();
+        }
+
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(producerCount, (r) ->
+                                        {
+                                            Thread t = new Thread(r, "BatchPipeline-" + threadCount.getAndIncrement());
+                                            t.setDaemon(true);
+                                            return t;
+                                        });
+    }
+
+    public BatchPipeline(int producerCount, int capacity)
+    {
+        this(producerCount, capacity, null);
+    }
+
+    /**
+     * Runs one epoch and returns after the consumer got the last batch.
+     * @param data      Training data
+     * @param order     Order of the training data in this epoch
+     * @param batchSize Batch size, the last batch may be shorter
+     * @param consumer  Consumer of the batches, called on the calling thread.
+     *                  The matrices are only valid during the call.
+     * @throws IllegalStateException if the pipeline is closed
+     */
+    public void run(TrainingData[] data, int[] order, int batchSize, BatchConsumer consumer)
+    {
+        if(executor.isShutdown())
+        {
+            throw new IllegalStateException("Pipeline is closed");
+        }
+
+        int batchCount = (order.length + batchSize - 1) / batchSize;
+        if(batchCount == 0)
+        {
+            return;
+        }
+
+        synchronized(this)
+        {
+            for(Slot s : slots)
+            {
+                s.batch = -1;
+                s.inputRow = null;
+                s.solutionRow = null;
+            }
+            releasedCount = 0;
+            aborted = false;
+            error = null;
+        }
+
+        AtomicInteger nextBatch = new AtomicInteger();
+        Future<?>[] producers = new Future<?>[Math.min(producerCount, batchCount)];
+        for(int i = 0; i < producers.length; i++)
+        {
+            producers[i] = executor.submit(() -> produce(data, order, batchSize, batchCount, nextBatch));
+        }
+
+        try
+        {
+            for(int b = 0; b < batchCount; b++)
+            {
+                Slot slot = awaitProduced(b);
+                consumer.accept(slot.inputs, slot.solutions);
+                release(b);
+            }
+        }
+        finally
+        {
+            abort();
+            for(Future<?> f : producers)
+            {
+                awaitUninterruptibly(f);
+            }
+        }
+    }
+
+    private void produce(TrainingData[] data, int[] order, int batchSize, int batchCount, AtomicInteger nextBatch)
+    {
+        try
+        {
+            int b;
+            while((b = nextBatch.getAndIncrement()) < batchCount)
+            {
+                Slot slot = slots[b % slots.length];
+                if(!awaitReleased(b - slots.length))
+                {
+                    return;
+                }
+
+                int from = b * batchSize;
+                slot.fill(data, order, from, Math.min(batchSize, order.length - from));
+                if(transform != null)
+                {
+                    transform.apply(slot.inputs, slot.solutions);
+                }
+                publish(slot, b);
+            }
+        }
+        catch(Throwable t)
+        {
+            fail(t);
+        }
+    }
+
+    /**
+     * Waits until the given batch has been released by the consumer.
+     * @return false if the epoch was aborted
+     */
+    private synchronized boolean awaitReleased(int batch) throws InterruptedException
+    {
+        while(!aborted && releasedCount <= batch)
+        {
+            wait();
+        }
+        return !aborted;
+    }
+
+    private synchronized void publish(Slot slot, int batch)
+    {
+        slot.batch = batch;
+        notifyAll();
+    }
+
+    private synchronized Slot awaitProduced(int batch)
+    {
+        Slot slot = slots[batch % slots.length];
+        while(slot.batch != batch)
+        {
+            if(error != null)
+            {
+                throw new RuntimeException("Failed to prepare batch " + batch, error);
+            }
+            try
+            {
+                wait();
+            }
+            catch(InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for batch " + batch, ex);
+            }
+        }
+        return slot;
+    }
+
+    private synchronized void release(int batch)
+    {
+        releasedCount = batch + 1;
+        notifyAll();
+    }
+
+    private synchronized void fail(Throwable t)
+    {
+        if(error == null)
+        {
+            error = t;
+        }
+        notifyAll();
+    }
+
+    private synchronized void abort()
+    {
+        aborted = true;
+        notifyAll();
+    }
+
+    private static void awaitUninterruptibly(Future<?> f)
+    {
+        boolean interrupted = false;
+        while(true)
+        {
+            try
+            {
+                f.get();
+                break;
+            }
+            catch(InterruptedException ex)
+            {
+                interrupted = true;
+            }
+            catch(ExecutionException ex)
+            {
+                // produce reports its errors to the consumer
+                break;
+            }
+        }
+        if(interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stops the producer threads. A running epoch is finished first.
+     */
+    @Override
+    public void close()
+    {
+        executor.shutdown();
+    }
+
+    public int getProducerCount()
+    {
+        return producerCount;
+    }
+
+    public int getCapacity()
+    {
+        return slots.length;
+    }
+
+    private static class Slot
+    {
+        private DMatrix inputs = new DMatrix(1, 1);
+        private DMatrix solutions = new DMatrix(1, 1);
+        private DRowVector inputRow;
+        private DRowVector solutionRow;
+        private int batch = -1;
+
+        private void fill(TrainingData[] data, int[] order, int from, int length)
+        {
+            if(inputRow == null)
+            {
+                // Sized once per epoch, afterwards the samples are converted
+                // into these buffers
+                TrainingData first = data[order[from]];
+                inputRow = new DRowVector(first.getInput().getLength());
+                solutionRow = new DRowVector(first.getSolution().getLength());
+            }
+            if(inputs.getRowCount() != length || inputs.getColumnCount() != inputRow.getLength())
+            {
+                inputs = new DMatrix(length, inputRow.getLength());
+            }
+            if(solutions.getRowCount() != length || solutions.getColumnCount() != solutionRow.getLength())
+            {
+                solutions = new DMatrix(length, solutionRow.getLength());
+            }
+
+            for(int x = 0; x < length; x++)
+            {
+                TrainingData d = data[order[from + x]];
+                inputs.setRow(x, d.getInput(inputRow));
+                solutions.setRow(x, d.getSolution(solutionRow));
+            }
+        }
+    }
+
+    /**
+     * Transformation of an assembled batch, e.g. normalization or
+     * augmentation. Called on the producer threads, possibly concurrently
+     * for different batches.
+     */
+    @FunctionalInterface
+    public interface BatchTransform
+    {
+        /**
+         * @param inputs    Inputs, one per row, to transform in place
+         * @param solutions Solutions, one per row, to transform in place
+         */
+        public void apply(DMatrix inputs, DMatrix solutions);
+    }
+
+    @FunctionalInterface
+    public interface BatchConsumer
+    {
+        /**
+         * @param inputs    Inputs of the batch, one per row
+         * @param solutions Solutions of the batch, one per row
+         */
+        public void accept(DMatrix inputs, DMatrix solutions);
+    }
+}
@@ -0,0 +1,291 @@
+package de.mirkoruether.ann.training;
+
+import de.mirkoruether.ann.DetailedBatchResult;
+import de.mirkoruether.ann.NeuralNetwork;
+import de.mirkoruether.ann.training.costs.CostFunction;
+import de.mirkoruether.ann.training.optimization.Optimizer;
+import de.mirkoruether.ann.training.regularization.CostFunctionRegularization;
+import de.mirkoruether.linalg.DMatrix;
+import de.mirkoruether.linalg.DRowVector;
+import de.mirkoruether.util.ParallelLoop;
+
+/**
+ * Synchronous data-parallel training for large batches.
+ *
+ * Every batch is cut into one contiguous shard per worker. Each worker owns a
+ * replica of the workspace of the net, i.e. its inputs, activations, errors
+ * and gradients, and runs the forward and backward pass of its shard in
+ * matrix form without touching the memory of the other workers. The gradients
+ * of the shards are summed up pairwise in a parallel tree of depth log(N), so
+ * the reduction is not done by a single thread, and applied in one fused
+ * update per layer afterwards. The weights are only read during the passes,
+ * so all workers share them.
+ *
+ * The tree order only depends on the number of shards, so the training is as
+ * reproducible as the synchronous trainer with a seeded random number
+ * generator. Batches shorter than twice the minimum shard length are trained
+ * by a single worker.
+ *
+ * The replicas of a single-precision net run the passes of their shards in
+ * float, see {@link NeuralNetwork#setSinglePrecision(boolean)}, the sums of
+ * the shards are reduced in double.
+ */
+public class DataParallelTrainer extends StochasticGradientDescentTrainer
+{
+    private int workerCount = ParallelLoop.getParallelism();
+    private int minShardLength = 32;
+    private Replica[] replicas = new Replica[0];
+
+    public DataParallelTrainer(NeuralNetwork net, int batchSize, CostFunction costs, CostFunctionRegularization reg, Optimizer optimizer)
+    {
+        super(net, batchSize, costs, reg, optimizer);
+        setMatrixFormBackpropagation(true);
+    }
+
+    public DataParallelTrainer(NeuralNetwork net, int batchSize, CostFunction costs, CostFunctionRegularization reg)
+    {
+        this(net, batchSize, costs, reg, null);
+    }
+
+    public DataParallelTrainer(NeuralNetwork net, int batchSize, CostFunction costs)
+    {
+        this(net, batchSize, costs, null);
+    }
+
+    @Override
+    protected void trainBatch(TrainingData[] trainingDataBatch, double learningRate, int trainingDataSize)
+    {
+        Replica sum = sumShardGradients(trainingDataBatch);
+        if(sum != null)
+        {
+            applyGradients(sum.weightGradients, sum.biasGradients, trainingDataBatch.length, learningRate, trainingDataSize);
+        }
+    }
+
+    @Override
+    protected void trainStackedBatch(DMatrix inputs, DMatrix solutions, double learningRate, int trainingDataSize)
+    {
+        int batchLength = inputs.getRowCount();
+        Replica[] rep = getReplicas(shardCount(batchLength));
+        Replica sum = ParallelLoop.mapReduce(batchLength, shardGrainSize(batchLength),
+                                             (shard, from, to) -> rep[shard].computeGradients(inputs, solutions, from, to),
+                                             Replica::addGradients);
+        if(sum != null)
+        {
+            applyGradients(sum.weightGradients, sum.biasGradients, batchLength, learningRate, trainingDataSize);
+        }
+    }
+
+    @Override
+    public void calculateGradients(TrainingData[] trainingDataBatch, DMatrix[] weightGradientSums, DRowVector[] biasGradientSums)
+    {
+        Replica sum = sumShardGradients(trainingDataBatch);
+        for(int la = 0; la < getNet().getLayerCount(); la++)
+        {
+            if(sum == null)
+            {
+                weightGradientSums[la].scalarMulInPlace(0.0);
+                biasGradientSums[la].scalarMulInPlace(0.0);
+            }
+            else
+            {
+                sum.weightGradients[la].copyInto(weightGradientSums[la]);
+                sum.biasGradients[la].copyInto(biasGradientSums[la]);
+            }
+        }
+    }
+
+    /**
+     * Calculates the gradients of the shards in parallel and sums them up in
+     * a tree.
+     * @return Replica holding the sums, null for an empty batch
+     */
+    private Replica sumShardGradients(TrainingData[] trainingDataBatch)
+    {
+        Replica[] rep = getReplicas(shardCount(trainingDataBatch.length));
+        return ParallelLoop.mapReduce(trainingDataBatch.length, shardGrainSize(trainingDataBatch.length),
+                                      (shard, from, to) -> rep[shard].computeGradients(trainingDataBatch, from, to),
+                                      Replica::addGradients);
+    }
+
+    private int shardGrainSize(int batchLength)
+    {
+        return Math.max(minShardLength, ParallelLoop.grainSizeForChunks(batchLength, workerCount));
+    }
+
+    private int shardCount(int batchLength)
+    {
+        return ParallelLoop.chunkCount(batchLength, shardGrainSize(batchLength));
+    }
+
+    private Replica[] getReplicas(int count)
+    {
+        if(replicas.length < count)
+        {
+            Replica[] newReplicas = new Replica[count];
+            System.arraycopy(replicas, 0, newReplicas, 0, replicas.length);
+            for(int i = replicas.length; i < count; i++)
+            {
+                newReplicas[i] = new Replica();
+            }
+            replicas = newReplicas;
+        }
+        return replicas;
+    }
+
+    public int getWorkerCount()
+    {
+        return workerCount;
+    }
+
+    /**
+     * @param workerCount Maximum number of shards per batch, by default one
+     *                    per worker of the {@link ParallelLoop} pool
+     */
+    public void setWorkerCount(int workerCount)
+    {
+        if(workerCount <= 0)
+        {
+            throw new IllegalArgumentException("Worker count has to be positive");
+        }
+        this.workerCount = workerCount;
+    }
+
+    public int getMinShardLength()
+    {
+        return minShardLength;
+    }
+
+    /**
+     * @param minShardLength Minimum number of samples per shard, below which
+     *                       the matrix products are too small to outweigh
+     *                       the cost of the reduction
+     */
+    public void setMinShardLength(int minShardLength)
+    {
+        if(minShardLength <= 0)
+        {
+            throw new IllegalArgumentException("Minimum shard length has to be positive");
+        }
+        this.minShardLength = minShardLength;
+    }
+
+    /**
+     * Workspace and gradients of one worker.
+     */
+    private class Replica
+    {
+        private final DMatrix[] weightGradients;
+        private final DRowVector[] biasGradients;
+        private final DRowVector inputRow;
+        private final DRowVector solutionRow;
+        private BatchWorkspace ws;
+        private SinglePrecisionBatchWorkspace singlePrecisionWs;
+
+        private Replica()
+        {
+            NeuralNetwork net = getNet();
+            weightGradients = new DMatrix[net.getLayerCount()];
+            biasGradients = new DRowVector[net.getLayerCount()];
+            for(int i = 0; i < net.getLayerCount(); i++)
+            {
+                weightGradients[i] = new DMatrix(net.getLayer(i).getWeights().getSize());
+                biasGradients[i] = new DRowVector(net.getLayer(i).getOutputSize());
+            }
+            inputRow = new DRowVector(net.getInputSize());
+            solutionRow = new DRowVector(net.getOutputSize());
+        }
+
+        /**
+         * Overwrites the gradients with the summed up gradients of the
+         * samples from..to of a batch.
+         */
+        private Replica computeGradients(TrainingData[] trainingDataBatch, int from, int to)
+        {
+            if(getNet().isSinglePrecision())
+            {
+                prepareSinglePrecisionWorkspace(to - from)
+                        .stackBatch(trainingDataBatch, from, to)
+                        .calculateGradients(getCosts(), weightGradients, biasGradients);
+                return this;
+            }
+
+            prepareWorkspace(to - from);
+            for(int x = from; x < to; x++)
+            {
+                ws.getInputs().setRow(x - from, trainingDataBatch[x].getInput(inputRow));
+                ws.getSolutions().setRow(x - from, trainingDataBatch[x].getSolution(solutionRow));
+            }
+            return backpropagate(ws.getInputs(), ws.getSolutions());
+        }
+
+        /**
+         * Overwrites the gradients with the summed up gradients of the rows
+         * from..to of a stacked batch. The rows are read in place through
+         * views, not copied.
+         */
+        private Replica computeGradients(DMatrix inputs, DMatrix solutions, int from, int to)
+        {
+            if(getNet().isSinglePrecision())
+            {
+                prepareSinglePrecisionWorkspace(to - from)
+                        .stackBatch(inputs.viewRows(from, to - from), solutions.viewRows(from, to - from))
+                        .calculateGradients(getCosts(), weightGradients, biasGradients);
+                return this;
+            }
+
+            prepareWorkspace(to - from);
+            return backpropagate(inputs.viewRows(from, to - from), solutions.viewRows(from, to - from));
+        }
+
+        /**
+         * The workspace is allocated once for the longest shard of a batch of
+         * the batch size, shorter shards use views of its first rows.
+         */
+        private void prepareWorkspace(int shardLength)
+        {
+            if(ws == null || ws.getMaxBatchLength() < shardLength)
+            {
+                int longestShard = Math.min(getBatchSize(), shardGrainSize(getBatchSize()));
+                ws = new BatchWorkspace(getNet(), Math.max(shardLength, longestShard));
+            }
+            ws.setBatchLength(shardLength);
+        }
+
+        private SinglePrecisionBatchWorkspace prepareSinglePrecisionWorkspace(int shardLength)
+        {
+            if(singlePrecisionWs == null || singlePrecisionWs.getMaxBatchLength() < shardLength)
+            {
+                int longestShard = Math.min(getBatchSize(), shardGrainSize(getBatchSize()));
+                singlePrecisionWs = new SinglePrecisionBatchWorkspace(getNet(), Math.max(shardLength, longestShard));
+            }
+            return singlePrecisionWs;
+        }
+
+        private Replica backpropagate(DMatrix inputs, DMatrix solutions)
+        {
+            DetailedBatchResult netOutput = getNet().feedForwardDetailedBatchInto(inputs, ws.getNetOutput());
+            DMatrix[] error = calculateErrorMatrices(netOutput, solutions, ws);
+
+            for(int la = 0; la < getNet().getLayerCount(); la++)
+            {
+                netOutput.getActivation(la).mulTransposedLeftInto(error[la], weightGradients[la]);
+                error[la].columnSumsInto(biasGradients[la]);
+            }
+            return this;
+        }
+
+        /**
+         * Adds the gradients of another replica to the gradients of this one.
+         */
+        private Replica addGradients(Replica other)
+        {
+            for(int la = 0; la < weightGradients.length; la++)
+            {
+                weightGradients[la].addInPlace(other.weightGradients[la]);
+                biasGradients[la].addInPlace(other.biasGradients[la]);
+            }
+            return this;
+        }
+    }
+}
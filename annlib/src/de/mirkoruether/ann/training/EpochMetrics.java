@@ -0,0 +1,80 @@
+package de.mirkoruether.ann.training;
+
+/**
+ * Throughput and convergence of one training epoch, comparable between the
+ * synchronous and the asynchronous trainers.
+ */
+public class EpochMetrics
+{
+    private final int epochNumber;
+    private final int sampleCount;
+    private final long updateCount;
+    private final long epochTime;
+    private final TestResult testResult;
+
+    /**
+     * @param epochNumber Number of the epoch, 0 for the untrained net
+     * @param sampleCount Number of samples trained
+     * @param updateCount Number of weight updates
+     * @param epochTime   Training time in nanoseconds
+     * @param testResult  Test result after the epoch
+     */
+    public EpochMetrics(int epochNumber, int sampleCount, long updateCount, long epochTime, TestResult testResult)
+    {
+        this.epochNumber = epochNumber;
+        this.sampleCount = sampleCount;
+        this.updateCount = updateCount;
+        this.epochTime = epochTime;
+        this.testResult = testResult;
+    }
+
+    public int getEpochNumber()
+    {
+        return epochNumber;
+    }
+
+    public int getSampleCount()
+    {
+        return sampleCount;
+    }
+
+    public long getUpdateCount()
+    {
+        return updateCount;
+    }
+
+    /**
+     * @return Training time in nanoseconds
+     */
+    public long getEpochTime()
+    {
+        return epochTime;
+    }
+
+    public TestResult getTestResult()
+    {
+        return testResult;
+    }
+
+    public double getSamplesPerSecond()
+    {
+        return epochTime == 0 ? 0.0 : sampleCount * 1e9 / epochTime;
+    }
+
+    public double getUpdatesPerSecond()
+    {
+        return epochTime == 0 ? 0.0 : updateCount * 1e9 / epochTime;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("Epoch %d: %.3fs, %.0f samples/s, %.0f updates/s, %.2f%% correct, average costs %.6f",
+                             getEpochNumber(),
+                             getEpochTime() / 1e9,
+                             getSamplesPerSecond(),
+                             getUpdatesPerSecond(),
+                             getTestResult().getAccuracy() * 100,
+                             getTestResult().getAverageCosts());
+    }
+}
@@ -0,0 +1,171 @@
+package de.mirkoruether.ann.training;
+
+import de.mirkoruether.ann.NeuralNetwork;
+import de.mirkoruether.ann.training.costs.CostFunction;
+import de.mirkoruether.ann.training.regularization.CostFunctionRegularization;
+import de.mirkoruether.linalg.DMatrix;
+import de.mirkoruether.util.ParallelLoop;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asynchronous stochastic gradient descent following the Hogwild! scheme.
+ *
+ * Every worker pulls the next batch of batch size samples from the shuffled
+ * order of the epoch, computes its gradient against the current weights and
+ * applies it directly to the weights of the shared net. There are no locks
+ * and no barrier between the batches: workers read weights which others are
+ * updating at the same time and updates may overwrite each other. With small
+ * batches (batch size 1 is the classic scheme) every worker keeps computing
+ * instead of waiting for the slowest sample of a synchronous batch.
+ *
+ * Weight entries whose gradient is zero, e.g. those of zero inputs, are not
+ * written, which keeps sparse updates from invalidating the cache lines of
+ * the other workers. Regularization touches every weight and makes the
+ * updates dense again.
+ *
+ * Training is not reproducible even with a seeded random number generator,
+ * as the result depends on the interleaving of the workers. Batches are
+ * always fed forward and backward per sample; matrix form backpropagation
+ * is not used. Optimizers are not supported, as their state can not be
+ * updated without locks, and neither are batch pipelines, which deliver the
+ * batches in order to a single consumer.
+ */
+public class HogwildTrainer extends StochasticGradientDescentTrainer
+{
+    private int workerCount = ParallelLoop.getParallelism();
+    private GradientAccumulator[] workerAccumulators = new GradientAccumulator[0];
+
+    public HogwildTrainer(NeuralNetwork net, int batchSize, CostFunction costs, CostFunctionRegularization reg)
+    {
+        super(net, batchSize, costs, reg);
+    }
+
+    public HogwildTrainer(NeuralNetwork net, int batchSize, CostFunction costs)
+    {
+        this(net, batchSize, costs, null);
+    }
+
+    /**
+     * Trains one epoch with all workers pulling batches from a shared cursor
+     * into the shuffled order until the training data is exhausted.
+     * @param trainingData Training data
+     * @param learningRate Learning rate
+     */
+    @Override
+    protected void trainEpoch(TrainingData[] trainingData, double learningRate)
+    {
+        if(getOptimizer() != null)
+        {
+            throw new UnsupportedOperationException("Optimizers can not be used for lock-free training");
+        }
+        if(getBatchPipeline() != null)
+        {
+            throw new UnsupportedOperationException("Batch pipelines can not be used for lock-free training");
+        }
+
+        int[] order = nextEpochOrder(trainingData.length);
+        int workers = Math.max(1, Math.min(workerCount, (trainingData.length + getBatchSize() - 1) / getBatchSize()));
+        GradientAccumulator[] acc = getWorkerAccumulators(workers);
+        AtomicInteger cursor = new AtomicInteger();
+        long[] updates = new long[workers];
+
+        ParallelLoop.forChunks(workers, 1, (worker, from, to) ->
+                       {
+                           updates[worker] = runWorker(trainingData, order, cursor, learningRate, acc[worker]);
+                       });
+
+        for(long u : updates)
+        {
+            countUpdates(u);
+        }
+    }
+
+    /**
+     * Trains batches until the cursor reaches the end of the order.
+     * @return Number of updates applied by this worker
+     */
+    private long runWorker(TrainingData[] trainingData, int[] order, AtomicInteger cursor, double learningRate, GradientAccumulator acc)
+    {
+        int batchSize = getBatchSize();
+        TrainingData[] batch = new TrainingData[batchSize];
+        long updates = 0;
+
+        int start;
+        while((start = cursor.getAndAdd(batchSize)) < order.length)
+        {
+            int batchLength = Math.min(batchSize, order.length - start);
+            for(int x = 0; x < batchLength; x++)
+            {
+                batch[x] = trainingData[order[start + x]];
+            }
+
+            accumulateGradients(batch, 0, batchLength, acc);
+            for(int la = 0; la < getNet().getLayerCount(); la++)
+            {
+                applyWeightGradient(la, acc.getWeightGradients()[la], batchLength, learningRate, trainingData.length);
+                applyBiasGradient(la, acc.getBiasGradients()[la], batchLength, learningRate);
+            }
+            updates++;
+        }
+        return updates;
+    }
+
+    /**
+     * Skips the entries with a zero gradient unless there is a decay.
+     */
+    @Override
+    protected void reduceWeigths(int layer, DMatrix gradientSum, double factor, double l2Decay, double l1Decay)
+    {
+        if(l2Decay != 0.0 || l1Decay != 0.0)
+        {
+            super.reduceWeigths(layer, gradientSum, factor, l2Decay, l1Decay);
+            return;
+        }
+
+        getNet().getLayer(layer).getWeights().updateInPlace(gradientSum, NO_STATE, (w, g, state, length) ->
+        {
+            for(int i = 0; i < length; i++)
+            {
+                if(g[i] != 0.0)
+                {
+                    w[i] -= g[i] * factor;
+                }
+            }
+        });
+    }
+
+    private GradientAccumulator[] getWorkerAccumulators(int count)
+    {
+        if(workerAccumulators.length < count)
+        {
+            GradientAccumulator[] newAcc = new GradientAccumulator[count];
+            System.arraycopy(workerAccumulators, 0, newAcc, 0, workerAccumulators.length);
+            for(int i = workerAccumulators.length; i < count; i++)
+            {
+                newAcc[i] = new GradientAccumulator(getNet());
+            }
+            workerAccumulators = newAcc;
+        }
+        return workerAccumulators;
+    }
+
+    public int getWorkerCount()
+    {
+        return workerCount;
+    }
+
+    /**
+     * @param workerCount Number of workers updating the net concurrently,
+     *                    by default one per worker of the {@link ParallelLoop}
+     *                    pool. More workers than the pool has threads do not
+     *                    run at the same time.
+     */
+    public void setWorkerCount(int workerCount)
+    {
+        if(workerCount <= 0)
+        {
+            throw new IllegalArgumentException("Worker count has to be positive");
+        }
+        this.workerCount = workerCount;
+    }
+}
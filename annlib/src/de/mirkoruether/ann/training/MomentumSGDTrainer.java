@@ -24,11 +24,27 @@ public class MomentumSGDTrainer extends StochasticGradientDescentTrainer
         this(net, batchSize, costs, null, momentumCoEffizient);
     }
 
+    /**
+     * v = mu * v - decay, w += v in a single pass.
+     */
     @Override
-    protected void reduceWeigths(int layer, DMatrix decayInclRegularization)
+    protected void reduceWeigths(int layer, DMatrix gradientSum, double factor, double l2Decay, double l1Decay)
     {
-        velocities[layer].scalarMulInPlace(momentumCoEffizient).subInPlace(decayInclRegularization);
-        getNet().getLayer(layer).getWeights().addInPlace(velocities[layer]);
+        double mu = momentumCoEffizient;
+        DMatrix[] state = new DMatrix[]
+        {
+            velocities[layer]
+        };
+        getNet().getLayer(layer).getWeights().updateInPlace(gradientSum, state, (w, g, st, length) ->
+        {
+            double[] v = st[0];
+            for(int i = 0; i < length; i++)
+            {
+                double vi = v[i] * mu - CostFunctionRegularization.regularizedGradient(g[i], factor, w[i], l2Decay, l1Decay);
+                v[i] = vi;
+                w[i] += vi;
+            }
+        });
     }
 
     public void clearVelocities()
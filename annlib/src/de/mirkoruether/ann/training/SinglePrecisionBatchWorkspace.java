@@ -0,0 +1,233 @@
+package de.mirkoruether.ann.training;
+
+import de.mirkoruether.ann.ActivationFunction;
+import de.mirkoruether.ann.NetworkLayer;
+import de.mirkoruether.ann.NeuralNetwork;
+import de.mirkoruether.ann.training.costs.CostFunction;
+import de.mirkoruether.linalg.DMatrix;
+import de.mirkoruether.linalg.DRowVector;
+import de.mirkoruether.linalg.FMatrix;
+
+/**
+ * Single-precision counterpart of the batch workspace of
+ * {@link StochasticGradientDescentTrainer} for nets with
+ * {@link NeuralNetwork#isSinglePrecision()} set. The forward pass, the
+ * backward pass and the summation of the gradients over the batch run in
+ * float on {@link FMatrix}, the summed up gradients are handed back in double
+ * for the update of the double weights and biases.
+ *
+ * The float copies of weights and biases are refreshed from the net before
+ * every batch, so they follow the updates. Like the double workspace, the
+ * matrices are allocated for the longest batch and shorter batches use views
+ * of their first rows.
+ */
+class SinglePrecisionBatchWorkspace
+{
+    private final NeuralNetwork net;
+    private final FMatrix[] weights;
+    private final FMatrix[] biases;
+    private final FMatrix[] weightGradients;
+    private final FMatrix[] biasGradients;
+
+    private final FMatrix allInputs;
+    private final FMatrix allSolutions;
+    private final FMatrix[] allWeightedInputs;
+    private final FMatrix[] allActivations;
+    private final FMatrix[] allDerivatives;
+    private final FMatrix[] allErrors;
+    private final DRowVector inputRow;
+    private final DRowVector solutionRow;
+
+    private FMatrix inputs;
+    private FMatrix solutions;
+    private final FMatrix[] weightedInputs;
+    private final FMatrix[] activations;
+    private final FMatrix[] derivatives;
+    private final FMatrix[] errors;
+
+    /**
+     * Creates a workspace whose batch length is the maximum one.
+     * @param net            Net the workspace is sized for
+     * @param maxBatchLength Length of the longest batch
+     */
+    SinglePrecisionBatchWorkspace(NeuralNetwork net, int maxBatchLength)
+    {
+        this.net = net;
+        int count = net.getLayerCount();
+        weights = new FMatrix[count];
+        biases = new FMatrix[count];
+        weightGradients = new FMatrix[count];
+        biasGradients = new FMatrix[count];
+        allWeightedInputs = new FMatrix[count];
+        allActivations = new FMatrix[count];
+        allDerivatives = new FMatrix[count];
+        allErrors = new FMatrix[count];
+        for(int i = 0; i < count; i++)
+        {
+            NetworkLayer layer = net.getLayer(i);
+            weights[i] = new FMatrix(layer.getInputSize(), layer.getOutputSize());
+            biases[i] = new FMatrix(1, layer.getOutputSize());
+            weightGradients[i] = new FMatrix(layer.getInputSize(), layer.getOutputSize());
+            biasGradients[i] = new FMatrix(1, layer.getOutputSize());
+            allWeightedInputs[i] = new FMatrix(maxBatchLength, layer.getOutputSize());
+            allActivations[i] = new FMatrix(maxBatchLength, layer.getOutputSize());
+            allDerivatives[i] = new FMatrix(maxBatchLength, layer.getOutputSize());
+            allErrors[i] = new FMatrix(maxBatchLength, layer.getOutputSize());
+        }
+        allInputs = new FMatrix(maxBatchLength, net.getInputSize());
+        allSolutions = new FMatrix(maxBatchLength, net.getOutputSize());
+        inputRow = new DRowVector(net.getInputSize());
+        solutionRow = new DRowVector(net.getOutputSize());
+
+        inputs = allInputs;
+        solutions = allSolutions;
+        weightedInputs = allWeightedInputs.clone();
+        activations = allActivations.clone();
+        derivatives = allDerivatives.clone();
+        errors = allErrors.clone();
+    }
+
+    /**
+     * Sets the length of the next batch. Only the headers of the views are
+     * created if it changes, the data is shared.
+     * @param batchLength Batch length, at most the maximum one
+     * @return this
+     */
+    SinglePrecisionBatchWorkspace setBatchLength(int batchLength)
+    {
+        if(batchLength > getMaxBatchLength())
+        {
+            throw new IllegalArgumentException("Batch length exceeds the maximum batch length of the workspace");
+        }
+        if(batchLength != inputs.getRowCount())
+        {
+            inputs = allInputs.viewRows(0, batchLength);
+            solutions = allSolutions.viewRows(0, batchLength);
+            for(int i = 0; i < errors.length; i++)
+            {
+                weightedInputs[i] = allWeightedInputs[i].viewRows(0, batchLength);
+                activations[i] = allActivations[i].viewRows(0, batchLength);
+                derivatives[i] = allDerivatives[i].viewRows(0, batchLength);
+                errors[i] = allErrors[i].viewRows(0, batchLength);
+            }
+        }
+        return this;
+    }
+
+    int getMaxBatchLength()
+    {
+        return allInputs.getRowCount();
+    }
+
+    /**
+     * Copies inputs and solutions of the samples from..to of a batch into
+     * the workspace, rounded to float, and sets the batch length to to - from.
+     * @return this
+     */
+    SinglePrecisionBatchWorkspace stackBatch(TrainingData[] trainingDataBatch, int from, int to)
+    {
+        setBatchLength(to - from);
+        for(int x = from; x < to; x++)
+        {
+            inputs.setRow(x - from, trainingDataBatch[x].getInput(inputRow));
+            solutions.setRow(x - from, trainingDataBatch[x].getSolution(solutionRow));
+        }
+        return this;
+    }
+
+    /**
+     * Copies a stacked batch into the workspace, rounded to float, and sets
+     * the batch length to its length.
+     * @return this
+     */
+    SinglePrecisionBatchWorkspace stackBatch(DMatrix inputs, DMatrix solutions)
+    {
+        setBatchLength(inputs.getRowCount());
+        this.inputs.copyFrom(inputs);
+        this.solutions.copyFrom(solutions);
+        return this;
+    }
+
+    /**
+     * Feeds the stacked batch forward and its errors backward and sums up
+     * the gradients over the batch.
+     * @param costs              Cost function
+     * @param weightGradientSums Destination of the weight gradients per layer
+     * @param biasGradientSums   Destination of the bias gradients per layer
+     */
+    void calculateGradients(CostFunction costs, DMatrix[] weightGradientSums, DRowVector[] biasGradientSums)
+    {
+        for(int la = 0; la < weights.length; la++)
+        {
+            weights[la].copyFrom(net.getLayer(la).getWeights());
+            biases[la].copyFrom(net.getLayer(la).getBiases());
+        }
+
+        feedForward();
+        calculateErrors(costs);
+
+        for(int la = 0; la < weights.length; la++)
+        {
+            // sum(x, a[x,l-1]T * delta[x,l]) = A[l-1]T * Delta[l]
+            layerInput(la).mulTransposedLeftInto(errors[la], weightGradients[la]).toDoubleMatrixInto(weightGradientSums[la]);
+            // sum(x, delta[x,l])
+            errors[la].columnSumsInto(biasGradients[la]).toDoubleMatrixInto(biasGradientSums[la]);
+        }
+    }
+
+    private void feedForward()
+    {
+        for(int la = 0; la < weights.length; la++)
+        {
+            ActivationFunction func = net.getLayer(la).getActivationFunction();
+            if(func.isElementWise())
+            {
+                layerInput(la).matrixMulAddRowApplyInto(weights[la], biases[la], func.f, weightedInputs[la], activations[la]);
+            }
+            else
+            {
+                layerInput(la).matrixMulAddRowApplyInto(weights[la], biases[la], null, weightedInputs[la]);
+                weightedInputs[la].copyInto(activations[la]).applyFunctionRowWiseInPlace(func);
+            }
+        }
+    }
+
+    /**
+     * Calculates the errors of all layers like the double-precision matrix
+     * form of the trainer.
+     */
+    private void calculateErrors(CostFunction costs)
+    {
+        int L = weights.length - 1;
+        ActivationFunction last = net.getLayer(L).getActivationFunction();
+
+        if(!costs.isLastLayerDerivativeUsed())
+        {
+            costs.calculateErrorOfLastLayerBatchInto(activations[L], solutions, derivatives[L], errors[L]);
+        }
+        else if(last.isElementWise())
+        {
+            costs.calculateErrorOfLastLayerBatchInto(activations[L], solutions,
+                                                     last.derivativeInto(weightedInputs[L], activations[L], derivatives[L]),
+                                                     errors[L]);
+        }
+        else
+        {
+            // The Jacobian of a function of the whole layer is not diagonal
+            costs.calculateGradientBatchInto(activations[L], solutions, errors[L]);
+            last.backpropagateInPlace(weightedInputs[L], activations[L], errors[L], derivatives[L]);
+        }
+
+        for(int la = L - 1; la >= 0; la--)
+        {
+            errors[la + 1].mulTransposedRightInto(weights[la + 1], errors[la]);
+            net.getLayer(la).getActivationFunction()
+                    .backpropagateInPlace(weightedInputs[la], activations[la], errors[la], derivatives[la]);
+        }
+    }
+
+    private FMatrix layerInput(int layer)
+    {
+        return layer == 0 ? inputs : activations[layer - 1];
+    }
+}
@@ -1,24 +1,41 @@
 package de.mirkoruether.ann.training;
 
+import de.mirkoruether.ann.DetailedBatchResult;
 import de.mirkoruether.ann.DetailedResult;
 import de.mirkoruether.ann.NeuralNetwork;
 import de.mirkoruether.ann.training.costs.CostFunction;
+import de.mirkoruether.ann.training.optimization.Optimizer;
 import de.mirkoruether.ann.training.regularization.CostFunctionRegularization;
-import de.mirkoruether.linalg.DFunction;
 import de.mirkoruether.linalg.DMatrix;
 import de.mirkoruether.linalg.DRowVector;
-import de.mirkoruether.util.ParallelExecution;
+import de.mirkoruether.util.ParallelLoop;
 import de.mirkoruether.util.Randomizer;
 import java.util.Objects;
+import java.util.SplittableRandom;
 import java.util.concurrent.ExecutorService;
-import java.util.function.Function;
 
 public class StochasticGradientDescentTrainer
 {
+    protected static final DMatrix[] NO_STATE = new DMatrix[0];
+
     private final NeuralNetwork net;
     private int batchSize;
     private CostFunction costs;
     private CostFunctionRegularization reg;
+    private Optimizer optimizer;
+
+    private final DMatrix[] weightGradients;
+    private final DRowVector[] biasGradients;
+
+    private boolean matrixFormBackpropagation = false;
+    private int testBatchSize = 100;
+    private BatchWorkspace batchWorkspace;
+    private SinglePrecisionBatchWorkspace singlePrecisionWorkspace;
+    private BatchPipeline batchPipeline;
+    private GradientAccumulator[] accumulators = new GradientAccumulator[0];
+    private SplittableRandom random = new SplittableRandom();
+    private int[] epochOrder = new int[0];
+    private long updateCount = 0;
 
     public StochasticGradientDescentTrainer(NeuralNetwork net, int batchSize, CostFunction costs, CostFunctionRegularization reg)
     {
@@ -26,6 +43,14 @@ public class StochasticGradientDescentTrainer
         this.batchSize = batchSize;
         this.costs = Objects.requireNonNull(costs);
         this.reg = reg;
+
+        weightGradients = new DMatrix[net.getLayerCount()];
+        biasGradients = new DRowVector[net.getLayerCount()];
+        for(int i = 0; i < net.getLayerCount(); i++)
+        {
+            weightGradients[i] = new DMatrix(net.getLayer(i).getWeights().getSize());
+            biasGradients[i] = new DRowVector(net.getLayer(i).getOutputSize());
+        }
     }
 
     public StochasticGradientDescentTrainer(NeuralNetwork net, int batchSize, CostFunction costs)
@@ -33,159 +58,624 @@ public class StochasticGradientDescentTrainer
         this(net, batchSize, costs, null);
     }
 
-    public TestResult[] trainAndTest(TrainingData[] trainingData, TestDataSet testData, double learningRate, int epochs)
+    /**
+     * @param net       Net to train
+     * @param batchSize Batch size
+     * @param costs     Cost function
+     * @param reg       Regularization, may be null
+     * @param optimizer Update rule of weights and biases, null for plain
+     *                  gradient descent
+     */
+    public StochasticGradientDescentTrainer(NeuralNetwork net, int batchSize, CostFunction costs, CostFunctionRegularization reg, Optimizer optimizer)
     {
-        return ParallelExecution.inExecutorF((ex) -> trainAndTest(trainingData, testData, learningRate, epochs, ex), -1);
+        this(net, batchSize, costs, reg);
+        this.optimizer = optimizer;
     }
 
-    public TestResult[] trainAndTest(TrainingData[] trainingData, TestDataSet testData, double learningRate, int epochs, ExecutorService executer)
+    public TestResult[] trainAndTest(TrainingData[] trainingData, TestDataSet testData, double learningRate, int epochs)
     {
         TestResult[] results = new TestResult[epochs + 1];
         results[0] = test(testData);
 
         for(int i = 0; i < epochs; i++)
         {
-            trainEpoch(trainingData, learningRate, executer);
+            trainEpoch(trainingData, learningRate);
             results[i + 1] = test(testData);
         }
 
         return results;
     }
 
+    /**
+     * @deprecated The trainer parallelizes with its own thread pools, the
+     * executor is not used. Use
+     * {@link #trainAndTest(TrainingData[], TestDataSet, double, int)}.
+     */
+    @Deprecated
+    public TestResult[] trainAndTest(TrainingData[] trainingData, TestDataSet testData, double learningRate, int epochs, ExecutorService executer)
+    {
+        return trainAndTest(trainingData, testData, learningRate, epochs);
+    }
+
+    /**
+     * Trains and tests like {@link #trainAndTest(TrainingData[], TestDataSet,
+     * double, int)} and additionally measures the time and the number of
+     * updates of every epoch. The test is not part of the measured time.
+     * @param trainingData Training data
+     * @param testData     Test data
+     * @param learningRate Learning rate
+     * @param epochs       Number of epochs
+     * @return Metrics of the untrained net followed by one per epoch
+     */
+    public EpochMetrics[] trainAndMeasure(TrainingData[] trainingData, TestDataSet testData, double learningRate, int epochs)
+    {
+        EpochMetrics[] results = new EpochMetrics[epochs + 1];
+        results[0] = new EpochMetrics(0, 0, 0, 0, test(testData));
+
+        for(int i = 0; i < epochs; i++)
+        {
+            long updates = updateCount;
+            long time = System.nanoTime();
+            trainEpoch(trainingData, learningRate);
+            time = System.nanoTime() - time;
+            results[i + 1] = new EpochMetrics(i + 1, trainingData.length, updateCount - updates, time, test(testData));
+        }
+
+        return results;
+    }
+
+    /**
+     * Tests the net in parallel. The data set is split into one contiguous
+     * chunk per worker of the {@link ParallelLoop} pool, but at least
+     * testBatchSize samples each; every chunk is fed forward in batches. The
+     * costs are stored per sample and summed up in order afterwards, so the
+     * result is bit-identical to a sequential evaluation.
+     * @param testData Test data
+     * @return Test result
+     */
     public TestResult test(TestDataSet testData)
     {
+        TrainingData[] data = testData.getData();
+        double[] sampleCosts = new double[data.length];
+
+        int grainSize = Math.max(testBatchSize, ParallelLoop.grainSizePerWorker(data.length));
+        Integer correct = ParallelLoop.mapReduce(data.length, grainSize,
+                                                 (chunk, from, to) -> testPartition(testData, from, to, sampleCosts),
+                                                 Integer::sum);
+
         double costSum = 0.0;
-        int correct = 0;
-        for(TrainingData d : testData.getData())
+        for(double c : sampleCosts)
         {
-            DRowVector out = net.feedForward(d.getInput());
-            costSum += costs.calculateCosts(out, d.getSolution());
-            correct += testData.test(out, d.getSolution()) ? 1 : 0;
+            costSum += c;
         }
 
-        return new TestResult(testData.getLength(), correct, costSum / testData.getLength());
+        return new TestResult(testData.getLength(), correct == null ? 0 : correct, costSum / testData.getLength());
     }
 
-    public void train(TrainingData[] trainingData, double learningRate, int epochs)
+    private int testPartition(TestDataSet testData, int from, int to, double[] sampleCosts)
     {
-        ParallelExecution.inExecutor((ex) -> train(trainingData, learningRate, epochs, ex), -1);
+        TrainingData[] data = testData.getData();
+        DRowVector in = new DRowVector(net.getInputSize());
+        DRowVector out = new DRowVector(net.getOutputSize());
+        DRowVector solutionBuffer = new DRowVector(net.getOutputSize());
+        int[] correct = new int[1];
+
+        net.feedForwardBatches(to - from, (i) -> data[from + i].getInput(in), testBatchSize, (first, outputs) ->
+                       {
+                           for(int x = 0; x < outputs.getRowCount(); x++)
+                           {
+                               int index = from + first + x;
+                               DRowVector solution = data[index].getSolution(solutionBuffer);
+                               outputs.getRowInto(x, out);
+                               sampleCosts[index] = costs.calculateCosts(out, solution);
+                               correct[0] += testData.test(out, solution) ? 1 : 0;
+                           }
+                       });
+
+        return correct[0];
     }
 
-    public void train(TrainingData[] trainingData, double learningRate, int epochs, ExecutorService executer)
+    public void train(TrainingData[] trainingData, double learningRate, int epochs)
     {
         for(int i = 0; i < epochs; i++)
         {
-            trainEpoch(trainingData, learningRate, executer);
+            trainEpoch(trainingData, learningRate);
         }
     }
 
-    protected void trainEpoch(TrainingData[] trainingData, double learningRate, ExecutorService executer)
+    /**
+     * @deprecated The trainer parallelizes with its own thread pools, the
+     * executor is not used. Use
+     * {@link #train(TrainingData[], double, int)}.
+     */
+    @Deprecated
+    public void train(TrainingData[] trainingData, double learningRate, int epochs, ExecutorService executer)
+    {
+        train(trainingData, learningRate, epochs);
+    }
+
+    /**
+     * Trains one epoch in batches drawn in random order. The order is a
+     * permutation of the indices kept by the trainer and reshuffled every
+     * epoch; the training data array itself is not modified.
+     * @param trainingData Training data
+     * @param learningRate Learning rate
+     */
+    protected void trainEpoch(TrainingData[] trainingData, double learningRate)
     {
-        Randomizer.shuffleArrInPlace(trainingData);
+        int[] order = nextEpochOrder(trainingData.length);
+
+        if(batchPipeline != null)
+        {
+            batchPipeline.run(trainingData, order, batchSize, (inputs, solutions) ->
+                      {
+                          trainStackedBatch(inputs, solutions, learningRate, trainingData.length);
+                          updateCount++;
+                      });
+            return;
+        }
 
+        TrainingData[] batch = new TrainingData[Math.min(batchSize, trainingData.length)];
         for(int i = 0; i < trainingData.length; i += batchSize)
         {
-            TrainingData[] batch = new TrainingData[batchSize];
-            System.arraycopy(trainingData, i, batch, 0, batchSize);
-            trainBatch(batch, learningRate, trainingData.length, executer);
+            if(trainingData.length - i < batch.length)
+            {
+                batch = new TrainingData[trainingData.length - i];
+            }
+            for(int x = 0; x < batch.length; x++)
+            {
+                batch[x] = trainingData[order[i + x]];
+            }
+            trainBatch(batch, learningRate, trainingData.length);
+            updateCount++;
         }
     }
 
-    protected void trainBatch(TrainingData[] trainingDataBatch, double learningRate, int trainingDataSize, ExecutorService executer)
+    /**
+     * Reshuffles the order of the training data for the next epoch.
+     * @param length Length of the training data
+     * @return Permutation of the indices 0 to length - 1, owned by the
+     *         trainer and valid until the next call
+     */
+    protected int[] nextEpochOrder(int length)
     {
-        Function<TrainingData, LayerInfos> func = (x)
-                ->
+        if(epochOrder.length != length)
         {
-            DetailedResult netOutput = net.feedForwardDetailed(x.getInput());
-            return new LayerInfos(netOutput.getActivationsInclInput(),
-                                  calculateErrorVectors(netOutput, x.getSolution())
-            );
-        };
-
-        ParallelExecution<TrainingData, LayerInfos> exec = new ParallelExecution<>(func, executer);
-        LayerInfos[] layerInfos = exec.getArr(trainingDataBatch, LayerInfos.class);
+            epochOrder = Randomizer.permutation(length, random);
+        }
+        else
+        {
+            Randomizer.shuffleArrInPlace(epochOrder, random);
+        }
+        return epochOrder;
+    }
 
-        updateWeights(layerInfos, learningRate, trainingDataSize);
-        updateBiases(layerInfos, learningRate);
+    /**
+     * @return Number of weight updates applied by the epochs trained so far
+     */
+    public long getUpdateCount()
+    {
+        return updateCount;
     }
 
-    protected DRowVector[] calculateErrorVectors(DetailedResult netResult, DRowVector solution)
+    /**
+     * Adds updates applied outside of {@link #trainBatch} to the update count.
+     * @param updates Number of updates
+     */
+    protected void countUpdates(long updates)
     {
-        DRowVector[] error = new DRowVector[net.getLayerCount()];
+        updateCount += updates;
+    }
 
-        int L = net.getLayerCount() - 1;
+    protected void trainBatch(TrainingData[] trainingDataBatch, double learningRate, int trainingDataSize)
+    {
+        if(matrixFormBackpropagation || net.isSinglePrecision())
+        {
+            trainBatchMatrixForm(trainingDataBatch, learningRate, trainingDataSize);
+            return;
+        }
 
-        error[L] = costs.calculateErrorOfLastLayer(netResult.getNetOutput(), solution, calculateActivationDerivativeAtLayer(netResult, L));
+        GradientAccumulator sum = sumSampleGradients(trainingDataBatch);
+        applyGradients(sum.weightGradients, sum.biasGradients, trainingDataBatch.length, learningRate, trainingDataSize);
+    }
 
-        for(int la = L - 1; la >= 0; la--)
+    /**
+     * Calculates the gradients of a batch summed up over its samples without
+     * changing the net, e.g. to apply them to another copy of the net.
+     * @param trainingDataBatch  Batch
+     * @param weightGradientSums Destination of the weight gradients per layer
+     * @param biasGradientSums   Destination of the bias gradients per layer
+     */
+    public void calculateGradients(TrainingData[] trainingDataBatch, DMatrix[] weightGradientSums, DRowVector[] biasGradientSums)
+    {
+        if(net.isSinglePrecision())
         {
-            error[la] = error[la + 1].matrixMul(net.getLayer(la + 1).getWeights().transpose())
-                    .asRowVector()
-                    .elementWiseMulInPlace(calculateActivationDerivativeAtLayer(netResult, la));
+            getSinglePrecisionWorkspace(trainingDataBatch.length)
+                    .stackBatch(trainingDataBatch, 0, trainingDataBatch.length)
+                    .calculateGradients(costs, weightGradientSums, biasGradientSums);
+            return;
+        }
+        if(matrixFormBackpropagation)
+        {
+            BatchWorkspace ws = stackBatch(trainingDataBatch);
+            backpropagateBatch(ws.inputs, ws.solutions);
+            for(int la = 0; la < net.getLayerCount(); la++)
+            {
+                ws.netOutput.getActivation(la).mulTransposedLeftInto(ws.errors[la], weightGradientSums[la]);
+                ws.errors[la].columnSumsInto(biasGradientSums[la]);
+            }
+            return;
         }
 
-        return error;
+        GradientAccumulator sum = sumSampleGradients(trainingDataBatch);
+        for(int la = 0; la < net.getLayerCount(); la++)
+        {
+            sum.weightGradients[la].copyInto(weightGradientSums[la]);
+            sum.biasGradients[la].copyInto(biasGradientSums[la]);
+        }
     }
 
-    protected DRowVector calculateActivationDerivativeAtLayer(DetailedResult netOutput, int layer)
+    /**
+     * Updates weights and biases of all layers by summed up gradients.
+     * @param weightGradientSums Weight gradients per layer, may be overwritten
+     * @param biasGradientSums   Bias gradients per layer, may be overwritten
+     * @param batchLength        Number of samples the gradients are summed
+     *                           up over
+     * @param learningRate       Learning rate
+     * @param trainingDataSize   Length of the whole training data
+     */
+    public void applyGradients(DMatrix[] weightGradientSums, DRowVector[] biasGradientSums, int batchLength, double learningRate, int trainingDataSize)
     {
-        DFunction activationFuncDerivative = getNet().getLayer(layer).getActivationFunction().f_derivative;
-        return netOutput.getWeightedInput(layer).applyFunctionElementWise(activationFuncDerivative);
+        for(int la = 0; la < net.getLayerCount(); la++)
+        {
+            applyWeightGradient(la, weightGradientSums[la], batchLength, learningRate, trainingDataSize);
+            applyBiasGradient(la, biasGradientSums[la], batchLength, learningRate);
+        }
     }
 
-    protected void updateWeights(LayerInfos[] layerInfos, double learningRate, int trainingDataSize)
+    /**
+     * Sums up the gradients of the samples of a batch in parallel.
+     * @return Accumulator holding the sums
+     */
+    private GradientAccumulator sumSampleGradients(TrainingData[] trainingDataBatch)
     {
+        int grainSize = ParallelLoop.grainSizePerWorker(trainingDataBatch.length);
+        int partitionCount = ParallelLoop.chunkCount(trainingDataBatch.length, grainSize);
+        GradientAccumulator[] acc = getAccumulators(partitionCount);
+
+        ParallelLoop.forChunks(trainingDataBatch.length, grainSize,
+                               (chunk, from, to) -> accumulateGradients(trainingDataBatch, from, to, acc[chunk]));
+
         for(int la = 0; la < net.getLayerCount(); la++)
         {
-            // sum(x, a[x,l-1]T * delta[x,l])
-            DMatrix sum = layerInfos[0].getAct(la).transpose()
-                    .matrixMul(layerInfos[0].getError(la));
-
-            for(int x = 1; x < layerInfos.length; x++)
+            for(int p = 1; p < partitionCount; p++)
             {
-                // a[x,l-1]T * delta[x,l]
-                DMatrix toAdd = layerInfos[x].getAct(la).transpose()
-                        .matrixMul(layerInfos[x].getError(la));
-
-                sum.addInPlace(toAdd);
+                acc[0].weightGradients[la].addInPlace(acc[p].weightGradients[la]);
+                acc[0].biasGradients[la].addInPlace(acc[p].biasGradients[la]);
             }
+        }
+        return acc[0];
+    }
 
-            // eta/m
-            double factor = learningRate / layerInfos.length;
-
-            DMatrix decay = sum.scalarMulInPlace(factor);
+    /**
+     * Feeds the samples from..to of a batch forward and backward and sums up
+     * their weight and bias gradients in the given accumulator. The first
+     * sample overwrites the previous content of the accumulator.
+     * @param trainingDataBatch Batch
+     * @param from              First sample, inclusive
+     * @param to                Last sample, exclusive
+     * @param acc               Accumulator used exclusively by the calling
+     *                          thread
+     */
+    protected void accumulateGradients(TrainingData[] trainingDataBatch, int from, int to, GradientAccumulator acc)
+    {
+        for(int x = from; x < to; x++)
+        {
+            TrainingData d = trainingDataBatch[x];
+            DetailedResult netOutput = net.feedForwardDetailedInto(d.getInput(acc.input), acc.netOutput);
+            DRowVector[] error = calculateErrorVectorsInto(netOutput, d.getSolution(acc.solution), acc.errors, acc.derivatives);
 
-            if(reg != null)
+            for(int la = 0; la < net.getLayerCount(); la++)
             {
-                decay.addInPlace(reg.calculateWeightDecay(net.getLayer(la).getWeights(), learningRate, trainingDataSize));
+                if(x == from)
+                {
+                    // a[x,l-1]T * delta[x,l]
+                    netOutput.getActivation(la).mulTransposedLeftInto(error[la], acc.weightGradients[la]);
+                    error[la].copyInto(acc.biasGradients[la]);
+                }
+                else
+                {
+                    acc.weightGradients[la].addMulTransposedLeftInPlace(netOutput.getActivation(la), error[la]);
+                    acc.biasGradients[la].addInPlace(error[la]);
+                }
             }
+        }
+    }
 
-            reduceWeigths(la, decay);
+    private GradientAccumulator[] getAccumulators(int count)
+    {
+        if(accumulators.length < count)
+        {
+            GradientAccumulator[] newAcc = new GradientAccumulator[count];
+            System.arraycopy(accumulators, 0, newAcc, 0, accumulators.length);
+            for(int i = accumulators.length; i < count; i++)
+            {
+                newAcc[i] = new GradientAccumulator(net);
+            }
+            accumulators = newAcc;
         }
+        return accumulators;
     }
 
-    protected void reduceWeigths(int layer, DMatrix decayInclRegularization)
+    /**
+     * Trains a batch in matrix form. The batch is stacked into one matrix with
+     * one sample per row, so the forward pass, the error propagation and the
+     * weight gradients are a single matrix product per layer each. Nets with
+     * {@link NeuralNetwork#isSinglePrecision()} set are trained in float.
+     * @param trainingDataBatch Batch to train
+     * @param learningRate      Learning rate
+     * @param trainingDataSize  Length of the whole training data
+     */
+    protected void trainBatchMatrixForm(TrainingData[] trainingDataBatch, double learningRate, int trainingDataSize)
     {
-        net.getLayer(layer).getWeights().subInPlace(decayInclRegularization);
+        if(net.isSinglePrecision())
+        {
+            getSinglePrecisionWorkspace(trainingDataBatch.length)
+                    .stackBatch(trainingDataBatch, 0, trainingDataBatch.length)
+                    .calculateGradients(costs, weightGradients, biasGradients);
+            applyGradients(weightGradients, biasGradients, trainingDataBatch.length, learningRate, trainingDataSize);
+            return;
+        }
+
+        BatchWorkspace ws = stackBatch(trainingDataBatch);
+        trainStackedBatch(ws.inputs, ws.solutions, learningRate, trainingDataSize);
     }
 
-    protected void updateBiases(LayerInfos[] layerInfos, double learningRate)
+    /**
+     * Trains a batch which is already stacked into matrices in matrix form.
+     * @param inputs           Inputs, one per row
+     * @param solutions        Solutions, one per row
+     * @param learningRate     Learning rate
+     * @param trainingDataSize Length of the whole training data
+     */
+    protected void trainStackedBatch(DMatrix inputs, DMatrix solutions, double learningRate, int trainingDataSize)
     {
+        int batchLength = inputs.getRowCount();
+        if(net.isSinglePrecision())
+        {
+            getSinglePrecisionWorkspace(batchLength)
+                    .stackBatch(inputs, solutions)
+                    .calculateGradients(costs, weightGradients, biasGradients);
+            applyGradients(weightGradients, biasGradients, batchLength, learningRate, trainingDataSize);
+            return;
+        }
+
+        BatchWorkspace ws = backpropagateBatch(inputs, solutions);
+        DetailedBatchResult netOutput = ws.netOutput;
+        DMatrix[] error = ws.errors;
+
         for(int la = 0; la < net.getLayerCount(); la++)
         {
+            // sum(x, a[x,l-1]T * delta[x,l]) = A[l-1]T * Delta[l]
+            netOutput.getActivation(la).mulTransposedLeftInto(error[la], weightGradients[la]);
+            applyWeightGradient(la, weightGradients[la], batchLength, learningRate, trainingDataSize);
+
             // sum(x, delta[x,l])
-            DRowVector sum = layerInfos[0].getError(la).getDuplicate();
-            for(int x = 1; x < layerInfos.length; x++)
+            error[la].columnSumsInto(biasGradients[la]);
+            applyBiasGradient(la, biasGradients[la], batchLength, learningRate);
+        }
+    }
+
+    /**
+     * Copies inputs and solutions of a batch into the workspace.
+     */
+    private BatchWorkspace stackBatch(TrainingData[] trainingDataBatch)
+    {
+        BatchWorkspace ws = getBatchWorkspace(trainingDataBatch.length);
+        for(int x = 0; x < trainingDataBatch.length; x++)
+        {
+            ws.inputs.setRow(x, trainingDataBatch[x].getInput(ws.inputRow));
+            ws.solutions.setRow(x, trainingDataBatch[x].getSolution(ws.solutionRow));
+        }
+        return ws;
+    }
+
+    /**
+     * Feeds a batch forward and its errors backward in matrix form.
+     * @return Workspace holding the activations and the errors
+     */
+    private BatchWorkspace backpropagateBatch(DMatrix inputs, DMatrix solutions)
+    {
+        BatchWorkspace ws = getBatchWorkspace(inputs.getRowCount());
+        net.feedForwardDetailedBatchInto(inputs, ws.netOutput);
+        calculateErrorMatrices(ws.netOutput, solutions, ws);
+        return ws;
+    }
+
+    protected DMatrix[] calculateErrorMatrices(DetailedBatchResult netResult, DMatrix solutions, BatchWorkspace ws)
+    {
+        DMatrix[] error = ws.errors;
+
+        int L = net.getLayerCount() - 1;
+
+        if(!costs.isLastLayerDerivativeUsed())
+        {
+            costs.calculateErrorOfLastLayerBatchInto(netResult.getNetOutput(), solutions, ws.derivatives[L], error[L]);
+        }
+        else if(net.getLayer(L).getActivationFunction().isElementWise())
+        {
+            costs.calculateErrorOfLastLayerBatchInto(netResult.getNetOutput(), solutions,
+                                                     calculateActivationDerivativeAtLayerBatchInto(netResult, L, ws.derivatives[L]),
+                                                     error[L]);
+        }
+        else
+        {
+            // The Jacobian of a function of the whole layer is not diagonal
+            costs.calculateGradientBatchInto(netResult.getNetOutput(), solutions, error[L]);
+            backpropagateActivationBatchInPlace(netResult, L, error[L], ws.derivatives[L]);
+        }
+
+        for(int la = L - 1; la >= 0; la--)
+        {
+            error[la + 1].mulTransposedRightInto(net.getLayer(la + 1).getWeights(), error[la]);
+            backpropagateActivationBatchInPlace(netResult, la, error[la], ws.derivatives[la]);
+        }
+
+        return error;
+    }
+
+    protected DMatrix backpropagateActivationBatchInPlace(DetailedBatchResult netOutput, int layer, DMatrix error, DMatrix derivative)
+    {
+        return getNet().getLayer(layer).getActivationFunction()
+                .backpropagateInPlace(netOutput.getWeightedInput(layer), netOutput.getActivation(layer + 1), error, derivative);
+    }
+
+    protected DMatrix calculateActivationDerivativeAtLayerBatchInto(DetailedBatchResult netOutput, int layer, DMatrix dest)
+    {
+        return getNet().getLayer(layer).getActivationFunction()
+                .derivativeInto(netOutput.getWeightedInput(layer), netOutput.getActivation(layer + 1), dest);
+    }
+
+    /**
+     * The workspace is allocated once for the batch size and only replaced
+     * by a larger one if a longer batch comes along. Shorter batches, e.g.
+     * the last one of an epoch, use views of its first rows.
+     */
+    private BatchWorkspace getBatchWorkspace(int batchLength)
+    {
+        if(batchWorkspace == null || batchWorkspace.getMaxBatchLength() < batchLength)
+        {
+            batchWorkspace = new BatchWorkspace(net, Math.max(batchLength, batchSize));
+        }
+        return batchWorkspace.setBatchLength(batchLength);
+    }
+
+    /**
+     * Float workspace of single-precision nets, allocated like the double
+     * one.
+     */
+    private SinglePrecisionBatchWorkspace getSinglePrecisionWorkspace(int batchLength)
+    {
+        if(singlePrecisionWorkspace == null || singlePrecisionWorkspace.getMaxBatchLength() < batchLength)
+        {
+            singlePrecisionWorkspace = new SinglePrecisionBatchWorkspace(net, Math.max(batchLength, batchSize));
+        }
+        return singlePrecisionWorkspace;
+    }
+
+    protected DRowVector[] calculateErrorVectorsInto(DetailedResult netResult, DRowVector solution, DRowVector[] error, DRowVector[] derivatives)
+    {
+        int L = net.getLayerCount() - 1;
+
+        if(!costs.isLastLayerDerivativeUsed())
+        {
+            costs.calculateErrorOfLastLayer(netResult.getNetOutput(), solution, derivatives[L]).copyInto(error[L]);
+        }
+        else if(net.getLayer(L).getActivationFunction().isElementWise())
+        {
+            costs.calculateErrorOfLastLayer(netResult.getNetOutput(), solution,
+                                            calculateActivationDerivativeAtLayerInto(netResult, L, derivatives[L]))
+                    .copyInto(error[L]);
+        }
+        else
+        {
+            // The Jacobian of a function of the whole layer is not diagonal
+            costs.calculateGradient(netResult.getNetOutput(), solution).copyInto(error[L]);
+            backpropagateActivationInPlace(netResult, L, error[L], derivatives[L]);
+        }
+
+        for(int la = L - 1; la >= 0; la--)
+        {
+            error[la + 1].mulTransposedRightInto(net.getLayer(la + 1).getWeights(), error[la]);
+            backpropagateActivationInPlace(netResult, la, error[la], derivatives[la]);
+        }
+
+        return error;
+    }
+
+    protected DRowVector backpropagateActivationInPlace(DetailedResult netOutput, int layer, DRowVector error, DRowVector derivative)
+    {
+        return getNet().getLayer(layer).getActivationFunction()
+                .backpropagateInPlace(netOutput.getWeightedInput(layer), netOutput.getActivation(layer + 1), error, derivative);
+    }
+
+    protected DRowVector calculateActivationDerivativeAtLayerInto(DetailedResult netOutput, int layer, DRowVector dest)
+    {
+        return getNet().getLayer(layer).getActivationFunction()
+                .derivativeInto(netOutput.getWeightedInput(layer), netOutput.getActivation(layer + 1), dest);
+    }
+
+    /**
+     * Reduces the weights of a layer by the summed up gradient of a batch.
+     * @param layer            Layer index
+     * @param gradientSum      Sum of the weight gradients of all samples, may
+     *                         be overwritten
+     * @param batchLength      Number of samples in the batch
+     * @param learningRate     Learning rate
+     * @param trainingDataSize Length of the whole training data
+     */
+    protected void applyWeightGradient(int layer, DMatrix gradientSum, int batchLength, double learningRate, int trainingDataSize)
+    {
+        DMatrix weights = net.getLayer(layer).getWeights();
+        double l2 = 0.0;
+        double l1 = 0.0;
+        if(reg != null && reg.hasDecayCoefficients())
+        {
+            l2 = reg.getL2Coefficient();
+            l1 = reg.getL1Coefficient();
+        }
+        else if(reg != null)
+        {
+            // The decay for a learning rate of m is m times the gradient of
+            // the regularization term, which is scaled by 1/m below
+            gradientSum.addInPlace(reg.calculateWeightDecay(weights, batchLength, trainingDataSize));
+        }
+
+        if(optimizer != null)
+        {
+            optimizer.updateWeights(layer, weights, gradientSum, 1.0 / batchLength,
+                                    l2 / trainingDataSize, l1 / trainingDataSize, learningRate);
+            return;
+        }
+
+        // eta/m, eta*lambda/n
+        reduceWeigths(layer, gradientSum, learningRate / batchLength,
+                      learningRate * l2 / trainingDataSize, learningRate * l1 / trainingDataSize);
+    }
+
+    /**
+     * Reduces the weights of a layer in a single pass by the decay
+     * factor * gradientSum + l2Decay * w + l1Decay * sgn(w).
+     * @param layer       Layer index
+     * @param gradientSum Sum of the weight gradients of all samples
+     * @param factor      Factor of the gradient sum
+     * @param l2Decay     Factor of the weights
+     * @param l1Decay     Factor of the signs of the weights
+     */
+    protected void reduceWeigths(int layer, DMatrix gradientSum, double factor, double l2Decay, double l1Decay)
+    {
+        net.getLayer(layer).getWeights().updateInPlace(gradientSum, NO_STATE, (w, g, state, length) ->
+        {
+            for(int i = 0; i < length; i++)
             {
-                sum.addInPlace(layerInfos[x].getError(la));
+                w[i] -= CostFunctionRegularization.regularizedGradient(g[i], factor, w[i], l2Decay, l1Decay);
             }
+        });
+    }
 
-            // eta/m
-            double factor = learningRate / layerInfos.length;
-
-            net.getLayer(la).getBiases()
-                    .subInPlace(sum.scalarMulInPlace(factor));
+    protected void applyBiasGradient(int layer, DRowVector gradientSum, int batchLength, double learningRate)
+    {
+        if(optimizer != null)
+        {
+            optimizer.updateBiases(layer, net.getLayer(layer).getBiases(), gradientSum, 1.0 / batchLength, learningRate);
+            return;
         }
+
+        // eta/m
+        double factor = learningRate / batchLength;
+
+        net.getLayer(layer).getBiases()
+                .subInPlace(gradientSum.scalarMulInPlace(factor));
     }
 
     public NeuralNetwork getNet()
@@ -203,6 +693,94 @@ public class StochasticGradientDescentTrainer
         this.batchSize = batchSize;
     }
 
+    public boolean isMatrixFormBackpropagation()
+    {
+        return matrixFormBackpropagation;
+    }
+
+    /**
+     * Selects between the per-sample training path, which feeds every sample
+     * of a batch forward and backward on its own and in parallel, and the
+     * matrix form, which processes the whole batch at once with one matrix
+     * product per layer and step. The matrix form pays off for larger batch
+     * sizes. Single-precision nets are always trained in matrix form.
+     * @param matrixFormBackpropagation true to train batches in matrix form
+     * @throws IllegalStateException if the matrix form is disabled while a
+     *                               batch pipeline is set
+     */
+    public void setMatrixFormBackpropagation(boolean matrixFormBackpropagation)
+    {
+        if(!matrixFormBackpropagation && batchPipeline != null)
+        {
+            throw new IllegalStateException("The batch pipeline requires matrix form backpropagation");
+        }
+        this.matrixFormBackpropagation = matrixFormBackpropagation;
+    }
+
+    public BatchPipeline getBatchPipeline()
+    {
+        return batchPipeline;
+    }
+
+    /**
+     * Sets a pipeline assembling the batches on background threads. The
+     * stacked batches are trained in matrix form, so setting a pipeline
+     * enables matrix form backpropagation. The pipeline is not closed by the
+     * trainer.
+     * @param batchPipeline Pipeline, null to assemble the batches on the
+     *                      training thread
+     */
+    public void setBatchPipeline(BatchPipeline batchPipeline)
+    {
+        this.batchPipeline = batchPipeline;
+        if(batchPipeline != null)
+        {
+            matrixFormBackpropagation = true;
+        }
+    }
+
+    public int getTestBatchSize()
+    {
+        return testBatchSize;
+    }
+
+    /**
+     * @param testBatchSize Number of test samples fed forward with one matrix
+     *                      product per layer
+     */
+    public void setTestBatchSize(int testBatchSize)
+    {
+        this.testBatchSize = testBatchSize;
+    }
+
+    public SplittableRandom getRandom()
+    {
+        return random;
+    }
+
+    /**
+     * @param random Random number generator for the order of the training
+     *               data; a seeded one makes the training reproducible
+     */
+    public void setRandom(SplittableRandom random)
+    {
+        this.random = Objects.requireNonNull(random);
+    }
+
+    public Optimizer getOptimizer()
+    {
+        return optimizer;
+    }
+
+    /**
+     * @param optimizer Update rule of weights and biases, null for plain
+     *                  gradient descent
+     */
+    public void setOptimizer(Optimizer optimizer)
+    {
+        this.optimizer = optimizer;
+    }
+
     public CostFunction getCosts()
     {
         return costs;
@@ -223,35 +801,147 @@ public class StochasticGradientDescentTrainer
         this.reg = reg;
     }
 
-    protected static class LayerInfos
+    protected static class GradientAccumulator
     {
-        private final DRowVector[] lastActivations;
+        private final DRowVector input;
+        private final DRowVector solution;
+        private final DetailedResult netOutput;
+        private final DRowVector[] derivatives;
         private final DRowVector[] errors;
+        private final DMatrix[] weightGradients;
+        private final DRowVector[] biasGradients;
 
-        protected LayerInfos(DRowVector[] lastActivations, DRowVector[] errors)
+        protected GradientAccumulator(NeuralNetwork net)
         {
-            this.lastActivations = lastActivations;
-            this.errors = errors;
+            input = new DRowVector(net.getInputSize());
+            solution = new DRowVector(net.getOutputSize());
+            netOutput = new DetailedResult(net);
+            derivatives = new DRowVector[net.getLayerCount()];
+            errors = new DRowVector[net.getLayerCount()];
+            weightGradients = new DMatrix[net.getLayerCount()];
+            biasGradients = new DRowVector[net.getLayerCount()];
+            for(int i = 0; i < net.getLayerCount(); i++)
+            {
+                derivatives[i] = new DRowVector(net.getLayer(i).getOutputSize());
+                errors[i] = new DRowVector(net.getLayer(i).getOutputSize());
+                weightGradients[i] = new DMatrix(net.getLayer(i).getWeights().getSize());
+                biasGradients[i] = new DRowVector(net.getLayer(i).getOutputSize());
+            }
         }
 
-        public DRowVector[] getLastActivations()
+        public DMatrix[] getWeightGradients()
         {
-            return lastActivations;
+            return weightGradients;
         }
 
-        public DRowVector[] getErrors()
+        public DRowVector[] getBiasGradients()
         {
-            return errors;
+            return biasGradients;
         }
+    }
 
-        public DRowVector getError(int layer)
+    /**
+     * Matrices of a batch in matrix form. They are allocated for the longest
+     * batch, the getters return views of the rows of the current batch
+     * length.
+     */
+    protected static class BatchWorkspace
+    {
+        private final DMatrix allInputs;
+        private final DMatrix allSolutions;
+        private final DetailedBatchResult allNetOutput;
+        private final DMatrix[] allDerivatives;
+        private final DMatrix[] allErrors;
+        private final DRowVector inputRow;
+        private final DRowVector solutionRow;
+
+        private DMatrix inputs;
+        private DMatrix solutions;
+        private DetailedBatchResult netOutput;
+        private final DMatrix[] derivatives;
+        private final DMatrix[] errors;
+
+        /**
+         * Creates a workspace whose batch length is the maximum one.
+         * @param net            Net the workspace is sized for
+         * @param maxBatchLength Length of the longest batch
+         */
+        protected BatchWorkspace(NeuralNetwork net, int maxBatchLength)
         {
-            return errors[layer];
+            allInputs = new DMatrix(maxBatchLength, net.getInputSize());
+            allSolutions = new DMatrix(maxBatchLength, net.getOutputSize());
+            allNetOutput = new DetailedBatchResult(net, maxBatchLength);
+            allDerivatives = new DMatrix[net.getLayerCount()];
+            allErrors = new DMatrix[net.getLayerCount()];
+            for(int i = 0; i < net.getLayerCount(); i++)
+            {
+                allDerivatives[i] = new DMatrix(maxBatchLength, net.getLayer(i).getOutputSize());
+                allErrors[i] = new DMatrix(maxBatchLength, net.getLayer(i).getOutputSize());
+            }
+            inputRow = new DRowVector(net.getInputSize());
+            solutionRow = new DRowVector(net.getOutputSize());
+
+            inputs = allInputs;
+            solutions = allSolutions;
+            netOutput = allNetOutput;
+            derivatives = allDerivatives.clone();
+            errors = allErrors.clone();
         }
 
-        public DRowVector getAct(int layerPlusOne)
+        /**
+         * Sets the length of the next batch. Only the headers of the views
+         * are created if it changes, the data is shared.
+         * @param batchLength Batch length, at most the maximum one
+         * @return this
+         */
+        protected BatchWorkspace setBatchLength(int batchLength)
         {
-            return lastActivations[layerPlusOne];
+            if(batchLength > getMaxBatchLength())
+            {
+                throw new IllegalArgumentException("Batch length exceeds the maximum batch length of the workspace");
+            }
+            if(batchLength != inputs.getRowCount())
+            {
+                inputs = allInputs.viewRows(0, batchLength);
+                solutions = allSolutions.viewRows(0, batchLength);
+                netOutput = allNetOutput.viewFirstRows(batchLength);
+                for(int i = 0; i < errors.length; i++)
+                {
+                    derivatives[i] = allDerivatives[i].viewRows(0, batchLength);
+                    errors[i] = allErrors[i].viewRows(0, batchLength);
+                }
+            }
+            return this;
+        }
+
+        public int getMaxBatchLength()
+        {
+            return allInputs.getRowCount();
+        }
+
+        public int getBatchLength()
+        {
+            return inputs.getRowCount();
+        }
+
+        public DMatrix getInputs()
+        {
+            return inputs;
+        }
+
+        public DMatrix getSolutions()
+        {
+            return solutions;
+        }
+
+        public DetailedBatchResult getNetOutput()
+        {
+            return netOutput;
+        }
+
+        public DMatrix[] getErrors()
+        {
+            return errors;
         }
     }
 }
@@ -18,6 +18,17 @@ public class TrainingData
         return input;
     }
 
+    /**
+     * Returns the input without allocating. Subclasses which create their
+     * input on demand write it into the buffer instead.
+     * @param buffer Vector of the input length which may be overwritten
+     * @return The stored input or buffer, must not be modified
+     */
+    public DRowVector getInput(DRowVector buffer)
+    {
+        return getInput();
+    }
+
     public void setInput(DRowVector input)
     {
         this.input = input;
@@ -28,6 +39,17 @@ public class TrainingData
         return solution;
     }
 
+    /**
+     * Returns the solution without allocating. Subclasses which create their
+     * solution on demand write it into the buffer instead.
+     * @param buffer Vector of the solution length which may be overwritten
+     * @return The stored solution or buffer, must not be modified
+     */
+    public DRowVector getSolution(DRowVector buffer)
+    {
+        return getSolution();
+    }
+
     public void setSolution(DRowVector solution)
     {
         this.solution = solution;
@@ -1,6 +1,8 @@
 package de.mirkoruether.ann.training.costs;
 
+import de.mirkoruether.linalg.DMatrix;
 import de.mirkoruether.linalg.DRowVector;
+import de.mirkoruether.linalg.FMatrix;
 
 public interface CostFunction
 {
@@ -8,8 +10,61 @@ public interface CostFunction
 
     public DRowVector calculateGradient(DRowVector netOutput, DRowVector solution);
 
+    /**
+     * @return false if the error of the last layer does not depend on the
+     *         derivative of the activation function, like for cross-entropy
+     *         costs, so it does not need to be calculated
+     */
+    public default boolean isLastLayerDerivativeUsed()
+    {
+        return true;
+    }
+
+    public default DMatrix calculateGradientBatchInto(DMatrix netOutputs, DMatrix solutions, DMatrix dest)
+    {
+        for(int x = 0; x < netOutputs.getRowCount(); x++)
+        {
+            dest.setRow(x, calculateGradient(netOutputs.getRowAsVector(x), solutions.getRowAsVector(x)));
+        }
+        return dest;
+    }
+
     public default DRowVector calculateErrorOfLastLayer(DRowVector netOutput, DRowVector solution, DRowVector lastLayerDerivativeActivation)
     {
         return calculateGradient(netOutput, solution).elementWiseMulInPlace(lastLayerDerivativeActivation);
     }
+
+    public default DMatrix calculateErrorOfLastLayerBatchInto(DMatrix netOutputs, DMatrix solutions, DMatrix lastLayerDerivativeActivations, DMatrix dest)
+    {
+        for(int x = 0; x < netOutputs.getRowCount(); x++)
+        {
+            dest.setRow(x, calculateErrorOfLastLayer(netOutputs.getRowAsVector(x),
+                                                     solutions.getRowAsVector(x),
+                                                     lastLayerDerivativeActivations.getRowAsVector(x)));
+        }
+        return dest;
+    }
+
+    /**
+     * Single-precision version of
+     * {@link #calculateGradientBatchInto(DMatrix, DMatrix, DMatrix)}. By
+     * default the gradients are calculated in double precision.
+     */
+    public default FMatrix calculateGradientBatchInto(FMatrix netOutputs, FMatrix solutions, FMatrix dest)
+    {
+        DMatrix gradients = new DMatrix(dest.getRowCount(), dest.getColumnCount());
+        return dest.copyFrom(calculateGradientBatchInto(netOutputs.toDoubleMatrix(), solutions.toDoubleMatrix(), gradients));
+    }
+
+    /**
+     * Single-precision version of
+     * {@link #calculateErrorOfLastLayerBatchInto(DMatrix, DMatrix, DMatrix, DMatrix)}.
+     * By default the errors are calculated in double precision.
+     */
+    public default FMatrix calculateErrorOfLastLayerBatchInto(FMatrix netOutputs, FMatrix solutions, FMatrix lastLayerDerivativeActivations, FMatrix dest)
+    {
+        DMatrix errors = new DMatrix(dest.getRowCount(), dest.getColumnCount());
+        return dest.copyFrom(calculateErrorOfLastLayerBatchInto(netOutputs.toDoubleMatrix(), solutions.toDoubleMatrix(),
+                                                                lastLayerDerivativeActivations.toDoubleMatrix(), errors));
+    }
 }
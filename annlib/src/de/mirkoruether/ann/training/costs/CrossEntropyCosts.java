@@ -1,6 +1,8 @@
 package de.mirkoruether.ann.training.costs;
 
+import de.mirkoruether.linalg.DMatrix;
 import de.mirkoruether.linalg.DRowVector;
+import de.mirkoruether.linalg.FMatrix;
 import de.mirkoruether.linalg.SizeException;
 
 public class CrossEntropyCosts implements CostFunction
@@ -34,9 +36,27 @@ public class CrossEntropyCosts implements CostFunction
         return grad;
     }
 
+    @Override
+    public boolean isLastLayerDerivativeUsed()
+    {
+        return false;
+    }
+
     @Override
     public DRowVector calculateErrorOfLastLayer(DRowVector netOutput, DRowVector solution, DRowVector lastLayerDerivativeActivation)
     {
         return netOutput.sub(solution);
     }
+
+    @Override
+    public DMatrix calculateErrorOfLastLayerBatchInto(DMatrix netOutputs, DMatrix solutions, DMatrix lastLayerDerivativeActivations, DMatrix dest)
+    {
+        return netOutputs.subInto(solutions, dest);
+    }
+
+    @Override
+    public FMatrix calculateErrorOfLastLayerBatchInto(FMatrix netOutputs, FMatrix solutions, FMatrix lastLayerDerivativeActivations, FMatrix dest)
+    {
+        return netOutputs.subInto(solutions, dest);
+    }
 }
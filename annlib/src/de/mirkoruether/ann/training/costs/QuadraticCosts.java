@@ -1,6 +1,8 @@
 package de.mirkoruether.ann.training.costs;
 
+import de.mirkoruether.linalg.DMatrix;
 import de.mirkoruether.linalg.DRowVector;
+import de.mirkoruether.linalg.FMatrix;
 import de.mirkoruether.linalg.SizeException;
 
 public class QuadraticCosts implements CostFunction
@@ -26,4 +28,16 @@ public class QuadraticCosts implements CostFunction
     {
         return netOutput.sub(solution);
     }
+
+    @Override
+    public DMatrix calculateErrorOfLastLayerBatchInto(DMatrix netOutputs, DMatrix solutions, DMatrix lastLayerDerivativeActivations, DMatrix dest)
+    {
+        return netOutputs.subInto(solutions, dest).elementWiseMulInPlace(lastLayerDerivativeActivations);
+    }
+
+    @Override
+    public FMatrix calculateErrorOfLastLayerBatchInto(FMatrix netOutputs, FMatrix solutions, FMatrix lastLayerDerivativeActivations, FMatrix dest)
+    {
+        return netOutputs.subInto(solutions, dest).elementWiseMulInPlace(lastLayerDerivativeActivations);
+    }
 }
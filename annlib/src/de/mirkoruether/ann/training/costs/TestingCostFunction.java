@@ -35,6 +35,12 @@ public class TestingCostFunction implements CostFunction
         return baseFunc.calculateGradient(netOutput, solution).scalarMulInPlace(test.test(netOutput, solution) ? factorIfRight : factorIfWrong);
     }
 
+    @Override
+    public boolean isLastLayerDerivativeUsed()
+    {
+        return baseFunc.isLastLayerDerivativeUsed();
+    }
+
     @Override
     public DRowVector calculateErrorOfLastLayer(DRowVector netOutput, DRowVector solution, DRowVector lastLayerDerivativeActivation)
     {
@@ -0,0 +1,494 @@
+package de.mirkoruether.ann.training.distributed;
+
+import de.mirkoruether.ann.NeuralNetwork;
+import de.mirkoruether.ann.training.StochasticGradientDescentTrainer;
+import de.mirkoruether.linalg.DMatrix;
+import de.mirkoruether.linalg.DRowVector;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Holds the weights and biases of a net and serves them to
+ * {@link ParameterServerWorker}s over plain TCP. Workers pull the current
+ * parameters, calculate the gradients of a batch of their shard of the
+ * training data and push them back. The server applies them by the update of
+ * its trainer, so learning rate, regularization and optimizer are those of
+ * the server.
+ *
+ * Every push advances the clock of its worker by one. In synchronous mode
+ * (maximum staleness 0) the gradients of all workers for a clock are summed
+ * up and applied as one update of the combined batch, and a pull for the
+ * next clock waits until this update is done, so every worker calculates on
+ * the same parameters. With a maximum staleness s &gt; 0 every push is
+ * applied on its own as soon as it arrives and a worker at clock c may only
+ * pull once all other workers reached clock c - s, i.e. it calculates on
+ * parameters missing at most s updates of every other worker. Workers which
+ * are done no longer hold back the others.
+ *
+ * Training starts once the expected number of workers is connected. The
+ * handshakes of the connections run concurrently. A connection whose
+ * handshake fails, e.g. because the layout of its net does not match, is
+ * closed and replaced by the next one. If a worker fails during training, e.g. because its connection drops, the server stops serving
+ * all workers: the connections of the others are closed, so they fail as
+ * well, and {@link #serve()} throws.
+ */
+public class ParameterServer implements Closeable
+{
+    public static final int SYNCHRONOUS = 0;
+    public static final int UNBOUNDED_STALENESS = Integer.MAX_VALUE;
+
+    private final StochasticGradientDescentTrainer trainer;
+    private final NeuralNetwork net;
+    private final ServerSocketChannel serverChannel;
+    private final int workerCount;
+    private final int maxStaleness;
+    private volatile double learningRate;
+
+    private final int[] clocks;
+    private final boolean[] active;
+    private final DMatrix[] roundWeightGradients;
+    private final DRowVector[] roundBiasGradients;
+    private int roundBatchLength = 0;
+    private long updateCount = 0;
+    private int trainingDataSize = 0;
+
+    /**
+     * @param trainer      Trainer holding the net and applying the updates
+     * @param port         TCP port, 0 for any free port
+     * @param workerCount  Number of workers to wait for
+     * @param maxStaleness {@link #SYNCHRONOUS}, the maximum number of clocks
+     *                     a worker may be ahead of the slowest one or
+     *                     {@link #UNBOUNDED_STALENESS}
+     * @param learningRate Learning rate
+     */
+    public ParameterServer(StochasticGradientDescentTrainer trainer, int port, int workerCount, int maxStaleness, double learningRate)
+    {
+        if(workerCount <= 0)
+        {
+            throw new IllegalArgumentException("Worker count has to be positive");
+        }
+        if(maxStaleness < 0)
+        {
+            throw new IllegalArgumentException("Maximum staleness must not be negative");
+        }
+
+        this.trainer = trainer;
+        this.net = trainer.getNet();
+        this.workerCount = workerCount;
+        this.maxStaleness = maxStaleness;
+        this.learningRate = learningRate;
+
+        clocks = new int[workerCount];
+        active = new boolean[workerCount];
+        roundWeightGradients = new DMatrix[net.getLayerCount()];
+        roundBiasGradients = new DRowVector[net.getLayerCount()];
+        for(int i = 0; i < net.getLayerCount(); i++)
+        {
+            roundWeightGradients[i] = new DMatrix(net.getLayer(i).getWeights().getSize());
+            roundBiasGradients[i] = new DRowVector(net.getLayer(i).getOutputSize());
+        }
+
+        try
+        {
+            serverChannel = ServerSocketChannel.open().bind(new InetSocketAddress(port));
+        }
+        catch(IOException ex)
+        {
+            throw new RuntimeException("Failed to bind parameter server to port " + port, ex);
+        }
+    }
+
+    /**
+     * Waits for all workers, serves them until every one of them is done and
+     * returns afterwards.
+     * @throws RuntimeException as soon as serving one of the workers failed,
+     *                          after closing the connections of all workers
+     */
+    public void serve()
+    {
+        List<SocketChannel> accepted = new ArrayList<>();
+        List<SocketChannel> channels = new ArrayList<>(workerCount);
+        List<IOException> rejections = new ArrayList<>();
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try
+        {
+            acceptWorkers(executor, accepted, channels, rejections);
+
+            ByteBuffer buffer = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+            for(int id = 0; id < workerCount; id++)
+            {
+                active[id] = true;
+                buffer.clear();
+                buffer.putInt(Protocol.STATUS_OK)
+                  .putInt(id)
+                  .putInt(workerCount)
+                  .putInt(maxStaleness);
+                Protocol.write(channels.get(id), buffer);
+            }
+
+            CompletionService<Void> completion = new ExecutorCompletionService<>(executor);
+            for(int id = 0; id < workerCount; id++)
+            {
+                final int workerId = id;
+                completion.submit(() ->
+                {
+                    handleWorker(workerId, channels.get(workerId));
+                    return null;
+                });
+            }
+            // In order of completion, so the first failure ends serving
+            // instead of waiting for the workers before it
+            for(int i = 0; i < workerCount; i++)
+            {
+                completion.take().get();
+            }
+        }
+        catch(IOException | ExecutionException ex)
+        {
+            RuntimeException failure = new RuntimeException("Parameter server failed", ex instanceof ExecutionException ? ex.getCause() : ex);
+            rejections.forEach(failure::addSuppressed);
+            throw failure;
+        }
+        catch(InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Parameter server was interrupted", ex);
+        }
+        finally
+        {
+            // Closing the connections fails the reads of the remaining
+            // handlers, the interrupt fails their waits in pull
+            for(SocketChannel channel : accepted)
+            {
+                closeQuietly(channel);
+            }
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Accepts connections until the expected number of workers passed the
+     * handshake. Every connection whose handshake is still running takes the
+     * place of a worker, so no more connections than workers are accepted at
+     * once. A connection failing the handshake is closed and its failure is
+     * added to the rejections.
+     * @param accepted   Receives all accepted connections
+     * @param channels   Receives the connections of the workers in the
+     *                   order of their ids
+     * @param rejections Receives the failures of the rejected connections
+     */
+    private void acceptWorkers(ExecutorService executor, List<SocketChannel> accepted, List<SocketChannel> channels,
+                               List<IOException> rejections) throws IOException, InterruptedException, ExecutionException
+    {
+        CompletionService<Integer> handshakes = new ExecutorCompletionService<>(executor);
+        Map<Future<Integer>, SocketChannel> pending = new HashMap<>();
+        while(channels.size() < workerCount)
+        {
+            if(channels.size() + pending.size() < workerCount)
+            {
+                SocketChannel channel = serverChannel.accept();
+                accepted.add(channel);
+                channel.socket().setTcpNoDelay(true);
+                pending.put(handshakes.submit(() -> handshake(channel)), channel);
+            }
+            else
+            {
+                Future<Integer> done = handshakes.take();
+                SocketChannel channel = pending.remove(done);
+                try
+                {
+                    trainingDataSize += done.get();
+                    channels.add(channel);
+                }
+                catch(ExecutionException ex)
+                {
+                    if(!(ex.getCause() instanceof IOException))
+                    {
+                        throw ex;
+                    }
+                    rejections.add((IOException)ex.getCause());
+                    closeQuietly(channel);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the handshake of a worker and checks the layout of its net.
+     * @return Shard length of the worker
+     * @throws IOException if the worker does not speak the protocol or the
+     *                     layout of its net does not match
+     */
+    private int handshake(SocketChannel channel) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(4 * Math.max(5, net.getLayerCount())).order(ByteOrder.LITTLE_ENDIAN);
+        Protocol.read(channel, buffer, 20);
+        int magic = buffer.getInt();
+        int version = buffer.getInt();
+        int shardLength = buffer.getInt();
+        int layerCount = buffer.getInt();
+        int inputSize = buffer.getInt();
+        if(magic != Protocol.MAGIC || version != Protocol.VERSION)
+        {
+            throw new IOException("Unsupported protocol of worker");
+        }
+
+        boolean matches = layerCount == net.getLayerCount() && inputSize == net.getInputSize();
+        if(layerCount > 0 && layerCount <= buffer.capacity() / 4)
+        {
+            Protocol.read(channel, buffer, 4 * layerCount);
+            for(int i = 0; i < layerCount; i++)
+            {
+                int outputSize = buffer.getInt();
+                matches &= i < net.getLayerCount() && outputSize == net.getLayer(i).getOutputSize();
+            }
+        }
+
+        if(!matches)
+        {
+            buffer.clear();
+            buffer.putInt(Protocol.STATUS_LAYOUT_MISMATCH);
+            Protocol.write(channel, buffer);
+            throw new IOException("Layout of the net of a worker does not match the net of the server");
+        }
+        return shardLength;
+    }
+
+    private void handleWorker(int id, SocketChannel channel) throws IOException
+    {
+        ByteBuffer buffer = Protocol.allocate(net);
+        int blockSize = 8 * Protocol.parameterCount(net);
+        DMatrix[] weightGradients = new DMatrix[net.getLayerCount()];
+        DRowVector[] biasGradients = new DRowVector[net.getLayerCount()];
+        for(int i = 0; i < net.getLayerCount(); i++)
+        {
+            weightGradients[i] = new DMatrix(net.getLayer(i).getWeights().getSize());
+            biasGradients[i] = new DRowVector(net.getLayer(i).getOutputSize());
+        }
+
+        try
+        {
+            while(true)
+            {
+                int command = Protocol.read(channel, buffer, 4).getInt();
+                switch(command)
+                {
+                    case Protocol.PULL:
+                        int clock = Protocol.read(channel, buffer, 4).getInt();
+                        buffer.clear();
+                        pull(clock, buffer);
+                        Protocol.write(channel, buffer);
+                        break;
+                    case Protocol.PUSH:
+                        int batchLength = Protocol.read(channel, buffer, 4).getInt();
+                        Protocol.getBlock(Protocol.read(channel, buffer, blockSize), weightGradients, biasGradients);
+                        push(id, batchLength, weightGradients, biasGradients);
+                        buffer.clear();
+                        buffer.putInt(Protocol.STATUS_OK);
+                        Protocol.write(channel, buffer);
+                        break;
+                    case Protocol.DONE:
+                        return;
+                    default:
+                        throw new IOException("Unknown command " + command + " of worker " + id);
+                }
+            }
+        }
+        finally
+        {
+            finish(id);
+        }
+    }
+
+    /**
+     * Waits until the parameters may be pulled at the given clock and puts
+     * the update count and the parameters into the buffer.
+     */
+    private synchronized void pull(int clock, ByteBuffer buffer) throws InterruptedIOException
+    {
+        while(maxStaleness == SYNCHRONOUS
+              ? updateCount < clock
+              : (long)minActiveClock() < (long)clock - maxStaleness)
+        {
+            try
+            {
+                wait();
+            }
+            catch(InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for other workers");
+            }
+        }
+
+        buffer.putLong(updateCount);
+        Protocol.putBlock(buffer, net.getWeights(), net.getBiases());
+    }
+
+    private synchronized void push(int id, int batchLength, DMatrix[] weightGradients, DRowVector[] biasGradients)
+    {
+        clocks[id]++;
+        if(maxStaleness == SYNCHRONOUS)
+        {
+            for(int la = 0; la < net.getLayerCount(); la++)
+            {
+                if(roundBatchLength == 0)
+                {
+                    weightGradients[la].copyInto(roundWeightGradients[la]);
+                    biasGradients[la].copyInto(roundBiasGradients[la]);
+                }
+                else
+                {
+                    roundWeightGradients[la].addInPlace(weightGradients[la]);
+                    roundBiasGradients[la].addInPlace(biasGradients[la]);
+                }
+            }
+            roundBatchLength += batchLength;
+            completeRoundIfReady();
+        }
+        else
+        {
+            trainer.applyGradients(weightGradients, biasGradients, batchLength, learningRate, trainingDataSize);
+            updateCount++;
+        }
+        notifyAll();
+    }
+
+    private synchronized void finish(int id)
+    {
+        active[id] = false;
+        if(maxStaleness == SYNCHRONOUS)
+        {
+            completeRoundIfReady();
+        }
+        notifyAll();
+    }
+
+    /**
+     * Applies the summed up gradients of the current round once every active
+     * worker has pushed its gradients for it.
+     */
+    private void completeRoundIfReady()
+    {
+        if(roundBatchLength == 0)
+        {
+            return;
+        }
+        for(int id = 0; id < workerCount; id++)
+        {
+            if(active[id] && clocks[id] <= updateCount)
+            {
+                return;
+            }
+        }
+
+        trainer.applyGradients(roundWeightGradients, roundBiasGradients, roundBatchLength, learningRate, trainingDataSize);
+        roundBatchLength = 0;
+        updateCount++;
+    }
+
+    private int minActiveClock()
+    {
+        int min = Integer.MAX_VALUE;
+        for(int id = 0; id < workerCount; id++)
+        {
+            if(active[id])
+            {
+                min = Math.min(min, clocks[id]);
+            }
+        }
+        return min;
+    }
+
+    private static void closeQuietly(SocketChannel channel)
+    {
+        try
+        {
+            channel.close();
+        }
+        catch(IOException ex)
+        {
+        }
+    }
+
+    /**
+     * Stops accepting workers.
+     */
+    @Override
+    public void close()
+    {
+        try
+        {
+            serverChannel.close();
+        }
+        catch(IOException ex)
+        {
+            throw new RuntimeException("Failed to close parameter server", ex);
+        }
+    }
+
+    /**
+     * @return Bound TCP port
+     */
+    public int getPort()
+    {
+        try
+        {
+            return ((InetSocketAddress)serverChannel.getLocalAddress()).getPort();
+        }
+        catch(IOException ex)
+        {
+            throw new RuntimeException("Failed to get port of parameter server", ex);
+        }
+    }
+
+    public NeuralNetwork getNet()
+    {
+        return net;
+    }
+
+    /**
+     * @return Number of updates applied to the net, i.e. rounds in
+     *         synchronous mode and pushes otherwise
+     */
+    public synchronized long getUpdateCount()
+    {
+        return updateCount;
+    }
+
+    public int getWorkerCount()
+    {
+        return workerCount;
+    }
+
+    public int getMaxStaleness()
+    {
+        return maxStaleness;
+    }
+
+    public double getLearningRate()
+    {
+        return learningRate;
+    }
+
+    public void setLearningRate(double learningRate)
+    {
+        this.learningRate = learningRate;
+    }
+}
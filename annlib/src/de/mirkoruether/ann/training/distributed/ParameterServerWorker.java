@@ -0,0 +1,182 @@
+package de.mirkoruether.ann.training.distributed;
+
+import de.mirkoruether.ann.NeuralNetwork;
+import de.mirkoruether.ann.training.StochasticGradientDescentTrainer;
+import de.mirkoruether.ann.training.TrainingData;
+import de.mirkoruether.linalg.DMatrix;
+import de.mirkoruether.linalg.DRowVector;
+import de.mirkoruether.util.Randomizer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Trains a shard of the training data against a {@link ParameterServer}.
+ *
+ * The worker keeps a replica of the net in its trainer. For every batch it
+ * pulls the current parameters into the replica, calculates the gradients
+ * of the batch with the trainer, so batches are processed per sample or in
+ * matrix form like in local training, and pushes them to the server. The
+ * learning rate, regularization and optimizer of the worker's trainer are
+ * not used; the server applies the updates.
+ */
+public class ParameterServerWorker
+{
+    private final StochasticGradientDescentTrainer trainer;
+    private final NeuralNetwork net;
+    private final DMatrix[] weightGradients;
+    private final DRowVector[] biasGradients;
+
+    private int workerId = -1;
+    private long lastUpdateCount = 0;
+
+    /**
+     * @param trainer Trainer holding the replica of the net, whose layout has
+     *                to match the net of the server
+     */
+    public ParameterServerWorker(StochasticGradientDescentTrainer trainer)
+    {
+        this.trainer = trainer;
+        this.net = trainer.getNet();
+
+        weightGradients = new DMatrix[net.getLayerCount()];
+        biasGradients = new DRowVector[net.getLayerCount()];
+        for(int i = 0; i < net.getLayerCount(); i++)
+        {
+            weightGradients[i] = new DMatrix(net.getLayer(i).getWeights().getSize());
+            biasGradients[i] = new DRowVector(net.getLayer(i).getOutputSize());
+        }
+    }
+
+    /**
+     * Connects to the server, trains the shard in batches of the batch size
+     * of the trainer drawn in random order and disconnects. Waits until all
+     * workers are connected to the server.
+     * @param server Address of the server
+     * @param shard  Training data of this worker
+     * @param epochs Number of epochs
+     * @return Number of pushed batches
+     */
+    public int train(InetSocketAddress server, TrainingData[] shard, int epochs)
+    {
+        try(SocketChannel channel = SocketChannel.open(server))
+        {
+            channel.socket().setTcpNoDelay(true);
+            ByteBuffer buffer = Protocol.allocate(net);
+            handshake(channel, buffer, shard.length);
+
+            int clock = 0;
+            int[] order = new int[0];
+            int batchSize = trainer.getBatchSize();
+            for(int e = 0; e < epochs; e++)
+            {
+                if(order.length != shard.length)
+                {
+                    order = Randomizer.permutation(shard.length, trainer.getRandom());
+                }
+                else
+                {
+                    Randomizer.shuffleArrInPlace(order, trainer.getRandom());
+                }
+
+                TrainingData[] batch = new TrainingData[Math.min(batchSize, shard.length)];
+                for(int i = 0; i < shard.length; i += batchSize)
+                {
+                    if(shard.length - i < batch.length)
+                    {
+                        batch = new TrainingData[shard.length - i];
+                    }
+                    for(int x = 0; x < batch.length; x++)
+                    {
+                        batch[x] = shard[order[i + x]];
+                    }
+
+                    pull(channel, buffer, clock);
+                    trainer.calculateGradients(batch, weightGradients, biasGradients);
+                    push(channel, buffer, batch.length);
+                    clock++;
+                }
+            }
+
+            buffer.clear();
+            buffer.putInt(Protocol.DONE);
+            Protocol.write(channel, buffer);
+            return clock;
+        }
+        catch(IOException ex)
+        {
+            throw new RuntimeException("Training with parameter server " + server + " failed", ex);
+        }
+    }
+
+    private void handshake(SocketChannel channel, ByteBuffer buffer, int shardLength) throws IOException
+    {
+        buffer.clear();
+        buffer.putInt(Protocol.MAGIC)
+          .putInt(Protocol.VERSION)
+          .putInt(shardLength)
+          .putInt(net.getLayerCount())
+          .putInt(net.getInputSize());
+        for(int i = 0; i < net.getLayerCount(); i++)
+        {
+            buffer.putInt(net.getLayer(i).getOutputSize());
+        }
+        Protocol.write(channel, buffer);
+
+        if(Protocol.read(channel, buffer, 4).getInt() != Protocol.STATUS_OK)
+        {
+            throw new IllegalArgumentException("Layout of the net does not match the net of the parameter server");
+        }
+        Protocol.read(channel, buffer, 12);
+        workerId = buffer.getInt();
+    }
+
+    /**
+     * Pulls the parameters for the given clock into the replica.
+     */
+    private void pull(SocketChannel channel, ByteBuffer buffer, int clock) throws IOException
+    {
+        buffer.clear();
+        buffer.putInt(Protocol.PULL).putInt(clock);
+        Protocol.write(channel, buffer);
+
+        Protocol.read(channel, buffer, 8 + 8 * Protocol.parameterCount(net));
+        lastUpdateCount = buffer.getLong();
+        Protocol.getBlock(buffer, net.getWeights(), net.getBiases());
+    }
+
+    private void push(SocketChannel channel, ByteBuffer buffer, int batchLength) throws IOException
+    {
+        buffer.clear();
+        buffer.putInt(Protocol.PUSH).putInt(batchLength);
+        Protocol.putBlock(buffer, weightGradients, biasGradients);
+        Protocol.write(channel, buffer);
+
+        if(Protocol.read(channel, buffer, 4).getInt() != Protocol.STATUS_OK)
+        {
+            throw new IOException("Push was rejected by the parameter server");
+        }
+    }
+
+    public StochasticGradientDescentTrainer getTrainer()
+    {
+        return trainer;
+    }
+
+    /**
+     * @return Id assigned by the server, -1 before connecting
+     */
+    public int getWorkerId()
+    {
+        return workerId;
+    }
+
+    /**
+     * @return Number of updates the server had applied at the last pull
+     */
+    public long getLastUpdateCount()
+    {
+        return lastUpdateCount;
+    }
+}
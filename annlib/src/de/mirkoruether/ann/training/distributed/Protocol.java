@@ -0,0 +1,128 @@
+package de.mirkoruether.ann.training.distributed;
+
+import de.mirkoruether.ann.NeuralNetwork;
+import de.mirkoruether.linalg.DMatrix;
+import de.mirkoruether.linalg.DRowVector;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Wire format between {@link ParameterServer} and {@link ParameterServerWorker}.
+ *
+ * All values are little endian. Parameters and gradients are sent as one
+ * block of doubles holding the weights of every layer row by row followed by
+ * its biases, like the blocks of {@link de.mirkoruether.ann.NetworkIO}.
+ * <pre>
+ * Handshake, worker to server:
+ *   int magic "ANPS", int version, int shard length, int layer count L,
+ *   int input size, L x int output size
+ * Handshake, server to worker, once all workers are connected:
+ *   int status, int worker id, int worker count, int maximum staleness
+ * PULL, worker to server: int PULL, int clock
+ * PULL, server to worker: long number of updates, parameter block
+ * PUSH, worker to server: int PUSH, int batch length, gradient block
+ * PUSH, server to worker: int status
+ * DONE, worker to server: int DONE, the connection is closed
+ * </pre>
+ */
+final class Protocol
+{
+    static final int MAGIC = 0x53504E41;
+    static final int VERSION = 1;
+
+    static final int PULL = 1;
+    static final int PUSH = 2;
+    static final int DONE = 3;
+
+    static final int STATUS_OK = 0;
+    static final int STATUS_LAYOUT_MISMATCH = 1;
+
+    /**
+     * Bytes of the largest message header preceding a block.
+     */
+    static final int HEADER_SIZE = 8;
+
+    static int parameterCount(NeuralNetwork net)
+    {
+        int count = 0;
+        for(int i = 0; i < net.getLayerCount(); i++)
+        {
+            count += (net.getLayer(i).getInputSize() + 1) * net.getLayer(i).getOutputSize();
+        }
+        return count;
+    }
+
+    /**
+     * Allocates a buffer for a header and a block of the given net.
+     */
+    static ByteBuffer allocate(NeuralNetwork net)
+    {
+        return ByteBuffer.allocateDirect(HEADER_SIZE + 8 * parameterCount(net)).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Puts a block at the position of the buffer and advances it.
+     */
+    static void putBlock(ByteBuffer buffer, DMatrix[] weights, DRowVector[] biases)
+    {
+        DoubleBuffer block = buffer.asDoubleBuffer();
+        for(int i = 0; i < weights.length; i++)
+        {
+            weights[i].writeTo(block);
+            biases[i].writeTo(block);
+        }
+        buffer.position(buffer.position() + 8 * block.position());
+    }
+
+    /**
+     * Reads a block from the position of the buffer and advances it.
+     */
+    static void getBlock(ByteBuffer buffer, DMatrix[] weights, DRowVector[] biases)
+    {
+        DoubleBuffer block = buffer.asDoubleBuffer();
+        for(int i = 0; i < weights.length; i++)
+        {
+            weights[i].readFrom(block);
+            biases[i].readFrom(block);
+        }
+        buffer.position(buffer.position() + 8 * block.position());
+    }
+
+    /**
+     * Reads exactly the given number of bytes into the cleared buffer and
+     * flips it.
+     */
+    static ByteBuffer read(SocketChannel channel, ByteBuffer buffer, int length) throws IOException
+    {
+        buffer.clear().limit(length);
+        while(buffer.hasRemaining())
+        {
+            if(channel.read(buffer) < 0)
+            {
+                throw new EOFException("Connection closed by peer");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Flips the buffer and writes its content.
+     */
+    static void write(SocketChannel channel, ByteBuffer buffer) throws IOException
+    {
+        buffer.flip();
+        while(buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+    }
+
+    private Protocol()
+    {
+    }
+}
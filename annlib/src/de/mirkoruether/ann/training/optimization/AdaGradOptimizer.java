@@ -0,0 +1,37 @@
+package de.mirkoruether.ann.training.optimization;
+
+import de.mirkoruether.ann.training.regularization.CostFunctionRegularization;
+
+/**
+ * AdaGrad: every parameter has its own learning rate, which shrinks with the
+ * sum of its squared gradients G: w -= eta * g / (sqrt(G) + epsilon).
+ */
+public class AdaGradOptimizer extends Optimizer
+{
+    private final double epsilon;
+
+    public AdaGradOptimizer()
+    {
+        this(1e-8);
+    }
+
+    public AdaGradOptimizer(double epsilon)
+    {
+        super(1);
+        this.epsilon = epsilon;
+    }
+
+    @Override
+    protected void update(double[] params, double[] gradient, double[][] state, int length,
+                          double scale, double l2, double l1, double learningRate, int step)
+    {
+        double[] sum = state[0];
+        for(int i = 0; i < length; i++)
+        {
+            double g = CostFunctionRegularization.regularizedGradient(gradient[i], scale, params[i], l2, l1);
+            double s = sum[i] + g * g;
+            sum[i] = s;
+            params[i] -= learningRate * g / (Math.sqrt(s) + epsilon);
+        }
+    }
+}
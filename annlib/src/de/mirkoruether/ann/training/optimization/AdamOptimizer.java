@@ -0,0 +1,53 @@
+package de.mirkoruether.ann.training.optimization;
+
+import de.mirkoruether.ann.training.regularization.CostFunctionRegularization;
+
+/**
+ * Adam: decaying averages of the gradient m and of its square v, corrected
+ * for their initialization at zero:
+ * w -= eta * m_hat / (sqrt(v_hat) + epsilon).
+ *
+ * The bias correction is folded into the step size once per update as in
+ * the original paper, so the loop needs no division by it.
+ */
+public class AdamOptimizer extends Optimizer
+{
+    private final double beta1;
+    private final double beta2;
+    private final double epsilon;
+
+    public AdamOptimizer()
+    {
+        this(0.9, 0.999, 1e-8);
+    }
+
+    public AdamOptimizer(double beta1, double beta2, double epsilon)
+    {
+        super(2);
+        this.beta1 = beta1;
+        this.beta2 = beta2;
+        this.epsilon = epsilon;
+    }
+
+    @Override
+    protected void update(double[] params, double[] gradient, double[][] state, int length,
+                          double scale, double l2, double l1, double learningRate, int step)
+    {
+        double[] m = state[0];
+        double[] v = state[1];
+        double b1 = beta1;
+        double b2 = beta2;
+        double correction2 = Math.sqrt(1 - Math.pow(b2, step));
+        double alpha = learningRate * correction2 / (1 - Math.pow(b1, step));
+        double eps = epsilon * correction2;
+        for(int i = 0; i < length; i++)
+        {
+            double g = CostFunctionRegularization.regularizedGradient(gradient[i], scale, params[i], l2, l1);
+            double mi = b1 * m[i] + (1 - b1) * g;
+            double vi = b2 * v[i] + (1 - b2) * g * g;
+            m[i] = mi;
+            v[i] = vi;
+            params[i] -= alpha * mi / (Math.sqrt(vi) + eps);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package de.mirkoruether.ann.training.optimization;
+
+import de.mirkoruether.ann.training.regularization.CostFunctionRegularization;
+
+/**
+ * Gradient descent with momentum: v = mu * v - eta * g, then w += v. With
+ * Nesterov momentum the step is taken from the look-ahead position instead:
+ * w += mu * v - eta * g with the new v.
+ */
+public class MomentumOptimizer extends Optimizer
+{
+    private final double momentum;
+    private final boolean nesterov;
+
+    public MomentumOptimizer(double momentum)
+    {
+        this(momentum, false);
+    }
+
+    public MomentumOptimizer(double momentum, boolean nesterov)
+    {
+        super(1);
+        this.momentum = momentum;
+        this.nesterov = nesterov;
+    }
+
+    @Override
+    protected void update(double[] params, double[] gradient, double[][] state, int length,
+                          double scale, double l2, double l1, double learningRate, int step)
+    {
+        double[] v = state[0];
+        double mu = momentum;
+        if(nesterov)
+        {
+            for(int i = 0; i < length; i++)
+            {
+                double delta = learningRate * CostFunctionRegularization.regularizedGradient(gradient[i], scale, params[i], l2, l1);
+                double vi = mu * v[i] - delta;
+                v[i] = vi;
+                params[i] += mu * vi - delta;
+            }
+        }
+        else
+        {
+            for(int i = 0; i < length; i++)
+            {
+                double vi = mu * v[i] - learningRate * CostFunctionRegularization.regularizedGradient(gradient[i], scale, params[i], l2, l1);
+                v[i] = vi;
+                params[i] += vi;
+            }
+        }
+    }
+
+    public double getMomentum()
+    {
+        return momentum;
+    }
+
+    public boolean isNesterov()
+    {
+        return nesterov;
+    }
+}
@@ -0,0 +1,112 @@
+package de.mirkoruether.ann.training.optimization;
+
+import de.mirkoruether.ann.training.regularization.CostFunctionRegularization;
+import de.mirkoruether.linalg.DMatrix;
+import java.util.Arrays;
+
+/**
+ * Update rule of the weights and biases of a net trained by a
+ * {@link de.mirkoruether.ann.training.StochasticGradientDescentTrainer}.
+ *
+ * Implementations keep state per weight and bias matrix, e.g. running
+ * averages of the gradient, and update parameters and state in a single pass
+ * over each matrix. The state is allocated on the first update of a matrix.
+ * An optimizer belongs to a single net.
+ */
+public abstract class Optimizer
+{
+    private final int stateCount;
+    private DMatrix[][] state = new DMatrix[0][];
+    private int[] steps = new int[0];
+
+    /**
+     * @param stateCount Number of state matrices per parameter matrix
+     */
+    protected Optimizer(int stateCount)
+    {
+        this.stateCount = stateCount;
+    }
+
+    /**
+     * Updates the weights of a layer in place. The gradient of each weight
+     * w is scale * gradient + l2 * w + l1 * sgn(w), the regularization is
+     * applied within the same pass.
+     * @param layer        Layer index
+     * @param weights      Weights
+     * @param gradient     Summed up gradient of the batch, unchanged
+     * @param scale        Factor of the gradient, e.g. 1 / batch length
+     * @param l2           L2 regularization coefficient divided by the
+     *                     training set size
+     * @param l1           L1 regularization coefficient divided by the
+     *                     training set size
+     * @param learningRate Learning rate
+     */
+    public void updateWeights(int layer, DMatrix weights, DMatrix gradient, double scale, double l2, double l1, double learningRate)
+    {
+        update(2 * layer, weights, gradient, scale, l2, l1, learningRate);
+    }
+
+    /**
+     * Updates the biases of a layer in place.
+     * @param layer        Layer index
+     * @param biases       Biases
+     * @param gradient     Summed up gradient of the batch, unchanged
+     * @param scale        Factor of the gradient, e.g. 1 / batch length
+     * @param learningRate Learning rate
+     */
+    public void updateBiases(int layer, DMatrix biases, DMatrix gradient, double scale, double learningRate)
+    {
+        update(2 * layer + 1, biases, gradient, scale, 0.0, 0.0, learningRate);
+    }
+
+    private void update(int slot, DMatrix params, DMatrix gradient, double scale, double l2, double l1, double learningRate)
+    {
+        DMatrix[] s = getState(slot, params);
+        int step = ++steps[slot];
+        params.updateInPlace(gradient, s, (p, g, st, length) -> update(p, g, st, length, scale, l2, l1, learningRate, step));
+    }
+
+    /**
+     * Update of one parameter matrix, which should be a single loop over all
+     * arrays.
+     * @param params       Parameters to update in place
+     * @param gradient     Gradient sum
+     * @param state        State arrays of the matrix, initially zero
+     * @param length       Length of all arrays
+     * @param scale        Factor of the gradient
+     * @param l2           L2 regularization coefficient
+     * @param l1           L1 regularization coefficient
+     * @param learningRate Learning rate
+     * @param step         Number of this update of the matrix, starting at 1
+     * @see CostFunctionRegularization#regularizedGradient(double, double, double, double, double)
+     */
+    protected abstract void update(double[] params, double[] gradient, double[][] state, int length,
+                                   double scale, double l2, double l1, double learningRate, int step);
+
+    private DMatrix[] getState(int slot, DMatrix params)
+    {
+        if(slot >= state.length)
+        {
+            state = Arrays.copyOf(state, slot + 1);
+            steps = Arrays.copyOf(steps, slot + 1);
+        }
+        if(state[slot] == null)
+        {
+            state[slot] = new DMatrix[stateCount];
+            for(int i = 0; i < stateCount; i++)
+            {
+                state[slot][i] = new DMatrix(params.getSize());
+            }
+        }
+        return state[slot];
+    }
+
+    /**
+     * Discards all state, e.g. to train another net.
+     */
+    public void reset()
+    {
+        state = new DMatrix[0][];
+        steps = new int[0];
+    }
+}
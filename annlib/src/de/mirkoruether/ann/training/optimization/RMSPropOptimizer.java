@@ -0,0 +1,41 @@
+package de.mirkoruether.ann.training.optimization;
+
+import de.mirkoruether.ann.training.regularization.CostFunctionRegularization;
+
+/**
+ * RMSProp: like AdaGrad, but with an exponentially decaying average s of the
+ * squared gradients: s = rho * s + (1 - rho) * g^2,
+ * w -= eta * g / (sqrt(s) + epsilon).
+ */
+public class RMSPropOptimizer extends Optimizer
+{
+    private final double decay;
+    private final double epsilon;
+
+    public RMSPropOptimizer()
+    {
+        this(0.9, 1e-8);
+    }
+
+    public RMSPropOptimizer(double decay, double epsilon)
+    {
+        super(1);
+        this.decay = decay;
+        this.epsilon = epsilon;
+    }
+
+    @Override
+    protected void update(double[] params, double[] gradient, double[][] state, int length,
+                          double scale, double l2, double l1, double learningRate, int step)
+    {
+        double[] avg = state[0];
+        double rho = decay;
+        for(int i = 0; i < length; i++)
+        {
+            double g = CostFunctionRegularization.regularizedGradient(gradient[i], scale, params[i], l2, l1);
+            double s = rho * avg[i] + (1 - rho) * g * g;
+            avg[i] = s;
+            params[i] -= learningRate * g / (Math.sqrt(s) + epsilon);
+        }
+    }
+}
@@ -5,4 +5,44 @@ import de.mirkoruether.linalg.DMatrix;
 public interface CostFunctionRegularization
 {
     public DMatrix calculateWeightDecay(DMatrix weigths, double learningRate, int trainingSetSize);
+
+    /**
+     * @return true if the gradient of the regularization term with respect to
+     *         a weight w is (l2 * w + l1 * sgn(w)) / n with the coefficients
+     *         of {@link #getL2Coefficient()} and {@link #getL1Coefficient()}
+     *         and the training set size n. Trainers then apply the decay
+     *         within their update of the weights instead of calling
+     *         {@link #calculateWeightDecay(DMatrix, double, int)}.
+     */
+    public default boolean hasDecayCoefficients()
+    {
+        return false;
+    }
+
+    public default double getL2Coefficient()
+    {
+        return 0.0;
+    }
+
+    public default double getL1Coefficient()
+    {
+        return 0.0;
+    }
+
+    /**
+     * Gradient with respect to one weight including the regularization term
+     * given by coefficients, for use within a single update loop.
+     * @param gradientSum Summed up gradient of the costs
+     * @param scale       Factor of the gradient sum
+     * @param weight      Weight
+     * @param l2          Factor of the weight
+     * @param l1          Factor of the sign of the weight
+     * @return scale * gradientSum + l2 * weight + l1 * sgn(weight), where
+     *         the sign of zero is that of its sign bit
+     */
+    public static double regularizedGradient(double gradientSum, double scale, double weight, double l2, double l1)
+    {
+        // copySign instead of a branch on the sign, which is unpredictable
+        return gradientSum * scale + weight * l2 + Math.copySign(l1, weight);
+    }
 }
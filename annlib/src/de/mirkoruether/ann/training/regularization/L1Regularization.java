@@ -13,7 +13,19 @@ public class L1Regularization extends AbstractCostFunctionRegularization
     @Override
     public DMatrix calculateWeightDecay(DMatrix weigths, double learningRate, int trainingSetSize, double regularizationParameter)
     {
-        final DFunction sgn = (x) -> x > 0 ? 1.0 : -1.0;
+        final DFunction sgn = (x) -> Math.copySign(1.0, x);
         return weigths.applyFunctionElementWise(sgn).scalarMulInPlace(learningRate * regularizationParameter / trainingSetSize);
     }
+
+    @Override
+    public boolean hasDecayCoefficients()
+    {
+        return true;
+    }
+
+    @Override
+    public double getL1Coefficient()
+    {
+        return getRegularizationParameter();
+    }
 }
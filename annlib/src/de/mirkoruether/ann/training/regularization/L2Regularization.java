@@ -14,4 +14,16 @@ public class L2Regularization extends AbstractCostFunctionRegularization
     {
         return weigths.scalarMul(learningRate * regularizationParameter / trainingSetSize);
     }
+
+    @Override
+    public boolean hasDecayCoefficients()
+    {
+        return true;
+    }
+
+    @Override
+    public double getL2Coefficient()
+    {
+        return getRegularizationParameter();
+    }
 }
@@ -0,0 +1,121 @@
+package de.mirkoruether.ann;
+
+import de.mirkoruether.ann.initialization.GaussianInitialization;
+import de.mirkoruether.linalg.DMatrix;
+import de.mirkoruether.linalg.DRowVector;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static de.mirkoruether.ann.NetworkIOTest.assertMatrixEquals;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MappedNetworkTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void singleInputsAreBitIdentical() throws IOException
+    {
+        NeuralNetwork net = createNet();
+        MappedNetwork mapped = save(net);
+        Random r = new Random(1);
+
+        for(int x = 0; x < 20; x++)
+        {
+            DRowVector in = randomInputs(r, 1, net.getInputSize()).getRowAsVector(0);
+            assertArrayEquals(net.feedForward(in).toArray(), mapped.feedForward(in).toArray(), 0.0);
+        }
+    }
+
+    @Test
+    public void batchesAreBitIdentical() throws IOException
+    {
+        NeuralNetwork net = createNet();
+        MappedNetwork mapped = save(net);
+        Random r = new Random(2);
+
+        // Small batches take the plain product, large ones the blocked one
+        for(int rows : new int[]
+        {
+            1, 3, 70
+        })
+        {
+            DMatrix in = randomInputs(r, rows, net.getInputSize());
+            assertMatrixEquals(net.feedForwardBatch(in), mapped.feedForwardBatch(in));
+        }
+    }
+
+    @Test
+    public void copyToTheHeapKeepsTheNet() throws IOException
+    {
+        NeuralNetwork net = createNet();
+        MappedNetwork mapped = save(net);
+        NeuralNetwork copy = mapped.toNeuralNetwork();
+
+        assertEquals(net.getLayerCount(), mapped.getLayerCount());
+        assertEquals(net.getInputSize(), mapped.getInputSize());
+        assertEquals(net.getOutputSize(), mapped.getOutputSize());
+        for(int i = 0; i < net.getLayerCount(); i++)
+        {
+            assertMatrixEquals(net.getLayer(i).getWeights(), copy.getLayer(i).getWeights());
+            assertArrayEquals(net.getLayer(i).getBiases().toArray(), copy.getLayer(i).getBiases().toArray(), 0.0);
+        }
+    }
+
+    @Test
+    public void checksumIsVerifiedOnDemand() throws IOException
+    {
+        File f = folder.newFile();
+        NetworkIO.saveNetworkData(createNet(), f);
+        assertTrue(MappedNetwork.map(f).verifyChecksum());
+
+        try(RandomAccessFile raf = new RandomAccessFile(f, "rw"))
+        {
+            raf.seek(NetworkIO.HEADER_SIZE + 8);
+            int b = raf.read();
+            raf.seek(NetworkIO.HEADER_SIZE + 8);
+            raf.write(b ^ 0x01);
+        }
+        assertFalse(MappedNetwork.map(f).verifyChecksum());
+    }
+
+    private MappedNetwork save(NeuralNetwork net) throws IOException
+    {
+        File f = folder.newFile();
+        NetworkIO.saveNetworkData(net, f);
+        return MappedNetwork.map(f);
+    }
+
+    private static NeuralNetwork createNet()
+    {
+        GaussianInitialization init = new GaussianInitialization(6);
+        return new NeuralNetwork(new NetworkLayer[]
+        {
+            new NetworkLayer(40, 50, init, ActivationFunction.tanh()),
+            new NetworkLayer(30, 40, init, ActivationFunction.leakyRelu(0.125)),
+            new NetworkLayer(10, 30, init, ActivationFunction.softmax())
+        });
+    }
+
+    private static DMatrix randomInputs(Random r, int rows, int columns)
+    {
+        DMatrix m = new DMatrix(rows, columns);
+        for(int i = 0; i < rows; i++)
+        {
+            for(int j = 0; j < columns; j++)
+            {
+                m.put(i, j, r.nextDouble());
+            }
+        }
+        return m;
+    }
+}
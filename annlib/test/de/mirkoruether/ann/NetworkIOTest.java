@@ -0,0 +1,208 @@
+package de.mirkoruether.ann;
+
+import de.mirkoruether.ann.initialization.GaussianInitialization;
+import de.mirkoruether.linalg.DMatrix;
+import de.mirkoruether.linalg.DRowVector;
+import de.mirkoruether.util.Serializer;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.file.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NetworkIOTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void roundTripKeepsParametersAndActivations() throws IOException
+    {
+        NeuralNetwork net = createNet();
+        File f = folder.newFile();
+        NetworkIO.saveNetworkData(net, f);
+
+        NeuralNetwork loaded = NetworkIO.loadNetwork(f);
+
+        assertEquals(net.getLayerCount(), loaded.getLayerCount());
+        for(int i = 0; i < net.getLayerCount(); i++)
+        {
+            assertMatrixEquals(net.getLayer(i).getWeights(), loaded.getLayer(i).getWeights());
+            assertArrayEquals(net.getLayer(i).getBiases().toArray(), loaded.getLayer(i).getBiases().toArray(), 0.0);
+            ActivationFunction expected = net.getLayer(i).getActivationFunction();
+            ActivationFunction actual = loaded.getLayer(i).getActivationFunction();
+            assertEquals(expected.getId(), actual.getId());
+            assertEquals(expected.getParameter(), actual.getParameter(), 0.0);
+        }
+
+        DRowVector in = new DRowVector(0.1, -0.5, 0.3, 0.9);
+        assertArrayEquals(net.feedForward(in).toArray(), loaded.feedForward(in).toArray(), 0.0);
+    }
+
+    @Test
+    public void unrecordedActivationsAreTakenFromTheArgument() throws IOException
+    {
+        NeuralNetwork net = createNet();
+        File f = folder.newFile();
+        NetworkIO.saveNetworkData(net.getWeights(), net.getBiases(), f);
+
+        NeuralNetwork loaded = NetworkIO.loadNetwork(f, ActivationFunction.tanh());
+        assertEquals(ActivationFunction.ID_TANH, loaded.getLayer(1).getActivationFunction().getId());
+
+        try
+        {
+            NetworkIO.loadNetwork(f);
+            fail("Loaded a net without activation functions");
+        }
+        catch(IllegalArgumentException ex)
+        {
+            // expected
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void corruptedBlockFailsChecksum() throws IOException
+    {
+        File f = folder.newFile();
+        NetworkIO.saveNetworkData(createNet(), f);
+        try(RandomAccessFile raf = new RandomAccessFile(f, "rw"))
+        {
+            raf.seek(raf.length() - 3);
+            int b = raf.read();
+            raf.seek(raf.length() - 3);
+            raf.write(b ^ 0x10);
+        }
+
+        NetworkIO.loadNetwork(f);
+    }
+
+    @Test
+    public void corruptedLayerTableFailsChecksum() throws IOException
+    {
+        File f = folder.newFile();
+        NetworkIO.saveNetworkData(createNet(), f);
+        // Activation id of the first layer, then the leaky ReLU parameter
+        for(int pos : new int[]
+        {
+            NetworkIO.HEADER_SIZE + 4, NetworkIO.HEADER_SIZE + 8
+        })
+        {
+            byte[] content = Files.readAllBytes(f.toPath());
+            File corrupted = folder.newFile();
+            content[pos] ^= 0x01;
+            Files.write(corrupted.toPath(), content);
+            try
+            {
+                NetworkIO.loadNetwork(corrupted);
+                fail("Loaded a corrupted layer table at byte " + pos);
+            }
+            catch(IllegalArgumentException ex)
+            {
+                assertTrue(ex.getMessage().contains("Checksum"));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void trailingBytesAreRejected() throws IOException
+    {
+        File f = folder.newFile();
+        NetworkIO.saveNetworkData(createNet(), f);
+        try(RandomAccessFile raf = new RandomAccessFile(f, "rw"))
+        {
+            raf.setLength(raf.length() + 8);
+        }
+
+        NetworkIO.loadNetwork(f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void truncatedFileIsRejected() throws IOException
+    {
+        File f = folder.newFile();
+        NetworkIO.saveNetworkData(createNet(), f);
+        try(RandomAccessFile raf = new RandomAccessFile(f, "rw"))
+        {
+            raf.setLength(raf.length() - 8);
+        }
+
+        NetworkIO.loadNetwork(f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void otherFilesAreRejected() throws IOException
+    {
+        File f = folder.newFile();
+        Files.write(f.toPath(), "no network".getBytes("UTF-8"));
+
+        NetworkIO.loadNetwork(f);
+    }
+
+    @Test
+    public void legacyFilesOnlyLoadExplicitly() throws IOException
+    {
+        NeuralNetwork net = createNet();
+        File f = folder.newFile();
+        Serializer.serializeToFile(f, new Serializable[]
+        {
+            net.getWeights()[0], net.getWeights()[1], net.getBiases()[0], net.getBiases()[1]
+        });
+
+        assertTrue(NetworkIO.isLegacyFormat(f));
+        try
+        {
+            NetworkIO.loadNetwork(f, ActivationFunction.logistic());
+            fail("Loaded a legacy file implicitly");
+        }
+        catch(IllegalArgumentException ex)
+        {
+            // expected
+        }
+
+        NeuralNetwork loaded = NetworkIO.loadLegacyNetwork(f, ActivationFunction.logistic());
+        assertMatrixEquals(net.getLayer(1).getWeights(), loaded.getLayer(1).getWeights());
+    }
+
+    @Test
+    public void loadedFileCanBeOverwritten() throws IOException
+    {
+        File f = folder.newFile();
+        NetworkIO.saveNetworkData(createNet(), f);
+        NeuralNetwork loaded = NetworkIO.loadNetwork(f);
+        loaded.getLayer(0).getBiases().put(0, 42.0);
+
+        NetworkIO.saveNetworkData(loaded, f);
+
+        assertFalse(NetworkIO.isLegacyFormat(f));
+        assertEquals(42.0, NetworkIO.loadNetwork(f).getLayer(0).getBiases().get(0), 0.0);
+        assertEquals(1, folder.getRoot().list().length);
+    }
+
+    static void assertMatrixEquals(DMatrix expected, DMatrix actual)
+    {
+        assertEquals(expected.getSize(), actual.getSize());
+        for(int i = 0; i < expected.getRowCount(); i++)
+        {
+            assertArrayEquals(expected.getRowAsVector(i).toArray(), actual.getRowAsVector(i).toArray(), 0.0);
+        }
+    }
+
+    static NeuralNetwork createNet()
+    {
+        GaussianInitialization init = new GaussianInitialization(5);
+        return new NeuralNetwork(new NetworkLayer[]
+        {
+            new NetworkLayer(3, 4, init, ActivationFunction.leakyRelu(0.125)),
+            new NetworkLayer(2, 3, init, ActivationFunction.logistic(2.0))
+        });
+    }
+}
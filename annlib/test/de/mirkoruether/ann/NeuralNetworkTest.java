@@ -0,0 +1,69 @@
+package de.mirkoruether.ann;
+
+import de.mirkoruether.ann.initialization.GaussianInitialization;
+import de.mirkoruether.linalg.DMatrix;
+import java.util.Random;
+import org.junit.Test;
+
+import static de.mirkoruether.ann.NetworkIOTest.assertMatrixEquals;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class NeuralNetworkTest
+{
+    @Test
+    public void batchBuffersMatchTheDetailedPass()
+    {
+        NeuralNetwork net = createNet();
+        DMatrix in = randomInputs(new Random(1), 12, net.getInputSize());
+
+        DMatrix expected = net.feedForwardDetailedBatchInto(in, new DetailedBatchResult(net, 12)).getNetOutput();
+        assertMatrixEquals(expected, net.feedForwardBatch(in));
+        assertMatrixEquals(expected, net.feedForwardBatch(in, new BatchActivations(net, 12)));
+        assertMatrixEquals(expected, net.feedForwardBatch(in, new DetailedBatchResult(net, 12)));
+    }
+
+    @Test
+    public void shortLastBatchMatchesSingleInputs()
+    {
+        NeuralNetwork net = createNet();
+        DMatrix in = randomInputs(new Random(2), 11, net.getInputSize());
+        int[] calls = new int[1];
+
+        // Batches of 4, 4 and 3 inputs
+        net.feedForwardBatches(in.getRowCount(), (i) -> in.getRowAsVector(i), 4, (first, outputs) ->
+                       {
+                           assertEquals(Math.min(4, in.getRowCount() - first), outputs.getRowCount());
+                           for(int x = 0; x < outputs.getRowCount(); x++)
+                           {
+                               assertArrayEquals(net.feedForward(in.getRowAsVector(first + x)).toArray(),
+                                                 outputs.getRowAsVector(x).toArray(), 0.0);
+                           }
+                           calls[0]++;
+                       });
+        assertEquals(3, calls[0]);
+    }
+
+    private static NeuralNetwork createNet()
+    {
+        GaussianInitialization init = new GaussianInitialization(5);
+        return new NeuralNetwork(new NetworkLayer[]
+        {
+            new NetworkLayer(20, 30, init, ActivationFunction.tanh()),
+            new NetworkLayer(10, 20, init, ActivationFunction.softmax())
+        });
+    }
+
+    private static DMatrix randomInputs(Random r, int rows, int columns)
+    {
+        DMatrix m = new DMatrix(rows, columns);
+        for(int i = 0; i < rows; i++)
+        {
+            for(int j = 0; j < columns; j++)
+            {
+                m.put(i, j, r.nextDouble());
+            }
+        }
+        return m;
+    }
+}
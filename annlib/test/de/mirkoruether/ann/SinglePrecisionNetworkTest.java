@@ -0,0 +1,80 @@
+package de.mirkoruether.ann;
+
+import de.mirkoruether.ann.initialization.GaussianInitialization;
+import de.mirkoruether.linalg.DMatrix;
+import de.mirkoruether.linalg.DRowVector;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SinglePrecisionNetworkTest
+{
+    @Test
+    public void matchesDoublePrecisionWithinFloatAccuracy()
+    {
+        NeuralNetwork net = createNet();
+        SinglePrecisionNetwork single = net.toSinglePrecision();
+        DMatrix in = randomInputs(new Random(1), 70, net.getInputSize());
+
+        DMatrix expected = net.feedForwardBatch(in);
+        DMatrix actual = single.feedForwardBatch(in);
+
+        for(int i = 0; i < in.getRowCount(); i++)
+        {
+            assertArrayEquals(expected.getRowAsVector(i).toArray(), actual.getRowAsVector(i).toArray(), 1e-5);
+            assertEquals(1.0, sum(actual.getRowAsVector(i)), 1e-6);
+        }
+    }
+
+    @Test
+    public void singleInputsMatchTheBatch()
+    {
+        SinglePrecisionNetwork single = createNet().toSinglePrecision();
+        DMatrix in = randomInputs(new Random(2), 9, single.getInputSize());
+
+        DMatrix batch = single.feedForwardBatch(in);
+        for(int i = 0; i < in.getRowCount(); i++)
+        {
+            // Alternating batch lengths reallocate the buffers
+            DRowVector out = single.feedForward(in.getRowAsVector(i));
+            assertArrayEquals(batch.getRowAsVector(i).toArray(), out.toArray(), 0.0);
+            single.feedForwardBatch(in);
+        }
+    }
+
+    private static NeuralNetwork createNet()
+    {
+        GaussianInitialization init = new GaussianInitialization(4);
+        return new NeuralNetwork(new NetworkLayer[]
+        {
+            new NetworkLayer(40, 50, init, ActivationFunction.tanh()),
+            new NetworkLayer(30, 40, init, ActivationFunction.logistic()),
+            new NetworkLayer(10, 30, init, ActivationFunction.softmax())
+        });
+    }
+
+    private static DMatrix randomInputs(Random r, int rows, int columns)
+    {
+        DMatrix m = new DMatrix(rows, columns);
+        for(int i = 0; i < rows; i++)
+        {
+            for(int j = 0; j < columns; j++)
+            {
+                m.put(i, j, r.nextDouble());
+            }
+        }
+        return m;
+    }
+
+    private static double sum(DRowVector v)
+    {
+        double s = 0.0;
+        for(int i = 0; i < v.getLength(); i++)
+        {
+            s += v.get(i);
+        }
+        return s;
+    }
+}
@@ -0,0 +1,195 @@
+package de.mirkoruether.ann.activation;
+
+import de.mirkoruether.ann.ActivationFunction;
+import de.mirkoruether.ann.NetworkLayer;
+import de.mirkoruether.ann.NeuralNetwork;
+import de.mirkoruether.ann.initialization.GaussianInitialization;
+import de.mirkoruether.ann.training.StochasticGradientDescentTrainer;
+import de.mirkoruether.ann.training.TrainingData;
+import de.mirkoruether.ann.training.costs.CostFunction;
+import de.mirkoruether.ann.training.costs.CrossEntropyCosts;
+import de.mirkoruether.ann.training.costs.QuadraticCosts;
+import de.mirkoruether.linalg.DMatrix;
+import de.mirkoruether.linalg.DRowVector;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class SoftmaxActivationTest
+{
+    private static final double H = 1e-6;
+
+    private final ActivationFunction softmax = ActivationFunction.softmax();
+
+    @Test
+    public void rowsSumUpToOne()
+    {
+        DMatrix a = softmax.applyInto(new DMatrix(new double[][]
+        {
+            {1.0, 2.0, 3.0},
+            {1000.0, 1000.0, -1000.0}
+        }), new DMatrix(2, 3));
+
+        assertEquals(1.0, a.get(0, 0) + a.get(0, 1) + a.get(0, 2), 1e-15);
+        assertEquals(0.5, a.get(1, 0), 1e-15);
+        assertEquals(0.0, a.get(1, 2), 1e-15);
+    }
+
+    @Test
+    public void backpropagationMatchesNumericalJacobian()
+    {
+        Random r = new Random(1);
+        DMatrix z = randomMatrix(r, 3, 4);
+        DMatrix g = randomMatrix(r, 3, 4);
+        DMatrix a = softmax.applyInto(z, new DMatrix(3, 4));
+
+        DMatrix delta = softmax.backpropagateInPlace(z, a, g.getDuplicate(), new DMatrix(3, 4));
+
+        for(int row = 0; row < 3; row++)
+        {
+            for(int k = 0; k < 4; k++)
+            {
+                // sum_j g_j da_j/dz_k by central differences
+                DMatrix plus = z.getDuplicate();
+                DMatrix minus = z.getDuplicate();
+                plus.put(row, k, z.get(row, k) + H);
+                minus.put(row, k, z.get(row, k) - H);
+                DMatrix aPlus = softmax.applyInto(plus, new DMatrix(3, 4));
+                DMatrix aMinus = softmax.applyInto(minus, new DMatrix(3, 4));
+
+                double expected = 0.0;
+                for(int j = 0; j < 4; j++)
+                {
+                    expected += g.get(row, j) * (aPlus.get(row, j) - aMinus.get(row, j)) / (2 * H);
+                }
+                assertEquals(expected, delta.get(row, k), 1e-8);
+            }
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void derivativeIsRejected()
+    {
+        softmax.derivativeInto(new DMatrix(1, 3), new DMatrix(1, 3));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void derivativeFromOutputIsRejected()
+    {
+        assertFalse(softmax.isDerivativeFromOutputSupported());
+        softmax.derivativeFromOutputInto(new DMatrix(1, 3), new DMatrix(1, 3));
+    }
+
+    @Test
+    public void hiddenSoftmaxLayerHasCorrectGradients()
+    {
+        checkGradients(new ActivationFunction[]
+        {
+            softmax, ActivationFunction.logistic()
+        }, new CrossEntropyCosts());
+    }
+
+    @Test
+    public void softmaxOutputWithQuadraticCostsHasCorrectGradients()
+    {
+        checkGradients(new ActivationFunction[]
+        {
+            ActivationFunction.tanh(), softmax
+        }, new QuadraticCosts());
+    }
+
+    /**
+     * Compares the gradients of the trainer per sample and in matrix form
+     * with central differences of the summed up costs.
+     */
+    private static void checkGradients(ActivationFunction[] functions, CostFunction costs)
+    {
+        int[] sizes = {4, 5, 3};
+        GaussianInitialization init = new GaussianInitialization(3);
+        NetworkLayer[] layers = new NetworkLayer[functions.length];
+        for(int i = 0; i < layers.length; i++)
+        {
+            layers[i] = new NetworkLayer(sizes[i + 1], sizes[i], init, functions[i]);
+        }
+        NeuralNetwork net = new NeuralNetwork(layers);
+
+        Random r = new Random(2);
+        TrainingData[] batch = new TrainingData[6];
+        for(int x = 0; x < batch.length; x++)
+        {
+            DRowVector solution = new DRowVector(3);
+            solution.put(r.nextInt(3), 1.0);
+            batch[x] = new TrainingData(randomMatrix(r, 1, 4).getRowAsVector(0), solution);
+        }
+
+        for(boolean matrixForm : new boolean[]
+        {
+            false, true
+        })
+        {
+            StochasticGradientDescentTrainer trainer = new StochasticGradientDescentTrainer(net, batch.length, costs);
+            trainer.setMatrixFormBackpropagation(matrixForm);
+            DMatrix[] weightGradients = new DMatrix[layers.length];
+            DRowVector[] biasGradients = new DRowVector[layers.length];
+            for(int i = 0; i < layers.length; i++)
+            {
+                weightGradients[i] = new DMatrix(layers[i].getWeights().getSize());
+                biasGradients[i] = new DRowVector(layers[i].getOutputSize());
+            }
+            trainer.calculateGradients(batch, weightGradients, biasGradients);
+
+            for(int i = 0; i < layers.length; i++)
+            {
+                DMatrix w = layers[i].getWeights();
+                for(int row = 0; row < w.getRowCount(); row++)
+                {
+                    for(int col = 0; col < w.getColumnCount(); col++)
+                    {
+                        assertEquals(numericalGradient(net, batch, costs, w, row, col), weightGradients[i].get(row, col), 1e-6);
+                    }
+                }
+                DRowVector b = layers[i].getBiases();
+                for(int col = 0; col < b.getLength(); col++)
+                {
+                    assertEquals(numericalGradient(net, batch, costs, b, 0, col), biasGradients[i].get(col), 1e-6);
+                }
+            }
+        }
+    }
+
+    private static double numericalGradient(NeuralNetwork net, TrainingData[] batch, CostFunction costs, DMatrix param, int row, int col)
+    {
+        double value = param.get(row, col);
+        param.put(row, col, value + H);
+        double plus = totalCosts(net, batch, costs);
+        param.put(row, col, value - H);
+        double minus = totalCosts(net, batch, costs);
+        param.put(row, col, value);
+        return (plus - minus) / (2 * H);
+    }
+
+    private static double totalCosts(NeuralNetwork net, TrainingData[] batch, CostFunction costs)
+    {
+        double sum = 0.0;
+        for(TrainingData d : batch)
+        {
+            sum += costs.calculateCosts(net.feedForward(d.getInput()), d.getSolution());
+        }
+        return sum;
+    }
+
+    private static DMatrix randomMatrix(Random r, int rows, int columns)
+    {
+        DMatrix m = new DMatrix(rows, columns);
+        for(int i = 0; i < rows; i++)
+        {
+            for(int j = 0; j < columns; j++)
+            {
+                m.put(i, j, r.nextGaussian());
+            }
+        }
+        return m;
+    }
+}
@@ -0,0 +1,212 @@
+package de.mirkoruether.ann.training;
+
+import de.mirkoruether.ann.ActivationFunction;
+import de.mirkoruether.ann.NetworkLayer;
+import de.mirkoruether.ann.NeuralNetwork;
+import de.mirkoruether.ann.initialization.GaussianInitialization;
+import de.mirkoruether.ann.training.costs.CrossEntropyCosts;
+import de.mirkoruether.linalg.DMatrix;
+import de.mirkoruether.linalg.DRowVector;
+import de.mirkoruether.util.Randomizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BatchPipelineTest
+{
+    @Test
+    public void batchesArriveInTheOrderOfTheEpoch()
+    {
+        TrainingData[] data = indexedData(103);
+        int[] order = Randomizer.permutation(data.length, new SplittableRandom(5));
+        List<Double> seen = new ArrayList<>();
+
+        try(BatchPipeline pipeline = new BatchPipeline(4, 3))
+        {
+            pipeline.run(data, order, 10, (inputs, solutions) ->
+                 {
+                     assertEquals(inputs.getRowCount(), solutions.getRowCount());
+                     for(int x = 0; x < inputs.getRowCount(); x++)
+                     {
+                         assertEquals(inputs.get(x, 0), solutions.get(x, 0), 0.0);
+                         seen.add(inputs.get(x, 0));
+                     }
+                 });
+        }
+
+        assertEquals(order.length, seen.size());
+        for(int i = 0; i < order.length; i++)
+        {
+            assertEquals(order[i], seen.get(i), 0.0);
+        }
+    }
+
+    @Test
+    public void producerThreadsAreReusedAndStoppedOnClose() throws InterruptedException
+    {
+        TrainingData[] data = indexedData(40);
+        int[] order = Randomizer.permutation(data.length, new SplittableRandom(6));
+        Set<Thread> producers = ConcurrentHashMap.newKeySet();
+
+        BatchPipeline pipeline = new BatchPipeline(2, 2, (inputs, solutions) -> producers.add(Thread.currentThread()));
+        for(int epoch = 0; epoch < 5; epoch++)
+        {
+            pipeline.run(data, order, 4, (inputs, solutions) ->
+                 {
+                 });
+        }
+        pipeline.close();
+
+        assertTrue(producers.size() <= 2);
+        for(Thread t : producers)
+        {
+            assertTrue(t.isDaemon());
+            t.join(10000);
+            assertFalse(t.isAlive());
+        }
+    }
+
+    @Test
+    public void producerErrorsReachTheConsumer()
+    {
+        TrainingData[] data = indexedData(50);
+        int[] order = Randomizer.permutation(data.length, new SplittableRandom(7));
+        IllegalStateException error = new IllegalStateException("broken batch");
+        int[] consumed = new int[1];
+
+        try(BatchPipeline pipeline = new BatchPipeline(3, 2, (inputs, solutions) ->
+                                                   {
+                                                       if(inputs.get(0, 0) == order[20])
+                                                       {
+                                                           throw error;
+                                                       }
+                                                   }))
+        {
+            try
+            {
+                pipeline.run(data, order, 5, (inputs, solutions) -> consumed[0]++);
+                fail("Producer error was not reported");
+            }
+            catch(RuntimeException ex)
+            {
+                assertSame(error, ex.getCause());
+            }
+            // Batches after the broken one are never handed out, earlier ones
+            // may be skipped if the error is raised first
+            assertTrue(consumed[0] <= 4);
+
+            // The next epoch starts from a clean state
+            consumed[0] = 0;
+            pipeline.run(data, order, 50, (inputs, solutions) -> consumed[0]++);
+            assertEquals(1, consumed[0]);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closedPipelineRejectsEpochs()
+    {
+        BatchPipeline pipeline = new BatchPipeline(1, 2);
+        pipeline.close();
+        pipeline.run(indexedData(3), new int[]
+             {
+                 0, 1, 2
+             }, 2, (inputs, solutions) ->
+             {
+             });
+    }
+
+    @Test
+    public void trainerWithPipelineMatchesMatrixForm()
+    {
+        TrainingData[] data = randomData(60);
+        NeuralNetwork expected = createNet();
+        NeuralNetwork actual = createNet();
+
+        StochasticGradientDescentTrainer plain = new StochasticGradientDescentTrainer(expected, 8, new CrossEntropyCosts());
+        plain.setMatrixFormBackpropagation(true);
+        plain.setRandom(new SplittableRandom(9));
+        plain.train(data, 0.5, 3);
+
+        try(BatchPipeline pipeline = new BatchPipeline(2, 3))
+        {
+            StochasticGradientDescentTrainer piped = new StochasticGradientDescentTrainer(actual, 8, new CrossEntropyCosts());
+            piped.setBatchPipeline(pipeline);
+            assertTrue(piped.isMatrixFormBackpropagation());
+            piped.setRandom(new SplittableRandom(9));
+            piped.train(data, 0.5, 3);
+        }
+
+        for(int i = 0; i < expected.getLayerCount(); i++)
+        {
+            DMatrix w = expected.getLayer(i).getWeights();
+            for(int row = 0; row < w.getRowCount(); row++)
+            {
+                assertArrayEquals(w.getRowAsVector(row).toArray(),
+                                  actual.getLayer(i).getWeights().getRowAsVector(row).toArray(), 0.0);
+            }
+            assertArrayEquals(expected.getLayer(i).getBiases().toArray(), actual.getLayer(i).getBiases().toArray(), 0.0);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void pipelineRequiresMatrixForm()
+    {
+        try(BatchPipeline pipeline = new BatchPipeline(1, 2))
+        {
+            StochasticGradientDescentTrainer trainer = new StochasticGradientDescentTrainer(createNet(), 8, new CrossEntropyCosts());
+            trainer.setBatchPipeline(pipeline);
+            trainer.setMatrixFormBackpropagation(false);
+        }
+    }
+
+    /**
+     * Samples whose input and solution are their index.
+     */
+    private static TrainingData[] indexedData(int length)
+    {
+        TrainingData[] data = new TrainingData[length];
+        for(int i = 0; i < length; i++)
+        {
+            data[i] = new TrainingData(new DRowVector(i, -i), new DRowVector((double)i));
+        }
+        return data;
+    }
+
+    private static TrainingData[] randomData(int length)
+    {
+        SplittableRandom r = new SplittableRandom(8);
+        TrainingData[] data = new TrainingData[length];
+        for(int i = 0; i < length; i++)
+        {
+            DRowVector input = new DRowVector(5);
+            for(int j = 0; j < input.getLength(); j++)
+            {
+                input.put(j, r.nextDouble());
+            }
+            DRowVector solution = new DRowVector(3);
+            solution.put(r.nextInt(3), 1.0);
+            data[i] = new TrainingData(input, solution);
+        }
+        return data;
+    }
+
+    private static NeuralNetwork createNet()
+    {
+        GaussianInitialization init = new GaussianInitialization(4);
+        return new NeuralNetwork(new NetworkLayer[]
+        {
+            new NetworkLayer(6, 5, init, ActivationFunction.tanh()),
+            new NetworkLayer(3, 6, init, ActivationFunction.softmax())
+        });
+    }
+}
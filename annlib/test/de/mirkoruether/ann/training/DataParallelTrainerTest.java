@@ -0,0 +1,180 @@
+package de.mirkoruether.ann.training;
+
+import de.mirkoruether.ann.NeuralNetwork;
+import de.mirkoruether.ann.training.costs.CrossEntropyCosts;
+import de.mirkoruether.ann.training.optimization.AdamOptimizer;
+import de.mirkoruether.linalg.DMatrix;
+import de.mirkoruether.linalg.DRowVector;
+import java.util.SplittableRandom;
+import org.junit.Test;
+
+import static de.mirkoruether.ann.training.HogwildTrainerTest.assertNetsEqual;
+import static de.mirkoruether.ann.training.HogwildTrainerTest.createNet;
+import static de.mirkoruether.ann.training.HogwildTrainerTest.sparseData;
+import static org.junit.Assert.assertArrayEquals;
+
+public class DataParallelTrainerTest
+{
+    @Test
+    public void shardedGradientsMatchSynchronousGradients()
+    {
+        TrainingData[] batch = sparseData(50);
+        NeuralNetwork net = createNet();
+
+        StochasticGradientDescentTrainer sync = new StochasticGradientDescentTrainer(net, batch.length, new CrossEntropyCosts());
+        DataParallelTrainer parallel = new DataParallelTrainer(net, batch.length, new CrossEntropyCosts());
+        parallel.setWorkerCount(4);
+        parallel.setMinShardLength(3);
+
+        DMatrix[] expectedWeights = weightBuffers(net);
+        DRowVector[] expectedBiases = biasBuffers(net);
+        sync.calculateGradients(batch, expectedWeights, expectedBiases);
+        DMatrix[] actualWeights = weightBuffers(net);
+        DRowVector[] actualBiases = biasBuffers(net);
+        parallel.calculateGradients(batch, actualWeights, actualBiases);
+
+        for(int i = 0; i < net.getLayerCount(); i++)
+        {
+            for(int row = 0; row < expectedWeights[i].getRowCount(); row++)
+            {
+                assertArrayEquals(expectedWeights[i].getRowAsVector(row).toArray(),
+                                  actualWeights[i].getRowAsVector(row).toArray(), 1e-12);
+            }
+            assertArrayEquals(expectedBiases[i].toArray(), actualBiases[i].toArray(), 1e-12);
+        }
+    }
+
+    @Test
+    public void trainingMatchesSynchronousMatrixForm()
+    {
+        TrainingData[] data = sparseData(120);
+        NeuralNetwork expected = createNet();
+        NeuralNetwork actual = createNet();
+
+        StochasticGradientDescentTrainer sync = new StochasticGradientDescentTrainer(expected, 40, new CrossEntropyCosts());
+        sync.setMatrixFormBackpropagation(true);
+        sync.setOptimizer(new AdamOptimizer());
+        sync.setRandom(new SplittableRandom(6));
+        sync.train(data, 0.01, 3);
+
+        DataParallelTrainer parallel = new DataParallelTrainer(actual, 40, new CrossEntropyCosts());
+        parallel.setWorkerCount(4);
+        parallel.setMinShardLength(5);
+        parallel.setOptimizer(new AdamOptimizer());
+        parallel.setRandom(new SplittableRandom(6));
+        parallel.train(data, 0.01, 3);
+
+        // Only the summation order of the shards differs
+        assertNetsEqual(expected, actual, 1e-10);
+    }
+
+    @Test
+    public void trainingIsReproducible()
+    {
+        TrainingData[] data = sparseData(100);
+        NeuralNetwork first = createNet();
+        NeuralNetwork second = createNet();
+
+        for(NeuralNetwork net : new NeuralNetwork[]
+        {
+            first, second
+        })
+        {
+            DataParallelTrainer parallel = new DataParallelTrainer(net, 50, new CrossEntropyCosts());
+            parallel.setWorkerCount(3);
+            parallel.setMinShardLength(4);
+            parallel.setRandom(new SplittableRandom(7));
+            parallel.train(data, 0.3, 3);
+        }
+
+        assertNetsEqual(first, second, 0.0);
+    }
+
+    @Test
+    public void shortBatchesAreTrainedLikeTheSynchronousMatrixForm()
+    {
+        TrainingData[] data = sparseData(60);
+        NeuralNetwork expected = createNet();
+        NeuralNetwork actual = createNet();
+
+        StochasticGradientDescentTrainer sync = new StochasticGradientDescentTrainer(expected, 10, new CrossEntropyCosts());
+        sync.setMatrixFormBackpropagation(true);
+        sync.setRandom(new SplittableRandom(8));
+        sync.train(data, 0.3, 2);
+
+        // Batches shorter than twice the minimum shard length take one shard
+        DataParallelTrainer parallel = new DataParallelTrainer(actual, 10, new CrossEntropyCosts());
+        parallel.setRandom(new SplittableRandom(8));
+        parallel.train(data, 0.3, 2);
+
+        assertNetsEqual(expected, actual, 0.0);
+    }
+
+    @Test
+    public void shortLastBatchesUseTheSameWorkspace()
+    {
+        // The last batch of every epoch has 15 instead of 20 samples
+        TrainingData[] data = sparseData(55);
+        NeuralNetwork expected = createNet();
+        NeuralNetwork actual = createNet();
+
+        StochasticGradientDescentTrainer sync = new StochasticGradientDescentTrainer(expected, 20, new CrossEntropyCosts());
+        sync.setRandom(new SplittableRandom(9));
+        sync.train(data, 0.3, 3);
+
+        DataParallelTrainer parallel = new DataParallelTrainer(actual, 20, new CrossEntropyCosts());
+        parallel.setWorkerCount(3);
+        parallel.setMinShardLength(4);
+        parallel.setRandom(new SplittableRandom(9));
+        parallel.train(data, 0.3, 3);
+
+        assertNetsEqual(expected, actual, 1e-10);
+    }
+
+    @Test
+    public void stackedShardsMatchShardsOfTheBatch()
+    {
+        TrainingData[] data = sparseData(70);
+        NeuralNetwork expected = createNet();
+        NeuralNetwork actual = createNet();
+
+        DataParallelTrainer plain = new DataParallelTrainer(expected, 30, new CrossEntropyCosts());
+        plain.setWorkerCount(3);
+        plain.setMinShardLength(4);
+        plain.setRandom(new SplittableRandom(10));
+        plain.train(data, 0.3, 2);
+
+        // The pipeline hands over stacked batches, whose shards are views
+        try(BatchPipeline pipeline = new BatchPipeline(2, 2))
+        {
+            DataParallelTrainer piped = new DataParallelTrainer(actual, 30, new CrossEntropyCosts());
+            piped.setWorkerCount(3);
+            piped.setMinShardLength(4);
+            piped.setBatchPipeline(pipeline);
+            piped.setRandom(new SplittableRandom(10));
+            piped.train(data, 0.3, 2);
+        }
+
+        assertNetsEqual(expected, actual, 0.0);
+    }
+
+    private static DMatrix[] weightBuffers(NeuralNetwork net)
+    {
+        DMatrix[] result = new DMatrix[net.getLayerCount()];
+        for(int i = 0; i < result.length; i++)
+        {
+            result[i] = new DMatrix(net.getLayer(i).getWeights().getSize());
+        }
+        return result;
+    }
+
+    private static DRowVector[] biasBuffers(NeuralNetwork net)
+    {
+        DRowVector[] result = new DRowVector[net.getLayerCount()];
+        for(int i = 0; i < result.length; i++)
+        {
+            result[i] = new DRowVector(net.getLayer(i).getOutputSize());
+        }
+        return result;
+    }
+}
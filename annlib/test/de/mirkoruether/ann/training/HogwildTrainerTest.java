@@ -0,0 +1,138 @@
+package de.mirkoruether.ann.training;
+
+import de.mirkoruether.ann.ActivationFunction;
+import de.mirkoruether.ann.NetworkLayer;
+import de.mirkoruether.ann.NeuralNetwork;
+import de.mirkoruether.ann.initialization.GaussianInitialization;
+import de.mirkoruether.ann.training.costs.CrossEntropyCosts;
+import de.mirkoruether.ann.training.optimization.MomentumOptimizer;
+import de.mirkoruether.ann.training.regularization.L2Regularization;
+import de.mirkoruether.linalg.DMatrix;
+import de.mirkoruether.linalg.DRowVector;
+import java.util.SplittableRandom;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HogwildTrainerTest
+{
+    @Test
+    public void singleWorkerMatchesSynchronousTraining()
+    {
+        TrainingData[] data = sparseData(40);
+        for(int batchSize : new int[]
+        {
+            1, 7
+        })
+        {
+            NeuralNetwork expected = createNet();
+            NeuralNetwork actual = createNet();
+
+            StochasticGradientDescentTrainer sync = new StochasticGradientDescentTrainer(expected, batchSize, new CrossEntropyCosts());
+            sync.setRandom(new SplittableRandom(3));
+            sync.train(data, 0.5, 2);
+
+            HogwildTrainer hogwild = new HogwildTrainer(actual, batchSize, new CrossEntropyCosts());
+            hogwild.setWorkerCount(1);
+            hogwild.setRandom(new SplittableRandom(3));
+            hogwild.train(data, 0.5, 2);
+
+            // With one sample per batch the gradient needs no summation, so
+            // skipping the zero entries must not change a single bit
+            assertNetsEqual(expected, actual, batchSize == 1 ? 0.0 : 1e-12);
+            assertEquals(sync.getUpdateCount(), hogwild.getUpdateCount());
+        }
+    }
+
+    @Test
+    public void regularizedSingleWorkerMatchesSynchronousTraining()
+    {
+        TrainingData[] data = sparseData(30);
+        NeuralNetwork expected = createNet();
+        NeuralNetwork actual = createNet();
+
+        StochasticGradientDescentTrainer sync = new StochasticGradientDescentTrainer(expected, 1, new CrossEntropyCosts(), new L2Regularization(0.1));
+        sync.setRandom(new SplittableRandom(4));
+        sync.train(data, 0.5, 2);
+
+        HogwildTrainer hogwild = new HogwildTrainer(actual, 1, new CrossEntropyCosts(), new L2Regularization(0.1));
+        hogwild.setWorkerCount(1);
+        hogwild.setRandom(new SplittableRandom(4));
+        hogwild.train(data, 0.5, 2);
+
+        assertNetsEqual(expected, actual, 0.0);
+    }
+
+    @Test
+    public void concurrentWorkersApplyEveryBatchAndLearn()
+    {
+        TrainingData[] data = sparseData(200);
+        TestDataSet test = new TestDataSet(data, (o, s) -> s.get(o.indexOfMaxium()) == 1.0);
+        NeuralNetwork net = createNet();
+
+        HogwildTrainer hogwild = new HogwildTrainer(net, 2, new CrossEntropyCosts());
+        hogwild.setWorkerCount(4);
+        hogwild.setRandom(new SplittableRandom(5));
+        double before = hogwild.test(test).getAverageCosts();
+        hogwild.train(data, 0.2, 5);
+
+        assertEquals(5 * 100, hogwild.getUpdateCount());
+        assertTrue(hogwild.test(test).getAverageCosts() < before);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void optimizersAreRejected()
+    {
+        HogwildTrainer hogwild = new HogwildTrainer(createNet(), 1, new CrossEntropyCosts());
+        hogwild.setOptimizer(new MomentumOptimizer(0.9));
+        hogwild.train(sparseData(4), 0.1, 1);
+    }
+
+    static void assertNetsEqual(NeuralNetwork expected, NeuralNetwork actual, double delta)
+    {
+        for(int i = 0; i < expected.getLayerCount(); i++)
+        {
+            DMatrix w = expected.getLayer(i).getWeights();
+            for(int row = 0; row < w.getRowCount(); row++)
+            {
+                assertArrayEquals(w.getRowAsVector(row).toArray(),
+                                  actual.getLayer(i).getWeights().getRowAsVector(row).toArray(), delta);
+            }
+            assertArrayEquals(expected.getLayer(i).getBiases().toArray(), actual.getLayer(i).getBiases().toArray(), delta);
+        }
+    }
+
+    /**
+     * Samples whose class is the index of their largest input. About half of
+     * the inputs are zero, like the background pixels of an image.
+     */
+    static TrainingData[] sparseData(int length)
+    {
+        SplittableRandom r = new SplittableRandom(8);
+        TrainingData[] data = new TrainingData[length];
+        for(int i = 0; i < length; i++)
+        {
+            DRowVector input = new DRowVector(6);
+            for(int j = 0; j < input.getLength(); j++)
+            {
+                input.put(j, r.nextBoolean() ? r.nextDouble() : 0.0);
+            }
+            DRowVector solution = new DRowVector(3);
+            solution.put(input.indexOfMaxium() % 3, 1.0);
+            data[i] = new TrainingData(input, solution);
+        }
+        return data;
+    }
+
+    static NeuralNetwork createNet()
+    {
+        GaussianInitialization init = new GaussianInitialization(4);
+        return new NeuralNetwork(new NetworkLayer[]
+        {
+            new NetworkLayer(8, 6, init, ActivationFunction.tanh()),
+            new NetworkLayer(3, 8, init, ActivationFunction.softmax())
+        });
+    }
+}
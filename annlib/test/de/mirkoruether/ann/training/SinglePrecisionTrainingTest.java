@@ -0,0 +1,145 @@
+package de.mirkoruether.ann.training;
+
+import de.mirkoruether.ann.ActivationFunction;
+import de.mirkoruether.ann.NetworkLayer;
+import de.mirkoruether.ann.NeuralNetwork;
+import de.mirkoruether.ann.initialization.GaussianInitialization;
+import de.mirkoruether.ann.training.costs.CostFunction;
+import de.mirkoruether.ann.training.costs.CrossEntropyCosts;
+import de.mirkoruether.ann.training.costs.QuadraticCosts;
+import de.mirkoruether.linalg.DMatrix;
+import de.mirkoruether.linalg.DRowVector;
+import java.util.SplittableRandom;
+import org.junit.Test;
+
+import static de.mirkoruether.ann.training.HogwildTrainerTest.assertNetsEqual;
+import static de.mirkoruether.ann.training.HogwildTrainerTest.createNet;
+import static de.mirkoruether.ann.training.HogwildTrainerTest.sparseData;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+
+public class SinglePrecisionTrainingTest
+{
+    @Test
+    public void gradientsMatchDoublePrecision()
+    {
+        // Softmax with cross-entropy skips the last layer derivative
+        checkGradients(createNet(), new CrossEntropyCosts());
+        // Element-wise derivative of the last layer
+        checkGradients(createLogisticNet(ActivationFunction.logistic()), new QuadraticCosts());
+        // Jacobian of softmax without the shortcut of cross-entropy
+        checkGradients(createLogisticNet(ActivationFunction.softmax()), new QuadraticCosts());
+    }
+
+    @Test
+    public void trainingFollowsDoublePrecision()
+    {
+        TrainingData[] data = sparseData(90);
+        NeuralNetwork expected = createNet();
+        NeuralNetwork actual = createNet();
+        actual.setSinglePrecision(true);
+
+        StochasticGradientDescentTrainer doubleTrainer = new StochasticGradientDescentTrainer(expected, 20, new CrossEntropyCosts());
+        doubleTrainer.setMatrixFormBackpropagation(true);
+        doubleTrainer.setRandom(new SplittableRandom(11));
+        doubleTrainer.train(data, 0.3, 3);
+
+        // Single-precision nets are trained in matrix form anyway
+        StochasticGradientDescentTrainer floatTrainer = new StochasticGradientDescentTrainer(actual, 20, new CrossEntropyCosts());
+        assertFalse(floatTrainer.isMatrixFormBackpropagation());
+        floatTrainer.setRandom(new SplittableRandom(11));
+        floatTrainer.train(data, 0.3, 3);
+
+        assertNetsEqual(expected, actual, 1e-4);
+    }
+
+    @Test
+    public void dataParallelTrainingMatchesSynchronousTraining()
+    {
+        TrainingData[] data = sparseData(55);
+        NeuralNetwork expected = createNet();
+        NeuralNetwork actual = createNet();
+        expected.setSinglePrecision(true);
+        actual.setSinglePrecision(true);
+
+        StochasticGradientDescentTrainer sync = new StochasticGradientDescentTrainer(expected, 20, new CrossEntropyCosts());
+        sync.setRandom(new SplittableRandom(12));
+        sync.train(data, 0.3, 3);
+
+        DataParallelTrainer parallel = new DataParallelTrainer(actual, 20, new CrossEntropyCosts());
+        parallel.setWorkerCount(3);
+        parallel.setMinShardLength(4);
+        parallel.setRandom(new SplittableRandom(12));
+        parallel.train(data, 0.3, 3);
+
+        // Only the summation order of the shards differs
+        assertNetsEqual(expected, actual, 1e-6);
+    }
+
+    @Test
+    public void pipelinedBatchesAreTrainedLikePlainBatches()
+    {
+        TrainingData[] data = sparseData(70);
+        NeuralNetwork expected = createNet();
+        NeuralNetwork actual = createNet();
+        expected.setSinglePrecision(true);
+        actual.setSinglePrecision(true);
+
+        StochasticGradientDescentTrainer plain = new StochasticGradientDescentTrainer(expected, 30, new CrossEntropyCosts());
+        plain.setRandom(new SplittableRandom(13));
+        plain.train(data, 0.3, 2);
+
+        try(BatchPipeline pipeline = new BatchPipeline(2, 2))
+        {
+            StochasticGradientDescentTrainer piped = new StochasticGradientDescentTrainer(actual, 30, new CrossEntropyCosts());
+            piped.setBatchPipeline(pipeline);
+            piped.setRandom(new SplittableRandom(13));
+            piped.train(data, 0.3, 2);
+        }
+
+        assertNetsEqual(expected, actual, 0.0);
+    }
+
+    private static void checkGradients(NeuralNetwork net, CostFunction costs)
+    {
+        TrainingData[] batch = sparseData(25);
+        StochasticGradientDescentTrainer trainer = new StochasticGradientDescentTrainer(net, batch.length, costs);
+        trainer.setMatrixFormBackpropagation(true);
+
+        DMatrix[] expectedWeights = new DMatrix[net.getLayerCount()];
+        DRowVector[] expectedBiases = new DRowVector[net.getLayerCount()];
+        DMatrix[] actualWeights = new DMatrix[net.getLayerCount()];
+        DRowVector[] actualBiases = new DRowVector[net.getLayerCount()];
+        for(int i = 0; i < net.getLayerCount(); i++)
+        {
+            expectedWeights[i] = new DMatrix(net.getLayer(i).getWeights().getSize());
+            expectedBiases[i] = new DRowVector(net.getLayer(i).getOutputSize());
+            actualWeights[i] = new DMatrix(net.getLayer(i).getWeights().getSize());
+            actualBiases[i] = new DRowVector(net.getLayer(i).getOutputSize());
+        }
+
+        trainer.calculateGradients(batch, expectedWeights, expectedBiases);
+        net.setSinglePrecision(true);
+        trainer.calculateGradients(batch, actualWeights, actualBiases);
+
+        for(int i = 0; i < net.getLayerCount(); i++)
+        {
+            for(int row = 0; row < expectedWeights[i].getRowCount(); row++)
+            {
+                assertArrayEquals(expectedWeights[i].getRowAsVector(row).toArray(),
+                                  actualWeights[i].getRowAsVector(row).toArray(), 1e-4);
+            }
+            assertArrayEquals(expectedBiases[i].toArray(), actualBiases[i].toArray(), 1e-4);
+        }
+    }
+
+    private static NeuralNetwork createLogisticNet(ActivationFunction outputActivation)
+    {
+        GaussianInitialization init = new GaussianInitialization(4);
+        return new NeuralNetwork(new NetworkLayer[]
+        {
+            new NetworkLayer(8, 6, init, ActivationFunction.logistic()),
+            new NetworkLayer(3, 8, init, outputActivation)
+        });
+    }
+}
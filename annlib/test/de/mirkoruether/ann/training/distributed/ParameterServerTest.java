@@ -0,0 +1,423 @@
+package de.mirkoruether.ann.training.distributed;
+
+import de.mirkoruether.ann.ActivationFunction;
+import de.mirkoruether.ann.NetworkLayer;
+import de.mirkoruether.ann.NeuralNetwork;
+import de.mirkoruether.ann.initialization.GaussianInitialization;
+import de.mirkoruether.ann.training.StochasticGradientDescentTrainer;
+import de.mirkoruether.ann.training.TrainingData;
+import de.mirkoruether.ann.training.costs.CrossEntropyCosts;
+import de.mirkoruether.linalg.DMatrix;
+import de.mirkoruether.linalg.DRowVector;
+import de.mirkoruether.util.Randomizer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ParameterServerTest
+{
+    private static final int BATCH_SIZE = 10;
+    private static final double LEARNING_RATE = 0.5;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void shutdown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test(timeout = 20000)
+    public void synchronousModeAppliesTheSummedGradientsOfEveryRound() throws Exception
+    {
+        TrainingData[] data = createData(new Random(1), 120);
+        TrainingData[][] shards =
+        {
+            Arrays.copyOfRange(data, 0, 60), Arrays.copyOfRange(data, 60, 120)
+        };
+        int epochs = 2;
+
+        ParameterServer server = startServer(shards.length, ParameterServer.SYNCHRONOUS);
+        Future<?> serving = executor.submit(server::serve);
+        Future<?>[] workers = new Future<?>[shards.length];
+        for(int w = 0; w < shards.length; w++)
+        {
+            workers[w] = startWorker(server, shards[w], epochs, w);
+        }
+        for(Future<?> f : workers)
+        {
+            assertEquals(12, f.get());
+        }
+        serving.get();
+        server.close();
+
+        // Replay: every round sums the gradients of the same batch index of
+        // both workers on the same parameters. Two summands commute exactly,
+        // so the arrival order does not matter.
+        NeuralNetwork expected = createNet();
+        StochasticGradientDescentTrainer trainer = new StochasticGradientDescentTrainer(expected, BATCH_SIZE, new CrossEntropyCosts());
+        SplittableRandom[] random = new SplittableRandom[shards.length];
+        int[][] order = new int[shards.length][];
+        DMatrix[][] weightGradients = new DMatrix[shards.length][];
+        DRowVector[][] biasGradients = new DRowVector[shards.length][];
+        for(int w = 0; w < shards.length; w++)
+        {
+            random[w] = new SplittableRandom(w);
+            weightGradients[w] = createWeightGradients(expected);
+            biasGradients[w] = createBiasGradients(expected);
+        }
+        for(int e = 0; e < epochs; e++)
+        {
+            for(int w = 0; w < shards.length; w++)
+            {
+                if(order[w] == null)
+                {
+                    order[w] = Randomizer.permutation(shards[w].length, random[w]);
+                }
+                else
+                {
+                    Randomizer.shuffleArrInPlace(order[w], random[w]);
+                }
+            }
+            for(int i = 0; i < 60; i += BATCH_SIZE)
+            {
+                for(int w = 0; w < shards.length; w++)
+                {
+                    TrainingData[] batch = new TrainingData[BATCH_SIZE];
+                    for(int x = 0; x < BATCH_SIZE; x++)
+                    {
+                        batch[x] = shards[w][order[w][i + x]];
+                    }
+                    trainer.calculateGradients(batch, weightGradients[w], biasGradients[w]);
+                }
+                for(int la = 0; la < expected.getLayerCount(); la++)
+                {
+                    weightGradients[0][la].addInPlace(weightGradients[1][la]);
+                    biasGradients[0][la].addInPlace(biasGradients[1][la]);
+                }
+                trainer.applyGradients(weightGradients[0], biasGradients[0], 2 * BATCH_SIZE, LEARNING_RATE, data.length);
+            }
+        }
+
+        assertEquals(12, server.getUpdateCount());
+        assertNetEquals(expected, server.getNet());
+    }
+
+    @Test(timeout = 20000)
+    public void finishedWorkersDoNotHoldBackSynchronousRounds() throws Exception
+    {
+        TrainingData[] data = createData(new Random(2), 90);
+        ParameterServer server = startServer(2, ParameterServer.SYNCHRONOUS);
+        Future<?> serving = executor.submit(server::serve);
+        Future<?> shortShard = startWorker(server, Arrays.copyOfRange(data, 0, 30), 1, 0);
+        Future<?> longShard = startWorker(server, Arrays.copyOfRange(data, 30, 90), 1, 1);
+
+        assertEquals(3, shortShard.get());
+        assertEquals(6, longShard.get());
+        serving.get();
+        server.close();
+        assertEquals(6, server.getUpdateCount());
+    }
+
+    @Test(timeout = 20000)
+    public void asynchronousModeAppliesEveryPush() throws Exception
+    {
+        TrainingData[] data = createData(new Random(3), 90);
+        ParameterServer server = startServer(3, 2);
+        Future<?> serving = executor.submit(server::serve);
+        Future<?>[] workers = new Future<?>[3];
+        for(int w = 0; w < 3; w++)
+        {
+            workers[w] = startWorker(server, Arrays.copyOfRange(data, 30 * w, 30 * (w + 1)), 2, w);
+        }
+        for(Future<?> f : workers)
+        {
+            assertEquals(6, f.get());
+        }
+        serving.get();
+        server.close();
+        assertEquals(18, server.getUpdateCount());
+    }
+
+    @Test(timeout = 20000)
+    public void pullWaitsForWorkersBeyondTheStalenessBound() throws Exception
+    {
+        ParameterServer server = startServer(2, 1);
+        Future<?> serving = executor.submit(server::serve);
+        try(RawWorker fast = new RawWorker(server.getPort());
+            RawWorker slow = new RawWorker(server.getPort()))
+        {
+            Future<?> fastHandshake = executor.submit(fast::handshake);
+            slow.handshake();
+            fastHandshake.get();
+
+            fast.pull(0);
+            fast.push();
+            fast.pull(1);
+            fast.push();
+            // Clock 2 is two clocks ahead of the slow worker at clock 0
+            Future<Long> blocked = executor.submit(() -> fast.pull(2));
+            try
+            {
+                blocked.get(300, TimeUnit.MILLISECONDS);
+                fail("Pull beyond the staleness bound did not wait");
+            }
+            catch(TimeoutException ex)
+            {
+                // expected
+            }
+
+            slow.pull(0);
+            slow.push();
+            assertEquals(3L, (long)blocked.get());
+
+            fast.done();
+            slow.done();
+        }
+        serving.get();
+        server.close();
+    }
+
+    @Test(timeout = 20000)
+    public void failingWorkerFailsTheOthers() throws Exception
+    {
+        TrainingData[] data = createData(new Random(4), 30);
+        ParameterServer server = startServer(2, ParameterServer.SYNCHRONOUS);
+        Future<?> serving = executor.submit(server::serve);
+        Future<?> healthy = startWorker(server, data, 100000, 0);
+        try(RawWorker broken = new RawWorker(server.getPort()))
+        {
+            broken.handshake();
+            broken.pull(0);
+            broken.sendCommand(42);
+
+            try
+            {
+                serving.get();
+                fail("Server ignored the failing worker");
+            }
+            catch(ExecutionException ex)
+            {
+                assertTrue(ex.getCause().getCause() instanceof IOException);
+            }
+            try
+            {
+                healthy.get();
+                fail("Healthy worker kept training after the server failed");
+            }
+            catch(ExecutionException ex)
+            {
+                assertTrue(ex.getCause() instanceof RuntimeException);
+            }
+        }
+        server.close();
+    }
+
+    @Test(timeout = 20000)
+    public void rejectedConnectionsDoNotFailTheServer() throws Exception
+    {
+        TrainingData[] data = createData(new Random(5), 30);
+        ParameterServer server = startServer(1, ParameterServer.SYNCHRONOUS);
+        Future<?> serving = executor.submit(server::serve);
+
+        NeuralNetwork otherLayout = new NeuralNetwork(new NetworkLayer[]
+        {
+            new NetworkLayer(5, 8, new GaussianInitialization(7), ActivationFunction.logistic()),
+            new NetworkLayer(3, 5, new GaussianInitialization(7), ActivationFunction.logistic())
+        });
+        try(RawWorker mismatched = new RawWorker(server.getPort(), otherLayout);
+            RawWorker stranger = new RawWorker(server.getPort()))
+        {
+            mismatched.writeHandshake();
+            assertEquals(Protocol.STATUS_LAYOUT_MISMATCH, Protocol.read(mismatched.channel, mismatched.buffer, 4).getInt());
+            assertEquals(-1, mismatched.channel.read(ByteBuffer.allocate(1)));
+
+            stranger.buffer.clear();
+            stranger.buffer.putLong(1).putLong(2).putInt(3);
+            Protocol.write(stranger.channel, stranger.buffer);
+            assertEquals(-1, stranger.channel.read(ByteBuffer.allocate(1)));
+        }
+
+        Future<?> worker = startWorker(server, data, 1, 0);
+        assertEquals(3, worker.get());
+        serving.get();
+        server.close();
+        assertEquals(3, server.getUpdateCount());
+    }
+
+    private ParameterServer startServer(int workerCount, int maxStaleness)
+    {
+        StochasticGradientDescentTrainer trainer = new StochasticGradientDescentTrainer(createNet(), BATCH_SIZE, new CrossEntropyCosts());
+        return new ParameterServer(trainer, 0, workerCount, maxStaleness, LEARNING_RATE);
+    }
+
+    private Future<Integer> startWorker(ParameterServer server, TrainingData[] shard, int epochs, long seed)
+    {
+        return executor.submit(() ->
+        {
+            // The replica starts with other parameters than the server
+            NeuralNetwork replica = createNet();
+            replica.getLayer(0).getBiases().put(0, 100.0);
+            StochasticGradientDescentTrainer trainer = new StochasticGradientDescentTrainer(replica, BATCH_SIZE, new CrossEntropyCosts());
+            trainer.setRandom(new SplittableRandom(seed));
+            return new ParameterServerWorker(trainer).train(new InetSocketAddress("localhost", server.getPort()), shard, epochs);
+        });
+    }
+
+    private static NeuralNetwork createNet()
+    {
+        GaussianInitialization init = new GaussianInitialization(7);
+        return new NeuralNetwork(new NetworkLayer[]
+        {
+            new NetworkLayer(6, 8, init, ActivationFunction.logistic()),
+            new NetworkLayer(3, 6, init, ActivationFunction.logistic())
+        });
+    }
+
+    private static TrainingData[] createData(Random r, int length)
+    {
+        TrainingData[] data = new TrainingData[length];
+        for(int x = 0; x < length; x++)
+        {
+            DRowVector input = new DRowVector(8);
+            for(int i = 0; i < 8; i++)
+            {
+                input.put(i, r.nextDouble());
+            }
+            DRowVector solution = new DRowVector(3);
+            solution.put(r.nextInt(3), 1.0);
+            data[x] = new TrainingData(input, solution);
+        }
+        return data;
+    }
+
+    private static DMatrix[] createWeightGradients(NeuralNetwork net)
+    {
+        DMatrix[] result = new DMatrix[net.getLayerCount()];
+        for(int i = 0; i < result.length; i++)
+        {
+            result[i] = new DMatrix(net.getLayer(i).getWeights().getSize());
+        }
+        return result;
+    }
+
+    private static DRowVector[] createBiasGradients(NeuralNetwork net)
+    {
+        DRowVector[] result = new DRowVector[net.getLayerCount()];
+        for(int i = 0; i < result.length; i++)
+        {
+            result[i] = new DRowVector(net.getLayer(i).getOutputSize());
+        }
+        return result;
+    }
+
+    private static void assertNetEquals(NeuralNetwork expected, NeuralNetwork actual)
+    {
+        for(int la = 0; la < expected.getLayerCount(); la++)
+        {
+            DMatrix w = expected.getLayer(la).getWeights();
+            for(int i = 0; i < w.getRowCount(); i++)
+            {
+                assertArrayEquals(w.getRowAsVector(i).toArray(), actual.getLayer(la).getWeights().getRowAsVector(i).toArray(), 0.0);
+            }
+            assertArrayEquals(expected.getLayer(la).getBiases().toArray(), actual.getLayer(la).getBiases().toArray(), 0.0);
+        }
+    }
+
+    /**
+     * Worker speaking the protocol directly, so the test controls the timing
+     * of every message.
+     */
+    private static class RawWorker implements AutoCloseable
+    {
+        private final NeuralNetwork net;
+        private final SocketChannel channel;
+        private final ByteBuffer buffer;
+
+        private RawWorker(int port) throws IOException
+        {
+            this(port, createNet());
+        }
+
+        private RawWorker(int port, NeuralNetwork net) throws IOException
+        {
+            this.net = net;
+            this.buffer = Protocol.allocate(net);
+            this.channel = SocketChannel.open(new InetSocketAddress("localhost", port));
+        }
+
+        private Void handshake() throws IOException
+        {
+            writeHandshake();
+            assertEquals(Protocol.STATUS_OK, Protocol.read(channel, buffer, 16).getInt());
+            return null;
+        }
+
+        private void writeHandshake() throws IOException
+        {
+            buffer.clear();
+            buffer.putInt(Protocol.MAGIC)
+              .putInt(Protocol.VERSION)
+              .putInt(BATCH_SIZE)
+              .putInt(net.getLayerCount())
+              .putInt(net.getInputSize());
+            for(int i = 0; i < net.getLayerCount(); i++)
+            {
+                buffer.putInt(net.getLayer(i).getOutputSize());
+            }
+            Protocol.write(channel, buffer);
+        }
+
+        private long pull(int clock) throws IOException
+        {
+            buffer.clear();
+            buffer.putInt(Protocol.PULL).putInt(clock);
+            Protocol.write(channel, buffer);
+            return Protocol.read(channel, buffer, 8 + 8 * Protocol.parameterCount(net)).getLong();
+        }
+
+        private void push() throws IOException
+        {
+            buffer.clear();
+            buffer.putInt(Protocol.PUSH).putInt(BATCH_SIZE);
+            Protocol.putBlock(buffer, createWeightGradients(net), createBiasGradients(net));
+            Protocol.write(channel, buffer);
+            assertEquals(Protocol.STATUS_OK, Protocol.read(channel, buffer, 4).getInt());
+        }
+
+        private void sendCommand(int command) throws IOException
+        {
+            buffer.clear();
+            buffer.putInt(command);
+            Protocol.write(channel, buffer);
+        }
+
+        private void done() throws IOException
+        {
+            sendCommand(Protocol.DONE);
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            channel.close();
+        }
+    }
+}
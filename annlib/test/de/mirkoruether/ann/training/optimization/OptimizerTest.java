@@ -0,0 +1,208 @@
+package de.mirkoruether.ann.training.optimization;
+
+import de.mirkoruether.linalg.DMatrix;
+import java.util.Random;
+import java.util.function.Supplier;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class OptimizerTest
+{
+    private static final double SCALE = 0.25;
+    private static final double L2 = 0.01;
+    private static final double L1 = 0.002;
+    private static final double ETA = 0.1;
+    private static final int STEPS = 4;
+
+    @Test
+    public void momentumFollowsItsUpdateRule()
+    {
+        check(new MomentumOptimizer(0.9), () -> new Rule()
+        {
+            private double v;
+
+            @Override
+            public double step(double w, double g, int t)
+            {
+                v = 0.9 * v - ETA * g;
+                return w + v;
+            }
+        });
+    }
+
+    @Test
+    public void nesterovMomentumStepsFromTheLookAhead()
+    {
+        check(new MomentumOptimizer(0.9, true), () -> new Rule()
+        {
+            private double v;
+
+            @Override
+            public double step(double w, double g, int t)
+            {
+                v = 0.9 * v - ETA * g;
+                return w + 0.9 * v - ETA * g;
+            }
+        });
+    }
+
+    @Test
+    public void adaGradFollowsItsUpdateRule()
+    {
+        check(new AdaGradOptimizer(1e-8), () -> new Rule()
+        {
+            private double sum;
+
+            @Override
+            public double step(double w, double g, int t)
+            {
+                sum += g * g;
+                return w - ETA * g / (Math.sqrt(sum) + 1e-8);
+            }
+        });
+    }
+
+    @Test
+    public void rmsPropFollowsItsUpdateRule()
+    {
+        check(new RMSPropOptimizer(0.8, 1e-8), () -> new Rule()
+        {
+            private double avg;
+
+            @Override
+            public double step(double w, double g, int t)
+            {
+                avg = 0.8 * avg + 0.2 * g * g;
+                return w - ETA * g / (Math.sqrt(avg) + 1e-8);
+            }
+        });
+    }
+
+    @Test
+    public void adamFollowsTheBiasCorrectedRule()
+    {
+        check(new AdamOptimizer(0.9, 0.999, 1e-8), () -> new Rule()
+        {
+            private double m;
+            private double v;
+
+            @Override
+            public double step(double w, double g, int t)
+            {
+                m = 0.9 * m + 0.1 * g;
+                v = 0.999 * v + 0.001 * g * g;
+                double mHat = m / (1 - Math.pow(0.9, t));
+                double vHat = v / (1 - Math.pow(0.999, t));
+                return w - ETA * mHat / (Math.sqrt(vHat) + 1e-8);
+            }
+        });
+    }
+
+    @Test
+    public void biasesAreNotRegularized()
+    {
+        DMatrix biases = new DMatrix(new double[][]
+        {
+            {1.0, -2.0}
+        });
+        DMatrix gradient = new DMatrix(new double[][]
+        {
+            {4.0, 8.0}
+        });
+
+        new MomentumOptimizer(0.5).updateBiases(0, biases, gradient, SCALE, ETA);
+
+        assertEquals(1.0 - ETA * 1.0, biases.get(0, 0), 1e-15);
+        assertEquals(-2.0 - ETA * 2.0, biases.get(0, 1), 1e-15);
+    }
+
+    @Test
+    public void stateIsKeptPerMatrixAndDiscardedOnReset()
+    {
+        MomentumOptimizer opt = new MomentumOptimizer(0.5);
+        DMatrix gradient = new DMatrix(new double[][]
+        {
+            {4.0}
+        });
+        DMatrix w0 = new DMatrix(1, 1);
+        DMatrix b0 = new DMatrix(1, 1);
+        DMatrix w1 = new DMatrix(1, 1);
+
+        opt.updateWeights(0, w0, gradient, 1.0, 0.0, 0.0, 1.0);
+        opt.updateWeights(0, w0, gradient, 1.0, 0.0, 0.0, 1.0);
+        opt.updateBiases(0, b0, gradient, 1.0, 1.0);
+        opt.updateWeights(1, w1, gradient, 1.0, 0.0, 0.0, 1.0);
+
+        // Second step of w0 carries the momentum of the first, the others
+        // start with their own zero velocity
+        assertEquals(-4.0 - 6.0, w0.get(0, 0), 0.0);
+        assertEquals(-4.0, b0.get(0, 0), 0.0);
+        assertEquals(-4.0, w1.get(0, 0), 0.0);
+
+        opt.reset();
+        DMatrix w = new DMatrix(1, 1);
+        opt.updateWeights(0, w, gradient, 1.0, 0.0, 0.0, 1.0);
+        assertEquals(-4.0, w.get(0, 0), 0.0);
+    }
+
+    /**
+     * Applies STEPS updates with random gradients to random weights and
+     * compares every weight with the scalar reference rule, fed with the
+     * regularized gradient scale * g + l2 * w + l1 * sgn(w).
+     */
+    private static void check(Optimizer opt, Supplier<Rule> rule)
+    {
+        Random r = new Random(7);
+        int rows = 3;
+        int columns = 4;
+        DMatrix weights = randomMatrix(r, rows, columns);
+        double[][] expected = new double[rows][columns];
+        Rule[][] rules = new Rule[rows][columns];
+        for(int i = 0; i < rows; i++)
+        {
+            for(int j = 0; j < columns; j++)
+            {
+                expected[i][j] = weights.get(i, j);
+                rules[i][j] = rule.get();
+            }
+        }
+
+        for(int t = 1; t <= STEPS; t++)
+        {
+            DMatrix gradient = randomMatrix(r, rows, columns);
+            opt.updateWeights(0, weights, gradient, SCALE, L2, L1, ETA);
+            for(int i = 0; i < rows; i++)
+            {
+                for(int j = 0; j < columns; j++)
+                {
+                    double w = expected[i][j];
+                    double g = SCALE * gradient.get(i, j) + L2 * w + L1 * Math.signum(w);
+                    expected[i][j] = rules[i][j].step(w, g, t);
+                    assertEquals("step " + t + " at (" + i + ", " + j + ")", expected[i][j], weights.get(i, j), 1e-12);
+                }
+            }
+        }
+    }
+
+    private static DMatrix randomMatrix(Random r, int rows, int columns)
+    {
+        DMatrix m = new DMatrix(rows, columns);
+        for(int i = 0; i < rows; i++)
+        {
+            for(int j = 0; j < columns; j++)
+            {
+                m.put(i, j, r.nextGaussian());
+            }
+        }
+        return m;
+    }
+
+    /**
+     * Scalar reference of an update rule with its own state.
+     */
+    private interface Rule
+    {
+        double step(double w, double g, int t);
+    }
+}
@@ -9,7 +9,7 @@ public abstract class DAbstractVector extends DMatrix
 
     protected DAbstractVector(DMatrix vectorMatrix)
     {
-        super(vectorMatrix.data, vectorMatrix.columns);
+        super(vectorMatrix, 0, vectorMatrix.rows);
     }
 
     protected DAbstractVector(double[] data, int columns)
@@ -24,22 +24,22 @@ public abstract class DAbstractVector extends DMatrix
 
     public double get(int index)
     {
-        return data[index];
+        return data[offset + index];
     }
 
     public void put(int index, double value)
     {
-        data[index] = value;
+        data[offset + index] = value;
     }
 
     public int getLength()
     {
-        return data.length;
+        return length();
     }
 
     public double[] toArray()
     {
-        return Arrays.copyOf(data, data.length);
+        return Arrays.copyOfRange(data, offset, offset + length());
     }
 
     public double innerProduct(DAbstractVector other)
@@ -49,10 +49,15 @@ public abstract class DAbstractVector extends DMatrix
             throw new SizeException("Vector lengths differ");
         }
 
+        // One sum in ascending order, so the result and the norm do not
+        // change in rounding. Partial sums would break the addition chain
+        // but are not bit-identical.
+        double[] o = other.data;
+        int oOff = other.offset;
         double result = 0.0;
-        for(int i = 0; i < getLength(); i++)
+        for(int i = 0; i < length(); i++)
         {
-            result += get(i) * other.get(i);
+            result += data[offset + i] * o[oOff + i];
         }
         return result;
     }
@@ -64,12 +69,34 @@ public abstract class DAbstractVector extends DMatrix
 
     public int indexOfMaxium()
     {
-        return indexOfHighestRank((a, b) -> a > b ? 1 : -1);
+        int index = 0;
+        double max = get(0);
+        for(int i = 1; i < length(); i++)
+        {
+            double cur = data[offset + i];
+            if(cur > max)
+            {
+                index = i;
+                max = cur;
+            }
+        }
+        return index;
     }
 
     public int indexOfMinimum()
     {
-        return indexOfHighestRank((a, b) -> a < b ? 1 : -1);
+        int index = 0;
+        double min = get(0);
+        for(int i = 1; i < length(); i++)
+        {
+            double cur = data[offset + i];
+            if(cur < min)
+            {
+                index = i;
+                min = cur;
+            }
+        }
+        return index;
     }
 
     public int indexOfHighestRank(Comparator<Double> com)
@@ -88,6 +115,23 @@ public abstract class DAbstractVector extends DMatrix
         return index;
     }
 
+    @Override
+    protected void assertElementWiseOperands(DMatrix other, DMatrix dest)
+    {
+        if(other instanceof DAbstractVector)
+        {
+            if(getLength() != ((DAbstractVector)other).getLength())
+            {
+                throw new SizeException("Vector lengths differ");
+            }
+            assertDestinationSize(dest, rows, columns);
+        }
+        else
+        {
+            super.assertElementWiseOperands(other, dest);
+        }
+    }
+
     @Override
     public DMatrix addInPlace(DMatrix other)
     {
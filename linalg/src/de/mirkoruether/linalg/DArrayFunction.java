@@ -0,0 +1,21 @@
+package de.mirkoruether.linalg;
+
+/**
+ * Function evaluated on a contiguous range of an array at once, e.g. on one
+ * row of a matrix. Implementations with a plain loop over the range let the
+ * JIT compiler inline and vectorise the evaluation.
+ */
+public interface DArrayFunction
+{
+    /**
+     * Evaluates the function on src[srcOffset..srcOffset+length] and stores
+     * the results in dest[destOffset..destOffset+length]. src and dest may be
+     * the same array with the same offset.
+     * @param src        Arguments
+     * @param srcOffset  Offset of the first argument
+     * @param dest       Destination
+     * @param destOffset Offset of the first result
+     * @param length     Number of elements
+     */
+    public void applyArray(double[] src, int srcOffset, double[] dest, int destOffset, int length);
+}
@@ -0,0 +1,17 @@
+package de.mirkoruether.linalg;
+
+/**
+ * Element-wise in-place update of an array by another array and any number
+ * of state arrays of the same length, e.g. an optimizer step which updates
+ * the parameters and its running averages in a single pass.
+ */
+public interface DArrayUpdate
+{
+    /**
+     * @param values Values to update in place
+     * @param other  Second operand, e.g. the gradient
+     * @param state  State arrays, may be updated in place
+     * @param length Length of all arrays
+     */
+    public void update(double[] values, double[] other, double[][] state, int length);
+}
@@ -1,6 +1,20 @@
 package de.mirkoruether.linalg;
 
-public interface DFunction
+public interface DFunction extends DArrayFunction
 {
     public double apply(double z);
+
+    /**
+     * Applies this function element-wise. Implementing classes should
+     * override this with a loop of their own, so the call of
+     * {@link #apply(double)} is not shared between all implementations.
+     */
+    @Override
+    public default void applyArray(double[] src, int srcOffset, double[] dest, int destOffset, int length)
+    {
+        for(int i = 0; i < length; i++)
+        {
+            dest[destOffset + i] = apply(src[srcOffset + i]);
+        }
+    }
 }
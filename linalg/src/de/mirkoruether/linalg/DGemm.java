@@ -0,0 +1,496 @@
+package de.mirkoruether.linalg;
+
+import java.nio.DoubleBuffer;
+
+/**
+ * General matrix multiplication kernel used by {@link DMatrix}.
+ *
+ * Computes C += op(A) * op(B) on row-major arrays. Operands are addressed via
+ * an offset and row and column strides, so transposed operands and views of
+ * rows need no copy. Large products are cache blocked and packed by
+ * {@link GemmBlocking} into contiguous micro panels which a 4x4 register tile
+ * consumes. Small products, e.g. a row vector times a matrix, use a plain
+ * i-k-j loop because packing would cost more than it saves.
+ *
+ * Both paths add the products a(i,k) * b(k,j) to c(i,j) in ascending k order
+ * starting from the value already stored in C. Java never contracts a * b + c
+ * to a fused multiply-add, so the results are bit-identical to the naive i-k-j
+ * triple loop, independent of the chosen tile sizes.
+ *
+ * An optional epilogue adds a bias row to C and applies a function to the
+ * result as soon as a part of C is final: per 4x4 tile after its last k
+ * panel in the blocked path, after the product in the small paths, where C
+ * is small. The epilogue therefore works on data which is still in L1
+ * instead of making further passes over a large C.
+ *
+ * B and the bias may also be read from a buffer, e.g. a memory mapped file.
+ * B is then copied to the heap one row or one packed panel at a time, never
+ * as a whole.
+ */
+final class DGemm
+{
+    private static final int MR = GemmBlocking.MR;
+    private static final int NR = GemmBlocking.NR;
+
+    private static final int KC_MAX = 256;
+    private static final int L2_BLOCK_DOUBLES = 16384;
+    private static final int L3_BLOCK_DOUBLES = 131072;
+
+    private static final ThreadLocal<double[][]> WORKSPACE = ThreadLocal.withInitial(() -> new double[3][0]);
+
+    /**
+     * c(l x n) += a(l x m) * b(m x n). Element (i, k) of a is read from
+     * a[aOff + i * ars + k * acs], element (k, j) of b from
+     * b[bOff + k * brs + j * bcs], c is dense row-major from cOff on.
+     */
+    static void multiplyAdd(int l, int m, int n,
+                            double[] a, int aOff, int ars, int acs,
+                            double[] b, int bOff, int brs, int bcs,
+                            double[] c, int cOff)
+    {
+        if(GemmBlocking.isSmall(l, m, n))
+        {
+            multiplyAddSmall(l, m, n, a, aOff, ars, acs, b, bOff, brs, bcs, c, cOff);
+        }
+        else
+        {
+            new Blocked(a, aOff, ars, acs, b, bOff, brs, bcs, c, cOff, null).multiplyAdd(l, m, n);
+        }
+    }
+
+    /**
+     * Like {@link #multiplyAdd(int, int, int, double[], int, int, int, double[], int, int, int, double[], int)},
+     * then c(i, j) += bias[biasOff + j] and, if f is not null,
+     * act(i, j) = f(c(i, j)). act is dense row-major like c from actOff on
+     * and may be c.
+     */
+    static void multiplyAddBiasApply(int l, int m, int n,
+                                     double[] a, int aOff, int ars, int acs,
+                                     double[] b, int bOff, int brs, int bcs,
+                                     double[] c, int cOff, double[] bias, int biasOff, DFunction f, double[] act, int actOff)
+    {
+        Epilogue epilogue = new Epilogue(n, bias, biasOff, f, act, actOff - cOff);
+        if(GemmBlocking.isSmall(l, m, n))
+        {
+            multiplyAddSmall(l, m, n, a, aOff, ars, acs, b, bOff, brs, bcs, c, cOff);
+            epilogue.apply(c, cOff, 0, n, l);
+        }
+        else
+        {
+            new Blocked(a, aOff, ars, acs, b, bOff, brs, bcs, c, cOff, epilogue).multiplyAdd(l, m, n);
+        }
+    }
+
+    /**
+     * Like {@link #multiplyAddBiasApply(int, int, int, double[], int, int, int, double[], int, int, int, double[], int, double[], int, DFunction, double[], int)}
+     * with a dense row-major b(m x n) and a bias of n elements, both read
+     * from the position of their buffer on, and f applied in place. The
+     * positions are not changed.
+     */
+    static void multiplyAddBiasApply(int l, int m, int n,
+                                     double[] a, int aOff, int ars, int acs,
+                                     DoubleBuffer b,
+                                     double[] c, int cOff, DoubleBuffer bias, DFunction f)
+    {
+        double[] biasCopy = workspace(2, n);
+        bias.duplicate().get(biasCopy, 0, n);
+        Epilogue epilogue = new Epilogue(n, biasCopy, 0, f, c, 0);
+
+        if(GemmBlocking.isSmall(l, m, n))
+        {
+            multiplyAddSimple(l, m, n, a, aOff, ars, acs, b, c, cOff);
+            epilogue.apply(c, cOff, 0, n, l);
+        }
+        else
+        {
+            new BufferBlocked(a, aOff, ars, acs, b, n, c, cOff, epilogue).multiplyAdd(l, m, n);
+        }
+    }
+
+    private static void multiplyAddSmall(int l, int m, int n,
+                                         double[] a, int aOff, int ars, int acs,
+                                         double[] b, int bOff, int brs, int bcs,
+                                         double[] c, int cOff)
+    {
+        if(brs == 1 && bcs != 1)
+        {
+            multiplyAddDot(l, m, n, a, aOff, ars, acs, b, bOff, bcs, c, cOff);
+        }
+        else
+        {
+            multiplyAddSimple(l, m, n, a, aOff, ars, acs, b, bOff, brs, bcs, c, cOff);
+        }
+    }
+
+    private static void multiplyAddSimple(int l, int m, int n,
+                                          double[] a, int aOff, int ars, int acs,
+                                          double[] b, int bOff, int brs, int bcs,
+                                          double[] c, int cOff)
+    {
+        for(int i = 0; i < l; i++)
+        {
+            int aRow = aOff + i * ars;
+            int cRow = cOff + i * n;
+            for(int k = 0; k < m; k++)
+            {
+                double aik = a[aRow + k * acs];
+                int bRow = bOff + k * brs;
+                if(bcs == 1)
+                {
+                    for(int j = 0; j < n; j++)
+                    {
+                        c[cRow + j] += aik * b[bRow + j];
+                    }
+                }
+                else
+                {
+                    for(int j = 0; j < n; j++)
+                    {
+                        c[cRow + j] += aik * b[bRow + j * bcs];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * k-i-j variant for a B in a buffer, so each row of B is copied to the
+     * heap once and then used for all rows of A.
+     */
+    private static void multiplyAddSimple(int l, int m, int n,
+                                          double[] a, int aOff, int ars, int acs,
+                                          DoubleBuffer b,
+                                          double[] c, int cOff)
+    {
+        double[] bRow = workspace(1, n);
+        DoubleBuffer src = b.duplicate();
+        for(int k = 0; k < m; k++)
+        {
+            src.get(bRow, 0, n);
+            for(int i = 0; i < l; i++)
+            {
+                double aik = a[aOff + i * ars + k * acs];
+                int cRow = cOff + i * n;
+                for(int j = 0; j < n; j++)
+                {
+                    c[cRow + j] += aik * bRow[j];
+                }
+            }
+        }
+    }
+
+    /**
+     * i-j-k variant for a transposed B (columns of op(B) are contiguous), so
+     * the innermost loop is a dot product over contiguous memory. NR columns
+     * are computed at once to share the loads of a and to keep NR independent
+     * sums in flight.
+     */
+    private static void multiplyAddDot(int l, int m, int n,
+                                       double[] a, int aOff, int ars, int acs,
+                                       double[] b, int bOff, int bcs,
+                                       double[] c, int cOff)
+    {
+        for(int i = 0; i < l; i++)
+        {
+            int aRow = aOff + i * ars;
+            int cRow = cOff + i * n;
+            int j = 0;
+            for(; j + NR <= n; j += NR)
+            {
+                int b0 = bOff + j * bcs;
+                int b1 = b0 + bcs;
+                int b2 = b1 + bcs;
+                int b3 = b2 + bcs;
+                double s0 = c[cRow + j];
+                double s1 = c[cRow + j + 1];
+                double s2 = c[cRow + j + 2];
+                double s3 = c[cRow + j + 3];
+                for(int k = 0; k < m; k++)
+                {
+                    double aik = a[aRow + k * acs];
+                    s0 += aik * b[b0 + k];
+                    s1 += aik * b[b1 + k];
+                    s2 += aik * b[b2 + k];
+                    s3 += aik * b[b3 + k];
+                }
+                c[cRow + j] = s0;
+                c[cRow + j + 1] = s1;
+                c[cRow + j + 2] = s2;
+                c[cRow + j + 3] = s3;
+            }
+            for(; j < n; j++)
+            {
+                int bCol = bOff + j * bcs;
+                double sum = c[cRow + j];
+                for(int k = 0; k < m; k++)
+                {
+                    sum += a[aRow + k * acs] * b[bCol + k];
+                }
+                c[cRow + j] = sum;
+            }
+        }
+    }
+
+    /**
+     * Blocked product of double arrays, optionally finishing each tile with
+     * an epilogue.
+     */
+    private static class Blocked extends GemmBlocking
+    {
+        private final double[] a;
+        private final double[] b;
+        private final double[] c;
+        private final Epilogue epilogue;
+        private double[] packedA;
+        double[] packedB;
+
+        private Blocked(double[] a, int aOff, int ars, int acs,
+                        double[] b, int bOff, int brs, int bcs,
+                        double[] c, int cOff, Epilogue epilogue)
+        {
+            super(KC_MAX, L2_BLOCK_DOUBLES, L3_BLOCK_DOUBLES, aOff, ars, acs, bOff, brs, bcs, cOff);
+            this.a = a;
+            this.b = b;
+            this.c = c;
+            this.epilogue = epilogue;
+        }
+
+        @Override
+        protected void allocate(int packedALength, int packedBLength)
+        {
+            packedA = workspace(0, packedALength);
+            packedB = workspace(1, packedBLength);
+        }
+
+        @Override
+        protected void packA(int src, int stride, int count, int dest)
+        {
+            pack(a, src, stride, count, packedA, dest, MR);
+        }
+
+        @Override
+        protected void packB(int src, int stride, int count, int dest)
+        {
+            pack(b, src, stride, count, packedB, dest, NR);
+        }
+
+        @Override
+        protected void multiplyTile(int kc, int aOff, int bOff, int cOff, int ldc, int mr, int nr)
+        {
+            if(mr == MR && nr == NR)
+            {
+                kernel4x4(kc, packedA, aOff, packedB, bOff, c, cOff, ldc);
+            }
+            else
+            {
+                kernelEdge(kc, mr, nr, packedA, aOff, packedB, bOff, c, cOff, ldc);
+            }
+        }
+
+        @Override
+        protected void finishTile(int offset, int column, int width, int rowCount)
+        {
+            if(epilogue != null)
+            {
+                epilogue.apply(c, offset, column, width, rowCount);
+            }
+        }
+    }
+
+    /**
+     * Blocked product with a dense row-major b(m x n) in a buffer, which is
+     * copied to the heap one packed panel at a time.
+     */
+    private static final class BufferBlocked extends Blocked
+    {
+        private final DoubleBuffer b;
+
+        private BufferBlocked(double[] a, int aOff, int ars, int acs,
+                              DoubleBuffer b, int n,
+                              double[] c, int cOff, Epilogue epilogue)
+        {
+            super(a, aOff, ars, acs, null, b.position(), n, 1, c, cOff, epilogue);
+            this.b = b;
+        }
+
+        @Override
+        protected void packB(int src, int stride, int count, int dest)
+        {
+            int s = 0;
+            for(; s < count; s++)
+            {
+                packedB[dest + s] = b.get(src + s);
+            }
+            for(; s < NR; s++)
+            {
+                packedB[dest + s] = 0.0;
+            }
+        }
+    }
+
+    /**
+     * Copies count elements, the t-th from src + t * stride, to dest and pads
+     * them with zeros to width elements.
+     */
+    private static void pack(double[] src, int from, int stride, int count, double[] dest, int to, int width)
+    {
+        int t = 0;
+        for(; t < count; t++)
+        {
+            dest[to + t] = src[from + t * stride];
+        }
+        for(; t < width; t++)
+        {
+            dest[to + t] = 0.0;
+        }
+    }
+
+    private static void kernel4x4(int kc, double[] pa, int aOff, double[] pb, int bOff, double[] c, int cOff, int ldc)
+    {
+        int c0 = cOff;
+        int c1 = c0 + ldc;
+        int c2 = c1 + ldc;
+        int c3 = c2 + ldc;
+
+        double c00 = c[c0], c01 = c[c0 + 1], c02 = c[c0 + 2], c03 = c[c0 + 3];
+        double c10 = c[c1], c11 = c[c1 + 1], c12 = c[c1 + 2], c13 = c[c1 + 3];
+        double c20 = c[c2], c21 = c[c2 + 1], c22 = c[c2 + 2], c23 = c[c2 + 3];
+        double c30 = c[c3], c31 = c[c3 + 1], c32 = c[c3 + 2], c33 = c[c3 + 3];
+
+        int ai = aOff;
+        int bi = bOff;
+        for(int k = 0; k < kc; k++)
+        {
+            double a0 = pa[ai];
+            double a1 = pa[ai + 1];
+            double a2 = pa[ai + 2];
+            double a3 = pa[ai + 3];
+            double b0 = pb[bi];
+            double b1 = pb[bi + 1];
+            double b2 = pb[bi + 2];
+            double b3 = pb[bi + 3];
+
+            c00 += a0 * b0;
+            c01 += a0 * b1;
+            c02 += a0 * b2;
+            c03 += a0 * b3;
+            c10 += a1 * b0;
+            c11 += a1 * b1;
+            c12 += a1 * b2;
+            c13 += a1 * b3;
+            c20 += a2 * b0;
+            c21 += a2 * b1;
+            c22 += a2 * b2;
+            c23 += a2 * b3;
+            c30 += a3 * b0;
+            c31 += a3 * b1;
+            c32 += a3 * b2;
+            c33 += a3 * b3;
+
+            ai += MR;
+            bi += NR;
+        }
+
+        c[c0] = c00;
+        c[c0 + 1] = c01;
+        c[c0 + 2] = c02;
+        c[c0 + 3] = c03;
+        c[c1] = c10;
+        c[c1 + 1] = c11;
+        c[c1 + 2] = c12;
+        c[c1 + 3] = c13;
+        c[c2] = c20;
+        c[c2 + 1] = c21;
+        c[c2 + 2] = c22;
+        c[c2 + 3] = c23;
+        c[c3] = c30;
+        c[c3 + 1] = c31;
+        c[c3 + 2] = c32;
+        c[c3 + 3] = c33;
+    }
+
+    private static void kernelEdge(int kc, int mr, int nr, double[] pa, int aOff, double[] pb, int bOff, double[] c, int cOff, int ldc)
+    {
+        for(int r = 0; r < mr; r++)
+        {
+            int cRow = cOff + r * ldc;
+            for(int s = 0; s < nr; s++)
+            {
+                double sum = c[cRow + s];
+                int ai = aOff + r;
+                int bi = bOff + s;
+                for(int k = 0; k < kc; k++)
+                {
+                    sum += pa[ai] * pb[bi];
+                    ai += MR;
+                    bi += NR;
+                }
+                c[cRow + s] = sum;
+            }
+        }
+    }
+
+    private static final class Epilogue
+    {
+        private final int ldc;
+        private final double[] bias;
+        private final int biasOff;
+        private final DFunction f;
+        private final double[] act;
+        private final int actShift;
+
+        /**
+         * @param bias     Array holding the n elements of the bias from
+         *                 biasOff on
+         * @param actShift Offset of act(i, j) in act minus the offset of
+         *                 c(i, j) in c
+         */
+        private Epilogue(int n, double[] bias, int biasOff, DFunction f, double[] act, int actShift)
+        {
+            this.ldc = n;
+            this.bias = bias;
+            this.biasOff = biasOff;
+            this.f = f;
+            this.act = act;
+            this.actShift = actShift;
+        }
+
+        /**
+         * Finishes the block of c with the given row count, which starts at
+         * offset and covers the columns column..column+width.
+         */
+        private void apply(double[] c, int offset, int column, int width, int rowCount)
+        {
+            for(int r = 0; r < rowCount; r++)
+            {
+                int row = offset + r * ldc;
+                for(int s = 0; s < width; s++)
+                {
+                    c[row + s] += bias[biasOff + column + s];
+                }
+                if(f != null)
+                {
+                    f.applyArray(c, row, act, row + actShift, width);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Array of the calling thread with at least the given length,
+     *         whose content is undefined
+     */
+    private static double[] workspace(int index, int length)
+    {
+        double[][] ws = WORKSPACE.get();
+        if(ws[index].length < length)
+        {
+            ws[index] = new double[length];
+        }
+        return ws[index];
+    }
+
+    private DGemm()
+    {
+    }
+}
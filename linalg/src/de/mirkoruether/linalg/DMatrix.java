@@ -1,6 +1,7 @@
 package de.mirkoruether.linalg;
 
 import java.io.Serializable;
+import java.nio.DoubleBuffer;
 import java.util.Arrays;
 import java.util.function.BiConsumer;
 
@@ -9,6 +10,12 @@ public class DMatrix implements Serializable
     private static final long serialVersionUID = 4110775618079402269L;
 
     protected final double[] data;
+    /**
+     * Index of the first element in data, which is not 0 for a view of rows
+     * of another matrix. The elements are data[offset] to
+     * data[offset + rows * columns - 1], row by row.
+     */
+    protected final int offset;
     protected final int columns;
     protected final int rows;
 
@@ -19,13 +26,27 @@ public class DMatrix implements Serializable
             throw new IllegalArgumentException("Unsupported data length");
         }
         this.data = data;
+        this.offset = 0;
         this.columns = columns;
         this.rows = data.length / columns;
     }
 
+    /**
+     * View of the rows fromRow to fromRow + rowCount - 1 of another matrix,
+     * sharing its data.
+     */
+    protected DMatrix(DMatrix source, int fromRow, int rowCount)
+    {
+        this.data = source.data;
+        this.offset = source.offset + fromRow * source.columns;
+        this.columns = source.columns;
+        this.rows = rowCount;
+    }
+
     public DMatrix(int rows, int columns)
     {
         this.data = new double[rows * columns];
+        this.offset = 0;
         this.columns = columns;
         this.rows = rows;
     }
@@ -52,7 +73,34 @@ public class DMatrix implements Serializable
 
     public DMatrix getDuplicate()
     {
-        return new DMatrix(Arrays.copyOf(data, data.length), columns);
+        return new DMatrix(Arrays.copyOfRange(data, offset, offset + length()), columns);
+    }
+
+    /**
+     * Returns a view of a range of rows which shares the data with this
+     * matrix, so changes of either are visible in the other, e.g. to use a
+     * buffer allocated for the longest batch for a shorter one or to work on
+     * a shard of a batch without copying it.
+     * @param fromRow  First row of the view
+     * @param rowCount Number of rows of the view
+     * @return View of the rows fromRow to fromRow + rowCount - 1
+     */
+    public DMatrix viewRows(int fromRow, int rowCount)
+    {
+        if(fromRow < 0 || rowCount < 0 || fromRow + rowCount > rows)
+        {
+            throw new IndexOutOfBoundsException("Rows " + fromRow + " to " + (fromRow + rowCount - 1)
+                                                + " are out of bound for Matrix with " + rows + " rows");
+        }
+        return new DMatrix(this, fromRow, rowCount);
+    }
+
+    /**
+     * @return Number of elements
+     */
+    protected int length()
+    {
+        return rows * columns;
     }
 
     public int getRowCount()
@@ -85,7 +133,7 @@ public class DMatrix implements Serializable
 
     private int index(int row, int column)
     {
-        return columns * row + column;
+        return offset + columns * row + column;
     }
 
     public double get(int row, int column)
@@ -107,10 +155,65 @@ public class DMatrix implements Serializable
 
     public DMatrix applyFunctionElementWiseInPlace(DFunction func)
     {
-        for(int i = 0; i < data.length; i++)
+        func.applyArray(data, offset, data, offset, length());
+        return this;
+    }
+
+    public <M extends DMatrix> M applyFunctionElementWiseInto(DFunction func, M dest)
+    {
+        assertDestinationSize(dest, rows, columns);
+        func.applyArray(data, offset, dest.data, dest.offset, length());
+        return dest;
+    }
+
+    /**
+     * Applies a function to every row as a whole, e.g. a softmax which
+     * depends on all elements of a row.
+     * @param func Function, called once per row
+     * @return this
+     */
+    public DMatrix applyFunctionRowWiseInPlace(DArrayFunction func)
+    {
+        return applyFunctionRowWiseInto(func, this);
+    }
+
+    public <M extends DMatrix> M applyFunctionRowWiseInto(DArrayFunction func, M dest)
+    {
+        assertDestinationSize(dest, rows, columns);
+        for(int r = 0; r < rows; r++)
+        {
+            func.applyArray(data, offset + r * columns, dest.data, dest.offset + r * columns, columns);
+        }
+        return dest;
+    }
+
+    /**
+     * Updates this matrix in place in a single pass over this matrix, other
+     * and the state matrices together.
+     * @param other  Matrix of the same size, e.g. a gradient
+     * @param state  Matrices of the same size, e.g. running averages
+     * @param update Update which gets the data of all matrices
+     * @return this
+     * @throws IllegalArgumentException if one of the matrices is a view
+     *                                  which does not start at the first
+     *                                  element of its data
+     */
+    public DMatrix updateInPlace(DMatrix other, DMatrix[] state, DArrayUpdate update)
+    {
+        assertSameSize(other);
+        double[][] stateData = new double[state.length][];
+        boolean offsets = offset != 0 || other.offset != 0;
+        for(int i = 0; i < state.length; i++)
         {
-            data[i] = func.apply(data[i]);
+            assertSameSize(state[i]);
+            stateData[i] = state[i].data;
+            offsets |= state[i].offset != 0;
         }
+        if(offsets)
+        {
+            throw new IllegalArgumentException("Update of views with an offset is not supported");
+        }
+        update.update(data, other.data, stateData, length());
         return this;
     }
 
@@ -121,13 +224,27 @@ public class DMatrix implements Serializable
 
     public DMatrix scalarMulInPlace(double r)
     {
-        for(int i = 0; i < data.length; i++)
+        int end = offset + length();
+        for(int i = offset; i < end; i++)
         {
             data[i] *= r;
         }
         return this;
     }
 
+    public <M extends DMatrix> M scalarMulInto(double r, M dest)
+    {
+        assertDestinationSize(dest, rows, columns);
+        double[] d = dest.data;
+        int dOff = dest.offset - offset;
+        int end = offset + length();
+        for(int i = offset; i < end; i++)
+        {
+            d[dOff + i] = data[i] * r;
+        }
+        return dest;
+    }
+
     public DMatrix scalarDiv(double r)
     {
         return getDuplicate().scalarDivInPlace(r);
@@ -135,13 +252,27 @@ public class DMatrix implements Serializable
 
     public DMatrix scalarDivInPlace(double r)
     {
-        for(int i = 0; i < data.length; i++)
+        int end = offset + length();
+        for(int i = offset; i < end; i++)
         {
             data[i] /= r;
         }
         return this;
     }
 
+    public <M extends DMatrix> M scalarDivInto(double r, M dest)
+    {
+        assertDestinationSize(dest, rows, columns);
+        double[] d = dest.data;
+        int dOff = dest.offset - offset;
+        int end = offset + length();
+        for(int i = offset; i < end; i++)
+        {
+            d[dOff + i] = data[i] / r;
+        }
+        return dest;
+    }
+
     public DMatrix add(DMatrix other)
     {
         return getDuplicate().addInPlace(other);
@@ -155,13 +286,31 @@ public class DMatrix implements Serializable
 
     protected DMatrix uncheckedAddInPlace(DMatrix other)
     {
-        for(int i = 0; i < data.length; i++)
+        double[] o = other.data;
+        int oOff = other.offset - offset;
+        int end = offset + length();
+        for(int i = offset; i < end; i++)
         {
-            data[i] += other.data[i];
+            data[i] += o[oOff + i];
         }
         return this;
     }
 
+    public <M extends DMatrix> M addInto(DMatrix other, M dest)
+    {
+        assertElementWiseOperands(other, dest);
+        double[] o = other.data;
+        double[] d = dest.data;
+        int oOff = other.offset - offset;
+        int dOff = dest.offset - offset;
+        int end = offset + length();
+        for(int i = offset; i < end; i++)
+        {
+            d[dOff + i] = data[i] + o[oOff + i];
+        }
+        return dest;
+    }
+
     public DMatrix sub(DMatrix other)
     {
         return getDuplicate().subInPlace(other);
@@ -175,13 +324,31 @@ public class DMatrix implements Serializable
 
     protected DMatrix uncheckedSubInPlace(DMatrix other)
     {
-        for(int i = 0; i < data.length; i++)
+        double[] o = other.data;
+        int oOff = other.offset - offset;
+        int end = offset + length();
+        for(int i = offset; i < end; i++)
         {
-            data[i] -= other.data[i];
+            data[i] -= o[oOff + i];
         }
         return this;
     }
 
+    public <M extends DMatrix> M subInto(DMatrix other, M dest)
+    {
+        assertElementWiseOperands(other, dest);
+        double[] o = other.data;
+        double[] d = dest.data;
+        int oOff = other.offset - offset;
+        int dOff = dest.offset - offset;
+        int end = offset + length();
+        for(int i = offset; i < end; i++)
+        {
+            d[dOff + i] = data[i] - o[oOff + i];
+        }
+        return dest;
+    }
+
     public DMatrix elementWiseMul(DMatrix other)
     {
         return getDuplicate().elementWiseMulInPlace(other);
@@ -195,13 +362,31 @@ public class DMatrix implements Serializable
 
     protected DMatrix uncheckedElementWiseMulInPlace(DMatrix other)
     {
-        for(int i = 0; i < data.length; i++)
+        double[] o = other.data;
+        int oOff = other.offset - offset;
+        int end = offset + length();
+        for(int i = offset; i < end; i++)
         {
-            data[i] *= other.data[i];
+            data[i] *= o[oOff + i];
         }
         return this;
     }
 
+    public <M extends DMatrix> M elementWiseMulInto(DMatrix other, M dest)
+    {
+        assertElementWiseOperands(other, dest);
+        double[] o = other.data;
+        double[] d = dest.data;
+        int oOff = other.offset - offset;
+        int dOff = dest.offset - offset;
+        int end = offset + length();
+        for(int i = offset; i < end; i++)
+        {
+            d[dOff + i] = data[i] * o[oOff + i];
+        }
+        return dest;
+    }
+
     public DMatrix elementWiseDiv(DMatrix other)
     {
         return getDuplicate().elementWiseDivInPlace(other);
@@ -215,14 +400,45 @@ public class DMatrix implements Serializable
 
     protected DMatrix uncheckedElementWiseDivInPlace(DMatrix other)
     {
-        for(int i = 0; i < data.length; i++)
+        double[] o = other.data;
+        int oOff = other.offset - offset;
+        int end = offset + length();
+        for(int i = offset; i < end; i++)
         {
-            data[i] /= other.data[i];
+            data[i] /= o[oOff + i];
         }
         return this;
     }
 
+    public <M extends DMatrix> M elementWiseDivInto(DMatrix other, M dest)
+    {
+        assertElementWiseOperands(other, dest);
+        double[] o = other.data;
+        double[] d = dest.data;
+        int oOff = other.offset - offset;
+        int dOff = dest.offset - offset;
+        int end = offset + length();
+        for(int i = offset; i < end; i++)
+        {
+            d[dOff + i] = data[i] / o[oOff + i];
+        }
+        return dest;
+    }
+
     public DMatrix matrixMul(DMatrix other)
+    {
+        return matrixMulInto(other, new DMatrix(rows, other.columns));
+    }
+
+    /**
+     * Calculates this * other and writes the result to dest.
+     * @param <M>   type of the destination
+     * @param other right operand
+     * @param dest  destination of size (rows of this) x (columns of other),
+     *              must not share its data with one of the operands
+     * @return dest
+     */
+    public <M extends DMatrix> M matrixMulInto(DMatrix other, M dest)
     {
         //mat(l x m) * mat(m x n) -> mat(l x n); mat(rows x cols)
 
@@ -235,36 +451,291 @@ public class DMatrix implements Serializable
         int m = columns;
         int n = other.columns;
 
-        DMatrix C = new DMatrix(l, n);
+        assertProductDestination(other, dest, l, n);
+        dest.fill(0.0);
+        DGemm.multiplyAdd(l, m, n, data, offset, m, 1, other.data, other.offset, n, 1, dest.data, dest.offset);
+        return dest;
+    }
+
+    /**
+     * Calculates this * other + bias, where bias is added to every row, in a
+     * single pass over the result.
+     * @param <M>   type of the destination
+     * @param other right operand
+     * @param bias  row vector with one element per column of other
+     * @param dest  destination of size (rows of this) x (columns of other),
+     *              must not share its data with one of the operands
+     * @return dest
+     */
+    public <M extends DMatrix> M matrixMulAddRowInto(DMatrix other, DMatrix bias, M dest)
+    {
+        return matrixMulAddRowApplyInto(other, bias, null, null, dest);
+    }
+
+    /**
+     * Fused kernel of a network layer: calculates z = this * other + bias,
+     * where bias is added to every row, and f(z) element-wise. Bias and
+     * function are applied to each block of z as soon as its product is
+     * complete, while it is still in cache. The results are bit-identical to
+     * matrixMulInto followed by addToEachRowInPlace and
+     * applyFunctionElementWiseInto.
+     * @param <M>               type of the destination
+     * @param other             right operand
+     * @param bias              row vector with one element per column of
+     *                          other
+     * @param f                 function, null to store z in dest
+     * @param weightedInputDest destination of z, null if z is not needed. May
+     *                          be dest, then dest holds z.
+     * @param dest              destination of f(z)
+     * @return dest
+     */
+    public <M extends DMatrix> M matrixMulAddRowApplyInto(DMatrix other, DMatrix bias, DFunction f,
+                                                          DMatrix weightedInputDest, M dest)
+    {
+        if(columns != other.rows)
+        {
+            throw new SizeException("Matrizes cannot be multiplied");
+        }
+        if(!bias.isRowVector() || bias.columns != other.columns)
+        {
+            throw new SizeException("Bias has to be a row vector with one element per column");
+        }
+
+        int l = rows;
+        int m = columns;
+        int n = other.columns;
 
-        for(int i = 0; i < l; i++)
+        assertProductDestination(other, dest, l, n);
+        DMatrix z = dest;
+        if(weightedInputDest != null && weightedInputDest != dest)
         {
-            int aRow = i * m;
-            int cRow = i * n;
-            for(int k = 0; k < m; k++)
+            assertProductDestination(other, weightedInputDest, l, n);
+            if(weightedInputDest.data == dest.data)
             {
-                int bRow = k * n;
-                for(int j = 0; j < n; j++)
-                {
-                    C.data[cRow + j] += data[aRow + k]
-                                        * other.data[bRow + j];
-                }
+                throw new IllegalArgumentException("Destinations must not share their data");
             }
+            z = weightedInputDest;
+        }
+        if(bias.data == dest.data || bias.data == z.data)
+        {
+            throw new IllegalArgumentException("Destination must not share its data with an operand");
+        }
+
+        z.fill(0.0);
+        DGemm.multiplyAddBiasApply(l, m, n, data, offset, m, 1, other.data, other.offset, n, 1, z.data, z.offset,
+                                   bias.data, bias.offset, weightedInputDest == dest ? null : f, dest.data, dest.offset);
+        return dest;
+    }
+
+    /**
+     * Like {@link #matrixMulAddRowApplyInto(DMatrix, DMatrix, DFunction, DMatrix, DMatrix)}
+     * without a separate destination of z, but reads the right operand and
+     * the bias from buffers, e.g. memory mapped ones. Only a panel of the
+     * right operand at a time is copied to the heap. The results are
+     * bit-identical to the product with the operands on the heap.
+     * @param <M>   type of the destination
+     * @param other right operand of size (columns of this) x (columns of
+     *              dest), row by row from the position of the buffer on
+     * @param bias  one element per column of dest from the position of the
+     *              buffer on
+     * @param f     function, null to store z in dest
+     * @param dest  destination of f(z), must not be this
+     * @return dest
+     */
+    public <M extends DMatrix> M matrixMulAddRowApplyInto(DoubleBuffer other, DoubleBuffer bias, DFunction f, M dest)
+    {
+        if(dest.rows != rows)
+        {
+            throw new SizeException("Destination has wrong size");
+        }
+        if(dest.data == data)
+        {
+            throw new IllegalArgumentException("Destination must not share its data with an operand");
+        }
+
+        int l = rows;
+        int m = columns;
+        int n = dest.columns;
+
+        if(other.remaining() < (long)m * n || bias.remaining() < n)
+        {
+            throw new IllegalArgumentException("Buffer has not enough remaining elements");
+        }
+
+        dest.fill(0.0);
+        DGemm.multiplyAddBiasApply(l, m, n, data, offset, m, 1, other, dest.data, dest.offset, bias, f);
+        return dest;
+    }
+
+    /**
+     * Calculates this^T * other without materialising the transpose.
+     * @param other matrix with the same row count as this
+     * @return product of size (columns of this) x (columns of other)
+     */
+    public DMatrix mulTransposedLeft(DMatrix other)
+    {
+        return mulTransposedLeftInto(other, new DMatrix(columns, other.columns));
+    }
+
+    public <M extends DMatrix> M mulTransposedLeftInto(DMatrix other, M dest)
+    {
+        //mat(m x l)^T * mat(m x n) -> mat(l x n)
+
+        if(rows != other.rows)
+        {
+            throw new SizeException("Matrizes cannot be multiplied");
+        }
+
+        int l = columns;
+        int m = rows;
+        int n = other.columns;
+
+        assertProductDestination(other, dest, l, n);
+        dest.fill(0.0);
+        DGemm.multiplyAdd(l, m, n, data, offset, 1, l, other.data, other.offset, n, 1, dest.data, dest.offset);
+        return dest;
+    }
+
+    /**
+     * Adds a^T * b to this matrix without materialising the transpose, e.g.
+     * to accumulate weight gradients sample by sample.
+     * @param a left operand, transposed
+     * @param b right operand with the same row count as a
+     * @return this
+     */
+    public DMatrix addMulTransposedLeftInPlace(DMatrix a, DMatrix b)
+    {
+        if(a.rows != b.rows)
+        {
+            throw new SizeException("Matrizes cannot be multiplied");
         }
-        return C;
+
+        int l = a.columns;
+        int m = a.rows;
+        int n = b.columns;
+
+        assertDestinationSize(this, l, n);
+        if(data == a.data || data == b.data)
+        {
+            throw new IllegalArgumentException("Destination must not share its data with an operand");
+        }
+        DGemm.multiplyAdd(l, m, n, a.data, a.offset, 1, l, b.data, b.offset, n, 1, data, offset);
+        return this;
+    }
+
+    /**
+     * Calculates this * other^T without materialising the transpose.
+     * @param other matrix with the same column count as this
+     * @return product of size (rows of this) x (rows of other)
+     */
+    public DMatrix mulTransposedRight(DMatrix other)
+    {
+        return mulTransposedRightInto(other, new DMatrix(rows, other.rows));
+    }
+
+    public <M extends DMatrix> M mulTransposedRightInto(DMatrix other, M dest)
+    {
+        //mat(l x m) * mat(n x m)^T -> mat(l x n)
+
+        if(columns != other.columns)
+        {
+            throw new SizeException("Matrizes cannot be multiplied");
+        }
+
+        int l = rows;
+        int m = columns;
+        int n = other.rows;
+
+        assertProductDestination(other, dest, l, n);
+        dest.fill(0.0);
+        DGemm.multiplyAdd(l, m, n, data, offset, m, 1, other.data, other.offset, 1, m, dest.data, dest.offset);
+        return dest;
     }
 
     public DMatrix transpose()
     {
-        DMatrix other = new DMatrix(columns, rows);
+        return transposeInto(new DMatrix(columns, rows));
+    }
+
+    public <M extends DMatrix> M transposeInto(M dest)
+    {
+        assertDestinationSize(dest, columns, rows);
+        if(dest.data == data)
+        {
+            throw new IllegalArgumentException("Cannot transpose in place");
+        }
+
+        double[] d = dest.data;
         for(int i = 0; i < rows; i++)
         {
+            int row = offset + i * columns;
             for(int j = 0; j < columns; j++)
             {
-                other.put(j, i, get(i, j));
+                d[dest.offset + j * rows + i] = data[row + j];
             }
         }
-        return other;
+        return dest;
+    }
+
+    public <M extends DMatrix> M copyInto(M dest)
+    {
+        assertDestinationSize(dest, rows, columns);
+        System.arraycopy(data, offset, dest.data, dest.offset, length());
+        return dest;
+    }
+
+    void fill(double value)
+    {
+        Arrays.fill(data, offset, offset + length(), value);
+    }
+
+    /**
+     * Overwrites all elements, row by row, with the next values of the
+     * buffer and advances its position.
+     * @param src Buffer with at least rows * columns remaining values
+     * @return this
+     */
+    public DMatrix readFrom(DoubleBuffer src)
+    {
+        if(src.remaining() < length())
+        {
+            throw new IllegalArgumentException("Buffer has not enough remaining elements");
+        }
+        src.get(data, offset, length());
+        return this;
+    }
+
+    /**
+     * Puts all elements, row by row, into the buffer and advances its
+     * position.
+     * @param dest Buffer with room for rows * columns values
+     */
+    public void writeTo(DoubleBuffer dest)
+    {
+        dest.put(data, offset, length());
+    }
+
+    protected void assertElementWiseOperands(DMatrix other, DMatrix dest)
+    {
+        assertSameSize(other);
+        assertDestinationSize(dest, rows, columns);
+    }
+
+    protected void assertDestinationSize(DMatrix dest, int rows, int columns)
+    {
+        if(dest.rows != rows || dest.columns != columns)
+        {
+            throw new SizeException("Destination has wrong size");
+        }
+    }
+
+    private void assertProductDestination(DMatrix other, DMatrix dest, int rows, int columns)
+    {
+        assertDestinationSize(dest, rows, columns);
+        if(dest.data == data || dest.data == other.data)
+        {
+            throw new IllegalArgumentException("Destination must not share its data with an operand");
+        }
     }
 
     public boolean isVector()
@@ -350,7 +821,75 @@ public class DMatrix implements Serializable
 
     public DRowVector getRowAsVector(int row)
     {
-        return subMatrix(row, 1, 0, getColumnCount()).asRowVector();
+        return getRowInto(row, new DRowVector(columns));
+    }
+
+    public <M extends DMatrix> M getRowInto(int row, M dest)
+    {
+        validateIndices(row, 0);
+        assertDestinationSize(dest, 1, columns);
+        System.arraycopy(data, offset + row * columns, dest.data, dest.offset, columns);
+        return dest;
+    }
+
+    public void setRow(int row, DMatrix rowVector)
+    {
+        validateIndices(row, 0);
+        if(rowVector.length() != columns)
+        {
+            throw new SizeException("Row length differs from column count");
+        }
+        System.arraycopy(rowVector.data, rowVector.offset, data, offset + row * columns, columns);
+    }
+
+    /**
+     * Adds a row vector to every row of this matrix, e.g. the biases to the
+     * weighted inputs of a whole batch.
+     * @param rowVector Vector with one element per column
+     * @return this
+     */
+    public DMatrix addToEachRowInPlace(DMatrix rowVector)
+    {
+        if(rowVector.length() != columns)
+        {
+            throw new SizeException("Row length differs from column count");
+        }
+
+        double[] v = rowVector.data;
+        int vOff = rowVector.offset;
+        for(int i = 0; i < rows; i++)
+        {
+            int row = offset + i * columns;
+            for(int j = 0; j < columns; j++)
+            {
+                data[row + j] += v[vOff + j];
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Sums up all rows, e.g. the bias gradients of a whole batch.
+     * @param <M>  type of the destination
+     * @param dest destination with one row and one element per column
+     * @return dest
+     */
+    public <M extends DMatrix> M columnSumsInto(M dest)
+    {
+        assertDestinationSize(dest, 1, columns);
+
+        double[] d = dest.data;
+        int dOff = dest.offset;
+        dest.fill(0.0);
+        for(int i = 0; i < rows; i++)
+        {
+            int row = offset + i * columns;
+            for(int j = 0; j < columns; j++)
+            {
+                d[dOff + j] += data[row + j];
+            }
+        }
+        return dest;
     }
 
     public DColumnVector getColumnAsVector(int column)
@@ -360,7 +899,7 @@ public class DMatrix implements Serializable
 
     public boolean isScalar()
     {
-        return data.length == 1;
+        return length() == 1;
     }
 
     public void assertScalar()
@@ -382,7 +921,7 @@ public class DMatrix implements Serializable
         double[][] result = new double[rows][columns];
         for(int i = 0; i < rows; i++)
         {
-            System.arraycopy(data, i * columns, result[i], 0, columns);
+            System.arraycopy(data, offset + i * columns, result[i], 0, columns);
         }
         return result;
     }
@@ -501,13 +1040,13 @@ public class DMatrix implements Serializable
         if(other.getRowCount() != getRowCount())
             throw new SizeException("Could not append matrix, sizes do not fit.");
 
-        double[] newData = new double[data.length + other.data.length];
+        double[] newData = new double[length() + other.length()];
         int newColumns = columns + other.columns;
 
         for(int i = 0; i < rows; i++)
         {
-            System.arraycopy(data, i * columns, newData, i * newColumns, columns);
-            System.arraycopy(other.data, i * other.columns, newData, i * newColumns + columns, other.columns);
+            System.arraycopy(data, offset + i * columns, newData, i * newColumns, columns);
+            System.arraycopy(other.data, other.offset + i * other.columns, newData, i * newColumns + columns, other.columns);
         }
 
         return new DMatrix(newData, newColumns);
@@ -518,9 +1057,9 @@ public class DMatrix implements Serializable
         if(other.getColumnCount() != getColumnCount())
             throw new SizeException("Could not append matrix, sizes do not fit.");
 
-        double[] newData = new double[data.length + other.data.length];
-        System.arraycopy(data, 0, newData, 0, data.length);
-        System.arraycopy(other.data, 0, newData, data.length, other.data.length);
+        double[] newData = new double[length() + other.length()];
+        System.arraycopy(data, offset, newData, 0, length());
+        System.arraycopy(other.data, other.offset, newData, length(), other.length());
         return new DMatrix(newData, columns);
     }
 
@@ -533,7 +1072,18 @@ public class DMatrix implements Serializable
         if(obj instanceof DMatrix)
         {
             DMatrix other = (DMatrix)obj;
-            return sameSize(other) && Arrays.equals(data, other.data);
+            if(!sameSize(other))
+            {
+                return false;
+            }
+            for(int i = 0; i < length(); i++)
+            {
+                if(Double.doubleToLongBits(data[offset + i]) != Double.doubleToLongBits(other.data[other.offset + i]))
+                {
+                    return false;
+                }
+            }
+            return true;
         }
 
         return false;
@@ -545,7 +1095,11 @@ public class DMatrix implements Serializable
         int hash = 7;
         hash = 83 * hash + this.rows;
         hash = 83 * hash + this.columns;
-        hash = 83 * hash + Arrays.hashCode(this.data);
+        for(int i = 0; i < length(); i++)
+        {
+            long bits = Double.doubleToLongBits(data[offset + i]);
+            hash = 31 * hash + (int)(bits ^ (bits >>> 32));
+        }
         return hash;
     }
 
@@ -0,0 +1,430 @@
+package de.mirkoruether.linalg;
+
+/**
+ * Single-precision twin of {@link DGemm}, used by {@link FMatrix}. Block sizes
+ * are scaled to the 4 byte element size, so the same cache levels are used.
+ *
+ * Computes C += op(A) * op(B) on row-major arrays. Operands are addressed via
+ * an offset and row and column strides, so transposed operands and views of
+ * rows need no copy. Large products are cache blocked and packed by
+ * {@link GemmBlocking} like the double-precision ones, small products use a
+ * plain loop. Both paths add the products in ascending k order, so the
+ * results are bit-identical to the naive i-k-j triple loop in float.
+ *
+ * The epilogue adds the bias and applies the activation function like the
+ * epilogue of {@link DGemm}. The functions are the double-precision array
+ * functions, so each finished tile row is widened into a small per-thread
+ * double buffer, evaluated by the loop of the function and rounded back.
+ */
+final class FGemm
+{
+    private static final int MR = GemmBlocking.MR;
+    private static final int NR = GemmBlocking.NR;
+
+    private static final int KC_MAX = 512;
+    private static final int L2_BLOCK_FLOATS = 32768;
+    private static final int L3_BLOCK_FLOATS = 262144;
+
+    private static final ThreadLocal<float[][]> WORKSPACE = ThreadLocal.withInitial(() -> new float[2][0]);
+    private static final ThreadLocal<double[][]> SCRATCH = ThreadLocal.withInitial(() -> new double[1][0]);
+
+    /**
+     * c(l x n) += a(l x m) * b(m x n). Element (i, k) of a is read from
+     * a[aOff + i * ars + k * acs], element (k, j) of b from
+     * b[bOff + k * brs + j * bcs], c is dense row-major from cOff on.
+     */
+    static void multiplyAdd(int l, int m, int n,
+                            float[] a, int aOff, int ars, int acs,
+                            float[] b, int bOff, int brs, int bcs,
+                            float[] c, int cOff)
+    {
+        if(GemmBlocking.isSmall(l, m, n))
+        {
+            multiplyAddSmall(l, m, n, a, aOff, ars, acs, b, bOff, brs, bcs, c, cOff);
+        }
+        else
+        {
+            new Blocked(a, aOff, ars, acs, b, bOff, brs, bcs, c, cOff, null).multiplyAdd(l, m, n);
+        }
+    }
+
+    /**
+     * Like {@link #multiplyAdd(int, int, int, float[], int, int, int, float[], int, int, int, float[], int)},
+     * then c(i, j) += bias[biasOff + j] and, if f is not null,
+     * act(i, j) = f(c(i, j)). act is dense row-major like c from actOff on
+     * and may be c.
+     */
+    static void multiplyAddBiasApply(int l, int m, int n,
+                                     float[] a, int aOff, int ars, int acs,
+                                     float[] b, int bOff, int brs, int bcs,
+                                     float[] c, int cOff, float[] bias, int biasOff, DArrayFunction f, float[] act, int actOff)
+    {
+        Epilogue epilogue = new Epilogue(n, bias, biasOff, f, act, actOff - cOff);
+        if(GemmBlocking.isSmall(l, m, n))
+        {
+            multiplyAddSmall(l, m, n, a, aOff, ars, acs, b, bOff, brs, bcs, c, cOff);
+            epilogue.apply(c, cOff, 0, n, l);
+        }
+        else
+        {
+            new Blocked(a, aOff, ars, acs, b, bOff, brs, bcs, c, cOff, epilogue).multiplyAdd(l, m, n);
+        }
+    }
+
+    /**
+     * @return Per-thread double buffer of at least the given length
+     */
+    static double[] scratch(int length)
+    {
+        double[][] ws = SCRATCH.get();
+        if(ws[0].length < length)
+        {
+            ws[0] = new double[length];
+        }
+        return ws[0];
+    }
+
+    /**
+     * Evaluates f on src[srcOffset..srcOffset+length) in double precision and
+     * stores the result rounded to float in dest from destOffset on.
+     */
+    static void apply(DArrayFunction f, float[] src, int srcOffset, float[] dest, int destOffset, int length, double[] scratch)
+    {
+        for(int i = 0; i < length; i++)
+        {
+            scratch[i] = src[srcOffset + i];
+        }
+        f.applyArray(scratch, 0, scratch, 0, length);
+        for(int i = 0; i < length; i++)
+        {
+            dest[destOffset + i] = (float)scratch[i];
+        }
+    }
+
+    private static void multiplyAddSmall(int l, int m, int n,
+                                         float[] a, int aOff, int ars, int acs,
+                                         float[] b, int bOff, int brs, int bcs,
+                                         float[] c, int cOff)
+    {
+        if(brs == 1 && bcs != 1)
+        {
+            multiplyAddDot(l, m, n, a, aOff, ars, acs, b, bOff, bcs, c, cOff);
+        }
+        else
+        {
+            multiplyAddSimple(l, m, n, a, aOff, ars, acs, b, bOff, brs, bcs, c, cOff);
+        }
+    }
+
+    private static void multiplyAddSimple(int l, int m, int n,
+                                          float[] a, int aOff, int ars, int acs,
+                                          float[] b, int bOff, int brs, int bcs,
+                                          float[] c, int cOff)
+    {
+        for(int i = 0; i < l; i++)
+        {
+            int aRow = aOff + i * ars;
+            int cRow = cOff + i * n;
+            for(int k = 0; k < m; k++)
+            {
+                float aik = a[aRow + k * acs];
+                int bRow = bOff + k * brs;
+                if(bcs == 1)
+                {
+                    for(int j = 0; j < n; j++)
+                    {
+                        c[cRow + j] += aik * b[bRow + j];
+                    }
+                }
+                else
+                {
+                    for(int j = 0; j < n; j++)
+                    {
+                        c[cRow + j] += aik * b[bRow + j * bcs];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * i-j-k variant for a transposed B (columns of op(B) are contiguous), so
+     * the innermost loop is a dot product over contiguous memory. NR columns
+     * are computed at once to share the loads of a and to keep NR independent
+     * sums in flight.
+     */
+    private static void multiplyAddDot(int l, int m, int n,
+                                       float[] a, int aOff, int ars, int acs,
+                                       float[] b, int bOff, int bcs,
+                                       float[] c, int cOff)
+    {
+        for(int i = 0; i < l; i++)
+        {
+            int aRow = aOff + i * ars;
+            int cRow = cOff + i * n;
+            int j = 0;
+            for(; j + NR <= n; j += NR)
+            {
+                int b0 = bOff + j * bcs;
+                int b1 = b0 + bcs;
+                int b2 = b1 + bcs;
+                int b3 = b2 + bcs;
+                float s0 = c[cRow + j];
+                float s1 = c[cRow + j + 1];
+                float s2 = c[cRow + j + 2];
+                float s3 = c[cRow + j + 3];
+                for(int k = 0; k < m; k++)
+                {
+                    float aik = a[aRow + k * acs];
+                    s0 += aik * b[b0 + k];
+                    s1 += aik * b[b1 + k];
+                    s2 += aik * b[b2 + k];
+                    s3 += aik * b[b3 + k];
+                }
+                c[cRow + j] = s0;
+                c[cRow + j + 1] = s1;
+                c[cRow + j + 2] = s2;
+                c[cRow + j + 3] = s3;
+            }
+            for(; j < n; j++)
+            {
+                int bCol = bOff + j * bcs;
+                float sum = c[cRow + j];
+                for(int k = 0; k < m; k++)
+                {
+                    sum += a[aRow + k * acs] * b[bCol + k];
+                }
+                c[cRow + j] = sum;
+            }
+        }
+    }
+
+    /**
+     * Blocked product of float arrays, optionally finishing each tile with an
+     * epilogue.
+     */
+    private static final class Blocked extends GemmBlocking
+    {
+        private final float[] a;
+        private final float[] b;
+        private final float[] c;
+        private final Epilogue epilogue;
+        private float[] packedA;
+        private float[] packedB;
+
+        private Blocked(float[] a, int aOff, int ars, int acs,
+                        float[] b, int bOff, int brs, int bcs,
+                        float[] c, int cOff, Epilogue epilogue)
+        {
+            super(KC_MAX, L2_BLOCK_FLOATS, L3_BLOCK_FLOATS, aOff, ars, acs, bOff, brs, bcs, cOff);
+            this.a = a;
+            this.b = b;
+            this.c = c;
+            this.epilogue = epilogue;
+        }
+
+        @Override
+        protected void allocate(int packedALength, int packedBLength)
+        {
+            float[][] ws = WORKSPACE.get();
+            if(ws[0].length < packedALength)
+            {
+                ws[0] = new float[packedALength];
+            }
+            if(ws[1].length < packedBLength)
+            {
+                ws[1] = new float[packedBLength];
+            }
+            packedA = ws[0];
+            packedB = ws[1];
+        }
+
+        @Override
+        protected void packA(int src, int stride, int count, int dest)
+        {
+            pack(a, src, stride, count, packedA, dest, MR);
+        }
+
+        @Override
+        protected void packB(int src, int stride, int count, int dest)
+        {
+            pack(b, src, stride, count, packedB, dest, NR);
+        }
+
+        @Override
+        protected void multiplyTile(int kc, int aOff, int bOff, int cOff, int ldc, int mr, int nr)
+        {
+            if(mr == MR && nr == NR)
+            {
+                kernel4x4(kc, packedA, aOff, packedB, bOff, c, cOff, ldc);
+            }
+            else
+            {
+                kernelEdge(kc, mr, nr, packedA, aOff, packedB, bOff, c, cOff, ldc);
+            }
+        }
+
+        @Override
+        protected void finishTile(int offset, int column, int width, int rowCount)
+        {
+            if(epilogue != null)
+            {
+                epilogue.apply(c, offset, column, width, rowCount);
+            }
+        }
+    }
+
+    /**
+     * Copies count elements, the t-th from src + t * stride, to dest and pads
+     * them with zeros to width elements.
+     */
+    private static void pack(float[] src, int from, int stride, int count, float[] dest, int to, int width)
+    {
+        int t = 0;
+        for(; t < count; t++)
+        {
+            dest[to + t] = src[from + t * stride];
+        }
+        for(; t < width; t++)
+        {
+            dest[to + t] = 0.0f;
+        }
+    }
+
+    private static void kernel4x4(int kc, float[] pa, int aOff, float[] pb, int bOff, float[] c, int cOff, int ldc)
+    {
+        int c0 = cOff;
+        int c1 = c0 + ldc;
+        int c2 = c1 + ldc;
+        int c3 = c2 + ldc;
+
+        float c00 = c[c0], c01 = c[c0 + 1], c02 = c[c0 + 2], c03 = c[c0 + 3];
+        float c10 = c[c1], c11 = c[c1 + 1], c12 = c[c1 + 2], c13 = c[c1 + 3];
+        float c20 = c[c2], c21 = c[c2 + 1], c22 = c[c2 + 2], c23 = c[c2 + 3];
+        float c30 = c[c3], c31 = c[c3 + 1], c32 = c[c3 + 2], c33 = c[c3 + 3];
+
+        int ai = aOff;
+        int bi = bOff;
+        for(int k = 0; k < kc; k++)
+        {
+            float a0 = pa[ai];
+            float a1 = pa[ai + 1];
+            float a2 = pa[ai + 2];
+            float a3 = pa[ai + 3];
+            float b0 = pb[bi];
+            float b1 = pb[bi + 1];
+            float b2 = pb[bi + 2];
+            float b3 = pb[bi + 3];
+
+            c00 += a0 * b0;
+            c01 += a0 * b1;
+            c02 += a0 * b2;
+            c03 += a0 * b3;
+            c10 += a1 * b0;
+            c11 += a1 * b1;
+            c12 += a1 * b2;
+            c13 += a1 * b3;
+            c20 += a2 * b0;
+            c21 += a2 * b1;
+            c22 += a2 * b2;
+            c23 += a2 * b3;
+            c30 += a3 * b0;
+            c31 += a3 * b1;
+            c32 += a3 * b2;
+            c33 += a3 * b3;
+
+            ai += MR;
+            bi += NR;
+        }
+
+        c[c0] = c00;
+        c[c0 + 1] = c01;
+        c[c0 + 2] = c02;
+        c[c0 + 3] = c03;
+        c[c1] = c10;
+        c[c1 + 1] = c11;
+        c[c1 + 2] = c12;
+        c[c1 + 3] = c13;
+        c[c2] = c20;
+        c[c2 + 1] = c21;
+        c[c2 + 2] = c22;
+        c[c2 + 3] = c23;
+        c[c3] = c30;
+        c[c3 + 1] = c31;
+        c[c3 + 2] = c32;
+        c[c3 + 3] = c33;
+    }
+
+    private static void kernelEdge(int kc, int mr, int nr, float[] pa, int aOff, float[] pb, int bOff, float[] c, int cOff, int ldc)
+    {
+        for(int r = 0; r < mr; r++)
+        {
+            int cRow = cOff + r * ldc;
+            for(int s = 0; s < nr; s++)
+            {
+                float sum = c[cRow + s];
+                int ai = aOff + r;
+                int bi = bOff + s;
+                for(int k = 0; k < kc; k++)
+                {
+                    sum += pa[ai] * pb[bi];
+                    ai += MR;
+                    bi += NR;
+                }
+                c[cRow + s] = sum;
+            }
+        }
+    }
+
+    private static final class Epilogue
+    {
+        private final int ldc;
+        private final float[] bias;
+        private final int biasOff;
+        private final DArrayFunction f;
+        private final float[] act;
+        private final int actShift;
+        private final double[] scratch;
+
+        /**
+         * @param bias     Array holding the n elements of the bias from
+         *                 biasOff on
+         * @param actShift Offset of act(i, j) in act minus the offset of
+         *                 c(i, j) in c
+         */
+        private Epilogue(int n, float[] bias, int biasOff, DArrayFunction f, float[] act, int actShift)
+        {
+            this.ldc = n;
+            this.bias = bias;
+            this.biasOff = biasOff;
+            this.f = f;
+            this.act = act;
+            this.actShift = actShift;
+            this.scratch = f == null ? null : scratch(n);
+        }
+
+        /**
+         * Finishes the block of c with the given row count, which starts at
+         * offset and covers the columns column..column+width.
+         */
+        private void apply(float[] c, int offset, int column, int width, int rowCount)
+        {
+            for(int r = 0; r < rowCount; r++)
+            {
+                int row = offset + r * ldc;
+                for(int s = 0; s < width; s++)
+                {
+                    c[row + s] += bias[biasOff + column + s];
+                }
+                if(f != null)
+                {
+                    FGemm.apply(f, c, row, act, row + actShift, width, scratch);
+                }
+            }
+        }
+    }
+
+    private FGemm()
+    {
+    }
+}
@@ -0,0 +1,386 @@
+package de.mirkoruether.linalg;
+
+import java.util.Arrays;
+
+/**
+ * Dense single-precision matrix for the float path, i.e. the parameters,
+ * activations and errors of single-precision inference and training. Halves
+ * memory footprint and bandwidth of the matrix products compared to
+ * {@link DMatrix}, at the cost of accuracy.
+ *
+ * Only the operations of a forward and a backward pass are provided. The
+ * products run on {@link FGemm}, which adds the bias and applies the
+ * activation function per tile like
+ * {@link DMatrix#matrixMulAddRowApplyInto(DMatrix, DMatrix, DFunction, DMatrix, DMatrix)}.
+ * Activation functions and their derivatives are the double-precision array
+ * functions of the double-precision path, evaluated on a short double copy
+ * of each tile or row.
+ */
+public class FMatrix
+{
+    protected final float[] data;
+    /**
+     * Index of the first element in data, which is not 0 for a view of rows
+     * of another matrix.
+     */
+    protected final int offset;
+    protected final int columns;
+    protected final int rows;
+
+    public FMatrix(int rows, int columns)
+    {
+        this.data = new float[rows * columns];
+        this.offset = 0;
+        this.columns = columns;
+        this.rows = rows;
+    }
+
+    private FMatrix(FMatrix source, int fromRow, int rowCount)
+    {
+        this.data = source.data;
+        this.offset = source.offset + fromRow * source.columns;
+        this.columns = source.columns;
+        this.rows = rowCount;
+    }
+
+    /**
+     * Creates a single-precision copy of a double-precision matrix.
+     * @param m Matrix to convert
+     * @return Converted matrix
+     */
+    public static FMatrix fromDoubleMatrix(DMatrix m)
+    {
+        return new FMatrix(m.rows, m.columns).copyFrom(m);
+    }
+
+    /**
+     * Returns a view of a range of rows which shares the data with this
+     * matrix, like {@link DMatrix#viewRows(int, int)}.
+     * @param fromRow  First row of the view
+     * @param rowCount Number of rows of the view
+     * @return View of the rows fromRow to fromRow + rowCount - 1
+     */
+    public FMatrix viewRows(int fromRow, int rowCount)
+    {
+        if(fromRow < 0 || rowCount < 0 || fromRow + rowCount > rows)
+        {
+            throw new IndexOutOfBoundsException("Rows " + fromRow + " to " + (fromRow + rowCount - 1)
+                                                + " are out of bound for Matrix with " + rows + " rows");
+        }
+        return new FMatrix(this, fromRow, rowCount);
+    }
+
+    /**
+     * Overwrites this matrix with the values of a double-precision matrix of
+     * the same size, rounded to float.
+     * @param src Matrix to convert
+     * @return this
+     */
+    public FMatrix copyFrom(DMatrix src)
+    {
+        if(src.rows != rows || src.columns != columns)
+        {
+            throw new SizeException("Sizes differ");
+        }
+        for(int i = 0; i < length(); i++)
+        {
+            data[offset + i] = (float)src.data[src.offset + i];
+        }
+        return this;
+    }
+
+    public DMatrix toDoubleMatrix()
+    {
+        return toDoubleMatrixInto(new DMatrix(rows, columns));
+    }
+
+    /**
+     * Copies the values into a double-precision matrix of the same size.
+     * @param <M>  type of the destination
+     * @param dest Destination
+     * @return dest
+     */
+    public <M extends DMatrix> M toDoubleMatrixInto(M dest)
+    {
+        if(dest.rows != rows || dest.columns != columns)
+        {
+            throw new SizeException("Sizes differ");
+        }
+        for(int i = 0; i < length(); i++)
+        {
+            dest.data[dest.offset + i] = data[offset + i];
+        }
+        return dest;
+    }
+
+    public FMatrix copyInto(FMatrix dest)
+    {
+        assertSameSize(dest);
+        System.arraycopy(data, offset, dest.data, dest.offset, length());
+        return dest;
+    }
+
+    public int getRowCount()
+    {
+        return rows;
+    }
+
+    public int getColumnCount()
+    {
+        return columns;
+    }
+
+    private int length()
+    {
+        return rows * columns;
+    }
+
+    public float get(int row, int column)
+    {
+        checkIndex(row, column);
+        return data[offset + columns * row + column];
+    }
+
+    public void put(int row, int column, float value)
+    {
+        checkIndex(row, column);
+        data[offset + columns * row + column] = value;
+    }
+
+    /**
+     * Copies a row, widened to double, into a vector.
+     * @param row  Row index
+     * @param dest Vector with one element per column
+     * @return dest
+     */
+    public DRowVector getRowInto(int row, DRowVector dest)
+    {
+        checkIndex(row, 0);
+        if(dest.getLength() != columns)
+        {
+            throw new SizeException("Destination has the wrong size");
+        }
+        int start = offset + row * columns;
+        for(int j = 0; j < columns; j++)
+        {
+            dest.data[dest.offset + j] = data[start + j];
+        }
+        return dest;
+    }
+
+    /**
+     * Overwrites a row with the values of a vector, rounded to float.
+     * @param row Row index
+     * @param src Vector with one element per column
+     */
+    public void setRow(int row, DRowVector src)
+    {
+        checkIndex(row, 0);
+        if(src.getLength() != columns)
+        {
+            throw new SizeException("Vector has the wrong size");
+        }
+        int start = offset + row * columns;
+        for(int j = 0; j < columns; j++)
+        {
+            data[start + j] = (float)src.data[src.offset + j];
+        }
+    }
+
+    private void checkIndex(int row, int column)
+    {
+        if(row < 0 || row >= rows || column < 0 || column >= columns)
+        {
+            throw new IndexOutOfBoundsException("Index (" + row + ", " + column + ") is out of bound for Matrix of size "
+                                                + rows + " x " + columns);
+        }
+    }
+
+    private void assertSameSize(FMatrix other)
+    {
+        if(other.rows != rows || other.columns != columns)
+        {
+            throw new SizeException("Sizes differ");
+        }
+    }
+
+    private void fill(float value)
+    {
+        Arrays.fill(data, offset, offset + length(), value);
+    }
+
+    public FMatrix subInto(FMatrix other, FMatrix dest)
+    {
+        assertSameSize(other);
+        assertSameSize(dest);
+        for(int i = 0; i < length(); i++)
+        {
+            dest.data[dest.offset + i] = data[offset + i] - other.data[other.offset + i];
+        }
+        return dest;
+    }
+
+    public FMatrix elementWiseMulInPlace(FMatrix other)
+    {
+        assertSameSize(other);
+        for(int i = 0; i < length(); i++)
+        {
+            data[offset + i] *= other.data[other.offset + i];
+        }
+        return this;
+    }
+
+    /**
+     * Applies an element-wise function, evaluated in double precision.
+     * @param f    Function
+     * @param dest Destination, may be this
+     * @return dest
+     */
+    public FMatrix applyFunctionElementWiseInto(DArrayFunction f, FMatrix dest)
+    {
+        assertSameSize(dest);
+        double[] row = FGemm.scratch(columns);
+        for(int r = 0; r < rows; r++)
+        {
+            FGemm.apply(f, data, offset + r * columns, dest.data, dest.offset + r * columns, columns, row);
+        }
+        return dest;
+    }
+
+    /**
+     * Applies a function of a whole row, e.g. softmax, to every row. The
+     * function is evaluated in double precision.
+     * @param f Function
+     * @return this
+     */
+    public FMatrix applyFunctionRowWiseInPlace(DArrayFunction f)
+    {
+        return applyFunctionElementWiseInto(f, this);
+    }
+
+    /**
+     * Calculates f(this * other + bias) in one pass, the bias is added to
+     * every row. The products are summed up in float in ascending k order,
+     * so the result is bit-identical to the naive triple loop.
+     * @param other Right operand
+     * @param bias  Matrix with one row and one element per column of other
+     * @param f     Element-wise function, null to store this * other + bias
+     * @param dest  Destination, must not be an operand
+     * @return dest
+     */
+    public FMatrix matrixMulAddRowApplyInto(FMatrix other, FMatrix bias, DArrayFunction f, FMatrix dest)
+    {
+        return matrixMulAddRowApplyInto(other, bias, f, null, dest);
+    }
+
+    /**
+     * Like {@link #matrixMulAddRowApplyInto(FMatrix, FMatrix, DArrayFunction, FMatrix)},
+     * but also keeps the weighted inputs this * other + bias.
+     * @param other             Right operand
+     * @param bias              Matrix with one row and one element per
+     *                          column of other
+     * @param f                 Element-wise function
+     * @param weightedInputDest Destination of this * other + bias, null to
+     *                          not keep them. If it is dest, f is not
+     *                          applied.
+     * @param dest              Destination of f(this * other + bias), must
+     *                          not be an operand
+     * @return dest
+     */
+    public FMatrix matrixMulAddRowApplyInto(FMatrix other, FMatrix bias, DArrayFunction f, FMatrix weightedInputDest, FMatrix dest)
+    {
+        if(columns != other.rows)
+        {
+            throw new SizeException("Matrizes cannot be multiplied");
+        }
+        if(bias.rows != 1 || bias.columns != other.columns)
+        {
+            throw new SizeException("Bias has to be a row vector with one element per column");
+        }
+        FMatrix z = weightedInputDest == null ? dest : weightedInputDest;
+        assertProductDestination(other, z, rows, other.columns);
+        assertProductDestination(other, dest, rows, other.columns);
+        if(z.data == bias.data || dest.data == bias.data)
+        {
+            throw new IllegalArgumentException("Destination must not share its data with an operand");
+        }
+
+        z.fill(0.0f);
+        FGemm.multiplyAddBiasApply(rows, columns, other.columns, data, offset, columns, 1, other.data, other.offset, other.columns, 1,
+                                   z.data, z.offset, bias.data, bias.offset, weightedInputDest == dest ? null : f, dest.data, dest.offset);
+        return dest;
+    }
+
+    /**
+     * Calculates this^T * other without transposing this.
+     * @param other Right operand with as many rows as this
+     * @param dest  Destination, must not be an operand
+     * @return dest
+     */
+    public FMatrix mulTransposedLeftInto(FMatrix other, FMatrix dest)
+    {
+        if(rows != other.rows)
+        {
+            throw new SizeException("Matrizes cannot be multiplied");
+        }
+        assertProductDestination(other, dest, columns, other.columns);
+        dest.fill(0.0f);
+        FGemm.multiplyAdd(columns, rows, other.columns, data, offset, 1, columns, other.data, other.offset, other.columns, 1,
+                          dest.data, dest.offset);
+        return dest;
+    }
+
+    /**
+     * Calculates this * other^T without transposing other.
+     * @param other Right operand with as many columns as this
+     * @param dest  Destination, must not be an operand
+     * @return dest
+     */
+    public FMatrix mulTransposedRightInto(FMatrix other, FMatrix dest)
+    {
+        if(columns != other.columns)
+        {
+            throw new SizeException("Matrizes cannot be multiplied");
+        }
+        assertProductDestination(other, dest, rows, other.rows);
+        dest.fill(0.0f);
+        FGemm.multiplyAdd(rows, columns, other.rows, data, offset, columns, 1, other.data, other.offset, 1, other.columns,
+                          dest.data, dest.offset);
+        return dest;
+    }
+
+    private void assertProductDestination(FMatrix other, FMatrix dest, int l, int n)
+    {
+        if(dest.rows != l || dest.columns != n)
+        {
+            throw new SizeException("Destination has the wrong size");
+        }
+        if(dest.data == data || dest.data == other.data)
+        {
+            throw new IllegalArgumentException("Destination must not share its data with an operand");
+        }
+    }
+
+    /**
+     * Sums up the rows, summed in float in ascending row order.
+     * @param dest Destination with one row and one element per column
+     * @return dest
+     */
+    public FMatrix columnSumsInto(FMatrix dest)
+    {
+        if(dest.rows != 1 || dest.columns != columns)
+        {
+            throw new SizeException("Destination has the wrong size");
+        }
+        dest.fill(0.0f);
+        for(int r = 0; r < rows; r++)
+        {
+            int row = offset + r * columns;
+            for(int j = 0; j < columns; j++)
+            {
+                dest.data[dest.offset + j] += data[row + j];
+            }
+        }
+        return dest;
+    }
+}
@@ -0,0 +1,186 @@
+package de.mirkoruether.linalg;
+
+/**
+ * Cache blocking of the products of {@link DGemm} and {@link FGemm}, which
+ * only differ in the element type.
+ *
+ * A product c(l x n) += a(l x m) * b(m x n) is cut into KC x NC panels of B,
+ * which stay in L2/L3, and MC x KC blocks of A, which stay in L2. Both are
+ * packed into contiguous micro panels: A into row panels of height MR, B into
+ * column panels of width NR, each stored k-major and padded with zeros. An
+ * MR x NR register tile consumes one panel of each. This class runs the loop
+ * nest and lays out the panels, a subclass per element type moves the
+ * elements and implements the register tile.
+ *
+ * Element (i, k) of a is read from aOff + i * ars + k * acs, element (k, j)
+ * of b from bOff + k * brs + j * bcs, c is dense row-major from cOff on.
+ * The KC panels are visited in ascending k order, so every element of C sums
+ * up its products in ascending k order like the naive i-k-j loop.
+ */
+abstract class GemmBlocking
+{
+    static final int MR = 4;
+    static final int NR = 4;
+
+    private static final long BLOCKING_MIN_FLOPS = 32768;
+
+    private final int kcMax;
+    private final int l2Block;
+    private final int l3Block;
+
+    private final int aOff;
+    private final int ars;
+    private final int acs;
+    private final int bOff;
+    private final int brs;
+    private final int bcs;
+    private final int cOff;
+
+    /**
+     * @param kcMax   Maximum depth of a panel
+     * @param l2Block Number of elements of a block of A
+     * @param l3Block Number of elements of a panel of B
+     */
+    GemmBlocking(int kcMax, int l2Block, int l3Block,
+                 int aOff, int ars, int acs,
+                 int bOff, int brs, int bcs,
+                 int cOff)
+    {
+        this.kcMax = kcMax;
+        this.l2Block = l2Block;
+        this.l3Block = l3Block;
+        this.aOff = aOff;
+        this.ars = ars;
+        this.acs = acs;
+        this.bOff = bOff;
+        this.brs = brs;
+        this.bcs = bcs;
+        this.cOff = cOff;
+    }
+
+    /**
+     * @return true if packing would cost more than it saves, e.g. for a row
+     *         vector times a matrix
+     */
+    static boolean isSmall(int l, int m, int n)
+    {
+        return l < MR || n < NR || m < MR || (long)l * m * n < BLOCKING_MIN_FLOPS;
+    }
+
+    /**
+     * Runs the blocked product c(l x n) += a(l x m) * b(m x n).
+     */
+    final void multiplyAdd(int l, int m, int n)
+    {
+        int kc = Math.min(m, kcMax);
+        int mc = Math.min(roundUp(l, MR), Math.max(MR, l2Block / kc / MR * MR));
+        int nc = Math.min(roundUp(n, NR), Math.max(NR, l3Block / kc / NR * NR));
+        allocate(mc * kc, kc * nc);
+
+        for(int jc = 0; jc < n; jc += nc)
+        {
+            int ncCur = Math.min(nc, n - jc);
+            for(int pc = 0; pc < m; pc += kc)
+            {
+                int kcCur = Math.min(kc, m - pc);
+                boolean lastPanel = pc + kcCur == m;
+                packPanelOfB(pc, jc, kcCur, ncCur);
+
+                for(int ic = 0; ic < l; ic += mc)
+                {
+                    int mcCur = Math.min(mc, l - ic);
+                    packBlockOfA(ic, pc, mcCur, kcCur);
+
+                    for(int jr = 0; jr < ncCur; jr += NR)
+                    {
+                        int nr = Math.min(NR, ncCur - jr);
+                        for(int ir = 0; ir < mcCur; ir += MR)
+                        {
+                            int mr = Math.min(MR, mcCur - ir);
+                            int tile = cOff + (ic + ir) * n + jc + jr;
+                            multiplyTile(kcCur, ir * kcCur, jr * kcCur, tile, n, mr, nr);
+                            if(lastPanel)
+                            {
+                                finishTile(tile, jc + jr, nr, mr);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Packs the block a[i0..i0+mc) x [k0..k0+kc) into row panels of height MR,
+     * each stored k-major: panel p holds a(i0+p*MR+r, k0+k) at
+     * p*MR*kc + k*MR + r.
+     */
+    private void packBlockOfA(int i0, int k0, int mc, int kc)
+    {
+        int idx = 0;
+        for(int ir = 0; ir < mc; ir += MR)
+        {
+            int mr = Math.min(MR, mc - ir);
+            for(int k = 0; k < kc; k++)
+            {
+                packA(aOff + (i0 + ir) * ars + (k0 + k) * acs, ars, mr, idx);
+                idx += MR;
+            }
+        }
+    }
+
+    /**
+     * Packs the block b[k0..k0+kc) x [j0..j0+nc) into column panels of width
+     * NR, each stored k-major: panel p holds b(k0+k, j0+p*NR+s) at
+     * p*NR*kc + k*NR + s.
+     */
+    private void packPanelOfB(int k0, int j0, int kc, int nc)
+    {
+        int idx = 0;
+        for(int jr = 0; jr < nc; jr += NR)
+        {
+            int nr = Math.min(NR, nc - jr);
+            for(int k = 0; k < kc; k++)
+            {
+                packB(bOff + (k0 + k) * brs + (j0 + jr) * bcs, bcs, nr, idx);
+                idx += NR;
+            }
+        }
+    }
+
+    /**
+     * Provides the packing buffers for the product.
+     */
+    protected abstract void allocate(int packedALength, int packedBLength);
+
+    /**
+     * Copies count elements of a, the t-th from src + t * stride, to the
+     * packed block from dest on and pads them with zeros to MR elements.
+     */
+    protected abstract void packA(int src, int stride, int count, int dest);
+
+    /**
+     * Copies count elements of b, the t-th from src + t * stride, to the
+     * packed panel from dest on and pads them with zeros to NR elements.
+     */
+    protected abstract void packB(int src, int stride, int count, int dest);
+
+    /**
+     * Adds the product of the packed panels of A and B, which start at aOff
+     * and bOff and have the depth kc, to the mr x nr tile of c at cOff.
+     */
+    protected abstract void multiplyTile(int kc, int aOff, int bOff, int cOff, int ldc, int mr, int nr);
+
+    /**
+     * Called when the rowCount x width tile of c at offset, which starts in
+     * the given column, is final. Does nothing by default.
+     */
+    protected void finishTile(int offset, int column, int width, int rowCount)
+    {
+    }
+
+    private static int roundUp(int value, int multiple)
+    {
+        return (value + multiple - 1) / multiple * multiple;
+    }
+}
@@ -0,0 +1,59 @@
+package de.mirkoruether.linalg;
+
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class DAbstractVectorTest
+{
+    @Test
+    public void innerProductAndNormMatchTheSequentialSum()
+    {
+        Random r = new Random(3);
+        for(int length = 1; length < 40; length++)
+        {
+            DRowVector a = randomVector(r, length);
+            DRowVector b = randomVector(r, length);
+
+            double expected = 0.0;
+            double square = 0.0;
+            for(int i = 0; i < length; i++)
+            {
+                expected += a.get(i) * b.get(i);
+                square += a.get(i) * a.get(i);
+            }
+
+            assertEquals(expected, a.innerProduct(b), 0.0);
+            assertEquals(Math.sqrt(square), a.norm(), 0.0);
+        }
+    }
+
+    @Test
+    public void extremaMatchTheComparatorSearch()
+    {
+        DRowVector v = new DRowVector(0.5, 2.0, -1.0, 2.0, -1.0, 0.0);
+
+        assertEquals(v.indexOfHighestRank((a, b) -> a > b ? 1 : -1), v.indexOfMaxium());
+        assertEquals(v.indexOfHighestRank((a, b) -> a < b ? 1 : -1), v.indexOfMinimum());
+        assertEquals(1, v.indexOfMaxium());
+        assertEquals(2, v.indexOfMinimum());
+    }
+
+    @Test(expected = SizeException.class)
+    public void innerProductRejectsDifferentLengths()
+    {
+        new DRowVector(3).innerProduct(new DRowVector(4));
+    }
+
+    private static DRowVector randomVector(Random r, int length)
+    {
+        DRowVector v = new DRowVector(length);
+        for(int i = 0; i < length; i++)
+        {
+            // Mixed magnitudes make the rounding depend on the summation order
+            v.put(i, r.nextGaussian() * Math.pow(10, r.nextInt(16) - 8));
+        }
+        return v;
+    }
+}
@@ -0,0 +1,260 @@
+package de.mirkoruether.linalg;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class DGemmTest
+{
+    @Test
+    public void smallProductMatchesNaiveLoop()
+    {
+        checkProduct(1, 784, 30);
+        checkProduct(3, 5, 2);
+        checkProduct(30, 3, 30);
+    }
+
+    @Test
+    public void blockedProductMatchesNaiveLoop()
+    {
+        checkProduct(64, 64, 64);
+        // Edge tiles in both directions
+        checkProduct(37, 53, 19);
+        // More than one k panel
+        checkProduct(9, 600, 13);
+        // More than one column block and one row block
+        checkProduct(70, 300, 530);
+    }
+
+    @Test
+    public void addMulTransposedLeftAccumulates()
+    {
+        Random r = new Random(11);
+        DMatrix a = randomMatrix(r, 50, 21);
+        DMatrix b = randomMatrix(r, 50, 18);
+        DMatrix c = randomMatrix(r, 21, 18);
+
+        DMatrix expected = c.getDuplicate();
+        for(int i = 0; i < 21; i++)
+        {
+            for(int k = 0; k < 50; k++)
+            {
+                for(int j = 0; j < 18; j++)
+                {
+                    expected.put(i, j, expected.get(i, j) + a.get(k, i) * b.get(k, j));
+                }
+            }
+        }
+
+        assertBitIdentical(expected, c.addMulTransposedLeftInPlace(a, b));
+    }
+
+    @Test
+    public void transposedProductsMatchExplicitTranspose()
+    {
+        Random r = new Random(12);
+        for(int[] size : new int[][]
+        {
+            {3, 5, 2}, {1, 30, 10}, {37, 53, 19}, {64, 300, 33}
+        })
+        {
+            DMatrix a = randomMatrix(r, size[1], size[0]);
+            DMatrix b = randomMatrix(r, size[1], size[2]);
+            assertBitIdentical(naiveProduct(a.transpose(), b), a.mulTransposedLeft(b));
+
+            DMatrix c = randomMatrix(r, size[0], size[1]);
+            DMatrix d = randomMatrix(r, size[2], size[1]);
+            assertBitIdentical(naiveProduct(c, d.transpose()), c.mulTransposedRight(d));
+        }
+    }
+
+    @Test
+    public void fusedLayerMatchesSeparateSteps()
+    {
+        DFunction logistic = (z) -> 1 / (1 + Math.exp(-z));
+        Random r = new Random(13);
+        for(int[] size : new int[][]
+        {
+            {1, 784, 30}, {3, 5, 2}, {37, 53, 19}, {9, 600, 13}, {70, 300, 530}
+        })
+        {
+            DMatrix a = randomMatrix(r, size[0], size[1]);
+            DMatrix b = randomMatrix(r, size[1], size[2]);
+            DMatrix bias = randomMatrix(r, 1, size[2]);
+
+            DMatrix z = a.matrixMul(b).addToEachRowInPlace(bias);
+            DMatrix act = z.applyFunctionElementWise(logistic);
+
+            // z and f(z) into separate destinations
+            DMatrix zDest = new DMatrix(size[0], size[2]);
+            DMatrix actDest = new DMatrix(size[0], size[2]);
+            a.matrixMulAddRowApplyInto(b, bias, logistic, zDest, actDest);
+            assertBitIdentical(z, zDest);
+            assertBitIdentical(act, actDest);
+
+            // Only f(z), and only z
+            assertBitIdentical(act, a.matrixMulAddRowApplyInto(b, bias, logistic, null, new DMatrix(size[0], size[2])));
+            DMatrix zOnly = new DMatrix(size[0], size[2]);
+            assertBitIdentical(z, a.matrixMulAddRowApplyInto(b, bias, logistic, zOnly, zOnly));
+            assertBitIdentical(z, a.matrixMulAddRowInto(b, bias, new DMatrix(size[0], size[2])));
+        }
+    }
+
+    @Test
+    public void bufferOperandsMatchHeapOperands()
+    {
+        DFunction logistic = (z) -> 1 / (1 + Math.exp(-z));
+        Random r = new Random(14);
+        for(int[] size : new int[][]
+        {
+            {1, 784, 30}, {3, 5, 2}, {37, 53, 19}, {70, 300, 530}
+        })
+        {
+            DMatrix a = randomMatrix(r, size[0], size[1]);
+            DMatrix b = randomMatrix(r, size[1], size[2]);
+            DMatrix bias = randomMatrix(r, 1, size[2]);
+
+            // Direct buffer with the operands behind some leading elements
+            DoubleBuffer buffer = ByteBuffer.allocateDirect(8 * (3 + (size[1] + 1) * size[2]))
+                    .order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+            buffer.position(3);
+            b.writeTo(buffer);
+            bias.writeTo(buffer);
+            buffer.position(3);
+            DoubleBuffer bBuffer = buffer.slice();
+            buffer.position(3 + size[1] * size[2]);
+            DoubleBuffer biasBuffer = buffer.slice();
+            buffer.position(3);
+
+            DMatrix expected = a.matrixMulAddRowApplyInto(b, bias, logistic, null, new DMatrix(size[0], size[2]));
+            assertBitIdentical(expected, a.matrixMulAddRowApplyInto(buffer, biasBuffer, logistic, new DMatrix(size[0], size[2])));
+            assertBitIdentical(expected, a.matrixMulAddRowApplyInto(bBuffer, biasBuffer, logistic, new DMatrix(size[0], size[2])));
+            assertEquals(3, buffer.position());
+            assertEquals(0, bBuffer.position());
+        }
+    }
+
+    @Test
+    public void rowViewsMatchCopies()
+    {
+        DFunction logistic = (z) -> 1 / (1 + Math.exp(-z));
+        Random r = new Random(15);
+        for(int[] size : new int[][]
+        {
+            {3, 5, 2}, {37, 53, 19}, {70, 300, 530}
+        })
+        {
+            DMatrix a = randomMatrix(r, size[0] + 4, size[1]).viewRows(3, size[0]);
+            DMatrix b = randomMatrix(r, size[1] + 2, size[2]).viewRows(1, size[1]);
+            DMatrix bias = randomMatrix(r, 3, size[2]).viewRows(2, 1);
+            DMatrix c = randomMatrix(r, size[1] + 1, size[0]).viewRows(1, size[1]);
+            DMatrix d = randomMatrix(r, size[2] + 2, size[1]).viewRows(2, size[2]);
+
+            // Destinations inside larger matrices, whose other rows must stay
+            DMatrix outer = randomMatrix(r, size[0] + 3, size[2]);
+            DMatrix outerCopy = outer.getDuplicate();
+            DMatrix dest = outer.viewRows(2, size[0]);
+
+            assertBitIdentical(a.getDuplicate().matrixMul(b.getDuplicate()), a.matrixMulInto(b, dest));
+            assertBitIdentical(c.getDuplicate().mulTransposedLeft(b.getDuplicate()), c.mulTransposedLeft(b));
+            assertBitIdentical(a.getDuplicate().mulTransposedRight(d.getDuplicate()), a.mulTransposedRight(d));
+            assertBitIdentical(a.getDuplicate().matrixMulAddRowApplyInto(b.getDuplicate(), bias.getDuplicate(), logistic, null, new DMatrix(size[0], size[2])),
+                               a.matrixMulAddRowApplyInto(b, bias, logistic, null, dest));
+            assertBitIdentical(a.getDuplicate().matrixMul(b.getDuplicate()).subInPlace(dest.getDuplicate()),
+                               a.matrixMul(b).subInPlace(dest));
+
+            assertBitIdentical(outerCopy.viewRows(0, 2), outer.viewRows(0, 2));
+            assertBitIdentical(outerCopy.viewRows(size[0] + 2, 1), outer.viewRows(size[0] + 2, 1));
+        }
+    }
+
+    @Test
+    public void rowViewsShareTheData()
+    {
+        DMatrix m = new DMatrix(4, 3);
+        DMatrix view = m.viewRows(1, 2).viewRows(1, 1);
+        view.put(0, 2, 5.0);
+        assertEquals(5.0, m.get(2, 2), 0.0);
+        m.put(2, 0, 7.0);
+        assertEquals(7.0, view.get(0, 0), 0.0);
+        assertEquals(3, view.getDuplicate().getRowAsVector(0).getLength());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void rowViewsMustBeInside()
+    {
+        new DMatrix(4, 3).viewRows(2, 3);
+    }
+
+    @Test(expected = SizeException.class)
+    public void fusedLayerRejectsWrongBias()
+    {
+        new DMatrix(4, 4).matrixMulAddRowInto(new DMatrix(4, 4), new DMatrix(1, 3), new DMatrix(4, 4));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void destinationMustNotBeAnOperand()
+    {
+        DMatrix a = new DMatrix(4, 4);
+        a.matrixMulInto(new DMatrix(4, 4), a);
+    }
+
+    /**
+     * Compares a * b with the naive i-k-j loop, which has to be
+     * bit-identical.
+     */
+    private static void checkProduct(int l, int m, int n)
+    {
+        Random r = new Random(l * 31 + m * 7 + n);
+        DMatrix a = randomMatrix(r, l, m);
+        DMatrix b = randomMatrix(r, m, n);
+
+        assertBitIdentical(naiveProduct(a, b), a.matrixMul(b));
+    }
+
+    static DMatrix naiveProduct(DMatrix a, DMatrix b)
+    {
+        DMatrix c = new DMatrix(a.getRowCount(), b.getColumnCount());
+        for(int i = 0; i < a.getRowCount(); i++)
+        {
+            for(int k = 0; k < a.getColumnCount(); k++)
+            {
+                for(int j = 0; j < b.getColumnCount(); j++)
+                {
+                    c.put(i, j, c.get(i, j) + a.get(i, k) * b.get(k, j));
+                }
+            }
+        }
+        return c;
+    }
+
+    static void assertBitIdentical(DMatrix expected, DMatrix actual)
+    {
+        assertEquals(expected.getRowCount(), actual.getRowCount());
+        assertEquals(expected.getColumnCount(), actual.getColumnCount());
+        for(int i = 0; i < expected.getRowCount(); i++)
+        {
+            for(int j = 0; j < expected.getColumnCount(); j++)
+            {
+                assertEquals("at (" + i + ", " + j + ")", expected.get(i, j), actual.get(i, j), 0.0);
+            }
+        }
+    }
+
+    static DMatrix randomMatrix(Random r, int rows, int columns)
+    {
+        DMatrix m = new DMatrix(rows, columns);
+        for(int i = 0; i < rows; i++)
+        {
+            for(int j = 0; j < columns; j++)
+            {
+                m.put(i, j, r.nextGaussian());
+            }
+        }
+        return m;
+    }
+}
@@ -0,0 +1,173 @@
+package de.mirkoruether.linalg;
+
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class FMatrixTest
+{
+    private static final DFunction LOGISTIC = (z) -> 1 / (1 + Math.exp(-z));
+
+    @Test
+    public void smallProductMatchesNaiveLoop()
+    {
+        checkProduct(3, 5, 2, null);
+        checkProduct(1, 784, 30, LOGISTIC);
+    }
+
+    @Test
+    public void blockedProductMatchesNaiveLoop()
+    {
+        // Sizes which are no multiples of the 4x4 tiles and exceed one k panel
+        checkProduct(37, 530, 19, null);
+        checkProduct(64, 100, 64, LOGISTIC);
+        checkProduct(33, 600, 10, LOGISTIC);
+    }
+
+    @Test
+    public void rowWiseFunctionIsAppliedPerRow()
+    {
+        FMatrix m = FMatrix.fromDoubleMatrix(new DMatrix(new double[][]
+        {
+            {1.0, 2.0},
+            {3.0, 5.0}
+        }));
+        m.applyFunctionRowWiseInPlace((src, srcOffset, dest, destOffset, length) ->
+        {
+            double sum = 0.0;
+            for(int i = 0; i < length; i++)
+            {
+                sum += src[srcOffset + i];
+            }
+            for(int i = 0; i < length; i++)
+            {
+                dest[destOffset + i] = src[srcOffset + i] / sum;
+            }
+        });
+
+        assertEquals(1.0f / 3.0f, m.get(0, 0), 1e-7f);
+        assertEquals(5.0f / 8.0f, m.get(1, 1), 1e-7f);
+    }
+
+    @Test
+    public void conversionRoundsToFloat()
+    {
+        DMatrix d = new DMatrix(new double[][]
+        {
+            {0.1, -1e-50, 3.0}
+        });
+        DMatrix back = FMatrix.fromDoubleMatrix(d).toDoubleMatrix();
+
+        assertEquals((double)0.1f, back.get(0, 0), 0.0);
+        assertEquals(0.0, back.get(0, 1), 0.0);
+        assertEquals(3.0, back.get(0, 2), 0.0);
+    }
+
+    @Test
+    public void weightedInputsAreKept()
+    {
+        Random r = new Random(3);
+        FMatrix a = randomMatrix(r, 6, 40);
+        FMatrix b = randomMatrix(r, 40, 9);
+        FMatrix bias = randomMatrix(r, 1, 9);
+
+        FMatrix z = a.matrixMulAddRowApplyInto(b, bias, null, new FMatrix(6, 9));
+        FMatrix keptZ = new FMatrix(6, 9);
+        FMatrix act = a.matrixMulAddRowApplyInto(b, bias, LOGISTIC, keptZ, new FMatrix(6, 9));
+
+        for(int i = 0; i < 6; i++)
+        {
+            for(int j = 0; j < 9; j++)
+            {
+                assertEquals(z.get(i, j), keptZ.get(i, j), 0.0f);
+                assertEquals((float)LOGISTIC.apply(z.get(i, j)), act.get(i, j), 0.0f);
+            }
+        }
+    }
+
+    @Test
+    public void backpropagationProductsMatchDMatrix()
+    {
+        Random r = new Random(4);
+        FMatrix a = randomMatrix(r, 21, 37);
+        FMatrix b = randomMatrix(r, 21, 13);
+        FMatrix c = randomMatrix(r, 9, 37);
+        DMatrix da = a.toDoubleMatrix();
+        DMatrix db = b.toDoubleMatrix();
+        DMatrix dc = c.toDoubleMatrix();
+
+        assertMatrixEquals(da.mulTransposedLeft(db), a.mulTransposedLeftInto(b, new FMatrix(37, 13)), 1e-4);
+        assertMatrixEquals(da.mulTransposedRight(dc), a.mulTransposedRightInto(c, new FMatrix(21, 9)), 1e-4);
+        assertMatrixEquals(da.columnSumsInto(new DMatrix(1, 37)), a.columnSumsInto(new FMatrix(1, 37)), 1e-5);
+
+        // Views of rows, e.g. the shorter last batch of an epoch
+        assertMatrixEquals(da.viewRows(4, 10).mulTransposedLeft(db.viewRows(4, 10)),
+                           a.viewRows(4, 10).mulTransposedLeftInto(b.viewRows(4, 10), new FMatrix(37, 13)), 1e-4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void destinationMustNotBeAnOperand()
+    {
+        FMatrix a = new FMatrix(2, 2);
+        a.matrixMulAddRowApplyInto(new FMatrix(2, 2), new FMatrix(1, 2), null, a);
+    }
+
+    /**
+     * Compares f(a * b + bias) with the naive i-k-j loop in float, which has
+     * to be bit-identical.
+     */
+    private static void checkProduct(int l, int m, int n, DFunction f)
+    {
+        Random r = new Random(l * 31 + m * 7 + n);
+        FMatrix a = randomMatrix(r, l, m);
+        FMatrix b = randomMatrix(r, m, n);
+        FMatrix bias = randomMatrix(r, 1, n);
+
+        FMatrix result = a.matrixMulAddRowApplyInto(b, bias, f, new FMatrix(l, n));
+
+        for(int i = 0; i < l; i++)
+        {
+            float[] row = new float[n];
+            for(int k = 0; k < m; k++)
+            {
+                for(int j = 0; j < n; j++)
+                {
+                    row[j] += a.get(i, k) * b.get(k, j);
+                }
+            }
+            for(int j = 0; j < n; j++)
+            {
+                float z = row[j] + bias.get(0, j);
+                float expected = f == null ? z : (float)f.apply(z);
+                assertEquals("at (" + i + ", " + j + ")", expected, result.get(i, j), 0.0f);
+            }
+        }
+    }
+
+    private static FMatrix randomMatrix(Random r, int rows, int columns)
+    {
+        FMatrix m = new FMatrix(rows, columns);
+        for(int i = 0; i < rows; i++)
+        {
+            for(int j = 0; j < columns; j++)
+            {
+                m.put(i, j, (float)r.nextGaussian());
+            }
+        }
+        return m;
+    }
+
+    private static void assertMatrixEquals(DMatrix expected, FMatrix actual, double delta)
+    {
+        assertEquals(expected.getRowCount(), actual.getRowCount());
+        assertEquals(expected.getColumnCount(), actual.getColumnCount());
+        for(int i = 0; i < expected.getRowCount(); i++)
+        {
+            for(int j = 0; j < expected.getColumnCount(); j++)
+            {
+                assertEquals("at (" + i + ", " + j + ")", expected.get(i, j), actual.get(i, j), delta);
+            }
+        }
+    }
+}
@@ -1,8 +1,10 @@
 package de.mirkoruether.util;
 
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
@@ -62,55 +64,62 @@ public class ParallelExecution<T, R>
         }, n);
     }
 
+    /**
+     * Splits the input into at most one contiguous chunk per processor and
+     * submits one task per chunk. Completion is tracked by a latch.
+     */
     protected static class Exec<T, R>
     {
-        private final Object notifier = new Object();
-
-        private int finished = 0;
-
         protected LinqList<R> get(List<T> in, long timeout, ExecutorService executor, Function<T, R> func)
         {
             try
             {
-                LinqList<R> result = new LinqList<>(in.size());
-                LinqList<Throwable> errors = new LinqList<>(in.size());
-
-                for(int i = 0; i < in.size(); i++)
+                int size = in.size();
+                LinqList<R> result = new LinqList<>(size);
+                LinqList<Throwable> errors = new LinqList<>(size);
+                for(int i = 0; i < size; i++)
                 {
                     result.add(null);
                     errors.add(null);
-                    final int index = i;
+                }
+
+                int chunks = Math.min(size, Runtime.getRuntime().availableProcessors());
+                CountDownLatch latch = new CountDownLatch(chunks);
+
+                for(int c = 0; c < chunks; c++)
+                {
+                    final int from = (int)((long)size * c / chunks);
+                    final int to = (int)((long)size * (c + 1) / chunks);
                     executor.execute(() ->
                     {
-                        R r = null;
-
                         try
                         {
-                            r = func.apply(in.get(index));
-                        }
-                        catch(Throwable t)
-                        {
-                            errors.set(index, t);
-                        }
-
-                        result.set(index, r);
-                        synchronized(notifier)
-                        {
-                            if(++finished == in.size())
+                            for(int i = from; i < to; i++)
                             {
-                                notifier.notifyAll();
+                                try
+                                {
+                                    result.set(i, func.apply(in.get(i)));
+                                }
+                                catch(Throwable t)
+                                {
+                                    errors.set(i, t);
+                                }
                             }
                         }
+                        finally
+                        {
+                            latch.countDown();
+                        }
                     });
                 }
 
-                synchronized(notifier)
+                if(timeout > 0)
                 {
-                    if(finished == in.size())
-                    {
-                        return doReturn(result, errors);
-                    }
-                    notifier.wait(timeout);
+                    latch.await(timeout, TimeUnit.MILLISECONDS);
+                }
+                else
+                {
+                    latch.await();
                 }
 
                 return doReturn(result, errors);
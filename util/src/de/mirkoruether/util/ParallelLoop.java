@@ -0,0 +1,153 @@
+package de.mirkoruether.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+
+/**
+ * Parallel for and map-reduce over index ranges on a persistent work stealing
+ * pool.
+ *
+ * The range [0, length) is cut into chunks of grainSize consecutive indices
+ * (the last chunk may be shorter). Chunk c covers [c * grainSize,
+ * min((c + 1) * grainSize, length)) and is handed to the body as a whole, so
+ * there is one task per chunk rather than per element. Chunks are distributed
+ * by recursively halving the chunk range; idle workers steal the larger halves.
+ * A range that fits into a single chunk runs on the calling thread without
+ * touching the pool at all.
+ *
+ * The chunk index is passed to the body, so callers can keep per chunk state
+ * (e.g. accumulators) in an array of {@link #chunkCount(int, int)} elements.
+ * The results of {@link #mapReduce} are combined in a fixed tree order that
+ * depends only on the number of chunks, never on thread scheduling.
+ */
+public class ParallelLoop
+{
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    public static ForkJoinPool getPool()
+    {
+        return POOL;
+    }
+
+    public static int getParallelism()
+    {
+        return POOL.getParallelism();
+    }
+
+    /**
+     * Grain size which cuts the given length into one chunk per worker.
+     */
+    public static int grainSizePerWorker(int length)
+    {
+        return grainSizeForChunks(length, getParallelism());
+    }
+
+    /**
+     * Smallest grain size which cuts the given length into at most the given
+     * number of chunks.
+     */
+    public static int grainSizeForChunks(int length, int chunks)
+    {
+        if(chunks <= 0)
+            throw new IllegalArgumentException("Number of chunks has to be positive.");
+
+        return Math.max(1, (length + chunks - 1) / chunks);
+    }
+
+    public static int chunkCount(int length, int grainSize)
+    {
+        assertArguments(length, grainSize);
+        return (length + grainSize - 1) / grainSize;
+    }
+
+    public static void forChunks(int length, int grainSize, ChunkAction action)
+    {
+        mapReduce(length, grainSize, (chunk, from, to) ->
+          {
+              action.run(chunk, from, to);
+              return null;
+          }, (a, b) -> null);
+    }
+
+    /**
+     * Maps every chunk and reduces the results pairwise. Returns null for an
+     * empty range.
+     */
+    public static <R> R mapReduce(int length, int grainSize, ChunkFunction<R> map, BinaryOperator<R> reduce)
+    {
+        int chunks = chunkCount(length, grainSize);
+        if(chunks == 0)
+        {
+            return null;
+        }
+        if(chunks == 1)
+        {
+            return map.apply(0, 0, length);
+        }
+        return POOL.invoke(new ChunkTask<>(length, grainSize, 0, chunks, map, reduce));
+    }
+
+    private static void assertArguments(int length, int grainSize)
+    {
+        if(length < 0)
+            throw new IllegalArgumentException("Length must not be negative.");
+        if(grainSize <= 0)
+            throw new IllegalArgumentException("Grain size has to be positive.");
+    }
+
+    @FunctionalInterface
+    public interface ChunkAction
+    {
+        public void run(int chunk, int from, int to);
+    }
+
+    @FunctionalInterface
+    public interface ChunkFunction<R>
+    {
+        public R apply(int chunk, int from, int to);
+    }
+
+    private static class ChunkTask<R> extends RecursiveTask<R>
+    {
+        private static final long serialVersionUID = -3317465380281536714L;
+
+        private final int length;
+        private final int grainSize;
+        private final int firstChunk;
+        private final int endChunk;
+        private final ChunkFunction<R> map;
+        private final BinaryOperator<R> reduce;
+
+        private ChunkTask(int length, int grainSize, int firstChunk, int endChunk, ChunkFunction<R> map, BinaryOperator<R> reduce)
+        {
+            this.length = length;
+            this.grainSize = grainSize;
+            this.firstChunk = firstChunk;
+            this.endChunk = endChunk;
+            this.map = map;
+            this.reduce = reduce;
+        }
+
+        @Override
+        protected R compute()
+        {
+            if(endChunk - firstChunk == 1)
+            {
+                int from = firstChunk * grainSize;
+                return map.apply(firstChunk, from, Math.min(from + grainSize, length));
+            }
+
+            int mid = (firstChunk + endChunk) >>> 1;
+            ChunkTask<R> left = new ChunkTask<>(length, grainSize, firstChunk, mid, map, reduce);
+            ChunkTask<R> right = new ChunkTask<>(length, grainSize, mid, endChunk, map, reduce);
+            left.fork();
+            R rightResult = right.compute();
+            return reduce.apply(left.join(), rightResult);
+        }
+    }
+
+    private ParallelLoop()
+    {
+    }
+}
@@ -1,8 +1,15 @@
 package de.mirkoruether.util;
 
 import java.util.Arrays;
-import java.util.Random;
+import java.util.List;
+import java.util.SplittableRandom;
 
+/**
+ * Shuffling by the Fisher-Yates algorithm: O(n) time, no allocations and
+ * every permutation is equally likely. The methods without a random number
+ * generator use a new unseeded one; pass a seeded {@link SplittableRandom}
+ * for reproducible results.
+ */
 public class Randomizer
 {
     private Randomizer()
@@ -16,18 +23,15 @@ public class Randomizer
 
     public static <T> LinqList<T> shuffleInPlace(LinqList<T> in)
     {
-        Random r = new Random();
-        LinqList<ShuffleBox<T>> randList = new LinqList<>(in.size());
-
-        for(T obj : in)
-        {
-            randList.add(new ShuffleBox<>(obj, r));
-        }
-        randList.sort(null);
+        return shuffleInPlace(in, new SplittableRandom());
+    }
 
-        for(int i = 0; i < in.size(); i++)
+    public static <T, L extends List<T>> L shuffleInPlace(L in, SplittableRandom r)
+    {
+        for(int i = in.size() - 1; i > 0; i--)
         {
-            in.set(i, randList.get(i).getContent());
+            int j = r.nextInt(i + 1);
+            in.set(j, in.set(i, in.get(j)));
         }
         return in;
     }
@@ -39,47 +43,46 @@ public class Randomizer
 
     public static <T> T[] shuffleArrInPlace(T[] in)
     {
-        Random r = new Random();
-        LinqList<ShuffleBox<T>> randList = new LinqList<>(in.length);
-
-        for(T obj : in)
-        {
-            randList.add(new ShuffleBox<>(obj, r));
-        }
-        randList.sort(null);
+        return shuffleArrInPlace(in, new SplittableRandom());
+    }
 
-        for(int i = 0; i < in.length; i++)
+    public static <T> T[] shuffleArrInPlace(T[] in, SplittableRandom r)
+    {
+        for(int i = in.length - 1; i > 0; i--)
         {
-            in[i] = randList.get(i).getContent();
+            int j = r.nextInt(i + 1);
+            T tmp = in[i];
+            in[i] = in[j];
+            in[j] = tmp;
         }
         return in;
     }
 
-    private static class ShuffleBox<T> implements Comparable<ShuffleBox<?>>
+    public static int[] shuffleArrInPlace(int[] in, SplittableRandom r)
     {
-        private final int weight;
-        private final T content;
-
-        private ShuffleBox(T content, Random rand)
-        {
-            this.content = content;
-            this.weight = rand.nextInt();
-        }
-
-        @Override
-        public int compareTo(ShuffleBox<?> o)
-        {
-            return getWeight() > o.getWeight() ? 1 : -1;
-        }
-
-        public T getContent()
+        for(int i = in.length - 1; i > 0; i--)
         {
-            return content;
+            int j = r.nextInt(i + 1);
+            int tmp = in[i];
+            in[i] = in[j];
+            in[j] = tmp;
         }
+        return in;
+    }
 
-        public int getWeight()
+    /**
+     * Creates a random permutation of the indices 0 to n - 1.
+     * @param n Length
+     * @param r Random number generator
+     * @return Permutation
+     */
+    public static int[] permutation(int n, SplittableRandom r)
+    {
+        int[] result = new int[n];
+        for(int i = 0; i < n; i++)
         {
-            return weight;
+            result[i] = i;
         }
+        return shuffleArrInPlace(result, r);
     }
 }